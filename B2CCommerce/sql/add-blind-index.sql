@@ -0,0 +1,7 @@
+ALTER TABLE DCSPP_CREDIT_CARD ADD (CREDIT_CARD_NUMBER_IDX VARCHAR2(44));
+
+CREATE INDEX DCSPP_CREDIT_CARD_NUM_IDX ON DCSPP_CREDIT_CARD (CREDIT_CARD_NUMBER_IDX);
+
+ALTER TABLE DPS_CREDIT_CARD ADD (CREDIT_CARD_NUMBER_IDX VARCHAR2(44));
+
+CREATE INDEX DPS_CREDIT_CARD_NUM_IDX ON DPS_CREDIT_CARD (CREDIT_CARD_NUMBER_IDX);
@@ -0,0 +1,3 @@
+ALTER TABLE DCSPP_CREDIT_CARD ADD (CREDIT_CARD_LAST_FOUR VARCHAR2(4), CREDIT_CARD_BIN VARCHAR2(8), CREDIT_CARD_MASKED VARCHAR2(32));
+
+ALTER TABLE DPS_CREDIT_CARD ADD (CREDIT_CARD_LAST_FOUR VARCHAR2(4), CREDIT_CARD_BIN VARCHAR2(8), CREDIT_CARD_MASKED VARCHAR2(32));
@@ -0,0 +1,58 @@
+/*
+ * Please read the README.md and LICENSE.md files contained in this repository or module.
+ *
+ * Please contact sales@sparkred.com or support@sparkred.com if you have any questions.
+ *
+ * This code is copyright Spark::red https://www.sparkred.com 2007-2016, all right reserved.
+ */
+package com.sparkred.crypto.benchmark;
+
+import atg.nucleus.Nucleus;
+import atg.nucleus.ServiceException;
+import atg.service.scheduler.Scheduler;
+
+import com.sparkred.crypto.CryptoEngine;
+
+/**
+ * The Class BenchmarkSupport sets up started crypto engines without an ATG server, using the in-memory repository and
+ * the Nucleus stand-in.
+ */
+public final class BenchmarkSupport {
+
+	/** A typical card number. */
+	public static final String CARD_NUMBER = "4111111111111111";
+
+	/** The key passphrase of the benchmark engines. */
+	public static final String KEY_PASSPHRASE = "benchmark-key-passphrase";
+
+	/**
+	 * Instantiates a new benchmark support. This is a static utility class.
+	 */
+	private BenchmarkSupport() {
+	}
+
+	/**
+	 * Creates and starts a crypto engine, and registers it with the Nucleus stand-in under the passed in name.
+	 *
+	 * @param pNucleusName
+	 *            the Nucleus name
+	 * @param pCipherMode
+	 *            the cipher mode
+	 * @return the started engine
+	 * @throws ServiceException
+	 *             if the engine does not start
+	 */
+	public static CryptoEngine startEngine(String pNucleusName, String pCipherMode) throws ServiceException {
+		CryptoEngine engine = new CryptoEngine();
+		engine.setCryptoRepository(new InMemoryCryptoRepository());
+		engine.setCryptoEngineIdentifier("benchmark");
+		engine.setCryptoEngineDescription("Benchmark Encryptor");
+		engine.setKeyPassphrase(KEY_PASSPHRASE);
+		engine.setCipherMode(pCipherMode);
+		engine.setScheduler(new Scheduler());
+		engine.startService();
+		Nucleus.getGlobalNucleus().addComponent(pNucleusName, engine);
+		return engine;
+	}
+
+}
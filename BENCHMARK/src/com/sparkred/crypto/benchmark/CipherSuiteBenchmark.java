@@ -0,0 +1,109 @@
+/*
+ * Please read the README.md and LICENSE.md files contained in this repository or module.
+ *
+ * Please contact sales@sparkred.com or support@sparkred.com if you have any questions.
+ *
+ * This code is copyright Spark::red https://www.sparkred.com 2007-2016, all right reserved.
+ */
+package com.sparkred.crypto.benchmark;
+
+import java.io.UnsupportedEncodingException;
+import java.util.concurrent.TimeUnit;
+
+import org.jasypt.encryption.pbe.StandardPBEStringEncryptor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sparkred.crypto.CipherSuite;
+import com.sparkred.crypto.CryptoConstants;
+import com.sparkred.crypto.CryptoProviders;
+import com.sparkred.crypto.DerivedKeyCipher;
+
+/**
+ * The Class CipherSuiteBenchmark measures the encrypt and decrypt of a card number by the cipher of each cipher suite
+ * alone, on one thread, without the key ring, cipher pool and metrics of the engine.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CipherSuiteBenchmark {
+
+	/** The data passphrase. */
+	private static final String DATA_PASSPHRASE = "benchmark-data-passphrase";
+
+	/** The cipher mode of the suite. */
+	@Param({ "pbe", "derivedKey", "gcm" })
+	private String mCipherMode;
+
+	/** The jasypt encryptor of the pbe suite. */
+	private StandardPBEStringEncryptor mEncryptor;
+
+	/** The derived key cipher of the other suites. */
+	private DerivedKeyCipher mDerivedKeyCipher;
+
+	/** The encrypted card number. */
+	private String mEncryptedText;
+
+	/**
+	 * Creates the cipher of the suite.
+	 *
+	 * @throws UnsupportedEncodingException
+	 *             if UTF-8 is not supported
+	 */
+	@Setup
+	public void setUp() throws UnsupportedEncodingException {
+		CryptoProviders.registerBouncyCastle();
+		CipherSuite suite = CipherSuite.forCipherMode(this.mCipherMode);
+		if (suite.isDerivedKey()) {
+			String salt = (suite == CipherSuite.AES_GCM ? CryptoConstants.GCM_SALT_PREFIX
+					: CryptoConstants.DERIVED_KEY_SALT_PREFIX) + "benchmark";
+			this.mDerivedKeyCipher = new DerivedKeyCipher(suite, DATA_PASSPHRASE, salt.getBytes("UTF-8"),
+					CryptoConstants.DEFAULT_KEY_DERIVATION_ITERATIONS);
+		} else {
+			this.mEncryptor = new StandardPBEStringEncryptor();
+			this.mEncryptor.setProviderName(CryptoConstants.BOUNCY_CASTLE_PROVIDER_NAME);
+			this.mEncryptor.setAlgorithm(CryptoConstants.STRONG_ALGO);
+			this.mEncryptor.setPassword(DATA_PASSPHRASE);
+		}
+		this.mEncryptedText = encrypt();
+	}
+
+	/**
+	 * Encrypt.
+	 *
+	 * @return the encrypted text
+	 */
+	@Benchmark
+	public String encrypt() {
+		if (this.mDerivedKeyCipher != null) {
+			return this.mDerivedKeyCipher.encrypt(BenchmarkSupport.CARD_NUMBER);
+		}
+		return this.mEncryptor.encrypt(BenchmarkSupport.CARD_NUMBER);
+	}
+
+	/**
+	 * Decrypt.
+	 *
+	 * @return the plain text
+	 */
+	@Benchmark
+	public String decrypt() {
+		if (this.mDerivedKeyCipher != null) {
+			return this.mDerivedKeyCipher.decrypt(this.mEncryptedText);
+		}
+		return this.mEncryptor.decrypt(this.mEncryptedText);
+	}
+
+}
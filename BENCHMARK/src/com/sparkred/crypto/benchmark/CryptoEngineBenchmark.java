@@ -0,0 +1,119 @@
+/*
+ * Please read the README.md and LICENSE.md files contained in this repository or module.
+ *
+ * Please contact sales@sparkred.com or support@sparkred.com if you have any questions.
+ *
+ * This code is copyright Spark::red https://www.sparkred.com 2007-2016, all right reserved.
+ */
+package com.sparkred.crypto.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import atg.nucleus.ServiceException;
+
+import com.sparkred.crypto.CryptoEngine;
+
+/**
+ * The Class CryptoEngineBenchmark measures CryptoEngine.encrypt and decrypt of a card number on one thread and on as
+ * many threads as there are processors, for every cipher mode.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CryptoEngineBenchmark {
+
+	/** The cipher mode. */
+	@Param({ "pbe", "derivedKey", "gcm" })
+	private String mCipherMode;
+
+	/** The engine. */
+	private CryptoEngine mEngine;
+
+	/** The encrypted card number. */
+	private String mEncryptedText;
+
+	/**
+	 * Starts the engine.
+	 *
+	 * @throws ServiceException
+	 *             if the engine does not start
+	 */
+	@Setup
+	public void setUp() throws ServiceException {
+		this.mEngine = BenchmarkSupport.startEngine("/sparkred/crypto/BenchmarkCryptoEngine", this.mCipherMode);
+		this.mEncryptedText = this.mEngine.encrypt(BenchmarkSupport.CARD_NUMBER);
+	}
+
+	/**
+	 * Stops the engine.
+	 *
+	 * @throws ServiceException
+	 *             if the engine does not stop
+	 */
+	@TearDown
+	public void tearDown() throws ServiceException {
+		this.mEngine.stopService();
+	}
+
+	/**
+	 * Encrypt on one thread.
+	 *
+	 * @return the encrypted text
+	 */
+	@Benchmark
+	@Threads(1)
+	public String encrypt() {
+		return this.mEngine.encrypt(BenchmarkSupport.CARD_NUMBER);
+	}
+
+	/**
+	 * Decrypt on one thread.
+	 *
+	 * @return the plain text
+	 */
+	@Benchmark
+	@Threads(1)
+	public String decrypt() {
+		return this.mEngine.decrypt(this.mEncryptedText);
+	}
+
+	/**
+	 * Encrypt on every processor.
+	 *
+	 * @return the encrypted text
+	 */
+	@Benchmark
+	@Threads(Threads.MAX)
+	public String encryptAllThreads() {
+		return this.mEngine.encrypt(BenchmarkSupport.CARD_NUMBER);
+	}
+
+	/**
+	 * Decrypt on every processor.
+	 *
+	 * @return the plain text
+	 */
+	@Benchmark
+	@Threads(Threads.MAX)
+	public String decryptAllThreads() {
+		return this.mEngine.decrypt(this.mEncryptedText);
+	}
+
+}
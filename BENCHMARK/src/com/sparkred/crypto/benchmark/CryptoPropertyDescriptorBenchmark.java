@@ -0,0 +1,124 @@
+/*
+ * Please read the README.md and LICENSE.md files contained in this repository or module.
+ *
+ * Please contact sales@sparkred.com or support@sparkred.com if you have any questions.
+ *
+ * This code is copyright Spark::red https://www.sparkred.com 2007-2016, all right reserved.
+ */
+package com.sparkred.crypto.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import atg.nucleus.ServiceException;
+import atg.repository.RepositoryItemImpl;
+
+import com.sparkred.crypto.CryptoEngine;
+import com.sparkred.crypto.CryptoPropertyDescriptor;
+
+/**
+ * The Class CryptoPropertyDescriptorBenchmark measures reading and writing an encrypted creditCardNumber property
+ * through the CryptoPropertyDescriptor, including the engine lookup, for every cipher mode.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CryptoPropertyDescriptorBenchmark {
+
+	/** The Nucleus name of the engine. */
+	private static final String ENGINE_NAME = "/sparkred/crypto/BenchmarkCryptoEngine";
+
+	/** The cipher mode. */
+	@Param({ "pbe", "derivedKey", "gcm" })
+	private String mCipherMode;
+
+	/** The engine. */
+	private CryptoEngine mEngine;
+
+	/** The property descriptor. */
+	private CryptoPropertyDescriptor mDescriptor;
+
+	/** The item. */
+	private RepositoryItemImpl mItem;
+
+	/** The encrypted card number. */
+	private String mEncryptedText;
+
+	/**
+	 * Starts the engine and configures the descriptor the way the repository XML does.
+	 *
+	 * @throws ServiceException
+	 *             if the engine does not start
+	 */
+	@Setup
+	public void setUp() throws ServiceException {
+		this.mEngine = BenchmarkSupport.startEngine(ENGINE_NAME, this.mCipherMode);
+		InMemoryCryptoRepository repository = new InMemoryCryptoRepository();
+		this.mDescriptor = new CryptoPropertyDescriptor();
+		this.mDescriptor.setName("creditCardNumber");
+		this.mDescriptor.setItemDescriptor(repository.getItemDescriptor("creditCard"));
+		this.mDescriptor.setValue("cryptoEngine", ENGINE_NAME);
+		this.mDescriptor.setValue("encryptOnly", "false");
+		this.mItem = new RepositoryItemImpl("pg100001", repository.getItemDescriptor("creditCard"));
+		this.mEncryptedText = this.mEngine.encrypt(BenchmarkSupport.CARD_NUMBER);
+	}
+
+	/**
+	 * Stops the engine.
+	 *
+	 * @throws ServiceException
+	 *             if the engine does not stop
+	 */
+	@TearDown
+	public void tearDown() throws ServiceException {
+		this.mEngine.stopService();
+	}
+
+	/**
+	 * Reads the property.
+	 *
+	 * @return the plain text
+	 */
+	@Benchmark
+	public Object getPropertyValue() {
+		return this.mDescriptor.getPropertyValue(this.mItem, this.mEncryptedText);
+	}
+
+	/**
+	 * Writes the property.
+	 *
+	 * @return the item
+	 */
+	@Benchmark
+	public Object setPropertyValue() {
+		this.mDescriptor.setPropertyValue(this.mItem, BenchmarkSupport.CARD_NUMBER);
+		return this.mItem;
+	}
+
+	/**
+	 * Writes the property and reads the stored value back.
+	 *
+	 * @return the plain text
+	 */
+	@Benchmark
+	public Object roundTrip() {
+		this.mDescriptor.setPropertyValue(this.mItem, BenchmarkSupport.CARD_NUMBER);
+		return this.mDescriptor.getPropertyValue(this.mItem, this.mItem.getPropertyValue("creditCardNumber"));
+	}
+
+}
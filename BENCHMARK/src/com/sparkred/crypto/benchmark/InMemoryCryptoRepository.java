@@ -0,0 +1,190 @@
+/*
+ * Please read the README.md and LICENSE.md files contained in this repository or module.
+ *
+ * Please contact sales@sparkred.com or support@sparkred.com if you have any questions.
+ *
+ * This code is copyright Spark::red https://www.sparkred.com 2007-2016, all right reserved.
+ */
+package com.sparkred.crypto.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import atg.repository.MutableRepository;
+import atg.repository.MutableRepositoryItem;
+import atg.repository.Query;
+import atg.repository.QueryBuilder;
+import atg.repository.QueryExpression;
+import atg.repository.RepositoryException;
+import atg.repository.RepositoryImpl;
+import atg.repository.RepositoryItem;
+import atg.repository.RepositoryItemDescriptor;
+import atg.repository.RepositoryItemImpl;
+import atg.repository.RepositoryView;
+
+/**
+ * The Class InMemoryCryptoRepository stands in for the CryptoRepository and the order repository in the benchmarks.
+ * Items are kept in a map by item descriptor name and id.
+ */
+public class InMemoryCryptoRepository extends RepositoryImpl implements MutableRepository {
+
+	/** The items, keyed by item descriptor name and id. */
+	private final Map<String, MutableRepositoryItem> mItems = new ConcurrentHashMap<String, MutableRepositoryItem>();
+
+	/**
+	 * Gets the repository name.
+	 *
+	 * @return the repository name
+	 * @see atg.repository.Repository#getRepositoryName()
+	 */
+	public String getRepositoryName() {
+		return "InMemoryCryptoRepository";
+	}
+
+	/**
+	 * Creates an item descriptor of this repository.
+	 *
+	 * @param pDescriptorName
+	 *            the descriptor name
+	 * @return the item descriptor
+	 */
+	public RepositoryItemDescriptor getItemDescriptor(final String pDescriptorName) {
+		final InMemoryCryptoRepository repository = this;
+		return new RepositoryItemDescriptor() {
+
+			public String getItemDescriptorName() {
+				return pDescriptorName;
+			}
+
+			public InMemoryCryptoRepository getRepository() {
+				return repository;
+			}
+		};
+	}
+
+	/**
+	 * Gets an item.
+	 *
+	 * @param pId
+	 *            the id
+	 * @param pDescriptorName
+	 *            the descriptor name
+	 * @return the item, or null
+	 * @see atg.repository.Repository#getItem(java.lang.String, java.lang.String)
+	 */
+	public RepositoryItem getItem(String pId, String pDescriptorName) {
+		return this.mItems.get(pDescriptorName + ":" + pId);
+	}
+
+	/**
+	 * Gets the view of an item descriptor. Only unconstrained queries, which return every item, are supported.
+	 *
+	 * @param pViewName
+	 *            the item descriptor name
+	 * @return the view
+	 * @see atg.repository.Repository#getView(java.lang.String)
+	 */
+	public RepositoryView getView(final String pViewName) {
+		final Query all = new Query() {
+		};
+		final QueryBuilder queryBuilder = new QueryBuilder() {
+
+			public Query createUnconstrainedQuery() {
+				return all;
+			}
+
+			public Query createOrQuery(Query[] pQueries) throws RepositoryException {
+				throw new RepositoryException("Only unconstrained queries are supported.");
+			}
+
+			public Query createComparisonQuery(QueryExpression pLeft, QueryExpression pRight, int pOperation)
+					throws RepositoryException {
+				throw new RepositoryException("Only unconstrained queries are supported.");
+			}
+
+			public QueryExpression createPropertyQueryExpression(String pPropertyName) throws RepositoryException {
+				throw new RepositoryException("Only unconstrained queries are supported.");
+			}
+
+			public QueryExpression createConstantQueryExpression(Object pValue) throws RepositoryException {
+				throw new RepositoryException("Only unconstrained queries are supported.");
+			}
+		};
+		final Map<String, MutableRepositoryItem> items = this.mItems;
+		return new RepositoryView() {
+
+			public QueryBuilder getQueryBuilder() {
+				return queryBuilder;
+			}
+
+			public RepositoryItem[] executeQuery(Query pQuery) throws RepositoryException {
+				if (pQuery != all) {
+					throw new RepositoryException("Only unconstrained queries are supported.");
+				}
+				List<RepositoryItem> matches = new ArrayList<RepositoryItem>();
+				for (Map.Entry<String, MutableRepositoryItem> entry : items.entrySet()) {
+					if (entry.getKey().startsWith(pViewName + ":")) {
+						matches.add(entry.getValue());
+					}
+				}
+				return matches.isEmpty() ? null : matches.toArray(new RepositoryItem[matches.size()]);
+			}
+		};
+	}
+
+	/**
+	 * Creates an item, which is not stored until it is added.
+	 *
+	 * @param pId
+	 *            the id
+	 * @param pDescriptorName
+	 *            the descriptor name
+	 * @return the new item
+	 * @see atg.repository.MutableRepository#createItem(java.lang.String, java.lang.String)
+	 */
+	public MutableRepositoryItem createItem(String pId, String pDescriptorName) {
+		return new RepositoryItemImpl(pId, getItemDescriptor(pDescriptorName));
+	}
+
+	/**
+	 * Adds an item.
+	 *
+	 * @param pItem
+	 *            the item
+	 * @return the item
+	 * @throws RepositoryException
+	 *             never
+	 * @see atg.repository.MutableRepository#addItem(atg.repository.MutableRepositoryItem)
+	 */
+	public RepositoryItem addItem(MutableRepositoryItem pItem) throws RepositoryException {
+		this.mItems.put(pItem.getItemDescriptor().getItemDescriptorName() + ":" + pItem.getRepositoryId(), pItem);
+		return pItem;
+	}
+
+	/**
+	 * Gets an item for update.
+	 *
+	 * @param pId
+	 *            the id
+	 * @param pDescriptorName
+	 *            the descriptor name
+	 * @return the item, or null
+	 * @see atg.repository.MutableRepository#getItemForUpdate(java.lang.String, java.lang.String)
+	 */
+	public MutableRepositoryItem getItemForUpdate(String pId, String pDescriptorName) {
+		return this.mItems.get(pDescriptorName + ":" + pId);
+	}
+
+	/**
+	 * Updates an item. Items are updated in place, so there is nothing to do.
+	 *
+	 * @param pItem
+	 *            the item
+	 * @see atg.repository.MutableRepository#updateItem(atg.repository.MutableRepositoryItem)
+	 */
+	public void updateItem(MutableRepositoryItem pItem) {
+	}
+
+}
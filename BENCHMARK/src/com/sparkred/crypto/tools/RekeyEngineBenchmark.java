@@ -0,0 +1,103 @@
+/*
+ * Please read the README.md and LICENSE.md files contained in this repository or module.
+ *
+ * Please contact sales@sparkred.com or support@sparkred.com if you have any questions.
+ *
+ * This code is copyright Spark::red https://www.sparkred.com 2007-2016, all right reserved.
+ */
+package com.sparkred.crypto.tools;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sparkred.crypto.CryptoEngine;
+import com.sparkred.crypto.benchmark.BenchmarkSupport;
+
+/**
+ * The Class RekeyEngineBenchmark measures the per row work of RekeyEngine.reKey: the reflective decrypt with the
+ * configured decryptor component followed by the encrypt with the new data passphrase. The JDBC select and update
+ * are not part of it. It lives in the tools package to reach the package private RekeyEngine methods.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RekeyEngineBenchmark {
+
+	/** The number of distinct rows cycled through. */
+	private static final int ROWS = 1024;
+
+	/** The cipher mode of the engine being rekeyed. */
+	@Param({ "pbe", "derivedKey", "gcm" })
+	private String mCipherMode;
+
+	/** The engine. */
+	private CryptoEngine mEngine;
+
+	/** The rekey engine. */
+	private RekeyEngine mRekeyEngine;
+
+	/** The encrypted rows. */
+	private String[] mRows;
+
+	/** The next row. */
+	private int mNextRow;
+
+	/**
+	 * Starts the engine and initializes the rekey engine the way reKey does.
+	 *
+	 * @throws Exception
+	 *             if the setup fails
+	 */
+	@Setup
+	public void setUp() throws Exception {
+		this.mEngine = BenchmarkSupport.startEngine("/sparkred/crypto/BenchmarkCryptoEngine", this.mCipherMode);
+		this.mRekeyEngine = new RekeyEngine();
+		this.mRekeyEngine.setDecryptorComponent(this.mEngine);
+		this.mRekeyEngine.setDecryptorMethod("decrypt");
+		this.mRekeyEngine.setEngineToUpdate(this.mEngine);
+		this.mRekeyEngine.setNewKeyPassphrase(BenchmarkSupport.KEY_PASSPHRASE);
+		this.mRekeyEngine.initialize();
+		this.mRows = new String[ROWS];
+		for (int i = 0; i < ROWS; i++) {
+			this.mRows[i] = this.mEngine.encrypt(String.valueOf(4111111111111111L + i));
+		}
+	}
+
+	/**
+	 * Stops the engine.
+	 *
+	 * @throws Exception
+	 *             if the engine does not stop
+	 */
+	@TearDown
+	public void tearDown() throws Exception {
+		this.mEngine.stopService();
+	}
+
+	/**
+	 * Re-encrypts one row.
+	 *
+	 * @return the re-encrypted value
+	 */
+	@Benchmark
+	public String reEncryptRow() {
+		this.mNextRow = (this.mNextRow + 1) % ROWS;
+		return this.mRekeyEngine.reEncrypt(this.mRows[this.mNextRow]);
+	}
+
+}
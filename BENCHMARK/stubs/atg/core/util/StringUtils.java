@@ -0,0 +1,22 @@
+/*
+ * Please read the README.md and LICENSE.md files contained in this repository or module.
+ *
+ * Please contact sales@sparkred.com or support@sparkred.com if you have any questions.
+ *
+ * This code is copyright Spark::red https://www.sparkred.com 2007-2016, all right reserved.
+ */
+package atg.core.util;
+
+/**
+ * Benchmark stand-in for the ATG class of the same name.
+ */
+public class StringUtils {
+
+	public static boolean isBlank(String pString) {
+		return pString == null || pString.trim().length() == 0;
+	}
+
+	public static boolean isEmpty(String pString) {
+		return pString == null || pString.length() == 0;
+	}
+}
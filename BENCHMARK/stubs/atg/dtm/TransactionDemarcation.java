@@ -0,0 +1,28 @@
+/*
+ * Please read the README.md and LICENSE.md files contained in this repository or module.
+ *
+ * Please contact sales@sparkred.com or support@sparkred.com if you have any questions.
+ *
+ * This code is copyright Spark::red https://www.sparkred.com 2007-2016, all right reserved.
+ */
+package atg.dtm;
+
+import javax.transaction.TransactionManager;
+
+/**
+ * Benchmark stand-in for the ATG class of the same name. Transactions are not demarcated.
+ */
+public class TransactionDemarcation {
+
+	public static final int REQUIRED = 1;
+
+	public static final int REQUIRES_NEW = 2;
+
+	public void begin(TransactionManager pTransactionManager, int pTransactionAttribute)
+			throws TransactionDemarcationException {
+	}
+
+	public int end(boolean pRollback) throws TransactionDemarcationException {
+		return 0;
+	}
+}
@@ -0,0 +1,113 @@
+/*
+ * Please read the README.md and LICENSE.md files contained in this repository or module.
+ *
+ * Please contact sales@sparkred.com or support@sparkred.com if you have any questions.
+ *
+ * This code is copyright Spark::red https://www.sparkred.com 2007-2016, all right reserved.
+ */
+package atg.nucleus;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import atg.nucleus.logging.LogListener;
+
+/**
+ * Benchmark stand-in for the ATG class of the same name. Logging is off, except for errors which go to stderr, so the
+ * benchmarks measure the code and not the logging.
+ */
+public class GenericService {
+
+	private volatile boolean mRunning;
+
+	private boolean mLoggingDebug;
+
+	private final List<LogListener> mLogListeners = new ArrayList<LogListener>();
+
+	public void doStartService() throws ServiceException {
+	}
+
+	public void doStopService() throws ServiceException {
+	}
+
+	public void startService() throws ServiceException {
+		doStartService();
+		mRunning = true;
+	}
+
+	public void stopService() throws ServiceException {
+		mRunning = false;
+		doStopService();
+	}
+
+	public boolean isRunning() {
+		return mRunning;
+	}
+
+	public String getAbsoluteName() {
+		return getClass().getName();
+	}
+
+	public boolean isLoggingError() {
+		return true;
+	}
+
+	public boolean isLoggingWarning() {
+		return false;
+	}
+
+	public boolean isLoggingInfo() {
+		return false;
+	}
+
+	public boolean isLoggingDebug() {
+		return mLoggingDebug;
+	}
+
+	public void setLoggingDebug(boolean pLoggingDebug) {
+		mLoggingDebug = pLoggingDebug;
+	}
+
+	public void setLoggingError(boolean pLoggingError) {
+	}
+
+	public void setLoggingWarning(boolean pLoggingWarning) {
+	}
+
+	public void setLoggingInfo(boolean pLoggingInfo) {
+	}
+
+	public LogListener[] getLogListeners() {
+		return mLogListeners.toArray(new LogListener[mLogListeners.size()]);
+	}
+
+	public void addLogListener(LogListener pListener) {
+		mLogListeners.add(pListener);
+	}
+
+	public void logError(String pMessage) {
+		logError(pMessage, null);
+	}
+
+	public void logError(String pMessage, Throwable pThrowable) {
+		System.err.println("**** Error " + getAbsoluteName() + " " + pMessage);
+		if (pThrowable != null) {
+			pThrowable.printStackTrace();
+		}
+	}
+
+	public void logWarning(String pMessage) {
+	}
+
+	public void logWarning(String pMessage, Throwable pThrowable) {
+	}
+
+	public void logInfo(String pMessage) {
+	}
+
+	public void logDebug(String pMessage) {
+	}
+
+	public void logDebug(String pMessage, Throwable pThrowable) {
+	}
+}
@@ -0,0 +1,34 @@
+/*
+ * Please read the README.md and LICENSE.md files contained in this repository or module.
+ *
+ * Please contact sales@sparkred.com or support@sparkred.com if you have any questions.
+ *
+ * This code is copyright Spark::red https://www.sparkred.com 2007-2016, all right reserved.
+ */
+package atg.nucleus;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Benchmark stand-in for the ATG class of the same name. Components are registered by the benchmark setup code with
+ * {@link #addComponent(String, Object)} instead of being created from properties files.
+ */
+public class Nucleus extends GenericService {
+
+	private static final Nucleus GLOBAL_NUCLEUS = new Nucleus();
+
+	private final Map<String, Object> mComponents = new ConcurrentHashMap<String, Object>();
+
+	public static Nucleus getGlobalNucleus() {
+		return GLOBAL_NUCLEUS;
+	}
+
+	public Object resolveName(String pName) {
+		return pName == null ? null : mComponents.get(pName);
+	}
+
+	public void addComponent(String pName, Object pComponent) {
+		mComponents.put(pName, pComponent);
+	}
+}
@@ -0,0 +1,22 @@
+/*
+ * Please read the README.md and LICENSE.md files contained in this repository or module.
+ *
+ * Please contact sales@sparkred.com or support@sparkred.com if you have any questions.
+ *
+ * This code is copyright Spark::red https://www.sparkred.com 2007-2016, all right reserved.
+ */
+package atg.repository;
+
+/**
+ * Benchmark stand-in for the ATG interface of the same name.
+ */
+public interface MutableRepository extends Repository {
+
+	MutableRepositoryItem createItem(String pId, String pDescriptorName) throws RepositoryException;
+
+	RepositoryItem addItem(MutableRepositoryItem pItem) throws RepositoryException;
+
+	MutableRepositoryItem getItemForUpdate(String pId, String pDescriptorName) throws RepositoryException;
+
+	void updateItem(MutableRepositoryItem pItem) throws RepositoryException;
+}
@@ -0,0 +1,27 @@
+/*
+ * Please read the README.md and LICENSE.md files contained in this repository or module.
+ *
+ * Please contact sales@sparkred.com or support@sparkred.com if you have any questions.
+ *
+ * This code is copyright Spark::red https://www.sparkred.com 2007-2016, all right reserved.
+ */
+package atg.repository;
+
+/**
+ * Benchmark stand-in for the ATG interface of the same name.
+ */
+public interface QueryBuilder {
+
+	int EQUALS = 0;
+
+	Query createComparisonQuery(QueryExpression pLeft, QueryExpression pRight, int pOperation)
+			throws RepositoryException;
+
+	Query createUnconstrainedQuery() throws RepositoryException;
+
+	Query createOrQuery(Query[] pQueries) throws RepositoryException;
+
+	QueryExpression createPropertyQueryExpression(String pPropertyName) throws RepositoryException;
+
+	QueryExpression createConstantQueryExpression(Object pValue) throws RepositoryException;
+}
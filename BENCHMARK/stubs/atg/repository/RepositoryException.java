@@ -0,0 +1,28 @@
+/*
+ * Please read the README.md and LICENSE.md files contained in this repository or module.
+ *
+ * Please contact sales@sparkred.com or support@sparkred.com if you have any questions.
+ *
+ * This code is copyright Spark::red https://www.sparkred.com 2007-2016, all right reserved.
+ */
+package atg.repository;
+
+/**
+ * Benchmark stand-in for the ATG class of the same name.
+ */
+public class RepositoryException extends Exception {
+
+	private static final long serialVersionUID = 1L;
+
+	public RepositoryException() {
+		super();
+	}
+
+	public RepositoryException(String pMessage) {
+		super(pMessage);
+	}
+
+	public RepositoryException(String pMessage, Throwable pCause) {
+		super(pMessage, pCause);
+	}
+}
@@ -0,0 +1,28 @@
+/*
+ * Please read the README.md and LICENSE.md files contained in this repository or module.
+ *
+ * Please contact sales@sparkred.com or support@sparkred.com if you have any questions.
+ *
+ * This code is copyright Spark::red https://www.sparkred.com 2007-2016, all right reserved.
+ */
+package atg.repository;
+
+import javax.transaction.TransactionManager;
+
+import atg.nucleus.GenericService;
+
+/**
+ * Benchmark stand-in for the ATG class of the same name.
+ */
+public abstract class RepositoryImpl extends GenericService implements Repository {
+
+	private TransactionManager mTransactionManager;
+
+	public TransactionManager getTransactionManager() {
+		return mTransactionManager;
+	}
+
+	public void setTransactionManager(TransactionManager pTransactionManager) {
+		mTransactionManager = pTransactionManager;
+	}
+}
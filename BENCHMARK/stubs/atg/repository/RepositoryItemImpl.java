@@ -0,0 +1,46 @@
+/*
+ * Please read the README.md and LICENSE.md files contained in this repository or module.
+ *
+ * Please contact sales@sparkred.com or support@sparkred.com if you have any questions.
+ *
+ * This code is copyright Spark::red https://www.sparkred.com 2007-2016, all right reserved.
+ */
+package atg.repository;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Benchmark stand-in for the ATG class of the same name, keeping the raw property values in a map.
+ */
+public class RepositoryItemImpl implements MutableRepositoryItem {
+
+	public static final Object NULL_OBJECT = new Object();
+
+	private final String mRepositoryId;
+
+	private final RepositoryItemDescriptor mItemDescriptor;
+
+	private final Map<String, Object> mValues = new HashMap<String, Object>();
+
+	public RepositoryItemImpl(String pRepositoryId, RepositoryItemDescriptor pItemDescriptor) {
+		mRepositoryId = pRepositoryId;
+		mItemDescriptor = pItemDescriptor;
+	}
+
+	public String getRepositoryId() {
+		return mRepositoryId;
+	}
+
+	public RepositoryItemDescriptor getItemDescriptor() {
+		return mItemDescriptor;
+	}
+
+	public Object getPropertyValue(String pPropertyName) {
+		return mValues.get(pPropertyName);
+	}
+
+	public void setPropertyValue(String pPropertyName, Object pValue) {
+		mValues.put(pPropertyName, pValue);
+	}
+}
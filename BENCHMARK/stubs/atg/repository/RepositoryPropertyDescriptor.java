@@ -0,0 +1,82 @@
+/*
+ * Please read the README.md and LICENSE.md files contained in this repository or module.
+ *
+ * Please contact sales@sparkred.com or support@sparkred.com if you have any questions.
+ *
+ * This code is copyright Spark::red https://www.sparkred.com 2007-2016, all right reserved.
+ */
+package atg.repository;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Benchmark stand-in for the ATG class of the same name. Values are stored raw in the item under the property name.
+ */
+public class RepositoryPropertyDescriptor {
+
+	private String mName;
+
+	private RepositoryItemDescriptor mItemDescriptor;
+
+	private Class mPropertyType;
+
+	private final Map<String, Object> mAttributes = new HashMap<String, Object>();
+
+	public String getName() {
+		return mName;
+	}
+
+	public void setName(String pName) {
+		mName = pName;
+	}
+
+	public RepositoryItemDescriptor getItemDescriptor() {
+		return mItemDescriptor;
+	}
+
+	public void setItemDescriptor(RepositoryItemDescriptor pItemDescriptor) {
+		mItemDescriptor = pItemDescriptor;
+	}
+
+	public RepositoryItemDescriptor getPropertyItemDescriptor() {
+		return null;
+	}
+
+	public void setPropertyItemDescriptor(RepositoryItemDescriptor pDesc) {
+	}
+
+	public void setComponentItemDescriptor(RepositoryItemDescriptor pDesc) {
+	}
+
+	public Class getPropertyType() {
+		return mPropertyType;
+	}
+
+	public void setPropertyType(Class pClass) {
+		mPropertyType = pClass;
+	}
+
+	public void setComponentPropertyType(Class pClass) {
+	}
+
+	public boolean isQueryable() {
+		return true;
+	}
+
+	public Object getValue(String pAttributeName) {
+		return mAttributes.get(pAttributeName);
+	}
+
+	public void setValue(String pAttributeName, Object pValue) {
+		mAttributes.put(pAttributeName, pValue);
+	}
+
+	public Object getPropertyValue(RepositoryItemImpl pItem, Object pValue) {
+		return pValue;
+	}
+
+	public void setPropertyValue(RepositoryItemImpl pItem, Object pValue) {
+		pItem.setPropertyValue(getName(), pValue);
+	}
+}
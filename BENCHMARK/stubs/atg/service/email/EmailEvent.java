@@ -0,0 +1,26 @@
+/*
+ * Please read the README.md and LICENSE.md files contained in this repository or module.
+ *
+ * Please contact sales@sparkred.com or support@sparkred.com if you have any questions.
+ *
+ * This code is copyright Spark::red https://www.sparkred.com 2007-2016, all right reserved.
+ */
+package atg.service.email;
+
+/**
+ * Benchmark stand-in for the ATG class of the same name.
+ */
+public class EmailEvent {
+
+	public void setFrom(String pFrom) {
+	}
+
+	public void setRecipient(String pRecipient) {
+	}
+
+	public void setSubject(String pSubject) {
+	}
+
+	public void setBody(String pBody) {
+	}
+}
@@ -0,0 +1,21 @@
+/*
+ * Please read the README.md and LICENSE.md files contained in this repository or module.
+ *
+ * Please contact sales@sparkred.com or support@sparkred.com if you have any questions.
+ *
+ * This code is copyright Spark::red https://www.sparkred.com 2007-2016, all right reserved.
+ */
+package atg.service.email;
+
+/**
+ * Benchmark stand-in for the ATG class of the same name.
+ */
+public class SMTPEmailSender {
+
+	public String getDefaultFrom() {
+		return null;
+	}
+
+	public void sendEmailEvent(EmailEvent pEvent) throws EmailException {
+	}
+}
@@ -0,0 +1,22 @@
+/*
+ * Please read the README.md and LICENSE.md files contained in this repository or module.
+ *
+ * Please contact sales@sparkred.com or support@sparkred.com if you have any questions.
+ *
+ * This code is copyright Spark::red https://www.sparkred.com 2007-2016, all right reserved.
+ */
+package atg.service.scheduler;
+
+/**
+ * Benchmark stand-in for the ATG class of the same name.
+ */
+public class ScheduledJob {
+
+	public static final int SCHEDULER_THREAD = 0;
+
+	public static final int SEPARATE_THREAD = 1;
+
+	public ScheduledJob(String pJobName, String pJobDescription, String pSourceName, Schedule pSchedule,
+			Schedulable pSchedulable, int pThreadMethod) {
+	}
+}
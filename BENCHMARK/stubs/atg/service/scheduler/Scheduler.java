@@ -0,0 +1,25 @@
+/*
+ * Please read the README.md and LICENSE.md files contained in this repository or module.
+ *
+ * Please contact sales@sparkred.com or support@sparkred.com if you have any questions.
+ *
+ * This code is copyright Spark::red https://www.sparkred.com 2007-2016, all right reserved.
+ */
+package atg.service.scheduler;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Benchmark stand-in for the ATG class of the same name. Jobs are never run.
+ */
+public class Scheduler {
+
+	private final AtomicInteger mNextJobId = new AtomicInteger();
+
+	public int addScheduledJob(ScheduledJob pJob) {
+		return mNextJobId.incrementAndGet();
+	}
+
+	public void removeScheduledJob(int pJobId) {
+	}
+}
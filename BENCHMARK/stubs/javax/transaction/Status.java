@@ -0,0 +1,34 @@
+/*
+ * Please read the README.md and LICENSE.md files contained in this repository or module.
+ *
+ * Please contact sales@sparkred.com or support@sparkred.com if you have any questions.
+ *
+ * This code is copyright Spark::red https://www.sparkred.com 2007-2016, all right reserved.
+ */
+package javax.transaction;
+
+/**
+ * Benchmark stand-in for the JTA interface of the same name.
+ */
+public interface Status {
+
+	int STATUS_ACTIVE = 0;
+
+	int STATUS_MARKED_ROLLBACK = 1;
+
+	int STATUS_PREPARED = 2;
+
+	int STATUS_COMMITTED = 3;
+
+	int STATUS_ROLLEDBACK = 4;
+
+	int STATUS_UNKNOWN = 5;
+
+	int STATUS_NO_TRANSACTION = 6;
+
+	int STATUS_PREPARING = 7;
+
+	int STATUS_COMMITTING = 8;
+
+	int STATUS_ROLLING_BACK = 9;
+}
@@ -0,0 +1,18 @@
+/*
+ * Please read the README.md and LICENSE.md files contained in this repository or module.
+ *
+ * Please contact sales@sparkred.com or support@sparkred.com if you have any questions.
+ *
+ * This code is copyright Spark::red https://www.sparkred.com 2007-2016, all right reserved.
+ */
+package javax.transaction;
+
+/**
+ * Benchmark stand-in for the JTA interface of the same name.
+ */
+public interface Synchronization {
+
+	void beforeCompletion();
+
+	void afterCompletion(int pStatus);
+}
@@ -0,0 +1,191 @@
+/*
+ * Please read the README.md and LICENSE.md files contained in this repository or module.
+ *
+ * Please contact sales@sparkred.com or support@sparkred.com if you have any questions.
+ *
+ * This code is copyright Spark::red https://www.sparkred.com 2007-2016, all right reserved.
+ */
+package com.sparkred.crypto.tools;
+
+import java.io.UnsupportedEncodingException;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.DESedeKeySpec;
+
+import org.apache.commons.codec.binary.Base64;
+import org.jasypt.exceptions.EncryptionOperationNotPossibleException;
+
+import atg.nucleus.GenericService;
+import atg.nucleus.ServiceException;
+
+import com.sparkred.crypto.CryptoBatchResult;
+import com.sparkred.crypto.Decryptor;
+
+/**
+ * The Class CRSCryptoWrapper is the decryptor used by the ReKey engine to migrate credit card numbers encrypted by the
+ * Commerce Reference Store DESede encryptor.
+ *
+ * With the deSedeEncryptor component set, its decrypt method is called through a {@link MethodHandleDecryptor}.
+ * Otherwise the values are decrypted locally with the DESede key, as Base64 encoded DESede ciphertext, one cipher per
+ * thread, so a whole batch is decrypted without going through the CRS component.
+ */
+public class CRSCryptoWrapper extends GenericService implements Decryptor {
+
+	/** The default cipher transformation, the JCE default for DESede. */
+	private static final String DEFAULT_TRANSFORMATION = "DESede/ECB/PKCS5Padding";
+
+	/** The CRS DESede encryptor component, optional. */
+	private Object mDeSedeEncryptor;
+
+	/** The DESede key, used when no deSedeEncryptor is set. */
+	private String mKey;
+
+	/** The cipher transformation, used when no deSedeEncryptor is set. */
+	private String mTransformation = DEFAULT_TRANSFORMATION;
+
+	/** The adapter of the deSedeEncryptor component, null to decrypt locally. */
+	private Decryptor mDelegate;
+
+	/** The DESede secret key, null when a delegate is used. */
+	private SecretKey mSecretKey;
+
+	/** The cipher of each thread, in decrypt mode. */
+	private final ThreadLocal<Cipher> mCiphers = new ThreadLocal<Cipher>() {
+		@Override
+		protected Cipher initialValue() {
+			try {
+				Cipher cipher = Cipher.getInstance(getTransformation());
+				cipher.init(Cipher.DECRYPT_MODE, CRSCryptoWrapper.this.mSecretKey);
+				return cipher;
+			} catch (GeneralSecurityException gse) {
+				throw new EncryptionOperationNotPossibleException(gse);
+			}
+		}
+	};
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see atg.nucleus.GenericService#doStartService()
+	 */
+	@Override
+	public void doStartService() throws ServiceException {
+		try {
+			if (getDeSedeEncryptor() != null) {
+				this.mDelegate = MethodHandleDecryptor.forComponent(getDeSedeEncryptor(), "decrypt");
+			} else if (getKey() != null) {
+				this.mSecretKey = SecretKeyFactory.getInstance("DESede").generateSecret(
+						new DESedeKeySpec(getKey().getBytes("UTF-8")));
+			} else {
+				throw new ServiceException("Either deSedeEncryptor or key must be set.");
+			}
+		} catch (NoSuchMethodException nsme) {
+			throw new ServiceException("The deSedeEncryptor has no decrypt(String) method.", nsme);
+		} catch (IllegalAccessException iae) {
+			throw new ServiceException("The deSedeEncryptor decrypt method is not accessible.", iae);
+		} catch (GeneralSecurityException gse) {
+			throw new ServiceException("Invalid DESede key.", gse);
+		} catch (UnsupportedEncodingException uee) {
+			throw new ServiceException("UTF-8 is not supported.", uee);
+		}
+	}
+
+	/**
+	 * Decrypts a value encrypted by the CRS DESede encryptor.
+	 *
+	 * @param pEncryptedText
+	 *            the encrypted text
+	 * @return the decrypted text
+	 */
+	public String decrypt(String pEncryptedText) {
+		if (this.mDelegate != null) {
+			return this.mDelegate.decrypt(pEncryptedText);
+		}
+		if (pEncryptedText == null) {
+			return null;
+		}
+		try {
+			byte[] encryptedBytes = Base64.decodeBase64(pEncryptedText.getBytes("US-ASCII"));
+			return new String(this.mCiphers.get().doFinal(encryptedBytes), "UTF-8");
+		} catch (GeneralSecurityException gse) {
+			throw new EncryptionOperationNotPossibleException(gse);
+		} catch (UnsupportedEncodingException uee) {
+			throw new EncryptionOperationNotPossibleException(uee);
+		}
+	}
+
+	/**
+	 * Decrypts every value in the array. Failures are reported per element in the result and do not abort the batch.
+	 *
+	 * @param pEncryptedTexts
+	 *            the encrypted texts
+	 * @return the batch result, in the same order as the array
+	 */
+	public CryptoBatchResult decryptAll(String[] pEncryptedTexts) {
+		if (this.mDelegate != null) {
+			return this.mDelegate.decryptAll(pEncryptedTexts);
+		}
+		return CryptoBatchResult.decryptEach(this, pEncryptedTexts);
+	}
+
+	/**
+	 * Gets the CRS DESede encryptor component.
+	 *
+	 * @return the DESede encryptor
+	 */
+	public Object getDeSedeEncryptor() {
+		return this.mDeSedeEncryptor;
+	}
+
+	/**
+	 * Sets the CRS DESede encryptor component. Its decrypt method is used instead of the key when set.
+	 *
+	 * @param pDeSedeEncryptor
+	 *            the new DESede encryptor
+	 */
+	public void setDeSedeEncryptor(Object pDeSedeEncryptor) {
+		this.mDeSedeEncryptor = pDeSedeEncryptor;
+	}
+
+	/**
+	 * Gets the DESede key.
+	 *
+	 * @return the key
+	 */
+	public String getKey() {
+		return this.mKey;
+	}
+
+	/**
+	 * Sets the DESede key, at least 24 bytes in UTF-8.
+	 *
+	 * @param pKey
+	 *            the new key
+	 */
+	public void setKey(String pKey) {
+		this.mKey = pKey;
+	}
+
+	/**
+	 * Gets the cipher transformation.
+	 *
+	 * @return the transformation
+	 */
+	public String getTransformation() {
+		return this.mTransformation;
+	}
+
+	/**
+	 * Sets the cipher transformation.
+	 *
+	 * @param pTransformation
+	 *            the new transformation
+	 */
+	public void setTransformation(String pTransformation) {
+		this.mTransformation = pTransformation;
+	}
+
+}
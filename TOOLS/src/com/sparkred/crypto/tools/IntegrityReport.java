@@ -0,0 +1,290 @@
+/*
+ * Please read the README.md and LICENSE.md files contained in this repository or module.
+ *
+ * Please contact sales@sparkred.com or support@sparkred.com if you have any questions.
+ *
+ * This code is copyright Spark::red https://www.sparkred.com 2007-2016, all right reserved.
+ */
+package com.sparkred.crypto.tools;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The Class IntegrityReport is the result of an {@link IntegrityScanner} run: the counts of each table column, the
+ * keys of the rows which failed, and the errors which stopped partitions from being scanned. A report passes when
+ * every row was scanned and none failed.
+ *
+ * The scanner's workers merge their partition counts into the report, so its methods are synchronized.
+ */
+public class IntegrityReport {
+
+	/** The identifier of the engine the values were decrypted with. */
+	private final String mCryptoEngineIdentifier;
+
+	/** The largest number of failed rows listed per table column. */
+	private final int mMaxReportedFailures;
+
+	/** The start time. */
+	private final Date mStartDate = new Date();
+
+	/** The start of the scan, from System.nanoTime. */
+	private final long mStartNanos = System.nanoTime();
+
+	/** The end of the scan, from System.nanoTime, 0 until it is finished. */
+	private long mEndNanos;
+
+	/** The results of each table column, in scan order. */
+	private final Map<String, ColumnResult> mColumnResults = new LinkedHashMap<String, ColumnResult>();
+
+	/** The errors which stopped partitions from being scanned. */
+	private final List<String> mErrors = new ArrayList<String>();
+
+	/**
+	 * Instantiates a new integrity report.
+	 *
+	 * @param pCryptoEngineIdentifier
+	 *            the identifier of the engine the values are decrypted with
+	 * @param pMaxReportedFailures
+	 *            the largest number of failed rows listed per table column
+	 */
+	public IntegrityReport(String pCryptoEngineIdentifier, int pMaxReportedFailures) {
+		this.mCryptoEngineIdentifier = pCryptoEngineIdentifier;
+		this.mMaxReportedFailures = pMaxReportedFailures;
+	}
+
+	/**
+	 * Adds a table column, so that it is listed even if it has no rows.
+	 *
+	 * @param pTableColumn
+	 *            the table column, as table.column
+	 */
+	public synchronized void addTableColumn(String pTableColumn) {
+		getColumnResult(pTableColumn);
+	}
+
+	/**
+	 * Merges the counts of a scanned partition.
+	 *
+	 * @param pTableColumn
+	 *            the table column, as table.column
+	 * @param pScanned
+	 *            the rows read
+	 * @param pNulls
+	 *            the rows with a null value
+	 * @param pStale
+	 *            the rows which decrypt, but are not encrypted with the active key
+	 * @param pFailures
+	 *            the failed rows, as key: reason
+	 * @param pFailedCount
+	 *            the number of failed rows, which may be more than the failures listed
+	 */
+	public synchronized void addPartition(String pTableColumn, long pScanned, long pNulls, long pStale,
+			List<String> pFailures, long pFailedCount) {
+		ColumnResult columnResult = getColumnResult(pTableColumn);
+		columnResult.mScanned += pScanned;
+		columnResult.mNulls += pNulls;
+		columnResult.mStale += pStale;
+		columnResult.mFailed += pFailedCount;
+		for (String failure : pFailures) {
+			if (columnResult.mFailures.size() >= this.mMaxReportedFailures) {
+				break;
+			}
+			columnResult.mFailures.add(failure);
+		}
+	}
+
+	/**
+	 * Adds an error which stopped a partition, or the whole scan, from completing.
+	 *
+	 * @param pError
+	 *            the error
+	 */
+	public synchronized void addError(String pError) {
+		this.mErrors.add(pError);
+	}
+
+	/**
+	 * Marks the end of the scan.
+	 */
+	public synchronized void finish() {
+		this.mEndNanos = System.nanoTime();
+	}
+
+	/**
+	 * Gets the result of a table column, adding it if needed.
+	 *
+	 * @param pTableColumn
+	 *            the table column
+	 * @return the column result
+	 */
+	private ColumnResult getColumnResult(String pTableColumn) {
+		ColumnResult columnResult = this.mColumnResults.get(pTableColumn);
+		if (columnResult == null) {
+			columnResult = new ColumnResult();
+			this.mColumnResults.put(pTableColumn, columnResult);
+		}
+		return columnResult;
+	}
+
+	/**
+	 * Checks if the scan passed: every partition was scanned and no row failed.
+	 *
+	 * @return true, if passed
+	 */
+	public synchronized boolean isPassed() {
+		return this.mErrors.isEmpty() && getFailedCount() == 0;
+	}
+
+	/**
+	 * Gets the number of rows read, over every table column.
+	 *
+	 * @return the scanned count
+	 */
+	public synchronized long getScannedCount() {
+		long scanned = 0;
+		for (ColumnResult columnResult : this.mColumnResults.values()) {
+			scanned += columnResult.mScanned;
+		}
+		return scanned;
+	}
+
+	/**
+	 * Gets the number of failed rows, over every table column.
+	 *
+	 * @return the failed count
+	 */
+	public synchronized long getFailedCount() {
+		long failed = 0;
+		for (ColumnResult columnResult : this.mColumnResults.values()) {
+			failed += columnResult.mFailed;
+		}
+		return failed;
+	}
+
+	/**
+	 * Gets the number of rows which are not encrypted with the active key, over every table column.
+	 *
+	 * @return the stale count
+	 */
+	public synchronized long getStaleCount() {
+		long stale = 0;
+		for (ColumnResult columnResult : this.mColumnResults.values()) {
+			stale += columnResult.mStale;
+		}
+		return stale;
+	}
+
+	/**
+	 * Gets the failed rows of a table column, as key: reason, up to the largest number reported.
+	 *
+	 * @param pTableColumn
+	 *            the table column
+	 * @return the failures
+	 */
+	public synchronized List<String> getFailures(String pTableColumn) {
+		ColumnResult columnResult = this.mColumnResults.get(pTableColumn);
+		if (columnResult == null) {
+			return Collections.emptyList();
+		}
+		return new ArrayList<String>(columnResult.mFailures);
+	}
+
+	/**
+	 * Gets the errors which stopped partitions from being scanned.
+	 *
+	 * @return the errors
+	 */
+	public synchronized List<String> getErrors() {
+		return new ArrayList<String>(this.mErrors);
+	}
+
+	/**
+	 * Gets the duration of the scan, up to now if it is still running.
+	 *
+	 * @return the elapsed milliseconds
+	 */
+	public synchronized long getElapsedMillis() {
+		return TimeUnit.NANOSECONDS.toMillis((this.mEndNanos == 0 ? System.nanoTime() : this.mEndNanos)
+				- this.mStartNanos);
+	}
+
+	/**
+	 * Gets the number of rows read per second.
+	 *
+	 * @return the rows per second
+	 */
+	public synchronized double getRowsPerSecond() {
+		long elapsedMillis = getElapsedMillis();
+		return elapsedMillis == 0 ? 0 : getScannedCount() * 1000d / elapsedMillis;
+	}
+
+	/**
+	 * Returns the one line summary of the scan.
+	 *
+	 * @return the summary
+	 */
+	public synchronized String getSummary() {
+		return (isPassed() ? "passed" : "FAILED") + ", scanned: " + getScannedCount() + ", failed: "
+				+ getFailedCount() + ", not on the active key: " + getStaleCount() + ", errors: " + this.mErrors.size()
+				+ ", elapsed ms: " + getElapsedMillis() + ", rows/s: "
+				+ String.format("%.1f", Double.valueOf(getRowsPerSecond()));
+	}
+
+	/**
+	 * Returns the full report: the summary, the counts and failed rows of each table column, and the errors.
+	 *
+	 * @return the string
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public synchronized String toString() {
+		String lineSeparator = System.getProperty("line.separator");
+		StringBuilder report = new StringBuilder("Integrity scan of ").append(this.mCryptoEngineIdentifier)
+				.append(" started ").append(this.mStartDate).append(": ").append(getSummary()).append(lineSeparator);
+		for (Map.Entry<String, ColumnResult> entry : this.mColumnResults.entrySet()) {
+			ColumnResult columnResult = entry.getValue();
+			report.append(entry.getKey()).append(": scanned ").append(columnResult.mScanned).append(", null ")
+					.append(columnResult.mNulls).append(", failed ").append(columnResult.mFailed)
+					.append(", not on the active key ").append(columnResult.mStale).append(lineSeparator);
+			for (String failure : columnResult.mFailures) {
+				report.append("\tfailed ").append(failure).append(lineSeparator);
+			}
+			if (columnResult.mFailed > columnResult.mFailures.size()) {
+				report.append("\t... ").append(columnResult.mFailed - columnResult.mFailures.size())
+						.append(" more failed rows not listed").append(lineSeparator);
+			}
+		}
+		for (String error : this.mErrors) {
+			report.append("error ").append(error).append(lineSeparator);
+		}
+		return report.toString();
+	}
+
+	/**
+	 * The Class ColumnResult holds the counts of one table column.
+	 */
+	private static final class ColumnResult {
+
+		/** The rows read. */
+		private long mScanned;
+
+		/** The rows with a null value. */
+		private long mNulls;
+
+		/** The rows which decrypt, but are not encrypted with the active key. */
+		private long mStale;
+
+		/** The failed rows. */
+		private long mFailed;
+
+		/** The failed rows listed, as key: reason. */
+		private final List<String> mFailures = new ArrayList<String>();
+	}
+
+}
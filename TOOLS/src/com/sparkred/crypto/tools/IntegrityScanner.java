@@ -0,0 +1,645 @@
+/*
+ * Please read the README.md and LICENSE.md files contained in this repository or module.
+ *
+ * Please contact sales@sparkred.com or support@sparkred.com if you have any questions.
+ *
+ * This code is copyright Spark::red https://www.sparkred.com 2007-2016, all right reserved.
+ */
+package com.sparkred.crypto.tools;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.sql.DataSource;
+
+import atg.core.util.StringUtils;
+import atg.nucleus.GenericService;
+
+import com.sparkred.crypto.CryptoEngine;
+
+/**
+ * The Class IntegrityScanner verifies that every value of the configured table columns decrypts with a crypto engine,
+ * without changing any row. It reads the rows forward only in partitions, split the same way as by the
+ * {@link RekeyEngine}, scanned concurrently by a pool of workers, and writes an {@link IntegrityReport} with the keys
+ * of the rows which failed, the counts of each table column and the throughput.
+ *
+ * {@link #verify()} scans with the configured crypto engine, to check the data after a rotation or at any time. The
+ * RekeyEngine can also use the scanner as a gate: with its integrityScanner set, the new key is only made active once
+ * every re-encrypted value decrypts with the engine to update.
+ *
+ * The engine's cipherPoolSize should be at least the workerCount, so the workers do not wait on each other.
+ */
+public class IntegrityScanner extends GenericService {
+
+	/** The default partition predicate, an Oracle hash of the partition column. */
+	private static final String DEFAULT_PARTITION_PREDICATE = "MOD(ORA_HASH({0}), {1}) = {2}";
+
+	/** The default number of rows fetched per round trip. */
+	private static final int DEFAULT_FETCH_SIZE = 1000;
+
+	/** The default largest number of failed rows listed per table column. */
+	private static final int DEFAULT_MAX_REPORTED_FAILURES = 1000;
+
+	/** The data source of the scanned tables. */
+	private DataSource mDataDataSource;
+
+	/** The crypto engine which decrypts the values. */
+	private CryptoEngine mCryptoEngine;
+
+	/** The table columns, as table.column. */
+	private List<String> mTableColumns;
+
+	/** The number of partitions scanned concurrently. */
+	private int mWorkerCount = 1;
+
+	/** The largest number of rows per partition, 0 to scan each table column as a single partition. */
+	private int mPartitionSize;
+
+	/** The partition column of each table, the key column if not configured. */
+	private Map<String, String> mPartitionColumns = Collections.emptyMap();
+
+	/** The SQL predicate selecting the rows of a partition. */
+	private String mPartitionPredicate = DEFAULT_PARTITION_PREDICATE;
+
+	/** The key column of each table, its single column primary key if not configured. */
+	private Map<String, String> mKeyColumns = Collections.emptyMap();
+
+	/** The number of rows fetched per round trip. */
+	private int mFetchSize = DEFAULT_FETCH_SIZE;
+
+	/** The largest number of failed rows listed per table column. */
+	private int mMaxReportedFailures = DEFAULT_MAX_REPORTED_FAILURES;
+
+	/** The require active key flag. */
+	private boolean mRequireActiveKey;
+
+	/** The file the report is written to. */
+	private String mReportFile;
+
+	/** The report of the last scan. */
+	private volatile IntegrityReport mLastReport;
+
+	/**
+	 * Scans the table columns with the configured crypto engine.
+	 *
+	 * @return true, if every value decrypts, and is encrypted with the active key if that is required
+	 */
+	public boolean verify() {
+		return scan(getCryptoEngine(), isRequireActiveKey()).isPassed();
+	}
+
+	/**
+	 * Scans the table columns, decrypting every non null value with a crypto engine. The report is logged, written to
+	 * the report file if one is configured, and kept as the last report.
+	 *
+	 * @param pCryptoEngine
+	 *            the crypto engine which decrypts the values
+	 * @param pRequireActiveKey
+	 *            true to fail the values which decrypt, but are not encrypted with the engine's active key
+	 * @return the report
+	 */
+	public IntegrityReport scan(final CryptoEngine pCryptoEngine, final boolean pRequireActiveKey) {
+		final IntegrityReport report = new IntegrityReport(pCryptoEngine.getCryptoEngineIdentifier(), Math.max(0,
+				getMaxReportedFailures()));
+		this.mLastReport = report;
+		List<RekeyPartition> partitions;
+		try {
+			partitions = createPartitions(report);
+		} catch (SQLException sqle) {
+			if (isLoggingError()) {
+				logError("IntegrityScanner.scan:" + "unable to create the partitions.", sqle);
+			}
+			report.addError("creating partitions: " + sqle);
+			partitions = Collections.emptyList();
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, getWorkerCount()));
+		List<Future<Void>> futures = new ArrayList<Future<Void>>(partitions.size());
+		for (final RekeyPartition partition : partitions) {
+			futures.add(executor.submit(new Callable<Void>() {
+				public Void call() throws Exception {
+					scanPartition(partition, pCryptoEngine, pRequireActiveKey, report);
+					return null;
+				}
+			}));
+		}
+		executor.shutdown();
+		for (int i = 0; i < futures.size(); i++) {
+			RekeyPartition partition = partitions.get(i);
+			try {
+				futures.get(i).get();
+			} catch (ExecutionException ee) {
+				if (isLoggingError()) {
+					logError("IntegrityScanner.scan:" + "partition " + partition + " failed.", ee.getCause());
+				}
+				report.addError("partition " + partition + ": " + ee.getCause());
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				executor.shutdownNow();
+				report.addError("interrupted, " + (partitions.size() - i) + " partitions were not scanned.");
+				break;
+			}
+		}
+		report.finish();
+
+		writeReport(report);
+		if (report.isPassed()) {
+			if (isLoggingInfo()) {
+				logInfo("IntegrityScanner.scan:" + report.getSummary());
+			}
+		} else if (isLoggingError()) {
+			logError("IntegrityScanner.scan:" + report);
+		}
+		return report;
+	}
+
+	/**
+	 * Creates the partitions of every table column. A table column is split when a partition size is set and it has
+	 * more rows than the partition size.
+	 *
+	 * @param pReport
+	 *            the report, which lists every table column
+	 * @return the partitions
+	 * @throws SQLException
+	 *             the SQL exception
+	 */
+	private List<RekeyPartition> createPartitions(IntegrityReport pReport) throws SQLException {
+		List<RekeyPartition> partitions = new ArrayList<RekeyPartition>();
+		Connection connection = getDataDataSource().getConnection();
+		try {
+			for (String tableColumn : getTableColumns()) {
+				if (StringUtils.isBlank(tableColumn) || tableColumn.split("\\.").length != 2) {
+					continue;
+				}
+				String[] columnData = tableColumn.trim().split("\\.");
+				String tableName = columnData[0];
+				String columnName = columnData[1];
+				pReport.addTableColumn(tableColumn.trim());
+				String keyColumn = getKeyColumn(connection, tableName);
+				if (keyColumn == null && isLoggingWarning()) {
+					logWarning("IntegrityScanner.createPartitions:" + "no key column found for: " + tableName
+							+ ", failed rows will not be identified. Configure it in keyColumns.");
+				}
+				int partitionCount = 1;
+				if (getPartitionSize() > 0) {
+					long rowCount = countRows(connection, tableName);
+					partitionCount = (int) Math.max(1, (rowCount + getPartitionSize() - 1) / getPartitionSize());
+				}
+				String partitionColumn = null;
+				if (partitionCount > 1) {
+					partitionColumn = getPartitionColumns().get(tableName);
+					if (partitionColumn == null) {
+						partitionColumn = keyColumn;
+					}
+					if (partitionColumn == null) {
+						if (isLoggingWarning()) {
+							logWarning("IntegrityScanner.createPartitions:" + "no partition column found for: "
+									+ tableName + ", it will not be split.");
+						}
+						partitionCount = 1;
+					}
+				}
+				for (int i = 0; i < partitionCount; i++) {
+					partitions.add(new RekeyPartition(tableName, columnName, keyColumn, partitionColumn, i,
+							partitionCount));
+				}
+			}
+		} finally {
+			connection.close();
+		}
+		return partitions;
+	}
+
+	/**
+	 * Scans the rows of one partition, read only and forward only, and merges its counts into the report.
+	 *
+	 * @param pPartition
+	 *            the partition
+	 * @param pCryptoEngine
+	 *            the crypto engine which decrypts the values
+	 * @param pRequireActiveKey
+	 *            the require active key flag
+	 * @param pReport
+	 *            the report
+	 * @throws SQLException
+	 *             the SQL exception
+	 */
+	private void scanPartition(RekeyPartition pPartition, CryptoEngine pCryptoEngine, boolean pRequireActiveKey,
+			IntegrityReport pReport) throws SQLException {
+		String keyColumn = pPartition.getKeyColumn();
+		StringBuilder selectQuery = new StringBuilder("SELECT ").append(pPartition.getColumnName());
+		if (keyColumn != null) {
+			selectQuery.append(", ").append(keyColumn);
+		}
+		selectQuery.append(" FROM ").append(pPartition.getTableName());
+		if (pPartition.isPartial()) {
+			selectQuery.append(" WHERE ").append(
+					MessageFormat.format(getPartitionPredicate(), pPartition.getPartitionColumn(),
+							String.valueOf(pPartition.getPartitionCount()),
+							String.valueOf(pPartition.getPartitionIndex())));
+		}
+		if (isLoggingDebug()) {
+			logDebug("IntegrityScanner.scanPartition:" + "selectQuery: " + selectQuery);
+		}
+
+		long scanned = 0;
+		long nulls = 0;
+		long stale = 0;
+		long failed = 0;
+		List<String> failures = new ArrayList<String>();
+		Connection connection = getDataDataSource().getConnection();
+		try {
+			connection.setReadOnly(true);
+			// Some drivers only stream the result set outside of auto commit
+			connection.setAutoCommit(false);
+			Statement selectStmt = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY,
+					ResultSet.CONCUR_READ_ONLY);
+			try {
+				selectStmt.setFetchSize(Math.max(1, getFetchSize()));
+				ResultSet rs = selectStmt.executeQuery(selectQuery.toString());
+				try {
+					while (rs.next()) {
+						scanned++;
+						String encryptedString = rs.getString(1);
+						if (encryptedString == null) {
+							nulls++;
+							continue;
+						}
+						String failure;
+						try {
+							pCryptoEngine.decrypt(encryptedString);
+							if (pCryptoEngine.isCurrent(encryptedString)) {
+								continue;
+							}
+							stale++;
+							if (!pRequireActiveKey) {
+								continue;
+							}
+							failure = "not encrypted with the active key";
+						} catch (RuntimeException re) {
+							failure = re.getClass().getSimpleName()
+									+ (re.getMessage() == null ? "" : ": " + re.getMessage());
+						}
+						failed++;
+						if (failures.size() < getMaxReportedFailures()) {
+							failures.add((keyColumn == null ? "row " + scanned : rs.getString(2)) + ": " + failure);
+						}
+					}
+				} finally {
+					rs.close();
+				}
+			} finally {
+				selectStmt.close();
+			}
+		} finally {
+			try {
+				connection.rollback();
+			} finally {
+				connection.close();
+			}
+			pReport.addPartition(pPartition.getTableColumn(), scanned, nulls, stale, failures, failed);
+		}
+	}
+
+	/**
+	 * Counts the rows of a table.
+	 *
+	 * @param pConnection
+	 *            the connection
+	 * @param pTableName
+	 *            the table name
+	 * @return the row count
+	 * @throws SQLException
+	 *             the SQL exception
+	 */
+	private long countRows(Connection pConnection, String pTableName) throws SQLException {
+		Statement countStmt = pConnection.createStatement();
+		try {
+			ResultSet rs = countStmt.executeQuery("SELECT COUNT(*) FROM " + pTableName);
+			try {
+				rs.next();
+				return rs.getLong(1);
+			} finally {
+				rs.close();
+			}
+		} finally {
+			countStmt.close();
+		}
+	}
+
+	/**
+	 * Gets the unique key column of a table: the configured one, or else its primary key column.
+	 *
+	 * @param pConnection
+	 *            the connection
+	 * @param pTableName
+	 *            the table name
+	 * @return the key column, or null if none is configured and the table has no single column primary key
+	 * @throws SQLException
+	 *             the SQL exception
+	 */
+	private String getKeyColumn(Connection pConnection, String pTableName) throws SQLException {
+		String keyColumn = getKeyColumns().get(pTableName);
+		if (keyColumn != null) {
+			return keyColumn;
+		}
+		DatabaseMetaData metaData = pConnection.getMetaData();
+		// Oracle keeps unquoted table names in upper case
+		for (String tableName : new String[] { pTableName, pTableName.toUpperCase() }) {
+			List<String> keyColumns = new ArrayList<String>();
+			ResultSet rs = metaData.getPrimaryKeys(null, null, tableName);
+			try {
+				while (rs.next()) {
+					keyColumns.add(rs.getString("COLUMN_NAME"));
+				}
+			} finally {
+				rs.close();
+			}
+			if (!keyColumns.isEmpty()) {
+				return keyColumns.size() == 1 ? keyColumns.get(0) : null;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Writes the report to the report file, if one is configured.
+	 *
+	 * @param pReport
+	 *            the report
+	 */
+	private void writeReport(IntegrityReport pReport) {
+		if (StringUtils.isBlank(getReportFile())) {
+			return;
+		}
+		try {
+			Writer writer = new OutputStreamWriter(new FileOutputStream(getReportFile()), "UTF-8");
+			try {
+				writer.write(pReport.toString());
+			} finally {
+				writer.close();
+			}
+		} catch (IOException ioe) {
+			if (isLoggingError()) {
+				logError("IntegrityScanner.writeReport:" + "unable to write the report to: " + getReportFile(), ioe);
+			}
+		}
+	}
+
+	/**
+	 * Gets the data data source.
+	 *
+	 * @return the data data source
+	 */
+	public DataSource getDataDataSource() {
+		return this.mDataDataSource;
+	}
+
+	/**
+	 * Sets the data data source.
+	 *
+	 * @param pDataDataSource
+	 *            the new data data source
+	 */
+	public void setDataDataSource(DataSource pDataDataSource) {
+		this.mDataDataSource = pDataDataSource;
+	}
+
+	/**
+	 * Gets the crypto engine which decrypts the values in {@link #verify()}.
+	 *
+	 * @return the crypto engine
+	 */
+	public CryptoEngine getCryptoEngine() {
+		return this.mCryptoEngine;
+	}
+
+	/**
+	 * Sets the crypto engine which decrypts the values in {@link #verify()}.
+	 *
+	 * @param pCryptoEngine
+	 *            the new crypto engine
+	 */
+	public void setCryptoEngine(CryptoEngine pCryptoEngine) {
+		this.mCryptoEngine = pCryptoEngine;
+	}
+
+	/**
+	 * Gets the table columns, as table.column.
+	 *
+	 * @return the table columns
+	 */
+	public List<String> getTableColumns() {
+		return this.mTableColumns;
+	}
+
+	/**
+	 * Sets the table columns, as table.column.
+	 *
+	 * @param pTableColumns
+	 *            the new table columns
+	 */
+	public void setTableColumns(List<String> pTableColumns) {
+		this.mTableColumns = pTableColumns;
+	}
+
+	/**
+	 * Gets the number of partitions scanned concurrently.
+	 *
+	 * @return the worker count
+	 */
+	public int getWorkerCount() {
+		return this.mWorkerCount;
+	}
+
+	/**
+	 * Sets the number of partitions scanned concurrently.
+	 *
+	 * @param pWorkerCount
+	 *            the new worker count
+	 */
+	public void setWorkerCount(int pWorkerCount) {
+		this.mWorkerCount = pWorkerCount;
+	}
+
+	/**
+	 * Gets the largest number of rows per partition, 0 to scan each table column as a single partition.
+	 *
+	 * @return the partition size
+	 */
+	public int getPartitionSize() {
+		return this.mPartitionSize;
+	}
+
+	/**
+	 * Sets the largest number of rows per partition, 0 to scan each table column as a single partition.
+	 *
+	 * @param pPartitionSize
+	 *            the new partition size
+	 */
+	public void setPartitionSize(int pPartitionSize) {
+		this.mPartitionSize = pPartitionSize;
+	}
+
+	/**
+	 * Gets the partition column of each table, the key column if not configured.
+	 *
+	 * @return the partition columns
+	 */
+	public Map<String, String> getPartitionColumns() {
+		return this.mPartitionColumns;
+	}
+
+	/**
+	 * Sets the partition column of each table, the key column if not configured.
+	 *
+	 * @param pPartitionColumns
+	 *            the new partition columns
+	 */
+	public void setPartitionColumns(Map<String, String> pPartitionColumns) {
+		this.mPartitionColumns = pPartitionColumns;
+	}
+
+	/**
+	 * Gets the SQL predicate selecting the rows of a partition, a MessageFormat pattern with the partition column as
+	 * {0}, the partition count as {1} and the partition index as {2}.
+	 *
+	 * @return the partition predicate
+	 */
+	public String getPartitionPredicate() {
+		return this.mPartitionPredicate;
+	}
+
+	/**
+	 * Sets the SQL predicate selecting the rows of a partition.
+	 *
+	 * @param pPartitionPredicate
+	 *            the new partition predicate
+	 */
+	public void setPartitionPredicate(String pPartitionPredicate) {
+		this.mPartitionPredicate = pPartitionPredicate;
+	}
+
+	/**
+	 * Gets the key column of each table, used to identify failed rows. Tables not listed use their single column
+	 * primary key.
+	 *
+	 * @return the key columns
+	 */
+	public Map<String, String> getKeyColumns() {
+		return this.mKeyColumns;
+	}
+
+	/**
+	 * Sets the key column of each table.
+	 *
+	 * @param pKeyColumns
+	 *            the new key columns
+	 */
+	public void setKeyColumns(Map<String, String> pKeyColumns) {
+		this.mKeyColumns = pKeyColumns;
+	}
+
+	/**
+	 * Gets the number of rows fetched per round trip.
+	 *
+	 * @return the fetch size
+	 */
+	public int getFetchSize() {
+		return this.mFetchSize;
+	}
+
+	/**
+	 * Sets the number of rows fetched per round trip.
+	 *
+	 * @param pFetchSize
+	 *            the new fetch size
+	 */
+	public void setFetchSize(int pFetchSize) {
+		this.mFetchSize = pFetchSize;
+	}
+
+	/**
+	 * Gets the largest number of failed rows listed per table column. All failed rows are counted.
+	 *
+	 * @return the max reported failures
+	 */
+	public int getMaxReportedFailures() {
+		return this.mMaxReportedFailures;
+	}
+
+	/**
+	 * Sets the largest number of failed rows listed per table column.
+	 *
+	 * @param pMaxReportedFailures
+	 *            the new max reported failures
+	 */
+	public void setMaxReportedFailures(int pMaxReportedFailures) {
+		this.mMaxReportedFailures = pMaxReportedFailures;
+	}
+
+	/**
+	 * Checks if {@link #verify()} fails the values which decrypt, but are not encrypted with the active key. They are
+	 * counted either way.
+	 *
+	 * @return true, if the active key is required
+	 */
+	public boolean isRequireActiveKey() {
+		return this.mRequireActiveKey;
+	}
+
+	/**
+	 * Sets the require active key flag.
+	 *
+	 * @param pRequireActiveKey
+	 *            the new require active key flag
+	 */
+	public void setRequireActiveKey(boolean pRequireActiveKey) {
+		this.mRequireActiveKey = pRequireActiveKey;
+	}
+
+	/**
+	 * Gets the file the report is written to, overwritten by each scan. The report is only logged if not set.
+	 *
+	 * @return the report file
+	 */
+	public String getReportFile() {
+		return this.mReportFile;
+	}
+
+	/**
+	 * Sets the file the report is written to.
+	 *
+	 * @param pReportFile
+	 *            the new report file
+	 */
+	public void setReportFile(String pReportFile) {
+		this.mReportFile = pReportFile;
+	}
+
+	/**
+	 * Gets the report of the last scan, or of the scan in progress.
+	 *
+	 * @return the last report, null if no scan was run
+	 */
+	public IntegrityReport getLastReport() {
+		return this.mLastReport;
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ * Please read the README.md and LICENSE.md files contained in this repository or module.
+ *
+ * Please contact sales@sparkred.com or support@sparkred.com if you have any questions.
+ *
+ * This code is copyright Spark::red https://www.sparkred.com 2007-2016, all right reserved.
+ */
+package com.sparkred.crypto.tools;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+import org.jasypt.exceptions.EncryptionOperationNotPossibleException;
+
+import com.sparkred.crypto.CryptoBatchResult;
+import com.sparkred.crypto.Decryptor;
+
+/**
+ * The Class MethodHandleDecryptor adapts a component which does not implement {@link Decryptor}, but has a public
+ * method taking the encrypted String and returning the decrypted value, such as a legacy or third party encryptor.
+ *
+ * The method is looked up once and bound to the component as a method handle, so each call is a direct invocation,
+ * without the access checks, argument array and InvocationTargetException wrapping of reflection. Checked exceptions
+ * thrown by the method are wrapped in EncryptionOperationNotPossibleException, runtime exceptions and errors are
+ * rethrown as they are.
+ */
+public class MethodHandleDecryptor implements Decryptor {
+
+	/** The method type of the bound handle. */
+	private static final MethodType DECRYPT_TYPE = MethodType.methodType(String.class, String.class);
+
+	/** The decrypt method, bound to the component. */
+	private final MethodHandle mDecryptHandle;
+
+	/**
+	 * Instantiates a new method handle decryptor.
+	 *
+	 * @param pComponent
+	 *            the component
+	 * @param pMethodName
+	 *            the name of its decrypt method, which takes a String and returns a String or an Object
+	 * @throws NoSuchMethodException
+	 *             if the component has no such public method
+	 * @throws IllegalAccessException
+	 *             if the method is not accessible
+	 */
+	public MethodHandleDecryptor(Object pComponent, String pMethodName) throws NoSuchMethodException,
+			IllegalAccessException {
+		this.mDecryptHandle = MethodHandles.publicLookup()
+				.unreflect(pComponent.getClass().getMethod(pMethodName, String.class)).bindTo(pComponent)
+				.asType(DECRYPT_TYPE);
+	}
+
+	/**
+	 * Gets a decryptor for a component: the component itself if it implements {@link Decryptor} and the method is
+	 * its decrypt method, an adapter otherwise.
+	 *
+	 * @param pComponent
+	 *            the component
+	 * @param pMethodName
+	 *            the name of its decrypt method
+	 * @return the decryptor
+	 * @throws NoSuchMethodException
+	 *             if the component has no such public method
+	 * @throws IllegalAccessException
+	 *             if the method is not accessible
+	 */
+	public static Decryptor forComponent(Object pComponent, String pMethodName) throws NoSuchMethodException,
+			IllegalAccessException {
+		if (pComponent instanceof Decryptor && "decrypt".equals(pMethodName)) {
+			return (Decryptor) pComponent;
+		}
+		return new MethodHandleDecryptor(pComponent, pMethodName);
+	}
+
+	/**
+	 * Decrypts a value with the component's method.
+	 *
+	 * @param pEncryptedText
+	 *            the encrypted text
+	 * @return the decrypted text
+	 */
+	public String decrypt(String pEncryptedText) {
+		try {
+			return (String) this.mDecryptHandle.invokeExact(pEncryptedText);
+		} catch (RuntimeException re) {
+			throw re;
+		} catch (Error e) {
+			throw e;
+		} catch (Throwable t) {
+			throw new EncryptionOperationNotPossibleException(t);
+		}
+	}
+
+	/**
+	 * Decrypts every value in the array, one call to the component's method per value.
+	 *
+	 * @param pEncryptedTexts
+	 *            the encrypted texts
+	 * @return the batch result, in the same order as the array
+	 */
+	public CryptoBatchResult decryptAll(String[] pEncryptedTexts) {
+		return CryptoBatchResult.decryptEach(this, pEncryptedTexts);
+	}
+
+}
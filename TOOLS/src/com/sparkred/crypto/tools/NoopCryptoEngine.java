@@ -9,10 +9,13 @@ package com.sparkred.crypto.tools;
 
 import atg.nucleus.GenericService;
 
+import com.sparkred.crypto.CryptoBatchResult;
+import com.sparkred.crypto.Decryptor;
+
 /**
  * The Class NoopCryptoEngine provides a noop decryptor to be used by the ReKey engine to batch encrypt plaintext data.
  */
-public class NoopCryptoEngine extends GenericService {
+public class NoopCryptoEngine extends GenericService implements Decryptor {
 
 	/**
 	 * Decrypt. This method just returns the same text.
@@ -25,4 +28,19 @@ public class NoopCryptoEngine extends GenericService {
 		return pEncryptedText;
 	}
 
+	/**
+	 * Decrypt all. This method just returns the same texts.
+	 *
+	 * @param pEncryptedTexts
+	 *            the encrypted texts
+	 * @return the batch result, with the same texts
+	 */
+	public CryptoBatchResult decryptAll(String[] pEncryptedTexts) {
+		CryptoBatchResult result = new CryptoBatchResult(pEncryptedTexts.length);
+		for (int i = 0; i < pEncryptedTexts.length; i++) {
+			result.setValue(i, pEncryptedTexts[i]);
+		}
+		return result;
+	}
+
 }
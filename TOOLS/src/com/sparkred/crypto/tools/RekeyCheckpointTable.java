@@ -0,0 +1,235 @@
+/*
+ * Please read the README.md and LICENSE.md files contained in this repository or module.
+ *
+ * Please contact sales@sparkred.com or support@sparkred.com if you have any questions.
+ *
+ * This code is copyright Spark::red https://www.sparkred.com 2007-2016, all right reserved.
+ */
+package com.sparkred.crypto.tools;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The Class RekeyCheckpointTable reads and writes the progress of a rekey job in a checkpoint table of the data
+ * schema, one row per partition of each table column. A checkpoint is written on the connection which updates the
+ * partition's rows, just before it commits, so the checkpoint and the rows it covers are committed together.
+ *
+ * The checkpoint table is created by sql/create-rekey-checkpoint.sql.
+ */
+public class RekeyCheckpointTable {
+
+	/** The checkpoint table name. */
+	private final String mTableName;
+
+	/** The identifier of the crypto engine being rekeyed. */
+	private final String mEngineIdentifier;
+
+	/**
+	 * Instantiates a new rekey checkpoint table.
+	 *
+	 * @param pTableName
+	 *            the checkpoint table name
+	 * @param pEngineIdentifier
+	 *            the identifier of the crypto engine being rekeyed
+	 */
+	public RekeyCheckpointTable(String pTableName, String pEngineIdentifier) {
+		this.mTableName = pTableName;
+		this.mEngineIdentifier = pEngineIdentifier;
+	}
+
+	/**
+	 * Loads the checkpoints of the crypto engine.
+	 *
+	 * @param pConnection
+	 *            the connection
+	 * @return the checkpoints
+	 * @throws SQLException
+	 *             the SQL exception
+	 */
+	public List<Checkpoint> load(Connection pConnection) throws SQLException {
+		List<Checkpoint> checkpoints = new ArrayList<Checkpoint>();
+		PreparedStatement selectStmt = pConnection.prepareStatement("SELECT TABLE_COLUMN, PARTITION_INDEX,"
+				+ " PARTITION_COUNT, LAST_KEY, COMPLETED FROM " + this.mTableName + " WHERE ENGINE_ID = ?");
+		try {
+			selectStmt.setString(1, this.mEngineIdentifier);
+			ResultSet rs = selectStmt.executeQuery();
+			try {
+				while (rs.next()) {
+					checkpoints.add(new Checkpoint(rs.getString(1), rs.getInt(2), rs.getInt(3), rs.getString(4), rs
+							.getInt(5) != 0));
+				}
+			} finally {
+				rs.close();
+			}
+		} finally {
+			selectStmt.close();
+		}
+		return checkpoints;
+	}
+
+	/**
+	 * Saves the checkpoint of a partition, without committing.
+	 *
+	 * @param pConnection
+	 *            the connection which updated the partition's rows
+	 * @param pPartition
+	 *            the partition
+	 * @param pLastKey
+	 *            the key of the last row updated, may be null
+	 * @param pCompleted
+	 *            the completed flag
+	 * @throws SQLException
+	 *             the SQL exception
+	 */
+	public void save(Connection pConnection, RekeyPartition pPartition, Object pLastKey, boolean pCompleted)
+			throws SQLException {
+		String lastKey = pLastKey == null ? null : pLastKey.toString();
+		Timestamp now = new Timestamp(System.currentTimeMillis());
+		PreparedStatement updateStmt = pConnection.prepareStatement("UPDATE " + this.mTableName
+				+ " SET LAST_KEY = ?, COMPLETED = ?, UPDATED_DATE = ?"
+				+ " WHERE ENGINE_ID = ? AND TABLE_COLUMN = ? AND PARTITION_INDEX = ?");
+		try {
+			updateStmt.setString(1, lastKey);
+			updateStmt.setInt(2, pCompleted ? 1 : 0);
+			updateStmt.setTimestamp(3, now);
+			updateStmt.setString(4, this.mEngineIdentifier);
+			updateStmt.setString(5, pPartition.getTableColumn());
+			updateStmt.setInt(6, pPartition.getPartitionIndex());
+			if (updateStmt.executeUpdate() > 0) {
+				return;
+			}
+		} finally {
+			updateStmt.close();
+		}
+		PreparedStatement insertStmt = pConnection.prepareStatement("INSERT INTO " + this.mTableName
+				+ " (ENGINE_ID, TABLE_COLUMN, PARTITION_INDEX, PARTITION_COUNT, LAST_KEY, COMPLETED, UPDATED_DATE)"
+				+ " VALUES (?, ?, ?, ?, ?, ?, ?)");
+		try {
+			insertStmt.setString(1, this.mEngineIdentifier);
+			insertStmt.setString(2, pPartition.getTableColumn());
+			insertStmt.setInt(3, pPartition.getPartitionIndex());
+			insertStmt.setInt(4, pPartition.getPartitionCount());
+			insertStmt.setString(5, lastKey);
+			insertStmt.setInt(6, pCompleted ? 1 : 0);
+			insertStmt.setTimestamp(7, now);
+			insertStmt.executeUpdate();
+		} finally {
+			insertStmt.close();
+		}
+	}
+
+	/**
+	 * Deletes the checkpoints of the crypto engine, without committing.
+	 *
+	 * @param pConnection
+	 *            the connection
+	 * @throws SQLException
+	 *             the SQL exception
+	 */
+	public void clear(Connection pConnection) throws SQLException {
+		PreparedStatement deleteStmt = pConnection.prepareStatement("DELETE FROM " + this.mTableName
+				+ " WHERE ENGINE_ID = ?");
+		try {
+			deleteStmt.setString(1, this.mEngineIdentifier);
+			deleteStmt.executeUpdate();
+		} finally {
+			deleteStmt.close();
+		}
+	}
+
+	/**
+	 * The Class Checkpoint is the saved progress of one partition.
+	 */
+	public static final class Checkpoint {
+
+		/** The table column. */
+		private final String mTableColumn;
+
+		/** The partition index. */
+		private final int mPartitionIndex;
+
+		/** The partition count. */
+		private final int mPartitionCount;
+
+		/** The key of the last committed row. */
+		private final String mLastKey;
+
+		/** The completed flag. */
+		private final boolean mCompleted;
+
+		/**
+		 * Instantiates a new checkpoint.
+		 *
+		 * @param pTableColumn
+		 *            the table column
+		 * @param pPartitionIndex
+		 *            the partition index
+		 * @param pPartitionCount
+		 *            the partition count
+		 * @param pLastKey
+		 *            the key of the last committed row
+		 * @param pCompleted
+		 *            the completed flag
+		 */
+		Checkpoint(String pTableColumn, int pPartitionIndex, int pPartitionCount, String pLastKey,
+				boolean pCompleted) {
+			this.mTableColumn = pTableColumn;
+			this.mPartitionIndex = pPartitionIndex;
+			this.mPartitionCount = pPartitionCount;
+			this.mLastKey = pLastKey;
+			this.mCompleted = pCompleted;
+		}
+
+		/**
+		 * Gets the table column.
+		 *
+		 * @return the table column
+		 */
+		public String getTableColumn() {
+			return this.mTableColumn;
+		}
+
+		/**
+		 * Gets the partition index.
+		 *
+		 * @return the partition index
+		 */
+		public int getPartitionIndex() {
+			return this.mPartitionIndex;
+		}
+
+		/**
+		 * Gets the partition count.
+		 *
+		 * @return the partition count
+		 */
+		public int getPartitionCount() {
+			return this.mPartitionCount;
+		}
+
+		/**
+		 * Gets the key of the last committed row.
+		 *
+		 * @return the last key
+		 */
+		public String getLastKey() {
+			return this.mLastKey;
+		}
+
+		/**
+		 * Checks if the partition is completed.
+		 *
+		 * @return true, if completed
+		 */
+		public boolean isCompleted() {
+			return this.mCompleted;
+		}
+	}
+
+}
@@ -7,22 +7,36 @@
  */
 package com.sparkred.crypto.tools;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.io.UnsupportedEncodingException;
 import java.math.BigInteger;
+import java.lang.management.ManagementFactory;
 import java.security.SecureRandom;
-import java.security.Security;
 import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.sql.DataSource;
 
-import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.jasypt.encryption.pbe.StandardPBEStringEncryptor;
+import org.jasypt.exceptions.EncryptionOperationNotPossibleException;
 
 import atg.core.util.StringUtils;
 import atg.nucleus.GenericService;
@@ -31,21 +45,69 @@ import atg.repository.MutableRepository;
 import atg.repository.MutableRepositoryItem;
 import atg.repository.RepositoryException;
 
+import com.sparkred.crypto.BlindIndex;
+import com.sparkred.crypto.CardNumberMasker;
+import com.sparkred.crypto.CipherPool;
+import com.sparkred.crypto.CipherSuite;
+import com.sparkred.crypto.CryptoBatchResult;
 import com.sparkred.crypto.CryptoConstants;
 import com.sparkred.crypto.CryptoEngine;
+import com.sparkred.crypto.CryptoProviders;
+import com.sparkred.crypto.Decryptor;
+import com.sparkred.crypto.KeyRing;
 
 /**
  * The Class RekeyEngine is used to do initial import encryptions from either plaintext columns or from data encrypted
  * with another type of encryption. It's also used to rekey and reencrypt data every 12 months.
+ *
+ * Each table column can be split into partitions, by a hash of its partition column, and the partitions are processed
+ * by a pool of workers, each with its own connection. A failed partition is rolled back on its own, and the new key is
+ * kept in memory until {@link #retryFailedPartitions()} completes them, so the work of the other partitions is not
+ * lost. Running more than one worker requires a thread safe decryptor component.
+ *
+ * The new key is saved as the engine's pending key, encrypted with the new key passphrase, before any row is changed.
+ * With a checkpoint table configured, the progress of every partition is committed together with its rows, and a
+ * reKey started while a pending key exists resumes from the checkpoints with the pending key, instead of starting
+ * over. The update mode and partition settings must not be changed while a rekey is pending.
+ *
+ * The new key is also added to the engine's key ring under the next key id, and every value is re-encrypted with
+ * that key id as its prefix. Running engines load the new key the first time they read such a value, so a rekey can
+ * run against live traffic. The new key only becomes the active key, which encrypts new values, once every partition
+ * has completed, and the old keys stay on the ring so values written in the meantime remain readable.
+ *
+ * Each key on the ring has its own blind index key, and lookups match the blind index of every key, so values keep
+ * being found whether they have been re-indexed yet or not. The new blind index key is added with the new data key,
+ * and the rekey waits for the engines to load it before any row is changed. Once every partition has completed, the
+ * rows written by live traffic during the run are caught up with the new key, and rows written after that keep the
+ * old data and blind index keys, which stay on the ring.
+ *
+ * To share the database with production traffic, the writes of the workers can be held under a rows per second
+ * ceiling, fewer workers write at once while writes and commits are slower than a latency target, and a run can be
+ * paused and resumed, see {@link RekeyThrottle}.
  */
 public class RekeyEngine extends GenericService {
 
+	/** The default partition predicate, for Oracle. */
+	private static final String DEFAULT_PARTITION_PREDICATE = "MOD(ORA_HASH({0}), {1}) = {2}";
+
+	/** The default batch size. */
+	private static final int DEFAULT_BATCH_SIZE = 100;
+
+	/** The default number of rows read ahead of the writer when crypto workers are used. */
+	private static final int DEFAULT_PIPELINE_QUEUE_SIZE = 1000;
+
+	/** The default commit interval. */
+	private static final int DEFAULT_COMMIT_INTERVAL = 1000;
+
 	/** The crypto repository. */
 	private MutableRepository mCryptoRepository;
 
 	/** The data source for the data to be rekeyed. */
 	private DataSource mDataDataSource;
 
+	/** The decryptor, which replaces the decryptor component and method when set. */
+	private Decryptor mDecryptor;
+
 	/** The decryptor component. */
 	private Object mDecryptorComponent;
 
@@ -61,348 +123,2222 @@ public class RekeyEngine extends GenericService {
 	/** The engine to update. */
 	private CryptoEngine mEngineToUpdate;
 
-	/** The decrypt method. */
-	private Method mDecryptMethod;
+	/** The last four digits shadow columns, keyed by the table.column they are derived from. */
+	private Map<String, String> mLastFourColumns = Collections.emptyMap();
+
+	/** The BIN shadow columns, keyed by the table.column they are derived from. */
+	private Map<String, String> mBinColumns = Collections.emptyMap();
+
+	/** The masked value shadow columns, keyed by the table.column they are derived from. */
+	private Map<String, String> mMaskedColumns = Collections.emptyMap();
+
+	/** The number of leading digits written to the BIN shadow columns. */
+	private int mBinLength = CardNumberMasker.DEFAULT_BIN_LENGTH;
+
+	/** The blind index columns, keyed by the table.column they are computed from. */
+	private Map<String, String> mBlindIndexColumns = Collections.emptyMap();
+
+	/** The cipher modes of the table columns which do not use the cipher mode of the engine, keyed by table.column. */
+	private Map<String, String> mCipherModes = Collections.emptyMap();
+
+	/** The number of workers processing partitions concurrently. */
+	private int mWorkerCount = 1;
 
-	/** The encryptor. */
-	private StandardPBEStringEncryptor mEncryptor;
+	/** The number of rows per partition, zero or less to process each table column as a single partition. */
+	private int mPartitionSize;
+
+	/** The columns used to split tables into partitions, keyed by table, the key column is used by default. */
+	private Map<String, String> mPartitionColumns = Collections.emptyMap();
+
+	/** The unique key columns used to update rows in batches, keyed by table, the primary key is used by default. */
+	private Map<String, String> mKeyColumns = Collections.emptyMap();
+
+	/** The batch updates flag, to update rows by key in JDBC batches instead of through an updatable cursor. */
+	private boolean mBatchUpdates;
+
+	/** The number of rows per JDBC batch, and the fetch size, when updating in batches. */
+	private int mBatchSize = DEFAULT_BATCH_SIZE;
+
+	/** The number of rows per commit when updating in batches, zero or less to commit each partition once. */
+	private int mCommitInterval = DEFAULT_COMMIT_INTERVAL;
+
+	/**
+	 * The SQL predicate selecting the rows of one partition, where {0} is the partition column, {1} the partition count
+	 * and {2} the partition index.
+	 */
+	private String mPartitionPredicate = DEFAULT_PARTITION_PREDICATE;
+
+	/** The number of crypto workers shared by the partitions in batch update mode, 0 to decrypt on their threads. */
+	private int mCryptoWorkerCount;
+
+	/** The largest number of rows of a partition read ahead of its writer when crypto workers are used. */
+	private int mPipelineQueueSize = DEFAULT_PIPELINE_QUEUE_SIZE;
+
+	/** The readers of the partitions of the current run, null without crypto workers. */
+	private ExecutorService mReaderExecutor;
+
+	/** The crypto workers of the current run, null without crypto workers. */
+	private ExecutorService mCryptoExecutor;
+
+	/** The decryptor of the current run, the decryptor or an adapter of the decryptor component. */
+	private Decryptor mSourceDecryptor;
+
+	/** The pool of encryptors, derived key ciphers and blind indexes using the new passphrases. */
+	private CipherPool mCipherPool;
 
 	/** The new data passphrase. */
 	private String mNewDataPassphrase;
 
+	/** The new blind index passphrase. */
+	private String mNewIndexPassphrase;
+
+	/** The key id of the new data key on the engine's key ring. */
+	private int mNewKeyId;
+
+	/** The incremental flag: only rows not yet on the new key are selected when re-encrypting. */
+	private boolean mIncremental;
+
+	/** The key version column of each table column, written with the key id of its value. */
+	private Map<String, String> mKeyVersionColumns = Collections.emptyMap();
+
+	/** The checkpoint table, null to keep no checkpoints. */
+	private String mCheckpointTable;
+
+	/** The checkpoints of the current rekey, null if checkpoints are not kept. */
+	private RekeyCheckpointTable mCheckpoints;
+
+	/** The partitions which failed in the last run. */
+	private List<RekeyPartition> mFailedPartitions = Collections.emptyList();
+
+	/** The re-encrypt flag of the last run, used to retry its failed partitions. */
+	private boolean mLastRunReEncrypt;
+
+	/** The scanner which verifies the re-encrypted values before the new key is made active, optional. */
+	private IntegrityScanner mIntegrityScanner;
+
+	/** The live counters of the current or last run. */
+	private final RekeyMetrics mMetrics = new RekeyMetrics();
+
+	/** The rows per second ceiling over every worker, zero or less for no ceiling. */
+	private int mMaxRowsPerSecond;
+
+	/** The latency of a write or commit above which fewer workers write at once, zero or less to not adapt. */
+	private int mWriteLatencyTargetMillis;
+
+	/** The throttle which paces and pauses the writes of the workers. */
+	private final RekeyThrottle mThrottle = new RekeyThrottle();
+
+	/** The name the metrics are registered under on the platform MBean server, null if not registered. */
+	private ObjectName mMetricsMBeanName;
+
 	/**
-	 * Initializes the decryptMethod, generates a new data passphrase, and sets up the local encryptor component.
+	 * Initializes the source decryptor, generates new data and blind index passphrases, and sets up the pool of local
+	 * encryptors.
 	 *
 	 * @throws SecurityException
 	 *             the security exception
 	 * @throws NoSuchMethodException
-	 *             the no such method exception
+	 *             if the decryptor component has no such decryptor method
+	 * @throws IllegalAccessException
+	 *             if the decryptor method is not accessible
+	 * @throws UnsupportedEncodingException
+	 *             if UTF-8 is not supported
 	 */
-	private void initialize() throws SecurityException, NoSuchMethodException {
+	void initialize() throws SecurityException, NoSuchMethodException, IllegalAccessException,
+			UnsupportedEncodingException {
 		if (isLoggingDebug()) {
 			logDebug("RekeyEngine.initialize:" + "starting....");
 		}
-		// Add the BouncyCastle JCE Security provider
-		Security.addProvider(new BouncyCastleProvider());
+		// Add the BouncyCastle JCE Security provider, once per JVM
+		CryptoProviders.registerBouncyCastle();
 
 		// Generate new data passphrase
 		this.mNewDataPassphrase = generateNewDataPassphrase();
 		if (isLoggingDebug()) {
 			logDebug("RekeyEngine.initialize:" + "new data passphrase was generated:" + this.mNewDataPassphrase);
 		}
+		// The blind index key is rotated along with the data key
+		this.mNewIndexPassphrase = generateNewDataPassphrase();
 		// Setup the decryptor
-		Class[] decryptMethodArgs = new Class[1];
-		decryptMethodArgs[0] = String.class;
-		Method decryptMethod = getDecryptorComponent().getClass().getMethod(getDecryptorMethod(), decryptMethodArgs);
-		this.mDecryptMethod = decryptMethod;
+		if (getDecryptor() != null) {
+			this.mSourceDecryptor = getDecryptor();
+		} else {
+			this.mSourceDecryptor = MethodHandleDecryptor.forComponent(getDecryptorComponent(), getDecryptorMethod());
+		}
 		if (isLoggingDebug()) {
-			logDebug("RekeyEngine.initialize:" + "decryptMethod is setup.");
+			logDebug("RekeyEngine.initialize:" + "decryptor is setup.");
 		}
 
-		// Setup the encryptor
-		StandardPBEStringEncryptor encryptor = new StandardPBEStringEncryptor();
-		encryptor.setProviderName(CryptoConstants.BOUNCY_CASTLE_PROVIDER_NAME);
-		encryptor.setAlgorithm(CryptoConstants.STRONG_ALGO);
-		encryptor.setPassword(this.mNewDataPassphrase);
-		this.mEncryptor = encryptor;
+		createCipherPool();
+		this.mFailedPartitions = Collections.emptyList();
+		this.mCheckpoints = null;
+		this.mMetrics.reset();
 		if (isLoggingDebug()) {
 			logDebug("RekeyEngine.initialize:" + "encryptor is setup.");
 		}
 	}
 
+	/**
+	 * Sets up one stripe of local encryptors per worker or crypto worker, using the new passphrases.
+	 *
+	 * @throws UnsupportedEncodingException
+	 *             if UTF-8 is not supported
+	 */
+	private void createCipherPool() throws UnsupportedEncodingException {
+		this.mCipherPool = new CipherPool(Math.max(1, Math.max(getWorkerCount(), getCryptoWorkerCount())),
+				this.mNewDataPassphrase,
+				getEngineToUpdate().createDerivedKeyCipher(this.mNewDataPassphrase),
+				getEngineToUpdate().createDerivedKeyCipher(CipherSuite.AES_GCM, this.mNewDataPassphrase),
+				new BlindIndex(this.mNewIndexPassphrase));
+	}
+
+	/**
+	 * Re-encrypts one value: decrypts it using the referenced decryptor component and method, and encrypts the result
+	 * with the new data passphrase.
+	 *
+	 * @param pEncryptedString
+	 *            the value as currently stored
+	 * @return the value encrypted with the new data passphrase
+	 */
+	String reEncrypt(String pEncryptedString) {
+		// Encrypt using the new local encryptor using the new passphrase
+		return encrypt(decrypt(pEncryptedString), getEngineToUpdate().getCipherSuite());
+	}
+
+	/**
+	 * Decrypts the passed in value using the decryptor.
+	 *
+	 * @param pEncryptedString
+	 *            the value as currently stored
+	 * @return the decrypted value
+	 */
+	private String decrypt(String pEncryptedString) {
+		String decryptedString = this.mSourceDecryptor.decrypt(pEncryptedString);
+		if (isLoggingDebug()) {
+			logDebug("RekeyEngine.decrypt:" + "decrypted string: " + decryptedString);
+		}
+		return decryptedString;
+	}
+
+	/**
+	 * Encrypts the passed in text with the new data passphrase, in a cipher suite, and prefixes it with the new key id.
+	 *
+	 * @param pPlainText
+	 *            the plain text
+	 * @param pSuite
+	 *            the cipher suite
+	 * @return the encrypted text
+	 */
+	private String encrypt(String pPlainText, CipherSuite pSuite) {
+		CipherPool.Stripe stripe = this.mCipherPool.acquire();
+		try {
+			if (pSuite.isDerivedKey()) {
+				return KeyRing.tag(this.mNewKeyId, stripe.getCipher(pSuite).encrypt(pPlainText));
+			}
+			return KeyRing.tag(this.mNewKeyId, stripe.getEncryptor().encrypt(pPlainText));
+		} finally {
+			this.mCipherPool.release(stripe);
+		}
+	}
+
+	/**
+	 * Gets the cipher suite the values of a table column are re-encrypted with: the one of its configured cipher mode,
+	 * or else the one of the engine to update.
+	 *
+	 * @param pTableColumn
+	 *            the table column, as table.column
+	 * @return the cipher suite
+	 */
+	private CipherSuite getCipherSuite(String pTableColumn) {
+		String cipherMode = getCipherModes().get(pTableColumn);
+		return cipherMode == null ? getEngineToUpdate().getCipherSuite() : CipherSuite.forCipherMode(cipherMode);
+	}
+
+	/**
+	 * Computes the blind index of the passed in text with the new blind index passphrase.
+	 *
+	 * @param pPlainText
+	 *            the plain text
+	 * @return the blind index
+	 */
+	private String blindIndex(String pPlainText) {
+		CipherPool.Stripe stripe = this.mCipherPool.acquire();
+		try {
+			return stripe.getBlindIndex().compute(pPlainText);
+		} finally {
+			this.mCipherPool.release(stripe);
+		}
+	}
+
 	/**
 	 * Rekey. This method performs batch decrypt and encrypt operations on one or more columns in the database. It can
 	 * be used to perform initial encryption of plain text data, re-encrypt data that was encrypted with another system,
 	 * or re-encrypt data with a new key to meet PCI key rotation requirements.
+	 *
+	 * The new key is only saved once every partition has completed. If some partitions failed, fix the cause and call
+	 * {@link #retryFailedPartitions()}, or call this method again to resume from the checkpoints.
 	 */
 	public void reKey() {
-		// UserTransactionDemarcation td = new UserTransactionDemarcation();
-		// try {
-		// try {
-		// td.begin();
-		// Setup JDBC connection
-		Connection dataConnection = null;
-		ResultSet rs = null;
-		Statement selectStmt = null;
 		try {
 			initialize();
-
-			dataConnection = getDataDataSource().getConnection();
-			dataConnection.setAutoCommit(false);
-			if (isLoggingDebug()) {
-				logDebug("RekeyEngine.reKey:" + "dataconnection is set.");
-			}
-			// For each column we need to update...
-			for (String tableColumn : getTableColumns()) {
-				if (!StringUtils.isBlank(tableColumn) && tableColumn.split("\\.") != null
-						&& tableColumn.split("\\.").length == 2) {
-					String[] columnData = tableColumn.split("\\.");
-					String tableName = columnData[0];
-					String columnName = columnData[1];
-
-					// Load up values
-					String selectQuery = "SELECT " + columnName + " FROM " + tableName;
-					if (isLoggingDebug()) {
-						logDebug("RekeyEngine.reKey:" + "selectQuery: " + selectQuery);
-					}
-					selectStmt = dataConnection.createStatement(ResultSet.TYPE_SCROLL_SENSITIVE,
-							ResultSet.CONCUR_UPDATABLE);
-					rs = selectStmt.executeQuery(selectQuery);
-					while (rs.next()) {
-						if (isLoggingDebug()) {
-							logDebug("RekeyEngine.reKey:" + "about to work on Row ID: " + rs.getRowId(1));
-							logDebug("RekeyEngine.reKey:" + "about to work on Row Num: " + rs.getRow());
-						}
-						String encryptedString = rs.getString(1);
-						if (isLoggingDebug()) {
-							logDebug("RekeyEngine.reKey:" + "initial encrypted string: " + encryptedString);
-						}
-						// Decrypt using the referenced component and method
-						String decryptedString = (String) this.mDecryptMethod.invoke(getDecryptorComponent(),
-								encryptedString);
-
-						if (isLoggingDebug()) {
-							logDebug("RekeyEngine.reKey:" + "decrypted string: " + decryptedString);
-						}
-						// Encrypt using the new local encryptor using the new passphrase
-						String reEncryptedString = this.mEncryptor.encrypt(decryptedString);
-
-						if (isLoggingDebug()) {
-							logDebug("RekeyEngine.reKey:" + "re-encrypted string: " + reEncryptedString);
-						}
-						// Update the record
-						rs.updateString(columnName, reEncryptedString);
-						rs.updateRow();
-						if (isLoggingDebug()) {
-							logDebug("RekeyEngine.reKey:" + "updated Row ID: " + rs.getRowId(1));
-							logDebug("RekeyEngine.reKey:" + "updated Row Num: " + rs.getRow());
-						}
-					}
+			boolean resuming = preparePendingKey();
+			if (getCheckpointTable() != null) {
+				this.mCheckpoints = new RekeyCheckpointTable(getCheckpointTable(), getEngineToUpdate()
+						.getCryptoEngineIdentifier());
+				if (!resuming) {
+					// Checkpoints left by a rekey which completed without clearing them
+					clearCheckpoints();
 				}
 			}
-
-			// Encrypt the new passphrase
-			final StandardPBEStringEncryptor dataPassEncryptor = new StandardPBEStringEncryptor();
-			dataPassEncryptor.setProviderName(CryptoConstants.BOUNCY_CASTLE_PROVIDER_NAME);
-			dataPassEncryptor.setAlgorithm(CryptoConstants.STRONG_ALGO);
-			dataPassEncryptor.setPassword(getNewKeyPassphrase());
-			String encryptedNewDataPassphrase = dataPassEncryptor.encrypt(this.mNewDataPassphrase);
-			// Load crypto engine data
-			MutableRepositoryItem cryptoEngineItem = getCryptoRepository().getItemForUpdate(
-					getEngineToUpdate().getCryptoEngineIdentifier(), CryptoConstants.CRYPTO_ENGINE_ITEM_DESC);
-
-			// Persist the new data passphrase
-			cryptoEngineItem.setPropertyValue(CryptoConstants.ENC_DATA_KEY_PROP_NAME, encryptedNewDataPassphrase);
-			cryptoEngineItem.setPropertyValue(CryptoConstants.KEY_DATE_PROP_NAME, new Date());
-			getCryptoRepository().updateItem(cryptoEngineItem);
-			if (isLoggingDebug()) {
-				logDebug("RekeyEngine.reKey:" + "crypto config saved.");
+			if (runPartitions(createPartitions(true, false), true) && catchUp() && verifyIntegrity()) {
+				saveNewKey();
 			}
-
-		} catch (SQLException sqle) {
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
 			if (isLoggingError()) {
-				logError("RekeyEngine.reKey:" + "SQLException:", sqle);
+				logError("RekeyEngine.reKey:" + "interrupted while waiting for the engines to load the new key.", ie);
 			}
-		} catch (InvocationTargetException ite) {
+		} catch (EncryptionOperationNotPossibleException eonpe) {
 			if (isLoggingError()) {
-				logError("RekeyEngine.reKey:" + "InvocationTargetException:", ite);
+				logError("RekeyEngine.reKey:" + "the pending key could not be decrypted with the new key passphrase.",
+						eonpe);
 			}
-		} catch (IllegalAccessException iae) {
+		} catch (SQLException sqle) {
 			if (isLoggingError()) {
-				logError("RekeyEngine.reKey:" + "IllegalAccessException:", iae);
+				logError("RekeyEngine.reKey:" + "SQLException:", sqle);
 			}
 		} catch (NoSuchMethodException nsme) {
 			if (isLoggingError()) {
 				logError("RekeyEngine.reKey:" + "NoSuchMethodException:", nsme);
 			}
+		} catch (IllegalAccessException iae) {
+			if (isLoggingError()) {
+				logError("RekeyEngine.reKey:" + "IllegalAccessException:", iae);
+			}
 		} catch (RepositoryException re) {
 			if (isLoggingError()) {
 				logError("RekeyEngine.reKey:" + "RepositoryException:", re);
 			}
-		} finally {
-			if (dataConnection != null) {
-				try {
-					if (rs != null) {
-						rs.close();
-					}
-					dataConnection.commit();
-					dataConnection.close();
-				} catch (SQLException e) {
-					if (isLoggingError()) {
-						logError("RekeyEngine.reKey:" + "unable to close data connection.", e);
-					}
-				}
+		} catch (UnsupportedEncodingException uee) {
+			if (isLoggingError()) {
+				logError("RekeyEngine.reKey:" + "UnsupportedEncodingException:", uee);
 			}
 		}
-
-		// finally {
-		// td.end();
-		// }
-		// } catch (TransactionDemarcationException tde) {
-		// if (isLoggingError()) {
-		// logError("RekeyEngine.reKey:" + "Transaction Exception.", tde);
-		// }
-		// } catch (RepositoryException e) {
-		// if (isLoggingError()) {
-		// logError("RekeyEngine.reKey:" + "Repository Exception.", e);
-		// }
-		// }
-
 	}
 
 	/**
-	 * Generate new data password.
-	 *
-	 * @return the string
+	 * Retries the partitions which failed in the last run of {@link #reKey()} or {@link #backfillShadowColumns()},
+	 * with the same new key. The new key is saved once they all complete.
 	 */
-	private String generateNewDataPassphrase() {
-		String newDataPassphrase = new BigInteger(130, new SecureRandom()).toString(32);
-		if (isLoggingDebug()) {
-			logDebug("RekeyEngine.generateNewDataPassphrase:" + "newDataPassphrase is: " + newDataPassphrase);
+	public void retryFailedPartitions() {
+		if (this.mFailedPartitions.isEmpty()) {
+			if (isLoggingWarning()) {
+				logWarning("RekeyEngine.retryFailedPartitions:" + "there are no failed partitions to retry.");
+			}
+			return;
+		}
+		try {
+			if (runPartitions(this.mFailedPartitions, this.mLastRunReEncrypt) && this.mLastRunReEncrypt && catchUp()
+					&& verifyIntegrity()) {
+				saveNewKey();
+			}
+		} catch (SQLException sqle) {
+			if (isLoggingError()) {
+				logError("RekeyEngine.retryFailedPartitions:" + "SQLException:", sqle);
+			}
+		} catch (RepositoryException re) {
+			if (isLoggingError()) {
+				logError("RekeyEngine.retryFailedPartitions:" + "RepositoryException:", re);
+			}
 		}
-		return newDataPassphrase;
-	}
-
-	/*
-	 * (non-Javadoc)
-	 *
-	 * @see atg.nucleus.GenericService#doStartService()
-	 */
-	@Override
-	public void doStartService() throws ServiceException {
-		// TODO Validations
 	}
 
 	/**
-	 * Gets the decryptor component.
+	 * Catches up with the rows written by live traffic while the partitions were processed: every table column is
+	 * processed again, selecting only the values which are not on the new key, whether incremental mode is on or not.
+	 * The failed partitions of the catch up are retried by {@link #retryFailedPartitions()}, which catches up again.
 	 *
-	 * @return the decryptor component
+	 * @return true, if every catch up partition completed
+	 * @throws SQLException
+	 *             the SQL exception
 	 */
-	public Object getDecryptorComponent() {
-		return mDecryptorComponent;
+	private boolean catchUp() throws SQLException {
+		if (isLoggingInfo()) {
+			logInfo("RekeyEngine.catchUp:" + "re-encrypting the rows written during the rekey.");
+		}
+		return runPartitions(createPartitions(true, true), true);
 	}
 
 	/**
-	 * Sets the decryptor component.
+	 * Verifies that every value of the integrity scanner's table columns decrypts with the engine to update, before
+	 * the new key is made active. Values written by live traffic during the rekey are still encrypted with the old
+	 * active key, so values which are not on the new key do not fail the gate.
 	 *
-	 * @param pDecryptorComponent
-	 *            the new decryptor component
+	 * @return true, if no integrity scanner is configured or its scan passed
 	 */
-	public void setDecryptorComponent(Object pDecryptorComponent) {
-		mDecryptorComponent = pDecryptorComponent;
+	private boolean verifyIntegrity() {
+		if (getIntegrityScanner() == null) {
+			return true;
+		}
+		IntegrityReport report = getIntegrityScanner().scan(getEngineToUpdate(), false);
+		if (!report.isPassed() && isLoggingError()) {
+			logError("RekeyEngine.verifyIntegrity:" + "the integrity scan failed, the new key was not saved. Fix the"
+					+ " rows in the scanner's report and call reKey again, the pending key is kept: "
+					+ report.getSummary());
+		}
+		return report.isPassed();
 	}
 
 	/**
-	 * Gets the decryptor method.
-	 *
-	 * @return the decryptor method
+	 * Backfill shadow columns. This method decrypts every value of the table columns which have shadow columns
+	 * configured, using the decryptor component, and writes the last four digits, BIN, masked and blind index values
+	 * derived from them. The encrypted values and the keys are not changed, so the decryptor component should be the
+	 * current engine, and blind indexes are computed with the current blind index key of the engine to update.
 	 */
-	public String getDecryptorMethod() {
-		return mDecryptorMethod;
+	public void backfillShadowColumns() {
+		try {
+			initialize();
+			runPartitions(createPartitions(false, false), false);
+		} catch (SQLException sqle) {
+			if (isLoggingError()) {
+				logError("RekeyEngine.backfillShadowColumns:" + "SQLException:", sqle);
+			}
+		} catch (NoSuchMethodException nsme) {
+			if (isLoggingError()) {
+				logError("RekeyEngine.backfillShadowColumns:" + "NoSuchMethodException:", nsme);
+			}
+		} catch (IllegalAccessException iae) {
+			if (isLoggingError()) {
+				logError("RekeyEngine.backfillShadowColumns:" + "IllegalAccessException:", iae);
+			}
+		} catch (UnsupportedEncodingException uee) {
+			if (isLoggingError()) {
+				logError("RekeyEngine.backfillShadowColumns:" + "UnsupportedEncodingException:", uee);
+			}
+		}
 	}
 
 	/**
-	 * Sets the decryptor method.
+	 * Prepares the pending key of the engine to update. If a previous rekey left a pending key, its passphrases replace
+	 * the ones generated by {@link #initialize()}, so rows it already re-encrypted stay readable. Otherwise the new
+	 * passphrases are saved as the pending key, and the new data and blind index passphrases are added to the key ring,
+	 * before any row is changed. The pending key is the key on the ring with an id above the active key id.
 	 *
-	 * @param pDecryptorMethod
-	 *            the new decryptor method
+	 * @return true, if a previous rekey is being resumed
+	 * @throws RepositoryException
+	 *             the repository exception
+	 * @throws UnsupportedEncodingException
+	 *             if UTF-8 is not supported
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the engines to load the new blind index key
 	 */
-	public void setDecryptorMethod(String pDecryptorMethod) {
-		mDecryptorMethod = pDecryptorMethod;
+	private boolean preparePendingKey() throws RepositoryException, UnsupportedEncodingException,
+			InterruptedException {
+		StandardPBEStringEncryptor dataPassEncryptor = createDataPassEncryptor();
+		MutableRepositoryItem cryptoEngineItem = getCryptoRepository().getItemForUpdate(
+				getEngineToUpdate().getCryptoEngineIdentifier(), CryptoConstants.CRYPTO_ENGINE_ITEM_DESC);
+		Map<String, String> encryptedDataPassphrases = getEncryptedDataPassphrases(cryptoEngineItem);
+		Map<String, String> encryptedIndexPassphrases = getEncryptedIndexPassphrases(cryptoEngineItem);
+		StandardPBEStringEncryptor keyPassEncryptor = createKeyPassEncryptor(getEngineToUpdate().getKeyPassphrase());
+		int newKeyId = CryptoConstants.LEGACY_KEY_ID;
+		for (String keyId : encryptedDataPassphrases.keySet()) {
+			newKeyId = Math.max(newKeyId, Integer.parseInt(keyId));
+		}
+		String pendingDataKey = (String) cryptoEngineItem
+				.getPropertyValue(CryptoConstants.PENDING_DATA_KEY_PROP_NAME);
+		if (pendingDataKey != null && newKeyId > getActiveKeyId(cryptoEngineItem)) {
+			if (isLoggingWarning()) {
+				logWarning("RekeyEngine.preparePendingKey:" + "resuming the pending rekey of: "
+						+ getEngineToUpdate().getCryptoEngineIdentifier() + " to key id: " + newKeyId);
+			}
+			this.mNewKeyId = newKeyId;
+			this.mNewDataPassphrase = dataPassEncryptor.decrypt(pendingDataKey);
+			this.mNewIndexPassphrase = dataPassEncryptor.decrypt((String) cryptoEngineItem
+					.getPropertyValue(CryptoConstants.PENDING_INDEX_KEY_PROP_NAME));
+			createCipherPool();
+			// A rekey started before blind index keys were versioned has not added its blind index key to the ring
+			if (!encryptedIndexPassphrases.containsKey(String.valueOf(newKeyId))) {
+				encryptedIndexPassphrases.put(String.valueOf(newKeyId), keyPassEncryptor
+						.encrypt(this.mNewIndexPassphrase));
+				cryptoEngineItem.setPropertyValue(CryptoConstants.ENC_INDEX_KEYS_PROP_NAME, encryptedIndexPassphrases);
+				getCryptoRepository().updateItem(cryptoEngineItem);
+				awaitKeyRingReloads();
+			}
+			return true;
+		}
+		this.mNewKeyId = newKeyId + 1;
+		// The ring is read by the running engines, so the new keys are encrypted with their key passphrase for now
+		encryptedDataPassphrases.put(String.valueOf(this.mNewKeyId), keyPassEncryptor.encrypt(this.mNewDataPassphrase));
+		encryptedIndexPassphrases.put(String.valueOf(this.mNewKeyId), keyPassEncryptor
+				.encrypt(this.mNewIndexPassphrase));
+		cryptoEngineItem.setPropertyValue(CryptoConstants.ENC_DATA_KEYS_PROP_NAME, encryptedDataPassphrases);
+		cryptoEngineItem.setPropertyValue(CryptoConstants.ENC_INDEX_KEYS_PROP_NAME, encryptedIndexPassphrases);
+		cryptoEngineItem.setPropertyValue(CryptoConstants.PENDING_DATA_KEY_PROP_NAME,
+				dataPassEncryptor.encrypt(this.mNewDataPassphrase));
+		cryptoEngineItem.setPropertyValue(CryptoConstants.PENDING_INDEX_KEY_PROP_NAME,
+				dataPassEncryptor.encrypt(this.mNewIndexPassphrase));
+		getCryptoRepository().updateItem(cryptoEngineItem);
+		awaitKeyRingReloads();
+		return false;
 	}
 
 	/**
-	 * Gets the new key passphrase.
+	 * Waits for the engines to load the key ring with the new blind index key, before any row is re-indexed with it.
+	 * The engine to update reloads it at once, the engines on the other servers reload it for the next lookup once it
+	 * is older than keyRingMaxAgeMillis. There is nothing to wait for when no blind index column is configured.
 	 *
-	 * @return the new key passphrase
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
 	 */
-	public String getNewKeyPassphrase() {
-		return mNewKeyPassphrase;
+	private void awaitKeyRingReloads() throws InterruptedException {
+		if (getBlindIndexColumns().isEmpty()) {
+			return;
+		}
+		getEngineToUpdate().reloadKeyRing();
+		int keyRingMaxAgeMillis = getEngineToUpdate().getKeyRingMaxAgeMillis();
+		if (keyRingMaxAgeMillis > 0) {
+			if (isLoggingInfo()) {
+				logInfo("RekeyEngine.awaitKeyRingReloads:" + "waiting " + keyRingMaxAgeMillis
+						+ " ms for the engines to load the new blind index key.");
+			}
+			Thread.sleep(keyRingMaxAgeMillis);
+		}
 	}
 
 	/**
-	 * Sets the new key passphrase.
+	 * Gets a copy of the encrypted data passphrases on the key ring of a crypto engine item. A ring which has not been
+	 * set up yet holds the engine's current data key as the legacy key.
 	 *
-	 * @param pNewKeyPassphrase
-	 *            the new new key passphrase
+	 * @param pCryptoEngineItem
+	 *            the crypto engine item
+	 * @return the encrypted data passphrases, by key id
 	 */
-	public void setNewKeyPassphrase(String pNewKeyPassphrase) {
-		mNewKeyPassphrase = pNewKeyPassphrase;
+	private Map<String, String> getEncryptedDataPassphrases(MutableRepositoryItem pCryptoEngineItem) {
+		Map<String, String> encryptedDataPassphrases = new HashMap<String, String>();
+		@SuppressWarnings("unchecked")
+		Map<String, String> keyRing = (Map<String, String>) pCryptoEngineItem
+				.getPropertyValue(CryptoConstants.ENC_DATA_KEYS_PROP_NAME);
+		if (keyRing == null || keyRing.isEmpty()) {
+			encryptedDataPassphrases.put(String.valueOf(CryptoConstants.LEGACY_KEY_ID),
+					(String) pCryptoEngineItem.getPropertyValue(CryptoConstants.ENC_DATA_KEY_PROP_NAME));
+		} else {
+			encryptedDataPassphrases.putAll(keyRing);
+		}
+		return encryptedDataPassphrases;
 	}
 
 	/**
-	 * Gets the data data source.
+	 * Gets a copy of the encrypted blind index passphrases on the key ring of a crypto engine item. The keys added
+	 * before blind index keys were versioned have none, and use the engine's legacy blind index key.
 	 *
-	 * @return the data data source
+	 * @param pCryptoEngineItem
+	 *            the crypto engine item
+	 * @return the encrypted blind index passphrases, by key id
 	 */
-	public DataSource getDataDataSource() {
-		return mDataDataSource;
+	private Map<String, String> getEncryptedIndexPassphrases(MutableRepositoryItem pCryptoEngineItem) {
+		Map<String, String> encryptedIndexPassphrases = new HashMap<String, String>();
+		@SuppressWarnings("unchecked")
+		Map<String, String> keyRing = (Map<String, String>) pCryptoEngineItem
+				.getPropertyValue(CryptoConstants.ENC_INDEX_KEYS_PROP_NAME);
+		if (keyRing != null) {
+			encryptedIndexPassphrases.putAll(keyRing);
+		}
+		return encryptedIndexPassphrases;
 	}
 
 	/**
-	 * Sets the data data source.
+	 * Gets the active key id of a crypto engine item.
 	 *
-	 * @param pDataDataSource
-	 *            the new data data source
+	 * @param pCryptoEngineItem
+	 *            the crypto engine item
+	 * @return the active key id
 	 */
-	public void setDataDataSource(DataSource pDataDataSource) {
-		mDataDataSource = pDataDataSource;
+	private int getActiveKeyId(MutableRepositoryItem pCryptoEngineItem) {
+		Integer activeKeyId = (Integer) pCryptoEngineItem.getPropertyValue(CryptoConstants.ACTIVE_KEY_ID_PROP_NAME);
+		return activeKeyId == null ? CryptoConstants.LEGACY_KEY_ID : activeKeyId.intValue();
 	}
 
 	/**
-	 * Gets the crypto repository.
+	 * Creates an encryptor for passphrases, using the new key passphrase.
 	 *
-	 * @return the crypto repository
+	 * @return the encryptor
 	 */
-	public MutableRepository getCryptoRepository() {
-		return mCryptoRepository;
+	private StandardPBEStringEncryptor createDataPassEncryptor() {
+		return createKeyPassEncryptor(getNewKeyPassphrase());
 	}
 
 	/**
-	 * Sets the crypto repository.
+	 * Creates an encryptor for passphrases.
 	 *
-	 * @param pCryptoRepository
-	 *            the new crypto repository
+	 * @param pKeyPassphrase
+	 *            the key passphrase
+	 * @return the encryptor
 	 */
-	public void setCryptoRepository(MutableRepository pCryptoRepository) {
-		mCryptoRepository = pCryptoRepository;
+	private StandardPBEStringEncryptor createKeyPassEncryptor(String pKeyPassphrase) {
+		final StandardPBEStringEncryptor dataPassEncryptor = new StandardPBEStringEncryptor();
+		dataPassEncryptor.setProviderName(CryptoConstants.BOUNCY_CASTLE_PROVIDER_NAME);
+		dataPassEncryptor.setAlgorithm(CryptoConstants.STRONG_ALGO);
+		dataPassEncryptor.setPassword(pKeyPassphrase);
+		return dataPassEncryptor;
 	}
 
 	/**
-	 * Gets the table columns.
+	 * Deletes the checkpoints of the engine to update.
 	 *
-	 * @return the table columns
+	 * @throws SQLException
+	 *             the SQL exception
 	 */
-	public List<String> getTableColumns() {
-		return mTableColumns;
+	private void clearCheckpoints() throws SQLException {
+		Connection connection = getDataDataSource().getConnection();
+		try {
+			connection.setAutoCommit(false);
+			this.mCheckpoints.clear(connection);
+			connection.commit();
+		} finally {
+			connection.close();
+		}
 	}
 
 	/**
-	 * Sets the table columns.
+	 * Saves the new data and blind index passphrases, encrypted with the new key passphrase, makes the new key the
+	 * active key of the ring, and clears the pending key and the checkpoints. When the key passphrase changes, every
+	 * key on the ring is re-encrypted with the new one. The blind index keys of the old keys stay on the ring, the
+	 * values written with them are still found until the next rekey re-indexes them.
 	 *
-	 * @param pTableColumns
-	 *            the new table columns
+	 * @throws RepositoryException
+	 *             the repository exception
 	 */
-	public void setTableColumns(List<String> pTableColumns) {
-		mTableColumns = pTableColumns;
-	}
+	private void saveNewKey() throws RepositoryException {
+		// Encrypt the new passphrase
+		final StandardPBEStringEncryptor dataPassEncryptor = createDataPassEncryptor();
+		String encryptedNewDataPassphrase = dataPassEncryptor.encrypt(this.mNewDataPassphrase);
+		String encryptedNewIndexPassphrase = dataPassEncryptor.encrypt(this.mNewIndexPassphrase);
+		// Load crypto engine data
+		MutableRepositoryItem cryptoEngineItem = getCryptoRepository().getItemForUpdate(
+				getEngineToUpdate().getCryptoEngineIdentifier(), CryptoConstants.CRYPTO_ENGINE_ITEM_DESC);
 
-	/**
-	 * Gets the engine to update.
-	 *
-	 * @return the engine to update
-	 */
-	public CryptoEngine getEngineToUpdate() {
-		return mEngineToUpdate;
+		// Persist the new data passphrase
+		cryptoEngineItem.setPropertyValue(CryptoConstants.ENC_DATA_KEY_PROP_NAME, encryptedNewDataPassphrase);
+		Map<String, String> encryptedDataPassphrases = getEncryptedDataPassphrases(cryptoEngineItem);
+		Map<String, String> encryptedIndexPassphrases = getEncryptedIndexPassphrases(cryptoEngineItem);
+		boolean keyPassphraseChanged = !getNewKeyPassphrase().equals(getEngineToUpdate().getKeyPassphrase());
+		if (keyPassphraseChanged) {
+			StandardPBEStringEncryptor oldDataPassEncryptor = createKeyPassEncryptor(getEngineToUpdate()
+					.getKeyPassphrase());
+			for (Map.Entry<String, String> entry : encryptedDataPassphrases.entrySet()) {
+				entry.setValue(dataPassEncryptor.encrypt(oldDataPassEncryptor.decrypt(entry.getValue())));
+			}
+			for (Map.Entry<String, String> entry : encryptedIndexPassphrases.entrySet()) {
+				entry.setValue(dataPassEncryptor.encrypt(oldDataPassEncryptor.decrypt(entry.getValue())));
+			}
+			String encryptedIndexPassphrase = (String) cryptoEngineItem
+					.getPropertyValue(CryptoConstants.ENC_INDEX_KEY_PROP_NAME);
+			if (encryptedIndexPassphrase != null) {
+				cryptoEngineItem.setPropertyValue(CryptoConstants.ENC_INDEX_KEY_PROP_NAME,
+						dataPassEncryptor.encrypt(oldDataPassEncryptor.decrypt(encryptedIndexPassphrase)));
+			}
+		}
+		encryptedDataPassphrases.put(String.valueOf(this.mNewKeyId), encryptedNewDataPassphrase);
+		encryptedIndexPassphrases.put(String.valueOf(this.mNewKeyId), encryptedNewIndexPassphrase);
+		cryptoEngineItem.setPropertyValue(CryptoConstants.ENC_DATA_KEYS_PROP_NAME, encryptedDataPassphrases);
+		cryptoEngineItem.setPropertyValue(CryptoConstants.ENC_INDEX_KEYS_PROP_NAME, encryptedIndexPassphrases);
+		cryptoEngineItem.setPropertyValue(CryptoConstants.ACTIVE_KEY_ID_PROP_NAME, Integer.valueOf(this.mNewKeyId));
+		cryptoEngineItem.setPropertyValue(CryptoConstants.KEY_DATE_PROP_NAME, new Date());
+		cryptoEngineItem.setPropertyValue(CryptoConstants.PENDING_DATA_KEY_PROP_NAME, null);
+		cryptoEngineItem.setPropertyValue(CryptoConstants.PENDING_INDEX_KEY_PROP_NAME, null);
+		getCryptoRepository().updateItem(cryptoEngineItem);
+		if (isLoggingDebug()) {
+			logDebug("RekeyEngine.saveNewKey:" + "crypto config saved.");
+		}
+		if (keyPassphraseChanged) {
+			if (isLoggingWarning()) {
+				logWarning("RekeyEngine.saveNewKey:" + "the key passphrase changed, engines switch to the new key once"
+						+ " they are restarted with the new key passphrase.");
+			}
+		} else {
+			getEngineToUpdate().reloadKeyRing();
+		}
+		if (this.mCheckpoints != null) {
+			try {
+				clearCheckpoints();
+			} catch (SQLException sqle) {
+				if (isLoggingError()) {
+					logError("RekeyEngine.saveNewKey:" + "unable to clear the checkpoints, they will be cleared by the"
+							+ " next rekey.", sqle);
+				}
+			}
+		}
 	}
 
 	/**
-	 * Sets the engine to update.
+	 * Creates the partitions of every table column. A table column is split when a partition size is set and it has
+	 * more rows than the partition size. When resuming from checkpoints, a table column keeps the partition count it was
+	 * checkpointed with, completed partitions are left out and the others resume after their last committed key.
 	 *
-	 * @param pEngineToUpdate
-	 *            the new engine to update
+	 * @param pReEncrypt
+	 *            the re-encrypt flag, table columns without shadow columns are skipped if false
+	 * @param pCatchUp
+	 *            the catch up flag, the partitions only select the values which are not on the new key and ignore the
+	 *            checkpoints if true
+	 * @return the partitions
+	 * @throws SQLException
+	 *             the SQL exception
 	 */
-	public void setEngineToUpdate(CryptoEngine pEngineToUpdate) {
-		mEngineToUpdate = pEngineToUpdate;
+	private List<RekeyPartition> createPartitions(boolean pReEncrypt, boolean pCatchUp) throws SQLException {
+		List<RekeyPartition> partitions = new ArrayList<RekeyPartition>();
+		Connection connection = getDataDataSource().getConnection();
+		try {
+			Map<String, Map<Integer, RekeyCheckpointTable.Checkpoint>> checkpoints = loadCheckpoints(connection,
+					pReEncrypt && !pCatchUp);
+			for (String tableColumn : getTableColumns()) {
+				if (StringUtils.isBlank(tableColumn) || tableColumn.split("\\.").length != 2) {
+					continue;
+				}
+				String[] columnData = tableColumn.trim().split("\\.");
+				String tableName = columnData[0];
+				String columnName = columnData[1];
+				if (!pReEncrypt && getUpdateColumns(tableColumn.trim(), false).isEmpty()) {
+					continue;
+				}
+				String keyColumn = null;
+				if (isBatchUpdates()) {
+					keyColumn = getKeyColumn(connection, tableName);
+					if (keyColumn == null) {
+						throw new SQLException("No key column found for: " + tableName
+								+ ", configure it in keyColumns to use batch updates.");
+					}
+				}
+				Map<Integer, RekeyCheckpointTable.Checkpoint> tableColumnCheckpoints = checkpoints.get(tableColumn
+						.trim());
+				// The row count also gives the metrics their ETA
+				long rowCount = countRows(connection, tableName, getIncrementalCondition(tableColumn.trim(),
+						pReEncrypt, pCatchUp));
+				this.mMetrics.addTableColumn(tableColumn.trim(), rowCount);
+				int partitionCount = 1;
+				String partitionColumn = null;
+				if (tableColumnCheckpoints != null) {
+					partitionCount = tableColumnCheckpoints.values().iterator().next().getPartitionCount();
+				} else if (getPartitionSize() > 0) {
+					partitionCount = (int) Math.max(1, (rowCount + getPartitionSize() - 1) / getPartitionSize());
+				}
+				if (partitionCount > 1) {
+					partitionColumn = getPartitionColumns().get(tableName);
+					if (partitionColumn == null) {
+						partitionColumn = keyColumn != null ? keyColumn : getKeyColumn(connection, tableName);
+					}
+					if (partitionColumn == null) {
+						if (isLoggingWarning()) {
+							logWarning("RekeyEngine.createPartitions:" + "no partition column found for: "
+									+ tableName + ", it will not be split.");
+						}
+						partitionCount = 1;
+					}
+				}
+				for (int i = 0; i < partitionCount; i++) {
+					RekeyPartition partition = new RekeyPartition(tableName, columnName, keyColumn, partitionColumn, i,
+							partitionCount);
+					partition.setCatchUp(pCatchUp);
+					RekeyCheckpointTable.Checkpoint checkpoint = tableColumnCheckpoints == null ? null
+							: tableColumnCheckpoints.get(Integer.valueOf(i));
+					if (checkpoint != null) {
+						if (checkpoint.isCompleted()) {
+							continue;
+						}
+						partition.setLastCommittedKey(checkpoint.getLastKey());
+					}
+					partitions.add(partition);
+				}
+			}
+		} finally {
+			connection.close();
+		}
+		return partitions;
+	}
+
+	/**
+	 * Loads the checkpoints of the current rekey, by table column and partition index.
+	 *
+	 * @param pConnection
+	 *            the connection
+	 * @param pReEncrypt
+	 *            the re-encrypt flag, there are no checkpoints if false
+	 * @return the checkpoints
+	 * @throws SQLException
+	 *             the SQL exception
+	 */
+	private Map<String, Map<Integer, RekeyCheckpointTable.Checkpoint>> loadCheckpoints(Connection pConnection,
+			boolean pReEncrypt) throws SQLException {
+		Map<String, Map<Integer, RekeyCheckpointTable.Checkpoint>> checkpoints;
+		checkpoints = new HashMap<String, Map<Integer, RekeyCheckpointTable.Checkpoint>>();
+		if (!pReEncrypt || this.mCheckpoints == null) {
+			return checkpoints;
+		}
+		for (RekeyCheckpointTable.Checkpoint checkpoint : this.mCheckpoints.load(pConnection)) {
+			Map<Integer, RekeyCheckpointTable.Checkpoint> tableColumnCheckpoints = checkpoints.get(checkpoint
+					.getTableColumn());
+			if (tableColumnCheckpoints == null) {
+				tableColumnCheckpoints = new HashMap<Integer, RekeyCheckpointTable.Checkpoint>();
+				checkpoints.put(checkpoint.getTableColumn(), tableColumnCheckpoints);
+			}
+			tableColumnCheckpoints.put(Integer.valueOf(checkpoint.getPartitionIndex()), checkpoint);
+		}
+		return checkpoints;
+	}
+
+	/**
+	 * Counts the rows of a table.
+	 *
+	 * @param pConnection
+	 *            the connection
+	 * @param pTableName
+	 *            the table name
+	 * @param pCondition
+	 *            the SQL condition the rows must match, null to count every row
+	 * @return the row count
+	 * @throws SQLException
+	 *             the SQL exception
+	 */
+	private long countRows(Connection pConnection, String pTableName, String pCondition) throws SQLException {
+		Statement countStmt = pConnection.createStatement();
+		try {
+			ResultSet rs = countStmt.executeQuery("SELECT COUNT(*) FROM " + pTableName
+					+ (pCondition == null ? "" : " WHERE " + pCondition));
+			try {
+				rs.next();
+				return rs.getLong(1);
+			} finally {
+				rs.close();
+			}
+		} finally {
+			countStmt.close();
+		}
+	}
+
+	/**
+	 * Gets the unique key column of a table: the configured one, or else its primary key column.
+	 *
+	 * @param pConnection
+	 *            the connection
+	 * @param pTableName
+	 *            the table name
+	 * @return the key column, or null if none is configured and the table has no single column primary key
+	 * @throws SQLException
+	 *             the SQL exception
+	 */
+	private String getKeyColumn(Connection pConnection, String pTableName) throws SQLException {
+		String keyColumn = getKeyColumns().get(pTableName);
+		if (keyColumn != null) {
+			return keyColumn;
+		}
+		DatabaseMetaData metaData = pConnection.getMetaData();
+		// Oracle keeps unquoted table names in upper case
+		for (String tableName : new String[] { pTableName, pTableName.toUpperCase() }) {
+			List<String> keyColumns = new ArrayList<String>();
+			ResultSet rs = metaData.getPrimaryKeys(null, null, tableName);
+			try {
+				while (rs.next()) {
+					keyColumns.add(rs.getString("COLUMN_NAME"));
+				}
+			} finally {
+				rs.close();
+			}
+			if (!keyColumns.isEmpty()) {
+				return keyColumns.size() == 1 ? keyColumns.get(0) : null;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Runs the partitions on the pool of workers, and waits for them all to complete. Every partition is committed or
+	 * rolled back on its own, the failed ones are kept for {@link #retryFailedPartitions()}.
+	 *
+	 * @param pPartitions
+	 *            the partitions
+	 * @param pReEncrypt
+	 *            the re-encrypt flag, only the shadow columns are written if false
+	 * @return true, if every partition completed
+	 */
+	private boolean runPartitions(List<RekeyPartition> pPartitions, final boolean pReEncrypt) {
+		this.mMetrics.runStarted();
+		this.mThrottle.configure(getMaxRowsPerSecond(), Math.max(1, getWorkerCount()),
+				getWriteLatencyTargetMillis());
+		if (isBatchUpdates() && getCryptoWorkerCount() > 0) {
+			this.mReaderExecutor = Executors.newCachedThreadPool();
+			this.mCryptoExecutor = Executors.newFixedThreadPool(getCryptoWorkerCount());
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, getWorkerCount()));
+		List<Future<Void>> futures = new ArrayList<Future<Void>>(pPartitions.size());
+		for (final RekeyPartition partition : pPartitions) {
+			futures.add(executor.submit(new Callable<Void>() {
+				public Void call() throws Exception {
+					processPartition(partition, pReEncrypt);
+					return null;
+				}
+			}));
+		}
+		executor.shutdown();
+
+		List<RekeyPartition> failedPartitions = new ArrayList<RekeyPartition>();
+		for (int i = 0; i < futures.size(); i++) {
+			RekeyPartition partition = pPartitions.get(i);
+			try {
+				futures.get(i).get();
+			} catch (ExecutionException ee) {
+				if (isLoggingError()) {
+					logError("RekeyEngine.runPartitions:" + "partition " + partition + " failed.", ee.getCause());
+				}
+				failedPartitions.add(partition);
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				executor.shutdownNow();
+				failedPartitions.addAll(pPartitions.subList(i, pPartitions.size()));
+				break;
+			}
+		}
+		if (this.mCryptoExecutor != null) {
+			this.mReaderExecutor.shutdownNow();
+			this.mCryptoExecutor.shutdownNow();
+			this.mReaderExecutor = null;
+			this.mCryptoExecutor = null;
+		}
+		this.mFailedPartitions = failedPartitions;
+		this.mLastRunReEncrypt = pReEncrypt;
+		this.mMetrics.runFinished();
+		if (isLoggingInfo()) {
+			logInfo("RekeyEngine.runPartitions:" + "run completed, " + this.mMetrics);
+		}
+		if (!failedPartitions.isEmpty() && isLoggingError()) {
+			logError("RekeyEngine.runPartitions:" + failedPartitions.size() + " of " + pPartitions.size()
+					+ " partitions failed, the new key was not saved. Call retryFailedPartitions once the cause is"
+					+ " fixed: " + failedPartitions);
+		}
+		return failedPartitions.isEmpty();
+	}
+
+	/**
+	 * Processes every row of one partition, on its own connections. Each value is decrypted using the decryptor
+	 * component, re-encrypted with the new data passphrase if requested, and its configured shadow columns are written.
+	 * Blind indexes are computed with the new blind index passphrase when re-encrypting, and with the current one
+	 * otherwise.
+	 *
+	 * @param pPartition
+	 *            the partition
+	 * @param pReEncrypt
+	 *            the re-encrypt flag, only the shadow columns are written if false
+	 * @throws SQLException
+	 *             the SQL exception
+	 */
+	private void processPartition(RekeyPartition pPartition, boolean pReEncrypt) throws SQLException {
+		List<String> updateColumns = getUpdateColumns(pPartition.getTableColumn(), pReEncrypt);
+		int rowCount;
+		if (isBatchUpdates()) {
+			rowCount = processPartitionInBatches(pPartition, pReEncrypt, updateColumns);
+		} else {
+			rowCount = processPartitionWithCursor(pPartition, pReEncrypt, updateColumns);
+		}
+		if (isLoggingInfo()) {
+			logInfo("RekeyEngine.processPartition:" + "partition " + pPartition + " completed, rows updated: "
+					+ rowCount);
+		}
+	}
+
+	/**
+	 * Processes the rows of one partition through an updatable cursor, one update per row, and commits them together.
+	 *
+	 * @param pPartition
+	 *            the partition
+	 * @param pReEncrypt
+	 *            the re-encrypt flag
+	 * @param pUpdateColumns
+	 *            the columns to update
+	 * @return the number of rows updated
+	 * @throws SQLException
+	 *             the SQL exception
+	 */
+	private int processPartitionWithCursor(RekeyPartition pPartition, boolean pReEncrypt, List<String> pUpdateColumns)
+			throws SQLException {
+		// Load up values
+		StringBuilder selectQuery = new StringBuilder("SELECT ").append(pPartition.getColumnName());
+		for (String updateColumn : pUpdateColumns) {
+			if (!updateColumn.equals(pPartition.getColumnName())) {
+				selectQuery.append(", ").append(updateColumn);
+			}
+		}
+		if (pPartition.isPartial()) {
+			// Drivers without row ids can only update rows whose key is selected
+			selectQuery.append(", ").append(pPartition.getPartitionColumn());
+		}
+		selectQuery.append(" FROM ").append(pPartition.getTableName());
+		List<String> conditions = new ArrayList<String>(2);
+		if (pPartition.isPartial()) {
+			conditions.add(getPartitionCondition(pPartition));
+		}
+		String incrementalCondition = getIncrementalCondition(pPartition.getTableColumn(), pReEncrypt,
+				pPartition.isCatchUp());
+		if (incrementalCondition != null) {
+			conditions.add(incrementalCondition);
+		}
+		for (int i = 0; i < conditions.size(); i++) {
+			selectQuery.append(i == 0 ? " WHERE " : " AND ").append(conditions.get(i));
+		}
+		if (isLoggingDebug()) {
+			logDebug("RekeyEngine.processPartitionWithCursor:" + "selectQuery: " + selectQuery);
+		}
+
+		RekeyMetrics.ColumnMetrics metrics = this.mMetrics.getColumnMetrics(pPartition.getTableColumn());
+		Connection connection = getDataDataSource().getConnection();
+		boolean committed = false;
+		int rowCount = 0;
+		try {
+			connection.setAutoCommit(false);
+			long start = System.nanoTime();
+			Statement selectStmt = connection.createStatement(ResultSet.TYPE_SCROLL_SENSITIVE,
+					ResultSet.CONCUR_UPDATABLE);
+			try {
+				ResultSet rs = selectStmt.executeQuery(selectQuery.toString());
+				try {
+					while (rs.next()) {
+						String encryptedString = rs.getString(1);
+						metrics.rowScanned(System.nanoTime() - start, encryptedString == null);
+						if (encryptedString == null) {
+							start = System.nanoTime();
+							continue;
+						}
+						String[] updateValues = getUpdateValues(metrics, encryptedString, pPartition
+								.getTableColumn(), pReEncrypt);
+						start = acquireThrottle(1, metrics, false);
+						try {
+							for (int i = 0; i < updateValues.length; i++) {
+								rs.updateString(pUpdateColumns.get(i), updateValues[i]);
+							}
+							// Update the record
+							rs.updateRow();
+						} finally {
+							this.mThrottle.release(start);
+						}
+						rowCount++;
+						metrics.rowsReEncrypted(1, System.nanoTime() - start);
+						start = System.nanoTime();
+					}
+				} finally {
+					rs.close();
+				}
+			} finally {
+				selectStmt.close();
+			}
+			commit(connection, pPartition, null, true, pReEncrypt, metrics);
+			committed = true;
+		} finally {
+			if (!committed) {
+				rollback(connection, pPartition);
+			}
+			connection.close();
+		}
+		return rowCount;
+	}
+
+	/**
+	 * Processes the rows of one partition in key order. The rows are read forward only on one connection, and updated
+	 * by key through JDBC batches of batchSize rows on another, which is committed every commitInterval rows. A row is
+	 * only updated if it still has the value which was read, so a value changed by the application in the meantime is
+	 * not overwritten, it is counted as changed and left to the catch up pass. Each
+	 * chunk of batchSize rows is decrypted with one call to the decryptor. With crypto workers, the rows are read on a
+	 * reader thread and decrypted and re-encrypted by the crypto workers while this thread writes the previous ones,
+	 * see {@link RekeyRowReader}. The key of the last committed row is kept on the partition, and in its checkpoint,
+	 * so a retry resumes after it.
+	 *
+	 * @param pPartition
+	 *            the partition
+	 * @param pReEncrypt
+	 *            the re-encrypt flag
+	 * @param pUpdateColumns
+	 *            the columns to update
+	 * @return the number of rows updated
+	 * @throws SQLException
+	 *             the SQL exception
+	 */
+	private int processPartitionInBatches(RekeyPartition pPartition, boolean pReEncrypt, List<String> pUpdateColumns)
+			throws SQLException {
+		String keyColumn = pPartition.getKeyColumn();
+		Object resumeKey = pPartition.getLastCommittedKey();
+		StringBuilder selectQuery = new StringBuilder("SELECT ").append(keyColumn).append(", ")
+				.append(pPartition.getColumnName()).append(" FROM ").append(pPartition.getTableName());
+		List<String> conditions = new ArrayList<String>(3);
+		if (pPartition.isPartial()) {
+			conditions.add(getPartitionCondition(pPartition));
+		}
+		String incrementalCondition = getIncrementalCondition(pPartition.getTableColumn(), pReEncrypt,
+				pPartition.isCatchUp());
+		if (incrementalCondition != null) {
+			conditions.add(incrementalCondition);
+		}
+		if (resumeKey != null) {
+			conditions.add(keyColumn + " > ?");
+		}
+		for (int i = 0; i < conditions.size(); i++) {
+			selectQuery.append(i == 0 ? " WHERE " : " AND ").append(conditions.get(i));
+		}
+		selectQuery.append(" ORDER BY ").append(keyColumn);
+
+		StringBuilder updateQuery = new StringBuilder("UPDATE ").append(pPartition.getTableName()).append(" SET ");
+		for (int i = 0; i < pUpdateColumns.size(); i++) {
+			updateQuery.append(i == 0 ? "" : ", ").append(pUpdateColumns.get(i)).append(" = ?");
+		}
+		// Rows changed by the application since they were read are left as they are
+		updateQuery.append(" WHERE ").append(keyColumn).append(" = ? AND ").append(pPartition.getColumnName())
+				.append(" = ?");
+		if (isLoggingDebug()) {
+			logDebug("RekeyEngine.processPartitionInBatches:" + "selectQuery: " + selectQuery + ", updateQuery: "
+					+ updateQuery);
+		}
+
+		int batchSize = Math.max(1, getBatchSize());
+		RekeyMetrics.ColumnMetrics metrics = this.mMetrics.getColumnMetrics(pPartition.getTableColumn());
+		Connection readConnection = getDataDataSource().getConnection();
+		Connection writeConnection = null;
+		boolean committed = false;
+		int rowCount = 0;
+		try {
+			// Some drivers only stream the result set outside of auto commit
+			readConnection.setAutoCommit(false);
+			writeConnection = getDataDataSource().getConnection();
+			writeConnection.setAutoCommit(false);
+			PreparedStatement selectStmt = readConnection.prepareStatement(selectQuery.toString(),
+					ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			PreparedStatement updateStmt = writeConnection.prepareStatement(updateQuery.toString());
+			try {
+				selectStmt.setFetchSize(batchSize);
+				if (resumeKey != null) {
+					selectStmt.setObject(1, resumeKey);
+				}
+				ResultSet rs = selectStmt.executeQuery();
+				RekeyRowReader rowReader = new RekeyRowReader(rs, createRowProcessor(pPartition, metrics,
+						pReEncrypt), metrics, batchSize, this.mReaderExecutor, this.mCryptoExecutor,
+						getPipelineQueueSize());
+				try {
+					int batchedRows = 0;
+					int uncommittedRows = 0;
+					Object lastKey = null;
+					Object batchedKey = null;
+					RekeyRowReader.Row row;
+					do {
+						row = rowReader.next();
+						if (row != null) {
+							String[] updateValues = row.getUpdateValues();
+							for (int i = 0; i < updateValues.length; i++) {
+								updateStmt.setString(i + 1, updateValues[i]);
+							}
+							updateStmt.setObject(updateValues.length + 1, row.getKey());
+							updateStmt.setString(updateValues.length + 2, row.getEncryptedString());
+							updateStmt.addBatch();
+							batchedKey = row.getKey();
+							batchedRows++;
+							rowCount++;
+						}
+						if (batchedRows >= batchSize || (row == null && batchedRows > 0)) {
+							// With rows written since the last commit, a paused partition commits them before it waits,
+							// so it holds no row locks while paused
+							boolean yieldIfPaused = getCommitInterval() > 0 && uncommittedRows > 0;
+							long start = acquireThrottle(batchedRows, metrics, yieldIfPaused);
+							if (start == RekeyThrottle.YIELDED) {
+								commit(writeConnection, pPartition, lastKey, false, pReEncrypt, metrics);
+								pPartition.setLastCommittedKey(lastKey);
+								uncommittedRows = 0;
+								start = acquireThrottle(batchedRows, metrics, false);
+							}
+							rowCount -= executeBatch(updateStmt, batchedRows, start, metrics);
+							uncommittedRows += batchedRows;
+							batchedRows = 0;
+							lastKey = batchedKey;
+							if (row != null && getCommitInterval() > 0 && uncommittedRows >= getCommitInterval()) {
+								commit(writeConnection, pPartition, lastKey, false, pReEncrypt, metrics);
+								pPartition.setLastCommittedKey(lastKey);
+								uncommittedRows = 0;
+							}
+						}
+					} while (row != null);
+					if (lastKey == null) {
+						lastKey = resumeKey;
+					}
+					commit(writeConnection, pPartition, lastKey, true, pReEncrypt, metrics);
+					committed = true;
+					if (lastKey != null) {
+						pPartition.setLastCommittedKey(lastKey);
+					}
+				} finally {
+					rowReader.close();
+					rs.close();
+				}
+			} finally {
+				updateStmt.close();
+				selectStmt.close();
+			}
+		} finally {
+			if (writeConnection != null) {
+				if (!committed) {
+					rollback(writeConnection, pPartition);
+				}
+				writeConnection.close();
+			}
+			rollback(readConnection, pPartition);
+			readConnection.close();
+		}
+		return rowCount;
+	}
+
+	/**
+	 * Executes a JDBC batch of updates, and counts its rows. The rows the batch did not update had their value changed
+	 * by the application after it was read, they are counted as changed instead of re-encrypted.
+	 *
+	 * @param pUpdateStmt
+	 *            the update statement
+	 * @param pBatchedRows
+	 *            the number of rows in the batch
+	 * @param pStart
+	 *            the start of the write, as returned by the throttle, which is released once the batch is done
+	 * @param pMetrics
+	 *            the metrics of the table column
+	 * @return the number of rows not updated
+	 * @throws SQLException
+	 *             the SQL exception
+	 */
+	private int executeBatch(PreparedStatement pUpdateStmt, int pBatchedRows, long pStart,
+			RekeyMetrics.ColumnMetrics pMetrics) throws SQLException {
+		long start = pStart;
+		int[] updateCounts;
+		try {
+			updateCounts = pUpdateStmt.executeBatch();
+		} finally {
+			this.mThrottle.release(start);
+		}
+		// Drivers which do not report the count of each row return SUCCESS_NO_INFO, which counts as updated
+		int changedRows = 0;
+		for (int updateCount : updateCounts) {
+			if (updateCount == 0) {
+				changedRows++;
+			}
+		}
+		pMetrics.rowsReEncrypted(pBatchedRows - changedRows, System.nanoTime() - start);
+		pMetrics.rowsChanged(changedRows);
+		return changedRows;
+	}
+
+	/**
+	 * Commits the rows of a partition written so far, with its checkpoint when re-encrypting. Commits are not held back
+	 * by the throttle, so that a paused partition does not keep its rows locked, but their latency adapts its
+	 * concurrency limit.
+	 *
+	 * @param pConnection
+	 *            the connection
+	 * @param pPartition
+	 *            the partition
+	 * @param pLastKey
+	 *            the key of the last row written, null if the rows are not written in key order
+	 * @param pCompleted
+	 *            the completed flag, true if every row of the partition was written
+	 * @param pReEncrypt
+	 *            the re-encrypt flag
+	 * @param pMetrics
+	 *            the metrics of the table column
+	 * @throws SQLException
+	 *             the SQL exception
+	 */
+	private void commit(Connection pConnection, RekeyPartition pPartition, Object pLastKey, boolean pCompleted,
+			boolean pReEncrypt, RekeyMetrics.ColumnMetrics pMetrics) throws SQLException {
+		long start = System.nanoTime();
+		if (pReEncrypt && this.mCheckpoints != null && !pPartition.isCatchUp()) {
+			this.mCheckpoints.save(pConnection, pPartition, pLastKey, pCompleted);
+		}
+		pConnection.commit();
+		this.mThrottle.observe(start);
+		pMetrics.addPhaseTime(RekeyMetrics.Phase.COMMIT, System.nanoTime() - start);
+	}
+
+	/**
+	 * Waits for the throttle before a write, and counts the time waited.
+	 *
+	 * @param pRows
+	 *            the number of rows written
+	 * @param pMetrics
+	 *            the metrics of the table column
+	 * @param pYieldIfPaused
+	 *            true, to return {@link RekeyThrottle#YIELDED} instead of waiting while paused
+	 * @return the start of the write, from System.nanoTime, or {@link RekeyThrottle#YIELDED}
+	 * @throws SQLException
+	 *             if the worker is interrupted while waiting
+	 */
+	private long acquireThrottle(int pRows, RekeyMetrics.ColumnMetrics pMetrics, boolean pYieldIfPaused)
+			throws SQLException {
+		long start = System.nanoTime();
+		long writeStart;
+		try {
+			writeStart = this.mThrottle.acquire(pRows, pYieldIfPaused);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for the throttle.", ie);
+		}
+		pMetrics.addPhaseTime(RekeyMetrics.Phase.THROTTLE, (writeStart == RekeyThrottle.YIELDED ? System.nanoTime()
+				: writeStart) - start);
+		return writeStart;
+	}
+
+	/**
+	 * Creates the processor which computes the values written for the rows of a partition, decrypting each chunk of
+	 * rows with one call to the decryptor.
+	 *
+	 * @param pPartition
+	 *            the partition
+	 * @param pMetrics
+	 *            the metrics of the table column
+	 * @param pReEncrypt
+	 *            the re-encrypt flag
+	 * @return the row processor
+	 */
+	private RekeyRowReader.RowProcessor createRowProcessor(final RekeyPartition pPartition,
+			final RekeyMetrics.ColumnMetrics pMetrics, final boolean pReEncrypt) {
+		return new RekeyRowReader.RowProcessor() {
+			public String[][] process(String[] pEncryptedStrings) {
+				return getUpdateValues(pMetrics, pEncryptedStrings, pPartition.getTableColumn(), pReEncrypt);
+			}
+		};
+	}
+
+	/**
+	 * Rolls back the uncommitted work of a failed partition.
+	 *
+	 * @param pConnection
+	 *            the connection
+	 * @param pPartition
+	 *            the partition
+	 */
+	private void rollback(Connection pConnection, RekeyPartition pPartition) {
+		try {
+			pConnection.rollback();
+		} catch (SQLException e) {
+			if (isLoggingError()) {
+				logError("RekeyEngine.rollback:" + "unable to roll back partition " + pPartition, e);
+			}
+		}
+	}
+
+	/**
+	 * Gets the SQL condition selecting the rows of a partition.
+	 *
+	 * @param pPartition
+	 *            the partition
+	 * @return the condition
+	 */
+	private String getPartitionCondition(RekeyPartition pPartition) {
+		return MessageFormat.format(getPartitionPredicate(), pPartition.getPartitionColumn(),
+				String.valueOf(pPartition.getPartitionCount()), String.valueOf(pPartition.getPartitionIndex()));
+	}
+
+	/**
+	 * Gets the SQL condition selecting the rows of a table column which still need to be re-encrypted in incremental
+	 * mode: the rows with a value which is not on the new key, in the cipher suite of the table column. The key version
+	 * column is compared with the new key id when one is configured, otherwise the value must not start with the new
+	 * key id prefix, followed by the header of the suite unless it is pbe, which takes values of every suite as
+	 * current as the engines do. Rows written with the new key by an earlier run, or a previous attempt of this one,
+	 * are skipped without being read. The condition also selects the rows to catch up with outside incremental mode.
+	 *
+	 * @param pTableColumn
+	 *            the table column, as table.column
+	 * @param pReEncrypt
+	 *            the re-encrypt flag, there is no condition if false
+	 * @param pCatchUp
+	 *            the catch up flag, the condition applies in any mode if true
+	 * @return the condition, or null if every row is selected
+	 */
+	private String getIncrementalCondition(String pTableColumn, boolean pReEncrypt, boolean pCatchUp) {
+		if (!(isIncremental() || pCatchUp) || !pReEncrypt) {
+			return null;
+		}
+		String columnName = pTableColumn.substring(pTableColumn.indexOf('.') + 1);
+		String keyVersionColumn = getKeyVersionColumns().get(pTableColumn);
+		if (keyVersionColumn != null) {
+			return columnName + " IS NOT NULL AND (" + keyVersionColumn + " IS NULL OR " + keyVersionColumn + " <> "
+					+ this.mNewKeyId + ")";
+		}
+		// The prefix is made of '#' and digits, and the headers of '$' and digits, none is a LIKE wildcard
+		CipherSuite suite = getCipherSuite(pTableColumn);
+		return columnName + " IS NOT NULL AND " + columnName + " NOT LIKE '"
+				+ KeyRing.tag(this.mNewKeyId, suite.isDerivedKey() ? suite.getHeader() + "%" : "%") + "'";
+	}
+
+	/**
+	 * Gets the columns written for each row of a table column: the column itself when re-encrypting, followed by its
+	 * configured shadow columns, and its key version column when re-encrypting.
+	 *
+	 * @param pTableColumn
+	 *            the table column, as table.column
+	 * @param pReEncrypt
+	 *            the re-encrypt flag
+	 * @return the columns to update
+	 */
+	private List<String> getUpdateColumns(String pTableColumn, boolean pReEncrypt) {
+		List<String> updateColumns = new ArrayList<String>(5);
+		if (pReEncrypt) {
+			updateColumns.add(pTableColumn.substring(pTableColumn.indexOf('.') + 1));
+		}
+		for (String shadowColumn : new String[] { getLastFourColumns().get(pTableColumn),
+				getBinColumns().get(pTableColumn), getMaskedColumns().get(pTableColumn),
+				getBlindIndexColumns().get(pTableColumn) }) {
+			if (shadowColumn != null) {
+				updateColumns.add(shadowColumn);
+			}
+		}
+		if (pReEncrypt && getKeyVersionColumns().containsKey(pTableColumn)) {
+			updateColumns.add(getKeyVersionColumns().get(pTableColumn));
+		}
+		return updateColumns;
+	}
+
+	/**
+	 * Gets the values written for one row, in the order of {@link #getUpdateColumns(String, boolean)}, timing the
+	 * decryption and the encryption, and counting the row as failed if either throws.
+	 *
+	 * @param pMetrics
+	 *            the metrics of the table column
+	 * @param pEncryptedString
+	 *            the value as currently stored
+	 * @param pTableColumn
+	 *            the table column, as table.column
+	 * @param pReEncrypt
+	 *            the re-encrypt flag
+	 * @return the values to update
+	 */
+	private String[] getUpdateValues(RekeyMetrics.ColumnMetrics pMetrics, String pEncryptedString,
+			String pTableColumn, boolean pReEncrypt) {
+		boolean succeeded = false;
+		try {
+			long start = System.nanoTime();
+			String decryptedString = decrypt(pEncryptedString);
+			long decrypted = System.nanoTime();
+			pMetrics.addPhaseTime(RekeyMetrics.Phase.DECRYPT, decrypted - start);
+			String[] updateValues = computeUpdateValues(pTableColumn, decryptedString, pReEncrypt);
+			pMetrics.addPhaseTime(RekeyMetrics.Phase.ENCRYPT, System.nanoTime() - decrypted);
+			succeeded = true;
+			return updateValues;
+		} finally {
+			if (!succeeded) {
+				pMetrics.rowFailed();
+			}
+		}
+	}
+
+	/**
+	 * Gets the values written for a chunk of rows, decrypting them with one call to the decryptor. The failed rows are
+	 * counted, and the first failure is thrown.
+	 *
+	 * @param pMetrics
+	 *            the metrics of the table column
+	 * @param pEncryptedStrings
+	 *            the values as currently stored
+	 * @param pTableColumn
+	 *            the table column, as table.column
+	 * @param pReEncrypt
+	 *            the re-encrypt flag
+	 * @return the values to update of each row
+	 */
+	private String[][] getUpdateValues(RekeyMetrics.ColumnMetrics pMetrics, String[] pEncryptedStrings,
+			String pTableColumn, boolean pReEncrypt) {
+		long start = System.nanoTime();
+		CryptoBatchResult decryptedStrings = this.mSourceDecryptor.decryptAll(pEncryptedStrings);
+		long decrypted = System.nanoTime();
+		pMetrics.addPhaseTime(RekeyMetrics.Phase.DECRYPT, decrypted - start);
+		if (decryptedStrings.hasFailures()) {
+			for (int i = 0; i < decryptedStrings.getFailureCount(); i++) {
+				pMetrics.rowFailed();
+			}
+			throw decryptedStrings.getFailure(decryptedStrings.getFailedIndexes().get(0).intValue());
+		}
+		String[][] updateValues = new String[pEncryptedStrings.length][];
+		for (int i = 0; i < updateValues.length; i++) {
+			try {
+				updateValues[i] = computeUpdateValues(pTableColumn, decryptedStrings.getValue(i), pReEncrypt);
+			} catch (RuntimeException re) {
+				pMetrics.rowFailed();
+				throw re;
+			}
+		}
+		pMetrics.addPhaseTime(RekeyMetrics.Phase.ENCRYPT, System.nanoTime() - decrypted);
+		return updateValues;
+	}
+
+	/**
+	 * Gets the values written for one row from its decrypted value.
+	 *
+	 * @param pTableColumn
+	 *            the table column, as table.column
+	 * @param pDecryptedString
+	 *            the decrypted value
+	 * @param pReEncrypt
+	 *            the re-encrypt flag
+	 * @return the values to update
+	 */
+	private String[] computeUpdateValues(String pTableColumn, String pDecryptedString, boolean pReEncrypt) {
+		List<String> updateValues = new ArrayList<String>(5);
+		if (pReEncrypt) {
+			// Encrypt using the new local encryptor using the new passphrase
+			updateValues.add(encrypt(pDecryptedString, getCipherSuite(pTableColumn)));
+		}
+		if (getLastFourColumns().containsKey(pTableColumn)) {
+			updateValues.add(CardNumberMasker.getLastFour(pDecryptedString));
+		}
+		if (getBinColumns().containsKey(pTableColumn)) {
+			updateValues.add(CardNumberMasker.getBin(pDecryptedString, getBinLength()));
+		}
+		if (getMaskedColumns().containsKey(pTableColumn)) {
+			updateValues.add(CardNumberMasker.getMasked(pDecryptedString));
+		}
+		if (getBlindIndexColumns().containsKey(pTableColumn)) {
+			if (pReEncrypt) {
+				updateValues.add(blindIndex(pDecryptedString));
+			} else {
+				updateValues.add(getEngineToUpdate().blindIndex(pDecryptedString));
+			}
+		}
+		if (pReEncrypt && getKeyVersionColumns().containsKey(pTableColumn)) {
+			updateValues.add(String.valueOf(this.mNewKeyId));
+		}
+		return updateValues.toArray(new String[updateValues.size()]);
+	}
+
+	/**
+	 * Generate new data password.
+	 *
+	 * @return the string
+	 */
+	private String generateNewDataPassphrase() {
+		String newDataPassphrase = new BigInteger(130, new SecureRandom()).toString(32);
+		if (isLoggingDebug()) {
+			logDebug("RekeyEngine.generateNewDataPassphrase:" + "newDataPassphrase is: " + newDataPassphrase);
+		}
+		return newDataPassphrase;
+	}
+
+	/**
+	 * Pauses the rekey. Workers commit the rows they have written, stop before their next write, and wait for
+	 * {@link #resume()}. A run started while paused waits too. Only batch updates with a commit interval can commit
+	 * before the end of a partition, in the other update modes a paused worker would keep every row it wrote locked
+	 * until it is resumed, so the pause is refused.
+	 */
+	public void pause() {
+		if (!isBatchUpdates() || getCommitInterval() <= 0) {
+			if (isLoggingWarning()) {
+				logWarning("RekeyEngine.pause:" + "not paused, workers can only release their row locks before waiting"
+						+ " with batchUpdates and a commitInterval. Lower maxRowsPerSecond instead.");
+			}
+			return;
+		}
+		this.mThrottle.pause();
+		if (isLoggingInfo()) {
+			logInfo("RekeyEngine.pause:" + "paused.");
+		}
+	}
+
+	/**
+	 * Resumes a paused rekey.
+	 */
+	public void resume() {
+		this.mThrottle.resume();
+		if (isLoggingInfo()) {
+			logInfo("RekeyEngine.resume:" + "resumed.");
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see atg.nucleus.GenericService#doStartService()
+	 */
+	@Override
+	public void doStartService() throws ServiceException {
+		// TODO Validations
+		for (Map.Entry<String, String> cipherMode : getCipherModes().entrySet()) {
+			if (CipherSuite.forCipherMode(cipherMode.getValue()) == null) {
+				if (isLoggingError()) {
+					logError("RekeyEngine.doStartService:" + "cipher mode was not valid for " + cipherMode.getKey()
+							+ ": " + cipherMode.getValue());
+				}
+				throw new ServiceException("Cipher mode was not valid for " + cipherMode.getKey() + ": "
+						+ cipherMode.getValue());
+			}
+		}
+		registerMetricsMBean();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see atg.nucleus.GenericService#doStopService()
+	 */
+	@Override
+	public void doStopService() throws ServiceException {
+		unregisterMetricsMBean();
+	}
+
+	/**
+	 * Registers the metrics on the platform MBean server, as com.sparkred.crypto:type=RekeyEngine with the component
+	 * path as name, so a run can be followed from a JMX console. A failure is logged, the engine works without it.
+	 */
+	private void registerMetricsMBean() {
+		try {
+			ObjectName name = new ObjectName("com.sparkred.crypto:type=RekeyEngine,name="
+					+ ObjectName.quote(String.valueOf(getAbsoluteName())));
+			MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+			if (mbeanServer.isRegistered(name)) {
+				mbeanServer.unregisterMBean(name);
+			}
+			mbeanServer.registerMBean(this.mMetrics, name);
+			this.mMetricsMBeanName = name;
+		} catch (JMException jme) {
+			if (isLoggingError()) {
+				logError("RekeyEngine.registerMetricsMBean:" + "unable to register the metrics MBean.", jme);
+			}
+		}
+	}
+
+	/**
+	 * Unregisters the metrics from the platform MBean server.
+	 */
+	private void unregisterMetricsMBean() {
+		if (this.mMetricsMBeanName == null) {
+			return;
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.mMetricsMBeanName);
+		} catch (JMException jme) {
+			if (isLoggingWarning()) {
+				logWarning("RekeyEngine.unregisterMetricsMBean:" + "unable to unregister the metrics MBean: " + jme);
+			}
+		}
+		this.mMetricsMBeanName = null;
+	}
+
+	/**
+	 * Gets the decryptor which reads the existing values.
+	 *
+	 * @return the decryptor, null to use the decryptor component and method
+	 */
+	public Decryptor getDecryptor() {
+		return this.mDecryptor;
+	}
+
+	/**
+	 * Sets the decryptor which reads the existing values. When set, the decryptor component and method are not used,
+	 * and each chunk of batchSize rows is decrypted with one call in batch update mode.
+	 *
+	 * @param pDecryptor
+	 *            the new decryptor
+	 */
+	public void setDecryptor(Decryptor pDecryptor) {
+		this.mDecryptor = pDecryptor;
+	}
+
+	/**
+	 * Gets the decryptor component.
+	 *
+	 * @return the decryptor component
+	 */
+	public Object getDecryptorComponent() {
+		return mDecryptorComponent;
+	}
+
+	/**
+	 * Sets the decryptor component.
+	 *
+	 * @param pDecryptorComponent
+	 *            the new decryptor component
+	 */
+	public void setDecryptorComponent(Object pDecryptorComponent) {
+		mDecryptorComponent = pDecryptorComponent;
+	}
+
+	/**
+	 * Gets the decryptor method.
+	 *
+	 * @return the decryptor method
+	 */
+	public String getDecryptorMethod() {
+		return mDecryptorMethod;
+	}
+
+	/**
+	 * Sets the decryptor method.
+	 *
+	 * @param pDecryptorMethod
+	 *            the new decryptor method
+	 */
+	public void setDecryptorMethod(String pDecryptorMethod) {
+		mDecryptorMethod = pDecryptorMethod;
+	}
+
+	/**
+	 * Gets the new key passphrase.
+	 *
+	 * @return the new key passphrase
+	 */
+	public String getNewKeyPassphrase() {
+		return mNewKeyPassphrase;
+	}
+
+	/**
+	 * Sets the new key passphrase.
+	 *
+	 * @param pNewKeyPassphrase
+	 *            the new new key passphrase
+	 */
+	public void setNewKeyPassphrase(String pNewKeyPassphrase) {
+		mNewKeyPassphrase = pNewKeyPassphrase;
+	}
+
+	/**
+	 * Gets the data data source.
+	 *
+	 * @return the data data source
+	 */
+	public DataSource getDataDataSource() {
+		return mDataDataSource;
+	}
+
+	/**
+	 * Sets the data data source.
+	 *
+	 * @param pDataDataSource
+	 *            the new data data source
+	 */
+	public void setDataDataSource(DataSource pDataDataSource) {
+		mDataDataSource = pDataDataSource;
+	}
+
+	/**
+	 * Gets the crypto repository.
+	 *
+	 * @return the crypto repository
+	 */
+	public MutableRepository getCryptoRepository() {
+		return mCryptoRepository;
+	}
+
+	/**
+	 * Sets the crypto repository.
+	 *
+	 * @param pCryptoRepository
+	 *            the new crypto repository
+	 */
+	public void setCryptoRepository(MutableRepository pCryptoRepository) {
+		mCryptoRepository = pCryptoRepository;
+	}
+
+	/**
+	 * Gets the table columns.
+	 *
+	 * @return the table columns
+	 */
+	public List<String> getTableColumns() {
+		return mTableColumns;
+	}
+
+	/**
+	 * Sets the table columns.
+	 *
+	 * @param pTableColumns
+	 *            the new table columns
+	 */
+	public void setTableColumns(List<String> pTableColumns) {
+		mTableColumns = pTableColumns;
+	}
+
+	/**
+	 * Gets the engine to update.
+	 *
+	 * @return the engine to update
+	 */
+	public CryptoEngine getEngineToUpdate() {
+		return mEngineToUpdate;
+	}
+
+	/**
+	 * Sets the engine to update.
+	 *
+	 * @param pEngineToUpdate
+	 *            the new engine to update
+	 */
+	public void setEngineToUpdate(CryptoEngine pEngineToUpdate) {
+		mEngineToUpdate = pEngineToUpdate;
+	}
+
+	/**
+	 * Gets the last four columns.
+	 *
+	 * @return the last four columns
+	 */
+	public Map<String, String> getLastFourColumns() {
+		return mLastFourColumns;
+	}
+
+	/**
+	 * Sets the last four columns.
+	 *
+	 * @param pLastFourColumns
+	 *            the new last four columns
+	 */
+	public void setLastFourColumns(Map<String, String> pLastFourColumns) {
+		mLastFourColumns = pLastFourColumns;
+	}
+
+	/**
+	 * Gets the BIN columns.
+	 *
+	 * @return the BIN columns
+	 */
+	public Map<String, String> getBinColumns() {
+		return mBinColumns;
+	}
+
+	/**
+	 * Sets the BIN columns.
+	 *
+	 * @param pBinColumns
+	 *            the new BIN columns
+	 */
+	public void setBinColumns(Map<String, String> pBinColumns) {
+		mBinColumns = pBinColumns;
+	}
+
+	/**
+	 * Gets the masked columns.
+	 *
+	 * @return the masked columns
+	 */
+	public Map<String, String> getMaskedColumns() {
+		return mMaskedColumns;
+	}
+
+	/**
+	 * Sets the masked columns.
+	 *
+	 * @param pMaskedColumns
+	 *            the new masked columns
+	 */
+	public void setMaskedColumns(Map<String, String> pMaskedColumns) {
+		mMaskedColumns = pMaskedColumns;
+	}
+
+	/**
+	 * Gets the BIN length.
+	 *
+	 * @return the BIN length
+	 */
+	public int getBinLength() {
+		return mBinLength;
+	}
+
+	/**
+	 * Sets the BIN length.
+	 *
+	 * @param pBinLength
+	 *            the new BIN length, at least one
+	 * @throws IllegalArgumentException
+	 *             if the BIN length is less than one
+	 */
+	public void setBinLength(int pBinLength) {
+		CardNumberMasker.checkBinLength(pBinLength);
+		mBinLength = pBinLength;
+	}
+
+	/**
+	 * Gets the blind index columns.
+	 *
+	 * @return the blind index columns
+	 */
+	public Map<String, String> getBlindIndexColumns() {
+		return mBlindIndexColumns;
+	}
+
+	/**
+	 * Sets the blind index columns.
+	 *
+	 * @param pBlindIndexColumns
+	 *            the new blind index columns
+	 */
+	public void setBlindIndexColumns(Map<String, String> pBlindIndexColumns) {
+		mBlindIndexColumns = pBlindIndexColumns;
+	}
+
+	/**
+	 * Gets the cipher modes of the table columns.
+	 *
+	 * @return the cipher modes, keyed by table.column
+	 */
+	public Map<String, String> getCipherModes() {
+		return this.mCipherModes;
+	}
+
+	/**
+	 * Sets the cipher mode, pbe, derivedKey or gcm, of each table column whose encrypted property has a cipherMode
+	 * attribute, so a rekey writes its values in the same cipher suite as the property. The other table columns are
+	 * written in the cipher mode of the engine to update.
+	 *
+	 * @param pCipherModes
+	 *            the new cipher modes, keyed by table.column
+	 */
+	public void setCipherModes(Map<String, String> pCipherModes) {
+		this.mCipherModes = pCipherModes;
+	}
+
+	/**
+	 * Gets the worker count.
+	 *
+	 * @return the worker count
+	 */
+	public int getWorkerCount() {
+		return mWorkerCount;
+	}
+
+	/**
+	 * Sets the worker count.
+	 *
+	 * @param pWorkerCount
+	 *            the new worker count
+	 */
+	public void setWorkerCount(int pWorkerCount) {
+		mWorkerCount = pWorkerCount;
+	}
+
+	/**
+	 * Gets the partition size.
+	 *
+	 * @return the partition size
+	 */
+	public int getPartitionSize() {
+		return mPartitionSize;
+	}
+
+	/**
+	 * Sets the partition size.
+	 *
+	 * @param pPartitionSize
+	 *            the new partition size
+	 */
+	public void setPartitionSize(int pPartitionSize) {
+		mPartitionSize = pPartitionSize;
+	}
+
+	/**
+	 * Gets the partition columns.
+	 *
+	 * @return the partition columns
+	 */
+	public Map<String, String> getPartitionColumns() {
+		return mPartitionColumns;
+	}
+
+	/**
+	 * Sets the partition columns.
+	 *
+	 * @param pPartitionColumns
+	 *            the new partition columns
+	 */
+	public void setPartitionColumns(Map<String, String> pPartitionColumns) {
+		mPartitionColumns = pPartitionColumns;
+	}
+
+	/**
+	 * Gets the partition predicate.
+	 *
+	 * @return the partition predicate
+	 */
+	public String getPartitionPredicate() {
+		return mPartitionPredicate;
+	}
+
+	/**
+	 * Sets the partition predicate.
+	 *
+	 * @param pPartitionPredicate
+	 *            the new partition predicate
+	 */
+	public void setPartitionPredicate(String pPartitionPredicate) {
+		mPartitionPredicate = pPartitionPredicate;
+	}
+
+	/**
+	 * Gets the failed partitions of the last run.
+	 *
+	 * @return the failed partitions
+	 */
+	public List<RekeyPartition> getFailedPartitions() {
+		return mFailedPartitions;
+	}
+
+	/**
+	 * Gets the key columns.
+	 *
+	 * @return the key columns
+	 */
+	public Map<String, String> getKeyColumns() {
+		return mKeyColumns;
+	}
+
+	/**
+	 * Sets the key columns.
+	 *
+	 * @param pKeyColumns
+	 *            the new key columns
+	 */
+	public void setKeyColumns(Map<String, String> pKeyColumns) {
+		mKeyColumns = pKeyColumns;
+	}
+
+	/**
+	 * Checks if is batch updates.
+	 *
+	 * @return true, if is batch updates
+	 */
+	public boolean isBatchUpdates() {
+		return mBatchUpdates;
+	}
+
+	/**
+	 * Sets the batch updates.
+	 *
+	 * @param pBatchUpdates
+	 *            the new batch updates
+	 */
+	public void setBatchUpdates(boolean pBatchUpdates) {
+		mBatchUpdates = pBatchUpdates;
+	}
+
+	/**
+	 * Gets the batch size.
+	 *
+	 * @return the batch size
+	 */
+	public int getBatchSize() {
+		return mBatchSize;
+	}
+
+	/**
+	 * Sets the batch size.
+	 *
+	 * @param pBatchSize
+	 *            the new batch size
+	 */
+	public void setBatchSize(int pBatchSize) {
+		mBatchSize = pBatchSize;
+	}
+
+	/**
+	 * Gets the commit interval.
+	 *
+	 * @return the commit interval
+	 */
+	public int getCommitInterval() {
+		return mCommitInterval;
+	}
+
+	/**
+	 * Sets the commit interval.
+	 *
+	 * @param pCommitInterval
+	 *            the new commit interval
+	 */
+	public void setCommitInterval(int pCommitInterval) {
+		mCommitInterval = pCommitInterval;
+	}
+
+	/**
+	 * Checks if re-encryption is incremental.
+	 *
+	 * @return true, if only rows not yet on the new key are selected
+	 */
+	public boolean isIncremental() {
+		return this.mIncremental;
+	}
+
+	/**
+	 * Sets the incremental flag. When re-encrypting incrementally, rows which are null or already on the new key are
+	 * filtered out by the select, and left out of the row counts which size the partitions, so resuming a rekey after
+	 * a failure, with or without checkpoints, only reads the rows which remain. Shadow column backfills are not
+	 * affected.
+	 *
+	 * @param pIncremental
+	 *            the new incremental flag
+	 */
+	public void setIncremental(boolean pIncremental) {
+		this.mIncremental = pIncremental;
+	}
+
+	/**
+	 * Gets the key version column of each table column.
+	 *
+	 * @return the key version columns
+	 */
+	public Map<String, String> getKeyVersionColumns() {
+		return this.mKeyVersionColumns;
+	}
+
+	/**
+	 * Sets the key version column of each table column, a numeric column written with the id of the key each value is
+	 * re-encrypted with. In incremental mode, it is compared with the new key id instead of the prefix of the value,
+	 * so the filter can use an index. Whatever else writes the value must clear or set the key version column too,
+	 * or the row will be taken as already re-encrypted.
+	 *
+	 * @param pKeyVersionColumns
+	 *            the new key version columns, keyed by table.column
+	 */
+	public void setKeyVersionColumns(Map<String, String> pKeyVersionColumns) {
+		this.mKeyVersionColumns = pKeyVersionColumns;
+	}
+
+	/**
+	 * Gets the rows per second ceiling.
+	 *
+	 * @return the max rows per second, zero or less for no ceiling
+	 */
+	public int getMaxRowsPerSecond() {
+		return this.mMaxRowsPerSecond;
+	}
+
+	/**
+	 * Sets the largest number of rows written per second, over every worker. A change applies from the next run or
+	 * retry.
+	 *
+	 * @param pMaxRowsPerSecond
+	 *            the new max rows per second, zero or less for no ceiling
+	 */
+	public void setMaxRowsPerSecond(int pMaxRowsPerSecond) {
+		this.mMaxRowsPerSecond = pMaxRowsPerSecond;
+	}
+
+	/**
+	 * Gets the write latency target.
+	 *
+	 * @return the write latency target in milliseconds, zero or less to not adapt
+	 */
+	public int getWriteLatencyTargetMillis() {
+		return this.mWriteLatencyTargetMillis;
+	}
+
+	/**
+	 * Sets the latency of a JDBC batch, row update or commit above which fewer workers write at once. The number of
+	 * concurrent writes is halved each time it is exceeded, and grows back by one per round of faster writes.
+	 *
+	 * @param pWriteLatencyTargetMillis
+	 *            the new write latency target in milliseconds, zero or less to not adapt
+	 */
+	public void setWriteLatencyTargetMillis(int pWriteLatencyTargetMillis) {
+		this.mWriteLatencyTargetMillis = pWriteLatencyTargetMillis;
+	}
+
+	/**
+	 * Checks if the rekey is paused.
+	 *
+	 * @return true, if paused
+	 */
+	public boolean isPaused() {
+		return this.mThrottle.isPaused();
+	}
+
+	/**
+	 * Gets the number of workers currently allowed to write at once.
+	 *
+	 * @return the throttle concurrency
+	 */
+	public int getThrottleConcurrency() {
+		return this.mThrottle.getConcurrency();
+	}
+
+	/**
+	 * Gets the checkpoint table.
+	 *
+	 * @return the checkpoint table
+	 */
+	public String getCheckpointTable() {
+		return mCheckpointTable;
+	}
+
+	/**
+	 * Sets the checkpoint table.
+	 *
+	 * @param pCheckpointTable
+	 *            the new checkpoint table
+	 */
+	public void setCheckpointTable(String pCheckpointTable) {
+		mCheckpointTable = pCheckpointTable;
+	}
+
+	/**
+	 * Gets the number of crypto workers.
+	 *
+	 * @return the crypto worker count
+	 */
+	public int getCryptoWorkerCount() {
+		return this.mCryptoWorkerCount;
+	}
+
+	/**
+	 * Sets the number of crypto workers shared by the partitions in batch update mode. With crypto workers, each
+	 * partition reads its rows on a reader thread, the crypto workers decrypt and re-encrypt them, and the partition's
+	 * worker writes them, so database I/O and crypto overlap. 0 decrypts on the partition's worker. The decryptor
+	 * component must be thread safe.
+	 *
+	 * @param pCryptoWorkerCount
+	 *            the new crypto worker count
+	 */
+	public void setCryptoWorkerCount(int pCryptoWorkerCount) {
+		this.mCryptoWorkerCount = pCryptoWorkerCount;
+	}
+
+	/**
+	 * Gets the pipeline queue size.
+	 *
+	 * @return the pipeline queue size
+	 */
+	public int getPipelineQueueSize() {
+		return this.mPipelineQueueSize;
+	}
+
+	/**
+	 * Sets the largest number of rows of a partition read ahead of its writer when crypto workers are used. The reader
+	 * waits when it is reached.
+	 *
+	 * @param pPipelineQueueSize
+	 *            the new pipeline queue size
+	 */
+	public void setPipelineQueueSize(int pPipelineQueueSize) {
+		this.mPipelineQueueSize = pPipelineQueueSize;
+	}
+
+	/**
+	 * Gets the live counters of the current or last run: rows scanned, re-encrypted, failed and skipped, rows per
+	 * second and ETA per table column, and the time spent in each phase. They are also registered as a JMX MBean.
+	 *
+	 * @return the metrics
+	 */
+	public RekeyMetrics getMetrics() {
+		return this.mMetrics;
+	}
+
+	/**
+	 * Gets the scanner which verifies the re-encrypted values before the new key is made active.
+	 *
+	 * @return the integrity scanner, null to save the new key without a scan
+	 */
+	public IntegrityScanner getIntegrityScanner() {
+		return this.mIntegrityScanner;
+	}
+
+	/**
+	 * Sets the scanner which verifies the re-encrypted values before the new key is made active.
+	 *
+	 * @param pIntegrityScanner
+	 *            the new integrity scanner
+	 */
+	public void setIntegrityScanner(IntegrityScanner pIntegrityScanner) {
+		this.mIntegrityScanner = pIntegrityScanner;
 	}
 }
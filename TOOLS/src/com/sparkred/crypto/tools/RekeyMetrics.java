@@ -0,0 +1,528 @@
+/*
+ * Please read the README.md and LICENSE.md files contained in this repository or module.
+ *
+ * Please contact sales@sparkred.com or support@sparkred.com if you have any questions.
+ *
+ * This code is copyright Spark::red https://www.sparkred.com 2007-2016, all right reserved.
+ */
+package com.sparkred.crypto.tools;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The Class RekeyMetrics counts the rows of a {@link RekeyEngine} run per table column, and the time spent in each
+ * phase of the work. The counters are updated by every worker thread without locking, and can be read at any time
+ * while the run is in progress, from the RekeyEngine's metrics property or over JMX.
+ *
+ * Phase times are summed over every thread, so with several workers they add up to more than the elapsed time. Their
+ * proportions show whether a run is bound by the database, select, update and commit, or by the CPU, decrypt and
+ * encrypt.
+ */
+public class RekeyMetrics implements RekeyMetricsMBean {
+
+	/**
+	 * The phases of the work on a row.
+	 */
+	public enum Phase {
+
+		/** Reading rows. */
+		SELECT,
+
+		/** Decrypting values with the decryptor component. */
+		DECRYPT,
+
+		/** Encrypting values and computing shadow columns. */
+		ENCRYPT,
+
+		/** Writing rows. */
+		UPDATE,
+
+		/** Committing, checkpoints included. */
+		COMMIT,
+
+		/** Waiting for the throttle: paused, over the rows per second ceiling or over the concurrency limit. */
+		THROTTLE
+	}
+
+	/** The metrics of each table column, in the order they were added. */
+	private final Map<String, ColumnMetrics> mColumnMetrics = new ConcurrentHashMap<String, ColumnMetrics>();
+
+	/** The table columns, in the order they were added. */
+	private final List<String> mTableColumns = new ArrayList<String>();
+
+	/** The time spent in each phase, in nanoseconds. */
+	private final AtomicLong[] mPhaseNanos = new AtomicLong[Phase.values().length];
+
+	/** The start of the run, from System.nanoTime. */
+	private volatile long mStartNanos;
+
+	/** The end of the run, 0 while it is in progress. */
+	private volatile long mEndNanos;
+
+	/** The running flag. */
+	private volatile boolean mRunning;
+
+	/**
+	 * Instantiates new rekey metrics.
+	 */
+	public RekeyMetrics() {
+		for (int i = 0; i < this.mPhaseNanos.length; i++) {
+			this.mPhaseNanos[i] = new AtomicLong();
+		}
+	}
+
+	/**
+	 * Clears every counter, before a new run.
+	 */
+	public synchronized void reset() {
+		this.mColumnMetrics.clear();
+		this.mTableColumns.clear();
+		for (AtomicLong phaseNanos : this.mPhaseNanos) {
+			phaseNanos.set(0);
+		}
+		this.mStartNanos = 0;
+		this.mEndNanos = 0;
+	}
+
+	/**
+	 * Adds a table column, or gets it if it was already added.
+	 *
+	 * @param pTableColumn
+	 *            the table column, as table.column
+	 * @param pTotalRows
+	 *            the number of rows of its table, -1 if unknown
+	 * @return the column metrics
+	 */
+	public synchronized ColumnMetrics addTableColumn(String pTableColumn, long pTotalRows) {
+		ColumnMetrics columnMetrics = this.mColumnMetrics.get(pTableColumn);
+		if (columnMetrics == null) {
+			columnMetrics = new ColumnMetrics(pTableColumn, pTotalRows);
+			this.mColumnMetrics.put(pTableColumn, columnMetrics);
+			this.mTableColumns.add(pTableColumn);
+		}
+		return columnMetrics;
+	}
+
+	/**
+	 * Gets the metrics of a table column.
+	 *
+	 * @param pTableColumn
+	 *            the table column, as table.column
+	 * @return the column metrics, added with an unknown number of rows if needed
+	 */
+	public ColumnMetrics getColumnMetrics(String pTableColumn) {
+		ColumnMetrics columnMetrics = this.mColumnMetrics.get(pTableColumn);
+		if (columnMetrics == null) {
+			columnMetrics = addTableColumn(pTableColumn, -1);
+		}
+		return columnMetrics;
+	}
+
+	/**
+	 * Marks the start of a run. The elapsed time keeps counting from the first run since the last reset, so retries
+	 * add to it.
+	 */
+	public void runStarted() {
+		if (this.mStartNanos == 0) {
+			this.mStartNanos = System.nanoTime();
+		}
+		this.mEndNanos = 0;
+		this.mRunning = true;
+	}
+
+	/**
+	 * Marks the end of a run.
+	 */
+	public void runFinished() {
+		this.mEndNanos = System.nanoTime();
+		this.mRunning = false;
+	}
+
+	/**
+	 * Adds time spent in a phase.
+	 *
+	 * @param pPhase
+	 *            the phase
+	 * @param pNanos
+	 *            the time in nanoseconds
+	 */
+	public void addPhaseTime(Phase pPhase, long pNanos) {
+		this.mPhaseNanos[pPhase.ordinal()].addAndGet(pNanos);
+	}
+
+	/**
+	 * Gets the time spent in a phase.
+	 *
+	 * @param pPhase
+	 *            the phase
+	 * @return the time in milliseconds
+	 */
+	public long getPhaseMillis(Phase pPhase) {
+		return TimeUnit.NANOSECONDS.toMillis(this.mPhaseNanos[pPhase.ordinal()].get());
+	}
+
+	/**
+	 * Gets the nanoseconds since the run started.
+	 *
+	 * @return the elapsed nanoseconds, 0 if no run started
+	 */
+	private long getElapsedNanos() {
+		long startNanos = this.mStartNanos;
+		if (startNanos == 0) {
+			return 0;
+		}
+		long endNanos = this.mEndNanos;
+		return (endNanos == 0 ? System.nanoTime() : endNanos) - startNanos;
+	}
+
+	/**
+	 * Gets the rate of a count over a number of nanoseconds.
+	 *
+	 * @param pCount
+	 *            the count
+	 * @param pNanos
+	 *            the nanoseconds
+	 * @return the count per second
+	 */
+	private static double perSecond(long pCount, long pNanos) {
+		if (pNanos <= 0) {
+			return 0;
+		}
+		return pCount * (double) TimeUnit.SECONDS.toNanos(1) / pNanos;
+	}
+
+	/**
+	 * Checks if a run is in progress.
+	 *
+	 * @return true, if running
+	 */
+	public boolean isRunning() {
+		return this.mRunning;
+	}
+
+	/**
+	 * Gets the number of rows read.
+	 *
+	 * @return the rows scanned
+	 */
+	public long getRowsScanned() {
+		long rows = 0;
+		for (ColumnMetrics columnMetrics : this.mColumnMetrics.values()) {
+			rows += columnMetrics.mScanned.get();
+		}
+		return rows;
+	}
+
+	/**
+	 * Gets the number of rows written, re-encrypted or with their shadow columns backfilled.
+	 *
+	 * @return the rows re-encrypted
+	 */
+	public long getRowsReEncrypted() {
+		long rows = 0;
+		for (ColumnMetrics columnMetrics : this.mColumnMetrics.values()) {
+			rows += columnMetrics.mReEncrypted.get();
+		}
+		return rows;
+	}
+
+	/**
+	 * Gets the number of rows which could not be decrypted or re-encrypted.
+	 *
+	 * @return the rows failed
+	 */
+	public long getRowsFailed() {
+		long rows = 0;
+		for (ColumnMetrics columnMetrics : this.mColumnMetrics.values()) {
+			rows += columnMetrics.mFailed.get();
+		}
+		return rows;
+	}
+
+	/**
+	 * Gets the number of rows skipped because their value is null.
+	 *
+	 * @return the rows skipped
+	 */
+	public long getRowsSkipped() {
+		long rows = 0;
+		for (ColumnMetrics columnMetrics : this.mColumnMetrics.values()) {
+			rows += columnMetrics.mSkipped.get();
+		}
+		return rows;
+	}
+
+	/**
+	 * Gets the number of rows not written because their value was changed by the application after it was read. The
+	 * catch up pass of the rekey selects them again.
+	 *
+	 * @return the rows changed
+	 */
+	public long getRowsChanged() {
+		long rows = 0;
+		for (ColumnMetrics columnMetrics : this.mColumnMetrics.values()) {
+			rows += columnMetrics.mChanged.get();
+		}
+		return rows;
+	}
+
+	/**
+	 * Gets the number of rows scanned per second since the run started.
+	 *
+	 * @return the rows per second
+	 */
+	public double getRowsPerSecond() {
+		return perSecond(getRowsScanned(), getElapsedNanos());
+	}
+
+	/**
+	 * Gets the estimated number of seconds until every table column is scanned, at the overall rate so far.
+	 *
+	 * @return the ETA in seconds, or -1 if it can not be estimated yet
+	 */
+	public long getEtaSeconds() {
+		if (!this.mRunning) {
+			return 0;
+		}
+		long remainingRows = 0;
+		for (ColumnMetrics columnMetrics : this.mColumnMetrics.values()) {
+			if (columnMetrics.mTotalRows < 0) {
+				return -1;
+			}
+			remainingRows += Math.max(0, columnMetrics.mTotalRows - columnMetrics.mScanned.get());
+		}
+		double rowsPerSecond = getRowsPerSecond();
+		if (rowsPerSecond <= 0) {
+			return -1;
+		}
+		return (long) Math.ceil(remainingRows / rowsPerSecond);
+	}
+
+	/**
+	 * Gets the number of seconds since the run started.
+	 *
+	 * @return the elapsed seconds
+	 */
+	public long getElapsedSeconds() {
+		return TimeUnit.NANOSECONDS.toSeconds(getElapsedNanos());
+	}
+
+	/**
+	 * Gets the time spent reading rows, summed over every thread.
+	 *
+	 * @return the select time in milliseconds
+	 */
+	public long getSelectMillis() {
+		return getPhaseMillis(Phase.SELECT);
+	}
+
+	/**
+	 * Gets the time spent decrypting values, summed over every thread.
+	 *
+	 * @return the decrypt time in milliseconds
+	 */
+	public long getDecryptMillis() {
+		return getPhaseMillis(Phase.DECRYPT);
+	}
+
+	/**
+	 * Gets the time spent encrypting values and computing shadow columns, summed over every thread.
+	 *
+	 * @return the encrypt time in milliseconds
+	 */
+	public long getEncryptMillis() {
+		return getPhaseMillis(Phase.ENCRYPT);
+	}
+
+	/**
+	 * Gets the time spent writing rows, summed over every thread.
+	 *
+	 * @return the update time in milliseconds
+	 */
+	public long getUpdateMillis() {
+		return getPhaseMillis(Phase.UPDATE);
+	}
+
+	/**
+	 * Gets the time spent committing, checkpoints included, summed over every thread.
+	 *
+	 * @return the commit time in milliseconds
+	 */
+	public long getCommitMillis() {
+		return getPhaseMillis(Phase.COMMIT);
+	}
+
+	/**
+	 * Gets the time workers spent waiting for the throttle, summed over every thread.
+	 *
+	 * @return the throttle time in milliseconds
+	 */
+	public long getThrottleMillis() {
+		return getPhaseMillis(Phase.THROTTLE);
+	}
+
+	/**
+	 * Gets a one line status per table column, with its counts, rows per second and ETA.
+	 *
+	 * @return the table column status lines
+	 */
+	public synchronized String[] getTableColumnStatus() {
+		String[] status = new String[this.mTableColumns.size()];
+		for (int i = 0; i < status.length; i++) {
+			status[i] = this.mColumnMetrics.get(this.mTableColumns.get(i)).toString();
+		}
+		return status;
+	}
+
+	/**
+	 * Returns the overall counts and phase times, for logging.
+	 *
+	 * @return the string
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "scanned: " + getRowsScanned() + ", re-encrypted: " + getRowsReEncrypted() + ", failed: "
+				+ getRowsFailed() + ", skipped: " + getRowsSkipped() + ", changed: " + getRowsChanged() + ", rows/s: "
+				+ String.format("%.1f", Double.valueOf(getRowsPerSecond())) + ", elapsed s: " + getElapsedSeconds()
+				+ ", select ms: " + getSelectMillis() + ", decrypt ms: " + getDecryptMillis() + ", encrypt ms: "
+				+ getEncryptMillis() + ", update ms: " + getUpdateMillis() + ", commit ms: " + getCommitMillis()
+				+ ", throttle ms: " + getThrottleMillis();
+	}
+
+	/**
+	 * The Class ColumnMetrics counts the rows of one table column.
+	 */
+	public final class ColumnMetrics {
+
+		/** The table column. */
+		private final String mTableColumn;
+
+		/** The number of rows of the table, -1 if unknown. */
+		private final long mTotalRows;
+
+		/** The rows scanned. */
+		private final AtomicLong mScanned = new AtomicLong();
+
+		/** The rows re-encrypted. */
+		private final AtomicLong mReEncrypted = new AtomicLong();
+
+		/** The rows failed. */
+		private final AtomicLong mFailed = new AtomicLong();
+
+		/** The rows skipped. */
+		private final AtomicLong mSkipped = new AtomicLong();
+
+		/** The rows changed by the application after they were read. */
+		private final AtomicLong mChanged = new AtomicLong();
+
+		/** The time the first row was scanned, from System.nanoTime, 0 if none was. */
+		private volatile long mFirstRowNanos;
+
+		/**
+		 * Instantiates new column metrics.
+		 *
+		 * @param pTableColumn
+		 *            the table column
+		 * @param pTotalRows
+		 *            the number of rows of the table, -1 if unknown
+		 */
+		ColumnMetrics(String pTableColumn, long pTotalRows) {
+			this.mTableColumn = pTableColumn;
+			this.mTotalRows = pTotalRows;
+		}
+
+		/**
+		 * Counts a row read, and the time spent reading it.
+		 *
+		 * @param pNanos
+		 *            the select time in nanoseconds
+		 * @param pSkipped
+		 *            true, if the row is skipped because its value is null
+		 */
+		public void rowScanned(long pNanos, boolean pSkipped) {
+			if (this.mFirstRowNanos == 0) {
+				this.mFirstRowNanos = System.nanoTime();
+			}
+			this.mScanned.incrementAndGet();
+			if (pSkipped) {
+				this.mSkipped.incrementAndGet();
+			}
+			addPhaseTime(Phase.SELECT, pNanos);
+		}
+
+		/**
+		 * Counts rows written.
+		 *
+		 * @param pRows
+		 *            the number of rows
+		 * @param pNanos
+		 *            the update time in nanoseconds
+		 */
+		public void rowsReEncrypted(int pRows, long pNanos) {
+			this.mReEncrypted.addAndGet(pRows);
+			addPhaseTime(Phase.UPDATE, pNanos);
+		}
+
+		/**
+		 * Counts rows not written because their value was changed by the application after it was read.
+		 *
+		 * @param pRows
+		 *            the number of rows
+		 */
+		public void rowsChanged(int pRows) {
+			this.mChanged.addAndGet(pRows);
+		}
+
+		/**
+		 * Counts a row which could not be decrypted or re-encrypted.
+		 */
+		public void rowFailed() {
+			this.mFailed.incrementAndGet();
+		}
+
+		/**
+		 * Adds time spent in a phase, see {@link RekeyMetrics#addPhaseTime(Phase, long)}.
+		 *
+		 * @param pPhase
+		 *            the phase
+		 * @param pNanos
+		 *            the time in nanoseconds
+		 */
+		public void addPhaseTime(Phase pPhase, long pNanos) {
+			RekeyMetrics.this.addPhaseTime(pPhase, pNanos);
+		}
+
+		/**
+		 * Returns the counts, rows per second and ETA of the table column.
+		 *
+		 * @return the string
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			long scanned = this.mScanned.get();
+			long firstRowNanos = this.mFirstRowNanos;
+			long endNanos = RekeyMetrics.this.mRunning ? System.nanoTime() : RekeyMetrics.this.mEndNanos;
+			double rowsPerSecond = firstRowNanos == 0 ? 0 : perSecond(scanned, endNanos - firstRowNanos);
+			String eta;
+			if (!RekeyMetrics.this.mRunning) {
+				eta = "n/a";
+			} else if (this.mTotalRows < 0 || rowsPerSecond <= 0) {
+				eta = "unknown";
+			} else {
+				eta = Math.max(0, (long) Math.ceil((this.mTotalRows - scanned) / rowsPerSecond)) + "s";
+			}
+			return this.mTableColumn + ": scanned " + scanned + (this.mTotalRows < 0 ? "" : "/" + this.mTotalRows)
+					+ ", re-encrypted " + this.mReEncrypted.get() + ", failed " + this.mFailed.get() + ", skipped "
+					+ this.mSkipped.get() + ", changed " + this.mChanged.get() + ", rows/s "
+					+ String.format("%.1f", Double.valueOf(rowsPerSecond)) + ", ETA " + eta;
+		}
+	}
+
+}
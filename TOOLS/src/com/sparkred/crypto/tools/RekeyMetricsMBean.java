@@ -0,0 +1,126 @@
+/*
+ * Please read the README.md and LICENSE.md files contained in this repository or module.
+ *
+ * Please contact sales@sparkred.com or support@sparkred.com if you have any questions.
+ *
+ * This code is copyright Spark::red https://www.sparkred.com 2007-2016, all right reserved.
+ */
+package com.sparkred.crypto.tools;
+
+/**
+ * The Interface RekeyMetricsMBean is the JMX view of the {@link RekeyMetrics} of a {@link RekeyEngine}.
+ */
+public interface RekeyMetricsMBean {
+
+	/**
+	 * Checks if a run is in progress.
+	 *
+	 * @return true, if running
+	 */
+	boolean isRunning();
+
+	/**
+	 * Gets the number of rows read.
+	 *
+	 * @return the rows scanned
+	 */
+	long getRowsScanned();
+
+	/**
+	 * Gets the number of rows written, re-encrypted or with their shadow columns backfilled.
+	 *
+	 * @return the rows re-encrypted
+	 */
+	long getRowsReEncrypted();
+
+	/**
+	 * Gets the number of rows which could not be decrypted or re-encrypted.
+	 *
+	 * @return the rows failed
+	 */
+	long getRowsFailed();
+
+	/**
+	 * Gets the number of rows skipped because their value is null.
+	 *
+	 * @return the rows skipped
+	 */
+	long getRowsSkipped();
+
+	/**
+	 * Gets the number of rows not written because their value was changed by the application after it was read.
+	 *
+	 * @return the rows changed
+	 */
+	long getRowsChanged();
+
+	/**
+	 * Gets the number of rows scanned per second since the run started.
+	 *
+	 * @return the rows per second
+	 */
+	double getRowsPerSecond();
+
+	/**
+	 * Gets the estimated number of seconds until every table column is scanned.
+	 *
+	 * @return the ETA in seconds, or -1 if it can not be estimated yet
+	 */
+	long getEtaSeconds();
+
+	/**
+	 * Gets the number of seconds since the run started.
+	 *
+	 * @return the elapsed seconds
+	 */
+	long getElapsedSeconds();
+
+	/**
+	 * Gets the time spent reading rows, summed over every thread.
+	 *
+	 * @return the select time in milliseconds
+	 */
+	long getSelectMillis();
+
+	/**
+	 * Gets the time spent decrypting values, summed over every thread.
+	 *
+	 * @return the decrypt time in milliseconds
+	 */
+	long getDecryptMillis();
+
+	/**
+	 * Gets the time spent encrypting values and computing shadow columns, summed over every thread.
+	 *
+	 * @return the encrypt time in milliseconds
+	 */
+	long getEncryptMillis();
+
+	/**
+	 * Gets the time spent writing rows, summed over every thread.
+	 *
+	 * @return the update time in milliseconds
+	 */
+	long getUpdateMillis();
+
+	/**
+	 * Gets the time spent committing, checkpoints included, summed over every thread.
+	 *
+	 * @return the commit time in milliseconds
+	 */
+	long getCommitMillis();
+
+	/**
+	 * Gets the time workers spent waiting for the throttle, summed over every thread.
+	 *
+	 * @return the throttle time in milliseconds
+	 */
+	long getThrottleMillis();
+
+	/**
+	 * Gets a one line status per table column, with its counts, rows per second and ETA.
+	 *
+	 * @return the table column status lines
+	 */
+	String[] getTableColumnStatus();
+}
@@ -0,0 +1,192 @@
+/*
+ * Please read the README.md and LICENSE.md files contained in this repository or module.
+ *
+ * Please contact sales@sparkred.com or support@sparkred.com if you have any questions.
+ *
+ * This code is copyright Spark::red https://www.sparkred.com 2007-2016, all right reserved.
+ */
+package com.sparkred.crypto.tools;
+
+/**
+ * The Class RekeyPartition is one unit of work of the {@link RekeyEngine} or the {@link IntegrityScanner}: the rows of
+ * one table column whose partition column hashes to the partition index. A table column with a partition count of one
+ * is not split, and has no partition column.
+ *
+ * When rows are updated in batches, the partition also tracks the key of its last committed row, so that a retry of
+ * the partition resumes after it.
+ *
+ * A catch up partition only selects the rows which are not on the new key yet, and has no checkpoint.
+ */
+public class RekeyPartition {
+
+	/** The table name. */
+	private final String mTableName;
+
+	/** The column name. */
+	private final String mColumnName;
+
+	/** The unique key column, used to update rows in batches. */
+	private final String mKeyColumn;
+
+	/** The column used to split the rows into partitions. */
+	private final String mPartitionColumn;
+
+	/** The index of this partition. */
+	private final int mPartitionIndex;
+
+	/** The number of partitions of the table column. */
+	private final int mPartitionCount;
+
+	/** The key of the last committed row. */
+	private volatile Object mLastCommittedKey;
+
+	/** The catch up flag. */
+	private boolean mCatchUp;
+
+	/**
+	 * Instantiates a new rekey partition.
+	 *
+	 * @param pTableName
+	 *            the table name
+	 * @param pColumnName
+	 *            the column name
+	 * @param pKeyColumn
+	 *            the key column, may be null if rows are not updated in batches
+	 * @param pPartitionColumn
+	 *            the partition column, may be null if the partition count is one
+	 * @param pPartitionIndex
+	 *            the partition index, from zero
+	 * @param pPartitionCount
+	 *            the partition count
+	 */
+	public RekeyPartition(String pTableName, String pColumnName, String pKeyColumn, String pPartitionColumn,
+			int pPartitionIndex, int pPartitionCount) {
+		this.mTableName = pTableName;
+		this.mColumnName = pColumnName;
+		this.mKeyColumn = pKeyColumn;
+		this.mPartitionColumn = pPartitionColumn;
+		this.mPartitionIndex = pPartitionIndex;
+		this.mPartitionCount = pPartitionCount;
+	}
+
+	/**
+	 * Gets the table column, as table.column.
+	 *
+	 * @return the table column
+	 */
+	public String getTableColumn() {
+		return this.mTableName + "." + this.mColumnName;
+	}
+
+	/**
+	 * Checks if this partition is only part of its table column.
+	 *
+	 * @return true, if the table column is split in more than one partition
+	 */
+	public boolean isPartial() {
+		return this.mPartitionCount > 1;
+	}
+
+	/**
+	 * Returns the table column and the partition number, for logging.
+	 *
+	 * @return the string
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return getTableColumn() + " [" + (this.mPartitionIndex + 1) + "/" + this.mPartitionCount + "]";
+	}
+
+	/**
+	 * Gets the table name.
+	 *
+	 * @return the table name
+	 */
+	public String getTableName() {
+		return this.mTableName;
+	}
+
+	/**
+	 * Gets the column name.
+	 *
+	 * @return the column name
+	 */
+	public String getColumnName() {
+		return this.mColumnName;
+	}
+
+	/**
+	 * Gets the key column.
+	 *
+	 * @return the key column
+	 */
+	public String getKeyColumn() {
+		return this.mKeyColumn;
+	}
+
+	/**
+	 * Gets the partition column.
+	 *
+	 * @return the partition column
+	 */
+	public String getPartitionColumn() {
+		return this.mPartitionColumn;
+	}
+
+	/**
+	 * Gets the partition index.
+	 *
+	 * @return the partition index
+	 */
+	public int getPartitionIndex() {
+		return this.mPartitionIndex;
+	}
+
+	/**
+	 * Gets the partition count.
+	 *
+	 * @return the partition count
+	 */
+	public int getPartitionCount() {
+		return this.mPartitionCount;
+	}
+
+	/**
+	 * Gets the key of the last committed row.
+	 *
+	 * @return the last committed key, or null if no rows have been committed
+	 */
+	public Object getLastCommittedKey() {
+		return this.mLastCommittedKey;
+	}
+
+	/**
+	 * Sets the key of the last committed row.
+	 *
+	 * @param pLastCommittedKey
+	 *            the new last committed key
+	 */
+	public void setLastCommittedKey(Object pLastCommittedKey) {
+		this.mLastCommittedKey = pLastCommittedKey;
+	}
+
+	/**
+	 * Checks if this partition catches up with the rows written during the rekey.
+	 *
+	 * @return true, if only the rows which are not on the new key are selected, and no checkpoint is saved
+	 */
+	public boolean isCatchUp() {
+		return this.mCatchUp;
+	}
+
+	/**
+	 * Sets the catch up flag.
+	 *
+	 * @param pCatchUp
+	 *            the new catch up flag
+	 */
+	public void setCatchUp(boolean pCatchUp) {
+		this.mCatchUp = pCatchUp;
+	}
+}
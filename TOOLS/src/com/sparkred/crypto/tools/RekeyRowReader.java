@@ -0,0 +1,385 @@
+/*
+ * Please read the README.md and LICENSE.md files contained in this repository or module.
+ *
+ * Please contact sales@sparkred.com or support@sparkred.com if you have any questions.
+ *
+ * This code is copyright Spark::red https://www.sparkred.com 2007-2016, all right reserved.
+ */
+package com.sparkred.crypto.tools;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The Class RekeyRowReader reads the key and the value of each row of a result set, skipping null values, and computes
+ * the values to write for them, in chunks of rows, so that a decryptor which supports batches decrypts a whole chunk
+ * per call.
+ *
+ * Without crypto workers, chunks are read and processed on the calling thread, one at a time. With crypto workers, a
+ * reader thread streams the rows and submits each chunk to the crypto workers, and {@link #next()} hands the processed
+ * rows back in result set order, through a bounded queue. The queue blocks the reader when the writer falls behind,
+ * so reading, crypto and writing overlap without holding more than the queue size of rows in memory.
+ */
+class RekeyRowReader {
+
+	/** How long the reader waits for room in the queue before checking if it was closed, in milliseconds. */
+	private static final long QUEUE_POLL_MILLIS = 100;
+
+	/** The result set, with the key in the first column and the value in the second. */
+	private final ResultSet mResultSet;
+
+	/** The row processor. */
+	private final RowProcessor mRowProcessor;
+
+	/** The metrics which count the rows read and the time spent reading them. */
+	private final RekeyMetrics.ColumnMetrics mMetrics;
+
+	/** The largest number of rows processed together. */
+	private final int mChunkSize;
+
+	/** The crypto workers, null to process rows on the calling thread. */
+	private final ExecutorService mCryptoExecutor;
+
+	/** The processed chunks in result set order, null without crypto workers. */
+	private final BlockingQueue<Future<Row[]>> mQueue;
+
+	/** The reader task, null without crypto workers. */
+	private Future<?> mReaderTask;
+
+	/** The closed flag, which stops the reader. */
+	private volatile boolean mClosed;
+
+	/** The end of rows flag. */
+	private boolean mEnd;
+
+	/** The current chunk. */
+	private Row[] mChunk = new Row[0];
+
+	/** The index of the next row in the current chunk. */
+	private int mChunkIndex;
+
+	/**
+	 * Instantiates a new rekey row reader.
+	 *
+	 * @param pResultSet
+	 *            the result set, with the key in the first column and the value in the second
+	 * @param pRowProcessor
+	 *            the row processor
+	 * @param pMetrics
+	 *            the metrics which count the rows read
+	 * @param pChunkSize
+	 *            the largest number of rows processed together
+	 * @param pReaderExecutor
+	 *            the executor which runs the reader, null to read on the calling thread
+	 * @param pCryptoExecutor
+	 *            the crypto workers, null to process rows on the calling thread
+	 * @param pQueueSize
+	 *            the largest number of rows read ahead of the writer
+	 */
+	RekeyRowReader(ResultSet pResultSet, RowProcessor pRowProcessor, RekeyMetrics.ColumnMetrics pMetrics,
+			int pChunkSize, ExecutorService pReaderExecutor, ExecutorService pCryptoExecutor, int pQueueSize) {
+		this.mResultSet = pResultSet;
+		this.mRowProcessor = pRowProcessor;
+		this.mMetrics = pMetrics;
+		this.mChunkSize = Math.max(1, pChunkSize);
+		if (pReaderExecutor == null || pCryptoExecutor == null) {
+			this.mCryptoExecutor = null;
+			this.mQueue = null;
+		} else {
+			this.mCryptoExecutor = pCryptoExecutor;
+			this.mQueue = new ArrayBlockingQueue<Future<Row[]>>(Math.max(1, pQueueSize / this.mChunkSize));
+			this.mReaderTask = pReaderExecutor.submit(new Runnable() {
+				public void run() {
+					read();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Gets the next processed row.
+	 *
+	 * @return the row, or null if there are no more rows
+	 * @throws SQLException
+	 *             the SQL exception
+	 */
+	public Row next() throws SQLException {
+		while (this.mChunkIndex >= this.mChunk.length) {
+			if (this.mEnd) {
+				return null;
+			}
+			Row[] chunk = this.mQueue == null ? readChunk() : takeChunk();
+			if (chunk == null) {
+				this.mEnd = true;
+				return null;
+			}
+			this.mChunk = chunk;
+			this.mChunkIndex = 0;
+		}
+		return this.mChunk[this.mChunkIndex++];
+	}
+
+	/**
+	 * Stops the reader, and waits for it to let go of the result set. Chunks still queued are discarded.
+	 */
+	public void close() {
+		this.mClosed = true;
+		if (this.mReaderTask == null) {
+			return;
+		}
+		try {
+			this.mReaderTask.get();
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException ee) {
+			// The reader reports its failures through the queue
+		}
+		this.mQueue.clear();
+	}
+
+	/**
+	 * Reads and processes the next chunk on the calling thread.
+	 *
+	 * @return the chunk, or null if there are no more rows
+	 * @throws SQLException
+	 *             the SQL exception
+	 */
+	private Row[] readChunk() throws SQLException {
+		List<Object> keys = new ArrayList<Object>(this.mChunkSize);
+		List<String> encryptedStrings = new ArrayList<String>(this.mChunkSize);
+		if (!readRows(keys, encryptedStrings)) {
+			return null;
+		}
+		return process(keys, encryptedStrings);
+	}
+
+	/**
+	 * Takes the next chunk processed by the crypto workers.
+	 *
+	 * @return the chunk, or null if there are no more rows
+	 * @throws SQLException
+	 *             the SQL exception
+	 */
+	private Row[] takeChunk() throws SQLException {
+		try {
+			return this.mQueue.take().get();
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for the next row.", ie);
+		} catch (ExecutionException ee) {
+			Throwable cause = ee.getCause();
+			if (cause instanceof SQLException) {
+				throw (SQLException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new SQLException(cause);
+		}
+	}
+
+	/**
+	 * Reads the chunks on the reader thread, submitting each one to the crypto workers. The end of the rows, or the
+	 * failure of the reader, is always queued as a completed task, so the writer never waits for a reader which is
+	 * gone. The failures include the rejection of a chunk by crypto workers which were shut down.
+	 */
+	private void read() {
+		Throwable failure = null;
+		try {
+			while (true) {
+				final List<Object> keys = new ArrayList<Object>(this.mChunkSize);
+				final List<String> encryptedStrings = new ArrayList<String>(this.mChunkSize);
+				if (!readRows(keys, encryptedStrings)) {
+					break;
+				}
+				put(this.mCryptoExecutor.submit(new Callable<Row[]>() {
+					public Row[] call() throws Exception {
+						return process(keys, encryptedStrings);
+					}
+				}));
+			}
+		} catch (SQLException sqle) {
+			failure = sqle;
+		} catch (RuntimeException re) {
+			failure = re;
+		} catch (Error e) {
+			failure = e;
+		} finally {
+			put(completed(failure));
+		}
+	}
+
+	/**
+	 * Reads up to a chunk of rows with a value. Time blocked on a full queue is the writer's, so it is not counted as
+	 * select time.
+	 *
+	 * @param pKeys
+	 *            the keys read
+	 * @param pEncryptedStrings
+	 *            the values read
+	 * @return false, if there were no more rows to read
+	 * @throws SQLException
+	 *             the SQL exception
+	 */
+	private boolean readRows(List<Object> pKeys, List<String> pEncryptedStrings) throws SQLException {
+		long start = System.nanoTime();
+		while (pKeys.size() < this.mChunkSize && !this.mClosed && this.mResultSet.next()) {
+			Object key = this.mResultSet.getObject(1);
+			String encryptedString = this.mResultSet.getString(2);
+			this.mMetrics.rowScanned(System.nanoTime() - start, encryptedString == null);
+			start = System.nanoTime();
+			if (encryptedString != null) {
+				pKeys.add(key);
+				pEncryptedStrings.add(encryptedString);
+			}
+		}
+		return !pKeys.isEmpty();
+	}
+
+	/**
+	 * Processes a chunk of rows.
+	 *
+	 * @param pKeys
+	 *            the keys
+	 * @param pEncryptedStrings
+	 *            the values
+	 * @return the rows
+	 */
+	private Row[] process(List<Object> pKeys, List<String> pEncryptedStrings) {
+		String[][] updateValues = this.mRowProcessor.process(pEncryptedStrings.toArray(new String[pEncryptedStrings
+				.size()]));
+		Row[] rows = new Row[updateValues.length];
+		for (int i = 0; i < rows.length; i++) {
+			rows[i] = new Row(pKeys.get(i), pEncryptedStrings.get(i), updateValues[i]);
+		}
+		return rows;
+	}
+
+	/**
+	 * Queues a chunk task, waiting for room in the queue unless the reader is closed.
+	 *
+	 * @param pChunkTask
+	 *            the chunk task
+	 */
+	private void put(Future<Row[]> pChunkTask) {
+		try {
+			while (!this.mClosed) {
+				if (this.mQueue.offer(pChunkTask, QUEUE_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+					return;
+				}
+			}
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Creates a completed chunk task, for the end of the rows or a failure of the reader.
+	 *
+	 * @param pFailure
+	 *            the failure, null for the end of the rows
+	 * @return the completed task
+	 */
+	private static Future<Row[]> completed(final Throwable pFailure) {
+		FutureTask<Row[]> chunkTask = new FutureTask<Row[]>(new Callable<Row[]>() {
+			public Row[] call() throws Exception {
+				if (pFailure instanceof Exception) {
+					throw (Exception) pFailure;
+				}
+				if (pFailure instanceof Error) {
+					throw (Error) pFailure;
+				}
+				return null;
+			}
+		});
+		chunkTask.run();
+		return chunkTask;
+	}
+
+	/**
+	 * The Interface RowProcessor computes the values to write for the values of a chunk of rows.
+	 */
+	interface RowProcessor {
+
+		/**
+		 * Processes the values of a chunk of rows.
+		 *
+		 * @param pEncryptedStrings
+		 *            the values as currently stored, none of them null
+		 * @return the values to update of each row
+		 */
+		String[][] process(String[] pEncryptedStrings);
+	}
+
+	/**
+	 * The Class Row is the key of a row, its value as read, and the values to write for it.
+	 */
+	static final class Row {
+
+		/** The key. */
+		private final Object mKey;
+
+		/** The value as read. */
+		private final String mEncryptedString;
+
+		/** The values to update. */
+		private final String[] mUpdateValues;
+
+		/**
+		 * Instantiates a new row.
+		 *
+		 * @param pKey
+		 *            the key
+		 * @param pEncryptedString
+		 *            the value as read
+		 * @param pUpdateValues
+		 *            the values to update
+		 */
+		Row(Object pKey, String pEncryptedString, String[] pUpdateValues) {
+			this.mKey = pKey;
+			this.mEncryptedString = pEncryptedString;
+			this.mUpdateValues = pUpdateValues;
+		}
+
+		/**
+		 * Gets the key.
+		 *
+		 * @return the key
+		 */
+		public Object getKey() {
+			return this.mKey;
+		}
+
+		/**
+		 * Gets the value as read, which the row must still have when it is written.
+		 *
+		 * @return the encrypted string
+		 */
+		public String getEncryptedString() {
+			return this.mEncryptedString;
+		}
+
+		/**
+		 * Gets the values to update.
+		 *
+		 * @return the update values
+		 */
+		public String[] getUpdateValues() {
+			return this.mUpdateValues;
+		}
+	}
+
+}
@@ -0,0 +1,215 @@
+/*
+ * Please read the README.md and LICENSE.md files contained in this repository or module.
+ *
+ * Please contact sales@sparkred.com or support@sparkred.com if you have any questions.
+ *
+ * This code is copyright Spark::red https://www.sparkred.com 2007-2016, all right reserved.
+ */
+package com.sparkred.crypto.tools;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The Class RekeyThrottle paces the writes of the {@link RekeyEngine} workers, so that a rekey can run alongside
+ * production traffic on the same database.
+ *
+ * Each write, a JDBC batch or a single row update, first acquires the throttle. It waits while the throttle is
+ * paused, until its rows fit under the rows per second ceiling, and until fewer writes than the concurrency limit are
+ * in progress. The concurrency limit adapts to the latency of the writes and commits: it is halved when one takes
+ * longer than the latency target, and grows by one after as many fast writes as the current limit, up to the number
+ * of workers. Once down to a single write at a time, a slow write also holds the next ones back for as long as it
+ * took.
+ */
+class RekeyThrottle {
+
+	/** The number of nanoseconds in a second. */
+	private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+	/** Returned by {@link #acquire(int, boolean)} instead of waiting while paused. */
+	public static final long YIELDED = Long.MIN_VALUE;
+
+	/** The rows per second ceiling, zero or less for no ceiling. */
+	private double mMaxRowsPerSecond;
+
+	/** The largest concurrency limit, the number of workers. */
+	private int mMaxConcurrency = 1;
+
+	/** The latency target of a write or commit in nanoseconds, zero or less to keep the concurrency limit fixed. */
+	private long mLatencyTargetNanos;
+
+	/** The current concurrency limit. */
+	private int mConcurrency = 1;
+
+	/** The number of writes in progress. */
+	private int mActiveWrites;
+
+	/** The number of writes within the latency target since the concurrency limit last changed. */
+	private int mFastWrites;
+
+	/** The time of the last decrease of the concurrency limit, from System.nanoTime. */
+	private long mLastDecreaseNanos = System.nanoTime();
+
+	/** The earliest time the next rows may be written, from System.nanoTime. */
+	private long mNextWriteNanos = System.nanoTime();
+
+	/** The paused flag. */
+	private boolean mPaused;
+
+	/**
+	 * Sets the limits for a run, and restarts the concurrency limit at the number of workers. The paused flag is kept,
+	 * so a run started while paused waits for {@link #resume()}.
+	 *
+	 * @param pMaxRowsPerSecond
+	 *            the rows per second ceiling, zero or less for no ceiling
+	 * @param pMaxConcurrency
+	 *            the number of workers
+	 * @param pLatencyTargetMillis
+	 *            the latency target of a write or commit, zero or less to keep the concurrency limit fixed
+	 */
+	public synchronized void configure(double pMaxRowsPerSecond, int pMaxConcurrency, long pLatencyTargetMillis) {
+		this.mMaxRowsPerSecond = pMaxRowsPerSecond;
+		this.mMaxConcurrency = Math.max(1, pMaxConcurrency);
+		this.mLatencyTargetNanos = TimeUnit.MILLISECONDS.toNanos(pLatencyTargetMillis);
+		this.mConcurrency = this.mMaxConcurrency;
+		this.mFastWrites = 0;
+		this.mLastDecreaseNanos = System.nanoTime();
+		this.mNextWriteNanos = this.mLastDecreaseNanos;
+		notifyAll();
+	}
+
+	/**
+	 * Waits until a write of some rows may start. Every call must be followed by {@link #release(long)} once the write
+	 * is done, whether it succeeded or not.
+	 *
+	 * @param pRows
+	 *            the number of rows written
+	 * @return the start of the write, from System.nanoTime
+	 * @throws InterruptedException
+	 *             if the thread is interrupted while waiting
+	 */
+	public long acquire(int pRows) throws InterruptedException {
+		return acquire(pRows, false);
+	}
+
+	/**
+	 * Waits until a write of some rows may start, or returns at once when the throttle is paused and the caller has
+	 * asked to yield, so that it can commit the rows it holds locked before it waits. Every call which does not return
+	 * {@link #YIELDED} must be followed by {@link #release(long)} once the write is done, whether it succeeded or not.
+	 *
+	 * @param pRows
+	 *            the number of rows written
+	 * @param pYieldIfPaused
+	 *            true, to return {@link #YIELDED} instead of waiting while paused
+	 * @return the start of the write, from System.nanoTime, or {@link #YIELDED}
+	 * @throws InterruptedException
+	 *             if the thread is interrupted while waiting
+	 */
+	public long acquire(int pRows, boolean pYieldIfPaused) throws InterruptedException {
+		long delayNanos;
+		synchronized (this) {
+			while (this.mPaused) {
+				if (pYieldIfPaused) {
+					return YIELDED;
+				}
+				wait();
+			}
+			long now = System.nanoTime();
+			if (this.mNextWriteNanos - now < 0) {
+				// Time left unused is not saved up for a burst later
+				this.mNextWriteNanos = now;
+			}
+			delayNanos = this.mNextWriteNanos - now;
+			if (this.mMaxRowsPerSecond > 0) {
+				this.mNextWriteNanos += (long) (pRows * NANOS_PER_SECOND / this.mMaxRowsPerSecond);
+			}
+		}
+		if (delayNanos > 0) {
+			TimeUnit.NANOSECONDS.sleep(delayNanos);
+		}
+		synchronized (this) {
+			while (this.mPaused || this.mActiveWrites >= this.mConcurrency) {
+				if (this.mPaused && pYieldIfPaused) {
+					return YIELDED;
+				}
+				wait();
+			}
+			this.mActiveWrites++;
+		}
+		return System.nanoTime();
+	}
+
+	/**
+	 * Ends a write started by {@link #acquire(int)}, and adapts the concurrency limit to its latency.
+	 *
+	 * @param pStartNanos
+	 *            the start of the write, as returned by acquire
+	 */
+	public synchronized void release(long pStartNanos) {
+		this.mActiveWrites--;
+		observe(pStartNanos);
+		notifyAll();
+	}
+
+	/**
+	 * Adapts the concurrency limit to the latency of a write or commit which did not acquire the throttle.
+	 *
+	 * @param pStartNanos
+	 *            the start of the write or commit, from System.nanoTime
+	 */
+	public synchronized void observe(long pStartNanos) {
+		if (this.mLatencyTargetNanos <= 0) {
+			return;
+		}
+		long now = System.nanoTime();
+		long latencyNanos = now - pStartNanos;
+		if (latencyNanos > this.mLatencyTargetNanos) {
+			// Writes started before the last decrease ran under the previous limit
+			if (pStartNanos - this.mLastDecreaseNanos > 0) {
+				if (this.mConcurrency == 1 && this.mNextWriteNanos - (now + latencyNanos) < 0) {
+					this.mNextWriteNanos = now + latencyNanos;
+				}
+				this.mConcurrency = Math.max(1, this.mConcurrency / 2);
+				this.mLastDecreaseNanos = now;
+				this.mFastWrites = 0;
+			}
+		} else if (this.mConcurrency < this.mMaxConcurrency && ++this.mFastWrites >= this.mConcurrency) {
+			this.mConcurrency++;
+			this.mFastWrites = 0;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Pauses the writes. Writes in progress complete, the next ones wait for {@link #resume()}.
+	 */
+	public synchronized void pause() {
+		this.mPaused = true;
+	}
+
+	/**
+	 * Resumes the writes.
+	 */
+	public synchronized void resume() {
+		this.mPaused = false;
+		notifyAll();
+	}
+
+	/**
+	 * Checks if the writes are paused.
+	 *
+	 * @return true, if paused
+	 */
+	public synchronized boolean isPaused() {
+		return this.mPaused;
+	}
+
+	/**
+	 * Gets the current concurrency limit.
+	 *
+	 * @return the concurrency limit
+	 */
+	public synchronized int getConcurrency() {
+		return this.mConcurrency;
+	}
+
+}
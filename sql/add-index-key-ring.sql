@@ -0,0 +1,6 @@
+CREATE TABLE "SR_CRYPTO_INDEX_KEY" (
+"ID" VARCHAR2(255 BYTE) NOT NULL,
+"KEY_ID" VARCHAR2(10 BYTE) NOT NULL,
+"ENC_INDEX_KEY" VARCHAR2(100 BYTE) NOT NULL,
+CONSTRAINT "SR_CRYPTO_INDEX_KEY_PK" PRIMARY KEY ("ID", "KEY_ID")
+);
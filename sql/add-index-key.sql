@@ -0,0 +1 @@
+ALTER TABLE "SR_CRYPTO" ADD ("ENC_INDEX_KEY" VARCHAR2(100 BYTE));
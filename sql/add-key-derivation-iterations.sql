@@ -0,0 +1 @@
+ALTER TABLE "SR_CRYPTO" ADD ("KEY_DERIVATION_ITERATIONS" NUMBER(10));
@@ -0,0 +1,8 @@
+ALTER TABLE "SR_CRYPTO" ADD ("ACTIVE_KEY_ID" NUMBER(10));
+
+CREATE TABLE "SR_CRYPTO_KEY" (
+"ID" VARCHAR2(255 BYTE) NOT NULL,
+"KEY_ID" VARCHAR2(10 BYTE) NOT NULL,
+"ENC_DATA_KEY" VARCHAR2(100 BYTE) NOT NULL,
+CONSTRAINT "SR_CRYPTO_KEY_PK" PRIMARY KEY ("ID", "KEY_ID")
+);
@@ -0,0 +1 @@
+ALTER TABLE "SR_CRYPTO" ADD ("PENDING_DATA_KEY" VARCHAR2(100 BYTE), "PENDING_INDEX_KEY" VARCHAR2(100 BYTE));
@@ -1,8 +1,26 @@
 CREATE TABLE "SR_CRYPTO" (
 "ID" VARCHAR2(255 BYTE) NOT NULL,
 "ENC_DATA_KEY" VARCHAR2(100 BYTE) NOT NULL,
+"ACTIVE_KEY_ID" NUMBER(10),
+"ENC_INDEX_KEY" VARCHAR2(100 BYTE),
+"PENDING_DATA_KEY" VARCHAR2(100 BYTE),
+"PENDING_INDEX_KEY" VARCHAR2(100 BYTE),
+"KEY_DERIVATION_ITERATIONS" NUMBER(10),
 "DESCRIPTION"  VARCHAR2(1000 BYTE),
 "KEY_DATE" DATE NOT NULL,
 CONSTRAINT "SR_CRYPTO_PK" PRIMARY KEY ("ID")
 );
 
+CREATE TABLE "SR_CRYPTO_KEY" (
+"ID" VARCHAR2(255 BYTE) NOT NULL,
+"KEY_ID" VARCHAR2(10 BYTE) NOT NULL,
+"ENC_DATA_KEY" VARCHAR2(100 BYTE) NOT NULL,
+CONSTRAINT "SR_CRYPTO_KEY_PK" PRIMARY KEY ("ID", "KEY_ID")
+);
+
+CREATE TABLE "SR_CRYPTO_INDEX_KEY" (
+"ID" VARCHAR2(255 BYTE) NOT NULL,
+"KEY_ID" VARCHAR2(10 BYTE) NOT NULL,
+"ENC_INDEX_KEY" VARCHAR2(100 BYTE) NOT NULL,
+CONSTRAINT "SR_CRYPTO_INDEX_KEY_PK" PRIMARY KEY ("ID", "KEY_ID")
+);
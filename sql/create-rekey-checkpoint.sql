@@ -0,0 +1,10 @@
+CREATE TABLE "SR_CRYPTO_CHECKPOINT" (
+"ENGINE_ID" VARCHAR2(255 BYTE) NOT NULL,
+"TABLE_COLUMN" VARCHAR2(255 BYTE) NOT NULL,
+"PARTITION_INDEX" NUMBER(10) NOT NULL,
+"PARTITION_COUNT" NUMBER(10) NOT NULL,
+"LAST_KEY" VARCHAR2(255 BYTE),
+"COMPLETED" NUMBER(1) DEFAULT 0 NOT NULL,
+"UPDATED_DATE" DATE,
+CONSTRAINT "SR_CRYPTO_CHECKPOINT_PK" PRIMARY KEY ("ENGINE_ID", "TABLE_COLUMN", "PARTITION_INDEX")
+);
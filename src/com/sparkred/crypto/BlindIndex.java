@@ -0,0 +1,99 @@
+/*
+ * Please read the README.md and LICENSE.md files contained in this repository or module.
+ *
+ * Please contact sales@sparkred.com or support@sparkred.com if you have any questions.
+ *
+ * This code is copyright Spark::red https://www.sparkred.com 2007-2016, all right reserved.
+ */
+package com.sparkred.crypto;
+
+import java.io.UnsupportedEncodingException;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.jasypt.exceptions.EncryptionOperationNotPossibleException;
+
+/**
+ * The Class BlindIndex computes a keyed HMAC of a plain text value. Unlike the encrypted value, which carries a random
+ * salt, the blind index of a value is always the same for a given index key, so it can be stored in an indexed column
+ * and searched by equality without decrypting anything. The index key is separate from the data key, so the index
+ * does not weaken the encryption of the value itself.
+ *
+ * Values are indexed exactly as given, callers searching by a value must pass it in the same form it was stored.
+ *
+ * This class is not thread safe, each instance holds its own Mac. Use {@link #BlindIndex(BlindIndex)} to create
+ * another instance with the same key for another thread.
+ */
+public class BlindIndex {
+
+	/** The index key. */
+	private final SecretKeySpec mKey;
+
+	/** The Mac, created on first use. */
+	private Mac mMac;
+
+	/**
+	 * Instantiates a new blind index.
+	 *
+	 * @param pIndexPassphrase
+	 *            the index passphrase
+	 * @throws UnsupportedEncodingException
+	 *             if UTF-8 is not supported
+	 */
+	public BlindIndex(String pIndexPassphrase) throws UnsupportedEncodingException {
+		this.mKey = new SecretKeySpec(pIndexPassphrase.getBytes("UTF-8"), CryptoConstants.BLIND_INDEX_ALGO);
+	}
+
+	/**
+	 * Instantiates a new blind index which shares the key of another one.
+	 *
+	 * @param pBlindIndex
+	 *            the blind index to copy the key from
+	 */
+	public BlindIndex(BlindIndex pBlindIndex) {
+		this.mKey = pBlindIndex.mKey;
+	}
+
+	/**
+	 * Computes the blind index of a value.
+	 *
+	 * @param pPlainText
+	 *            the plain text
+	 * @return the Base64 encoded HMAC of the plain text, or null if the plain text is null
+	 */
+	public String compute(String pPlainText) {
+		if (pPlainText == null) {
+			return null;
+		}
+		byte[] hmac;
+		try {
+			hmac = getMac().doFinal(pPlainText.getBytes("UTF-8"));
+		} catch (UnsupportedEncodingException uee) {
+			throw new EncryptionOperationNotPossibleException(uee);
+		}
+		char[] index = new char[TextCodec.base64EncodedLength(hmac.length)];
+		TextCodec.encodeBase64(hmac, 0, hmac.length, index, 0);
+		return new String(index);
+	}
+
+	/**
+	 * Gets the Mac, initializing it with the index key on first use.
+	 *
+	 * @return the Mac
+	 */
+	private Mac getMac() {
+		if (this.mMac == null) {
+			try {
+				Mac mac = Mac.getInstance(CryptoConstants.BLIND_INDEX_ALGO);
+				mac.init(this.mKey);
+				this.mMac = mac;
+			} catch (GeneralSecurityException gse) {
+				throw new EncryptionOperationNotPossibleException(gse);
+			}
+		}
+		return this.mMac;
+	}
+
+}
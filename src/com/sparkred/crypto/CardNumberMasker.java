@@ -0,0 +1,125 @@
+/*
+ * Please read the README.md and LICENSE.md files contained in this repository or module.
+ *
+ * Please contact sales@sparkred.com or support@sparkred.com if you have any questions.
+ *
+ * This code is copyright Spark::red https://www.sparkred.com 2007-2016, all right reserved.
+ */
+package com.sparkred.crypto;
+
+/**
+ * The Class CardNumberMasker derives the non-sensitive companion values of a card number: the last four digits, the
+ * BIN (the leading digits which identify the issuer) and a masked display value. Only digits are considered, so
+ * spaces and dashes in the input are ignored.
+ *
+ * These values are written next to the encrypted card number by the {@link CryptoPropertyDescriptor}, and backfilled
+ * by the RekeyEngine, so display code never needs to decrypt.
+ */
+public final class CardNumberMasker {
+
+	/** The number of trailing digits which are not masked. */
+	public static final int LAST_DIGITS = 4;
+
+	/** The default BIN length. */
+	public static final int DEFAULT_BIN_LENGTH = 6;
+
+	/** The mask character. */
+	private static final char MASK_CHAR = '*';
+
+	/**
+	 * Instantiates a new card number masker. This is a static utility class.
+	 */
+	private CardNumberMasker() {
+	}
+
+	/**
+	 * Gets the last four digits.
+	 *
+	 * @param pCardNumber
+	 *            the card number
+	 * @return the last four digits, or null if there are not more than four digits
+	 */
+	public static String getLastFour(String pCardNumber) {
+		String digits = digitsOf(pCardNumber);
+		if (digits == null || digits.length() <= LAST_DIGITS) {
+			return null;
+		}
+		return digits.substring(digits.length() - LAST_DIGITS);
+	}
+
+	/**
+	 * Gets the BIN.
+	 *
+	 * @param pCardNumber
+	 *            the card number
+	 * @param pBinLength
+	 *            the number of leading digits, at least one
+	 * @return the BIN, or null if the card number does not have more digits than the BIN and the last four together
+	 * @throws IllegalArgumentException
+	 *             if the BIN length is less than one
+	 */
+	public static String getBin(String pCardNumber, int pBinLength) {
+		checkBinLength(pBinLength);
+		String digits = digitsOf(pCardNumber);
+		// With exactly the BIN and the last four digits, the two together would be the whole number
+		if (digits == null || digits.length() <= pBinLength + LAST_DIGITS) {
+			return null;
+		}
+		return digits.substring(0, pBinLength);
+	}
+
+	/**
+	 * Gets the masked card number, with every digit except the last four replaced by '*'.
+	 *
+	 * @param pCardNumber
+	 *            the card number
+	 * @return the masked card number, or null if there are not more than four digits
+	 */
+	public static String getMasked(String pCardNumber) {
+		String digits = digitsOf(pCardNumber);
+		if (digits == null || digits.length() <= LAST_DIGITS) {
+			return null;
+		}
+		char[] masked = digits.toCharArray();
+		for (int i = 0; i < masked.length - LAST_DIGITS; i++) {
+			masked[i] = MASK_CHAR;
+		}
+		return new String(masked);
+	}
+
+	/**
+	 * Checks a BIN length.
+	 *
+	 * @param pBinLength
+	 *            the BIN length
+	 * @throws IllegalArgumentException
+	 *             if the BIN length is less than one
+	 */
+	public static void checkBinLength(int pBinLength) {
+		if (pBinLength < 1) {
+			throw new IllegalArgumentException("The BIN length must be at least 1: " + pBinLength);
+		}
+	}
+
+	/**
+	 * Gets the digits of a card number.
+	 *
+	 * @param pCardNumber
+	 *            the card number
+	 * @return the digits, or null if the card number is null
+	 */
+	private static String digitsOf(String pCardNumber) {
+		if (pCardNumber == null) {
+			return null;
+		}
+		StringBuilder digits = new StringBuilder(pCardNumber.length());
+		for (int i = 0; i < pCardNumber.length(); i++) {
+			char c = pCardNumber.charAt(i);
+			if (c >= '0' && c <= '9') {
+				digits.append(c);
+			}
+		}
+		return digits.toString();
+	}
+
+}
@@ -0,0 +1,256 @@
+/*
+ * Please read the README.md and LICENSE.md files contained in this repository or module.
+ *
+ * Please contact sales@sparkred.com or support@sparkred.com if you have any questions.
+ *
+ * This code is copyright Spark::red https://www.sparkred.com 2007-2016, all right reserved.
+ */
+package com.sparkred.crypto;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.jasypt.encryption.pbe.StandardPBEStringEncryptor;
+import org.jasypt.exceptions.EncryptionOperationNotPossibleException;
+
+/**
+ * The Class CipherPool holds a fixed number of initialized cipher stripes so that concurrent threads do not all queue
+ * behind a single encryptor.
+ *
+ * jasypt's StandardPBEByteEncryptor synchronizes on its internal ciphers, and a {@link DerivedKeyCipher} is not thread
+ * safe, so every stripe has its own jasypt encryptor, derived key ciphers and blind index, guarded by its own lock. A
+ * thread starts with the stripe picked by its thread id. When that stripe is already taken it tries the other stripes
+ * in turn, and only when every stripe is taken is the contention count incremented before the thread waits for its
+ * own stripe.
+ */
+public class CipherPool {
+
+	/** The stripes. */
+	private final Stripe[] mStripes;
+
+	/** The number of times a thread had to wait for a stripe, every stripe being taken. */
+	private final AtomicLong mContentionCount = new AtomicLong();
+
+	/**
+	 * Instantiates a new cipher pool.
+	 *
+	 * @param pSize
+	 *            the number of stripes, if less than one the number of available processors is used
+	 * @param pDataPassphrase
+	 *            the data passphrase for the jasypt encryptors
+	 * @param pDerivedKeyCipher
+	 *            the derived key cipher whose key is shared by every stripe
+	 * @param pBlindIndex
+	 *            the blind index whose key is shared by every stripe
+	 */
+	public CipherPool(int pSize, String pDataPassphrase, DerivedKeyCipher pDerivedKeyCipher, BlindIndex pBlindIndex) {
+		this(pSize, pDataPassphrase, pDerivedKeyCipher, null, pBlindIndex);
+	}
+
+	/**
+	 * Instantiates a new cipher pool which also decrypts and encrypts values of the gcm cipher suite.
+	 *
+	 * @param pSize
+	 *            the number of stripes, if less than one the number of available processors is used
+	 * @param pDataPassphrase
+	 *            the data passphrase for the jasypt encryptors
+	 * @param pDerivedKeyCipher
+	 *            the AES-CBC derived key cipher whose key is shared by every stripe
+	 * @param pGcmCipher
+	 *            the AES-GCM derived key cipher whose key is shared by every stripe, may be null
+	 * @param pBlindIndex
+	 *            the blind index whose key is shared by every stripe
+	 */
+	public CipherPool(int pSize, String pDataPassphrase, DerivedKeyCipher pDerivedKeyCipher,
+			DerivedKeyCipher pGcmCipher, BlindIndex pBlindIndex) {
+		int size = pSize;
+		if (size < 1) {
+			size = Runtime.getRuntime().availableProcessors();
+		}
+		this.mStripes = new Stripe[size];
+		for (int i = 0; i < size; i++) {
+			StandardPBEStringEncryptor encryptor = new StandardPBEStringEncryptor();
+			encryptor.setProviderName(CryptoConstants.BOUNCY_CASTLE_PROVIDER_NAME);
+			encryptor.setAlgorithm(CryptoConstants.STRONG_ALGO);
+			encryptor.setPassword(pDataPassphrase);
+			this.mStripes[i] = new Stripe(encryptor, new DerivedKeyCipher(pDerivedKeyCipher),
+					pGcmCipher == null ? null : new DerivedKeyCipher(pGcmCipher), new BlindIndex(pBlindIndex));
+		}
+	}
+
+	/**
+	 * Acquires the stripe of the current thread. The caller must pass it to {@link #release(Stripe)} in a finally
+	 * block.
+	 *
+	 * @return the locked stripe
+	 */
+	public Stripe acquire() {
+		return acquire(null);
+	}
+
+	/**
+	 * Acquires the stripe of the current thread, or the next free one if it is taken, recording the time waited when
+	 * every stripe was taken. The caller must pass it to {@link #release(Stripe)} in a finally block.
+	 *
+	 * @param pMetrics
+	 *            the metrics which record the wait, may be null
+	 * @return the locked stripe
+	 */
+	public Stripe acquire(CryptoMetrics pMetrics) {
+		int home = (int) (Thread.currentThread().getId() % this.mStripes.length);
+		for (int i = 0; i < this.mStripes.length; i++) {
+			Stripe stripe = this.mStripes[(home + i) % this.mStripes.length];
+			if (stripe.mLock.tryLock()) {
+				return stripe;
+			}
+		}
+		Stripe stripe = this.mStripes[home];
+		this.mContentionCount.incrementAndGet();
+		long start = System.nanoTime();
+		stripe.mLock.lock();
+		if (pMetrics != null) {
+			pMetrics.recordStripeWait(System.nanoTime() - start);
+		}
+		return stripe;
+	}
+
+	/**
+	 * Releases a stripe acquired by {@link #acquire()}.
+	 *
+	 * @param pStripe
+	 *            the stripe
+	 */
+	public void release(Stripe pStripe) {
+		pStripe.mLock.unlock();
+	}
+
+	/**
+	 * Runs a plain text value through the encryptor, derived key cipher and blind index of every stripe, so that
+	 * their ciphers are created and initialized before the first real value. Each stripe is locked while in use.
+	 *
+	 * @param pPlainText
+	 *            the plain text
+	 */
+	public void prewarm(String pPlainText) {
+		for (Stripe stripe : this.mStripes) {
+			stripe.mLock.lock();
+			try {
+				stripe.getEncryptor().decrypt(stripe.getEncryptor().encrypt(pPlainText));
+				stripe.getDerivedKeyCipher().decrypt(stripe.getDerivedKeyCipher().encrypt(pPlainText));
+				if (stripe.mGcmCipher != null) {
+					stripe.mGcmCipher.decrypt(stripe.mGcmCipher.encrypt(pPlainText));
+				}
+				stripe.getBlindIndex().compute(pPlainText);
+			} finally {
+				stripe.mLock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of stripes.
+	 *
+	 * @return the size
+	 */
+	public int getSize() {
+		return this.mStripes.length;
+	}
+
+	/**
+	 * Gets the number of times a thread had to wait for a stripe, every stripe being taken.
+	 *
+	 * @return the contention count
+	 */
+	public long getContentionCount() {
+		return this.mContentionCount.get();
+	}
+
+	/**
+	 * The Class Stripe is one lockable set of initialized ciphers.
+	 */
+	public static final class Stripe {
+
+		/** The lock guarding this stripe. */
+		private final ReentrantLock mLock = new ReentrantLock();
+
+		/** The jasypt PBE encryptor. */
+		private final StandardPBEStringEncryptor mEncryptor;
+
+		/** The derived key cipher. */
+		private final DerivedKeyCipher mDerivedKeyCipher;
+
+		/** The AES-GCM derived key cipher, null if the pool has none. */
+		private final DerivedKeyCipher mGcmCipher;
+
+		/** The blind index. */
+		private final BlindIndex mBlindIndex;
+
+		/**
+		 * Instantiates a new stripe.
+		 *
+		 * @param pEncryptor
+		 *            the jasypt PBE encryptor
+		 * @param pDerivedKeyCipher
+		 *            the derived key cipher
+		 * @param pGcmCipher
+		 *            the AES-GCM derived key cipher, may be null
+		 * @param pBlindIndex
+		 *            the blind index
+		 */
+		Stripe(StandardPBEStringEncryptor pEncryptor, DerivedKeyCipher pDerivedKeyCipher, DerivedKeyCipher pGcmCipher,
+				BlindIndex pBlindIndex) {
+			this.mEncryptor = pEncryptor;
+			this.mDerivedKeyCipher = pDerivedKeyCipher;
+			this.mGcmCipher = pGcmCipher;
+			this.mBlindIndex = pBlindIndex;
+		}
+
+		/**
+		 * Gets the jasypt PBE encryptor.
+		 *
+		 * @return the encryptor
+		 */
+		public StandardPBEStringEncryptor getEncryptor() {
+			return this.mEncryptor;
+		}
+
+		/**
+		 * Gets the derived key cipher.
+		 *
+		 * @return the derived key cipher
+		 */
+		public DerivedKeyCipher getDerivedKeyCipher() {
+			return this.mDerivedKeyCipher;
+		}
+
+		/**
+		 * Gets the derived key cipher of a cipher suite.
+		 *
+		 * @param pSuite
+		 *            the cipher suite, AES_CBC or AES_GCM
+		 * @return the derived key cipher
+		 * @throws EncryptionOperationNotPossibleException
+		 *             if the suite is PBE, or the pool has no cipher for it
+		 */
+		public DerivedKeyCipher getCipher(CipherSuite pSuite) {
+			if (pSuite == CipherSuite.AES_CBC) {
+				return this.mDerivedKeyCipher;
+			}
+			if (pSuite == CipherSuite.AES_GCM && this.mGcmCipher != null) {
+				return this.mGcmCipher;
+			}
+			throw new EncryptionOperationNotPossibleException("No derived key cipher for the " + pSuite
+					+ " cipher suite.");
+		}
+
+		/**
+		 * Gets the blind index.
+		 *
+		 * @return the blind index
+		 */
+		public BlindIndex getBlindIndex() {
+			return this.mBlindIndex;
+		}
+	}
+
+}
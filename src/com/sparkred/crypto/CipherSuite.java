@@ -0,0 +1,254 @@
+/*
+ * Please read the README.md and LICENSE.md files contained in this repository or module.
+ *
+ * Please contact sales@sparkred.com or support@sparkred.com if you have any questions.
+ *
+ * This code is copyright Spark::red https://www.sparkred.com 2007-2016, all right reserved.
+ */
+package com.sparkred.crypto;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The Enum CipherSuite lists the algorithms a {@link CryptoEngine} encrypts new values with, selected by its cipher
+ * mode, or by the cipherMode attribute of an encrypted property.
+ *
+ * Every suite but PBE writes a versioned header in front of its output, which is never part of the jasypt Base64
+ * output, so the suite of a stored value is always known from the value itself. Values of every suite can be decrypted
+ * whatever the cipher mode, and suites can be mixed while values are migrated from one to another.
+ */
+public enum CipherSuite {
+
+	/** The jasypt PBE encryptor on the BouncyCastle provider, running the key derivation for every value. */
+	PBE(CryptoConstants.CIPHER_MODE_PBE, null, null, 0, 0),
+
+	/** AES-256-CBC on the default JCE provider, with a key derived once from the data passphrase. */
+	AES_CBC(CryptoConstants.CIPHER_MODE_DERIVED_KEY, CryptoConstants.DERIVED_KEY_HEADER,
+			CryptoConstants.DERIVED_KEY_TRANSFORMATION, CryptoConstants.DERIVED_KEY_IV_LENGTH, 0),
+
+	/**
+	 * AES-256-GCM on the default JCE provider, with its own key derived once from the data passphrase. The JIT uses
+	 * the AES instructions of the CPU where there are any, and the tag authenticates every value.
+	 */
+	AES_GCM(CryptoConstants.CIPHER_MODE_GCM, CryptoConstants.GCM_HEADER, CryptoConstants.GCM_TRANSFORMATION,
+			CryptoConstants.GCM_IV_LENGTH, CryptoConstants.GCM_TAG_LENGTH_BITS);
+
+	/** The suites, without the copy values() makes on every call. */
+	private static final CipherSuite[] SUITES = values();
+
+	/** The cipher mode name. */
+	private final String mCipherMode;
+
+	/** The header written in front of the Base64 output, null for PBE. */
+	private final String mHeader;
+
+	/** The JCE cipher transformation, null for PBE. */
+	private final String mTransformation;
+
+	/** The length in bytes of the random IV. */
+	private final int mIvLength;
+
+	/** The length in bits of the authentication tag, 0 if none. */
+	private final int mTagLengthBits;
+
+	/**
+	 * Instantiates a new cipher suite.
+	 *
+	 * @param pCipherMode
+	 *            the cipher mode name
+	 * @param pHeader
+	 *            the header, null for PBE
+	 * @param pTransformation
+	 *            the JCE cipher transformation, null for PBE
+	 * @param pIvLength
+	 *            the IV length in bytes
+	 * @param pTagLengthBits
+	 *            the authentication tag length in bits, 0 if none
+	 */
+	private CipherSuite(String pCipherMode, String pHeader, String pTransformation, int pIvLength,
+			int pTagLengthBits) {
+		this.mCipherMode = pCipherMode;
+		this.mHeader = pHeader;
+		this.mTransformation = pTransformation;
+		this.mIvLength = pIvLength;
+		this.mTagLengthBits = pTagLengthBits;
+	}
+
+	/**
+	 * Gets the suite of a cipher mode name.
+	 *
+	 * @param pCipherMode
+	 *            the cipher mode, pbe, derivedKey or gcm
+	 * @return the suite, or null if the cipher mode is not known
+	 */
+	public static CipherSuite forCipherMode(String pCipherMode) {
+		for (CipherSuite suite : SUITES) {
+			if (suite.mCipherMode.equals(pCipherMode)) {
+				return suite;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Gets the suite an encrypted value was written with, from its header.
+	 *
+	 * @param pEncryptedText
+	 *            the encrypted text, without the key id prefix
+	 * @return the suite, PBE if the text has no header
+	 */
+	public static CipherSuite of(String pEncryptedText) {
+		return of(pEncryptedText, 0, pEncryptedText.length());
+	}
+
+	/**
+	 * Gets the suite encrypted chars were written with, from their header.
+	 *
+	 * @param pEncryptedText
+	 *            the encrypted text, without the key id prefix
+	 * @param pOffset
+	 *            the offset
+	 * @param pLength
+	 *            the length
+	 * @return the suite, PBE if the text has no header
+	 */
+	public static CipherSuite of(CharSequence pEncryptedText, int pOffset, int pLength) {
+		for (CipherSuite suite : SUITES) {
+			if (suite.hasHeader(pEncryptedText, pOffset, pLength)) {
+				return suite;
+			}
+		}
+		return PBE;
+	}
+
+	/**
+	 * Gets the suite encrypted chars were written with, from their header.
+	 *
+	 * @param pEncryptedText
+	 *            the encrypted chars, without the key id prefix
+	 * @param pOffset
+	 *            the offset
+	 * @param pLength
+	 *            the length
+	 * @return the suite, PBE if the chars have no header
+	 */
+	public static CipherSuite of(char[] pEncryptedText, int pOffset, int pLength) {
+		for (CipherSuite suite : SUITES) {
+			String header = suite.mHeader;
+			if (header == null || pLength < header.length()) {
+				continue;
+			}
+			boolean matches = true;
+			for (int i = 0; i < header.length() && matches; i++) {
+				matches = pEncryptedText[pOffset + i] == header.charAt(i);
+			}
+			if (matches) {
+				return suite;
+			}
+		}
+		return PBE;
+	}
+
+	/**
+	 * Gets the suite the remaining encrypted ASCII bytes of a buffer were written with, from their header. The buffer
+	 * position is not changed.
+	 *
+	 * @param pEncryptedText
+	 *            the encrypted ASCII bytes, without the key id prefix
+	 * @return the suite, PBE if the bytes have no header
+	 */
+	public static CipherSuite of(ByteBuffer pEncryptedText) {
+		for (CipherSuite suite : SUITES) {
+			String header = suite.mHeader;
+			if (header == null || pEncryptedText.remaining() < header.length()) {
+				continue;
+			}
+			boolean matches = true;
+			for (int i = 0; i < header.length() && matches; i++) {
+				matches = pEncryptedText.get(pEncryptedText.position() + i) == header.charAt(i);
+			}
+			if (matches) {
+				return suite;
+			}
+		}
+		return PBE;
+	}
+
+	/**
+	 * Checks if chars start with the header of this suite.
+	 *
+	 * @param pEncryptedText
+	 *            the encrypted text
+	 * @param pOffset
+	 *            the offset
+	 * @param pLength
+	 *            the length
+	 * @return true, if this suite has a header and the chars start with it
+	 */
+	boolean hasHeader(CharSequence pEncryptedText, int pOffset, int pLength) {
+		if (this.mHeader == null || pLength < this.mHeader.length()) {
+			return false;
+		}
+		for (int i = 0; i < this.mHeader.length(); i++) {
+			if (pEncryptedText.charAt(pOffset + i) != this.mHeader.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Checks if this suite encrypts with a key derived once at startup, through a {@link DerivedKeyCipher}.
+	 *
+	 * @return true, for every suite but PBE
+	 */
+	public boolean isDerivedKey() {
+		return this.mHeader != null;
+	}
+
+	/**
+	 * Gets the cipher mode name.
+	 *
+	 * @return the cipher mode
+	 */
+	public String getCipherMode() {
+		return this.mCipherMode;
+	}
+
+	/**
+	 * Gets the header written in front of the Base64 output.
+	 *
+	 * @return the header, null for PBE
+	 */
+	public String getHeader() {
+		return this.mHeader;
+	}
+
+	/**
+	 * Gets the JCE cipher transformation.
+	 *
+	 * @return the transformation, null for PBE
+	 */
+	public String getTransformation() {
+		return this.mTransformation;
+	}
+
+	/**
+	 * Gets the length of the random IV.
+	 *
+	 * @return the IV length in bytes
+	 */
+	public int getIvLength() {
+		return this.mIvLength;
+	}
+
+	/**
+	 * Gets the length of the authentication tag.
+	 *
+	 * @return the tag length in bits, 0 if the suite does not authenticate
+	 */
+	public int getTagLengthBits() {
+		return this.mTagLengthBits;
+	}
+
+}
@@ -0,0 +1,167 @@
+/*
+ * Please read the README.md and LICENSE.md files contained in this repository or module.
+ *
+ * Please contact sales@sparkred.com or support@sparkred.com if you have any questions.
+ *
+ * This code is copyright Spark::red https://www.sparkred.com 2007-2016, all right reserved.
+ */
+package com.sparkred.crypto;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The Class CryptoBatchResult holds the output of a bulk encrypt or decrypt call on the {@link CryptoEngine}.
+ *
+ * Every element is processed on its own, so a value which can not be encrypted or decrypted does not abort the batch.
+ * Its result is null and the exception is available from {@link #getFailure(int)}. Null input values produce null
+ * results and are not counted as failures.
+ */
+public class CryptoBatchResult {
+
+	/** The result values, in the same order as the input values. */
+	private final String[] mValues;
+
+	/** The failures, by input index. */
+	private final RuntimeException[] mFailures;
+
+	/** The failure count. */
+	private final AtomicInteger mFailureCount = new AtomicInteger();
+
+	/**
+	 * Instantiates a new crypto batch result.
+	 *
+	 * @param pSize
+	 *            the number of input values
+	 */
+	public CryptoBatchResult(int pSize) {
+		this.mValues = new String[pSize];
+		this.mFailures = new RuntimeException[pSize];
+	}
+
+	/**
+	 * Decrypts every value of a batch with the single value method of a decryptor, for decryptors which can not
+	 * decrypt more than one value per call. Null values produce null results.
+	 *
+	 * @param pDecryptor
+	 *            the decryptor
+	 * @param pEncryptedTexts
+	 *            the encrypted texts
+	 * @return the batch result, in the same order as the array
+	 */
+	public static CryptoBatchResult decryptEach(Decryptor pDecryptor, String[] pEncryptedTexts) {
+		CryptoBatchResult result = new CryptoBatchResult(pEncryptedTexts.length);
+		for (int i = 0; i < pEncryptedTexts.length; i++) {
+			if (pEncryptedTexts[i] == null) {
+				continue;
+			}
+			try {
+				result.setValue(i, pDecryptor.decrypt(pEncryptedTexts[i]));
+			} catch (RuntimeException e) {
+				result.setFailure(i, e);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Sets the result value for an input index.
+	 *
+	 * @param pIndex
+	 *            the input index
+	 * @param pValue
+	 *            the result value
+	 */
+	public void setValue(int pIndex, String pValue) {
+		this.mValues[pIndex] = pValue;
+	}
+
+	/**
+	 * Records the failure for an input index.
+	 *
+	 * @param pIndex
+	 *            the input index
+	 * @param pFailure
+	 *            the failure
+	 */
+	public void setFailure(int pIndex, RuntimeException pFailure) {
+		this.mFailures[pIndex] = pFailure;
+		this.mFailureCount.incrementAndGet();
+	}
+
+	/**
+	 * Gets the number of values in the batch.
+	 *
+	 * @return the size
+	 */
+	public int size() {
+		return this.mValues.length;
+	}
+
+	/**
+	 * Gets the result value for an input index.
+	 *
+	 * @param pIndex
+	 *            the input index
+	 * @return the result value, or null if the input was null or failed
+	 */
+	public String getValue(int pIndex) {
+		return this.mValues[pIndex];
+	}
+
+	/**
+	 * Gets the result values, in the same order as the input values.
+	 *
+	 * @return the values
+	 */
+	public List<String> getValues() {
+		return Arrays.asList(this.mValues);
+	}
+
+	/**
+	 * Gets the failure for an input index.
+	 *
+	 * @param pIndex
+	 *            the input index
+	 * @return the failure, or null if the value was processed
+	 */
+	public RuntimeException getFailure(int pIndex) {
+		return this.mFailures[pIndex];
+	}
+
+	/**
+	 * Checks if any value in the batch failed.
+	 *
+	 * @return true, if there were failures
+	 */
+	public boolean hasFailures() {
+		return this.mFailureCount.get() > 0;
+	}
+
+	/**
+	 * Gets the failure count.
+	 *
+	 * @return the failure count
+	 */
+	public int getFailureCount() {
+		return this.mFailureCount.get();
+	}
+
+	/**
+	 * Gets the input indexes of the failed values.
+	 *
+	 * @return the failed indexes
+	 */
+	public List<Integer> getFailedIndexes() {
+		List<Integer> failedIndexes = new ArrayList<Integer>(getFailureCount());
+		for (int i = 0; i < this.mFailures.length; i++) {
+			if (this.mFailures[i] != null) {
+				failedIndexes.add(Integer.valueOf(i));
+			}
+		}
+		return failedIndexes;
+	}
+
+}
@@ -0,0 +1,121 @@
+/*
+ * Please read the README.md and LICENSE.md files contained in this repository or module.
+ *
+ * Please contact sales@sparkred.com or support@sparkred.com if you have any questions.
+ *
+ * This code is copyright Spark::red https://www.sparkred.com 2007-2016, all right reserved.
+ */
+package com.sparkred.crypto;
+
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The Class CryptoBatchTask encrypts or decrypts a range of a batch on the {@link CryptoEngine} fork-join pool. Ranges
+ * larger than the threshold are split in half until each part can be processed inline.
+ */
+class CryptoBatchTask extends RecursiveAction {
+
+	/**
+	 * Generated serial version UID.
+	 */
+	private static final long serialVersionUID = -3315542117480937512L;
+
+	/** The engine doing the work. */
+	private final CryptoEngine mEngine;
+
+	/** The input values. */
+	private final String[] mInput;
+
+	/** The result to fill in. */
+	private final CryptoBatchResult mResult;
+
+	/** The encrypt flag, decrypt if false. */
+	private final boolean mEncrypt;
+
+	/** The first index of the range, inclusive. */
+	private final int mFrom;
+
+	/** The last index of the range, exclusive. */
+	private final int mTo;
+
+	/** The largest range processed without splitting. */
+	private final int mThreshold;
+
+	/**
+	 * Instantiates a new crypto batch task.
+	 *
+	 * @param pEngine
+	 *            the engine
+	 * @param pInput
+	 *            the input values
+	 * @param pResult
+	 *            the result
+	 * @param pEncrypt
+	 *            the encrypt flag, decrypt if false
+	 * @param pFrom
+	 *            the first index, inclusive
+	 * @param pTo
+	 *            the last index, exclusive
+	 * @param pThreshold
+	 *            the largest range processed without splitting
+	 */
+	CryptoBatchTask(CryptoEngine pEngine, String[] pInput, CryptoBatchResult pResult, boolean pEncrypt, int pFrom,
+			int pTo, int pThreshold) {
+		this.mEngine = pEngine;
+		this.mInput = pInput;
+		this.mResult = pResult;
+		this.mEncrypt = pEncrypt;
+		this.mFrom = pFrom;
+		this.mTo = pTo;
+		this.mThreshold = pThreshold;
+	}
+
+	/**
+	 * Splits the range or processes it inline.
+	 *
+	 * @see java.util.concurrent.RecursiveAction#compute()
+	 */
+	@Override
+	protected void compute() {
+		if (this.mTo - this.mFrom <= this.mThreshold) {
+			processRange(this.mEngine, this.mInput, this.mResult, this.mEncrypt, this.mFrom, this.mTo);
+		} else {
+			int middle = (this.mFrom + this.mTo) >>> 1;
+			invokeAll(new CryptoBatchTask(this.mEngine, this.mInput, this.mResult, this.mEncrypt, this.mFrom, middle,
+					this.mThreshold), new CryptoBatchTask(this.mEngine, this.mInput, this.mResult, this.mEncrypt,
+					middle, this.mTo, this.mThreshold));
+		}
+	}
+
+	/**
+	 * Encrypts or decrypts a range on the calling thread, recording per element failures in the result.
+	 *
+	 * @param pEngine
+	 *            the engine
+	 * @param pInput
+	 *            the input values
+	 * @param pResult
+	 *            the result
+	 * @param pEncrypt
+	 *            the encrypt flag, decrypt if false
+	 * @param pFrom
+	 *            the first index, inclusive
+	 * @param pTo
+	 *            the last index, exclusive
+	 */
+	static void processRange(CryptoEngine pEngine, String[] pInput, CryptoBatchResult pResult, boolean pEncrypt,
+			int pFrom, int pTo) {
+		for (int i = pFrom; i < pTo; i++) {
+			String value = pInput[i];
+			if (value == null) {
+				continue;
+			}
+			try {
+				pResult.setValue(i, pEncrypt ? pEngine.encrypt(value) : pEngine.decrypt(value));
+			} catch (RuntimeException e) {
+				pResult.setFailure(i, e);
+			}
+		}
+	}
+
+}
@@ -26,6 +26,42 @@ public class CryptoConstants {
 	/** The Constant for the ATG repository cryptoEngine item's property name for the encrypted data key. */
 	public static final String ENC_DATA_KEY_PROP_NAME = "encDataKey";
 
+	/** The Constant for the ATG repository cryptoEngine item's property name for the encrypted blind index key. */
+	public static final String ENC_INDEX_KEY_PROP_NAME = "encIndexKey";
+
+	/**
+	 * The Constant for the ATG repository cryptoEngine item's property name for the map of encrypted blind index keys,
+	 * by the id of the data key they were added with.
+	 */
+	public static final String ENC_INDEX_KEYS_PROP_NAME = "encIndexKeys";
+
+	/**
+	 * The Constant for the ATG repository cryptoEngine item's property name for the encrypted data key of a rekey in
+	 * progress.
+	 */
+	public static final String PENDING_DATA_KEY_PROP_NAME = "pendingDataKey";
+
+	/**
+	 * The Constant for the ATG repository cryptoEngine item's property name for the encrypted blind index key of a
+	 * rekey in progress.
+	 */
+	public static final String PENDING_INDEX_KEY_PROP_NAME = "pendingIndexKey";
+
+	/**
+	 * The Constant for the ATG repository cryptoEngine item's property name for the map of encrypted data keys, by key
+	 * id.
+	 */
+	public static final String ENC_DATA_KEYS_PROP_NAME = "encDataKeys";
+
+	/** The Constant for the ATG repository cryptoEngine item's property name for the id of the active data key. */
+	public static final String ACTIVE_KEY_ID_PROP_NAME = "activeKeyId";
+
+	/**
+	 * The Constant for the ATG repository cryptoEngine item's property name for the number of iterations the derived
+	 * data keys are derived with.
+	 */
+	public static final String KEY_DERIVATION_ITERATIONS_PROP_NAME = "keyDerivationIterations";
+
 	/** The Constant for the ATG repository cryptoEngine item's property name for the description of the Engine. */
 	public static final String DESCRIPTION_PROP_NAME = "description";
 
@@ -35,4 +71,67 @@ public class CryptoConstants {
 	 */
 	public static final String KEY_DATE_PROP_NAME = "keyDate";
 
+	/** The Constant for the cipher mode which uses the jasypt PBE encryptor for every value. */
+	public static final String CIPHER_MODE_PBE = "pbe";
+
+	/** The Constant for the cipher mode which derives the AES key from the data passphrase once, at startup. */
+	public static final String CIPHER_MODE_DERIVED_KEY = "derivedKey";
+
+	/** The Constant for the cipher mode which encrypts with AES-256-GCM, using a derived key as derivedKey does. */
+	public static final String CIPHER_MODE_GCM = "gcm";
+
+	/** The Constant for the algorithm of the derived data key. */
+	public static final String DERIVED_KEY_ALGO = "AES";
+
+	/** The Constant for the cipher transformation used with the derived data key. */
+	public static final String DERIVED_KEY_TRANSFORMATION = "AES/CBC/PKCS5Padding";
+
+	/** The Constant for the size in bits of the derived data key. */
+	public static final int DERIVED_KEY_SIZE_BITS = 256;
+
+	/** The Constant for the length in bytes of the random IV used with the derived data key. */
+	public static final int DERIVED_KEY_IV_LENGTH = 16;
+
+	/** The Constant for the default number of key derivation iterations. */
+	public static final int DEFAULT_KEY_DERIVATION_ITERATIONS = 10000;
+
+	/**
+	 * The Constant for the versioned header of values encrypted with the derived data key. The '$' character is not
+	 * part of the Base64 alphabet, so jasypt output can never start with this header.
+	 */
+	public static final String DERIVED_KEY_HEADER = "$1$";
+
+	/** The Constant for the prefix of the derived data key salt, followed by the crypto engine identifier. */
+	public static final String DERIVED_KEY_SALT_PREFIX = "SR:Crypto:";
+
+	/** The Constant for the cipher transformation of the gcm cipher mode, on the default JCE provider. */
+	public static final String GCM_TRANSFORMATION = "AES/GCM/NoPadding";
+
+	/** The Constant for the length in bytes of the random IV of the gcm cipher mode. */
+	public static final int GCM_IV_LENGTH = 12;
+
+	/** The Constant for the length in bits of the authentication tag of the gcm cipher mode. */
+	public static final int GCM_TAG_LENGTH_BITS = 128;
+
+	/** The Constant for the versioned header of values encrypted in the gcm cipher mode. */
+	public static final String GCM_HEADER = "$2$";
+
+	/**
+	 * The Constant for the prefix of the gcm data key salt, followed by the crypto engine identifier. The gcm key is
+	 * derived separately, so that the same AES key is never used in two cipher modes.
+	 */
+	public static final String GCM_SALT_PREFIX = "SR:Crypto:gcm:";
+
+	/**
+	 * The Constant for the character around the key id prefix of encrypted values. The '#' character is neither part
+	 * of the Base64 alphabet nor of the derived key header.
+	 */
+	public static final char KEY_ID_MARKER = '#';
+
+	/** The Constant for the id of the data key which decrypts values without a key id prefix. */
+	public static final int LEGACY_KEY_ID = 0;
+
+	/** The Constant for the HMAC algorithm of the blind index. */
+	public static final String BLIND_INDEX_ALGO = "HmacSHA256";
+
 }
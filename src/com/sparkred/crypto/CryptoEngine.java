@@ -8,15 +8,40 @@
 package com.sparkred.crypto;
 
 import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.lang.management.ManagementFactory;
 import java.math.BigInteger;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
 import java.security.SecureRandom;
-import java.security.Security;
 import java.text.DateFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
-import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.jasypt.encryption.pbe.StandardPBEStringEncryptor;
+import org.jasypt.exceptions.EncryptionOperationNotPossibleException;
 
 import atg.nucleus.GenericService;
 import atg.nucleus.ServiceException;
@@ -34,14 +59,68 @@ import atg.service.scheduler.Scheduler;
 
 /**
  * The Class CryptoEngine handles encrypting and de-crypting data using AES 256 bit encryption.
+ *
+ * The latency of every encrypt and decrypt, the failures and the waits for a cipher pool stripe are recorded in the
+ * {@link CryptoMetrics} of the metrics property, also registered on the platform MBean server as
+ * com.sparkred.crypto:type=CryptoEngine with the component path as name.
+ *
+ * With backgroundStartup the keys are loaded on a shared background thread, so that several engines start in
+ * parallel, and with prewarmIterations the ciphers are filled and JIT compiled in the background before the first
+ * request. The ready property tells when both are done.
+ *
+ * An engine is either a Nucleus component of its own, or hosted by a {@link CryptoEngineRegistry}, which loads its
+ * crypto engine item, runs its scheduled job and lends it the bulk pool shared by all of the engines it hosts.
+ *
+ * The cipher mode selects the {@link CipherSuite} of new values: the jasypt PBE encryptor, or AES-CBC or AES-GCM on the
+ * default JCE provider with keys derived once at startup. Values of every suite are decrypted whatever the mode.
  */
-public class CryptoEngine extends GenericService implements Schedulable, Serializable {
+public class CryptoEngine extends GenericService implements Schedulable, Decryptor, Serializable {
 
 	/**
 	 * Generated serial version UID.
 	 */
 	private static final long serialVersionUID = 5491613272379694854L;
 
+	/** The default bulk parallel threshold. */
+	private static final int DEFAULT_BULK_PARALLEL_THRESHOLD = 64;
+
+	/** The default decrypt storm window, in milliseconds. */
+	private static final int DEFAULT_DECRYPT_STORM_WINDOW_MILLIS = 1000;
+
+	/** The default shortest time between two decrypt storm stack traces of a property, in milliseconds. */
+	private static final int DEFAULT_DECRYPT_STORM_TRACE_INTERVAL_MILLIS = 60000;
+
+	/** The default longest time a thread waits for the keys of an engine started in the background, in milliseconds. */
+	private static final int DEFAULT_STARTUP_TIMEOUT_MILLIS = 60000;
+
+	/** The default shortest time between two key ring reloads for the same unknown key id, in milliseconds. */
+	private static final int DEFAULT_UNKNOWN_KEY_RETRY_MILLIS = 30000;
+
+	/** The default longest time blind index lookups use the key ring before reloading it, in milliseconds. */
+	private static final int DEFAULT_KEY_RING_MAX_AGE_MILLIS = 60000;
+
+	/** The plain text the ciphers are pre-warmed with, shaped like a card number. */
+	private static final String PREWARM_PLAIN_TEXT = "4111111111111111";
+
+	/**
+	 * The daemon threads which load keys and pre-warm ciphers in the background, shared so that several engines
+	 * start in parallel.
+	 */
+	private static final ExecutorService STARTUP_EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable pRunnable) {
+			Thread thread = new Thread(pRunnable, "CryptoEngine-startup");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	/** The UTF-8 charset for plain text bytes. */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** The US-ASCII charset for encrypted text bytes. */
+	private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
 	/** The key passphrase. */
 	private String mKeyPassphrase;
 
@@ -54,8 +133,29 @@ public class CryptoEngine extends GenericService implements Schedulable, Seriali
 	/** The crypto repository. */
 	private MutableRepository mCryptoRepository;
 
-	/** The internal encryptor to use. */
-	private StandardPBEStringEncryptor mEncryptor;
+	/** The internal pools of encryptors and derived key ciphers to use, one per data key. */
+	private volatile KeyRing mKeyRing;
+
+	/** The number of stripes in the cipher pool, if less than one the number of available processors is used. */
+	private int mCipherPoolSize;
+
+	/** The fork-join pool used to split large bulk encrypt and decrypt batches. */
+	private transient ForkJoinPool mBulkPool;
+
+	/** The largest number of values a bulk call processes inline, larger batches are split across the bulk pool. */
+	private int mBulkParallelThreshold = DEFAULT_BULK_PARALLEL_THRESHOLD;
+
+	/** The cipher mode used to encrypt new values, either pbe, derivedKey or gcm. */
+	private String mCipherMode = CryptoConstants.CIPHER_MODE_PBE;
+
+	/** The cipher suite of the cipher mode, null if the cipher mode is not valid. */
+	private CipherSuite mCipherSuite = CipherSuite.PBE;
+
+	/** The number of iterations used to derive the data key in the derivedKey cipher mode. */
+	private int mKeyDerivationIterations = CryptoConstants.DEFAULT_KEY_DERIVATION_ITERATIONS;
+
+	/** The flag to write the values of the legacy key without the key id prefix, for nodes without key rings. */
+	private boolean mWriteUntaggedLegacyValues;
 
 	/** The Scheduler. */
 	private Scheduler mScheduler;
@@ -84,6 +184,63 @@ public class CryptoEngine extends GenericService implements Schedulable, Seriali
 	 */
 	private boolean mCheckKeyExpiration;
 
+	/** The latency histograms and counters of the encrypts and decrypts. */
+	private final CryptoMetrics mMetrics = new CryptoMetrics();
+
+	/** The name the metrics are registered under on the platform MBean server, null if not registered. */
+	private transient ObjectName mMetricsMBeanName;
+
+	/** The number of property decrypts by one thread within the storm window which is a storm, 0 to not detect. */
+	private int mDecryptStormThreshold;
+
+	/** The decrypt storm window, in milliseconds. */
+	private int mDecryptStormWindowMillis = DEFAULT_DECRYPT_STORM_WINDOW_MILLIS;
+
+	/** The shortest time between two decrypt storm stack traces of a property, 0 to capture none. */
+	private int mDecryptStormTraceIntervalMillis = DEFAULT_DECRYPT_STORM_TRACE_INTERVAL_MILLIS;
+
+	/**
+	 * The flag to load the keys on a background thread, so that several engines start in parallel. Threads which use
+	 * the engine before then wait for the keys, up to the startup timeout.
+	 */
+	private boolean mBackgroundStartup;
+
+	/** The number of encrypt and decrypt round trips run in the background at startup, 0 to not pre-warm. */
+	private int mPrewarmIterations;
+
+	/** The longest time a thread waits for the keys of an engine started in the background, in milliseconds. */
+	private int mStartupTimeoutMillis = DEFAULT_STARTUP_TIMEOUT_MILLIS;
+
+	/** The latch released once the keys are loaded, or failed to load. */
+	private transient volatile CountDownLatch mKeysLoaded;
+
+	/** The start of the last engine start, from System.nanoTime. */
+	private transient volatile long mStartNanos;
+
+	/** The time from the last engine start until it was ready, in milliseconds. */
+	private transient volatile long mStartupMillis;
+
+	/** The ready flag, set once the keys are loaded and the ciphers pre-warmed. */
+	private transient volatile boolean mReady;
+
+	/** The registry hosting this engine, null for an engine component of its own. */
+	private transient CryptoEngineRegistry mRegistry;
+
+	/** The shortest time between two key ring reloads for the same unknown key id, in milliseconds. */
+	private int mUnknownKeyRetryMillis = DEFAULT_UNKNOWN_KEY_RETRY_MILLIS;
+
+	/** The key ids missing from the last reloaded key ring, with the System.nanoTime from which to reload again. */
+	private final ConcurrentMap<Integer, Long> mUnknownKeyIds = new ConcurrentHashMap<Integer, Long>();
+
+	/** The longest time blind index lookups use the key ring before reloading it, 0 to not reload it for lookups. */
+	private int mKeyRingMaxAgeMillis = DEFAULT_KEY_RING_MAX_AGE_MILLIS;
+
+	/** The last time the key ring was loaded, or a reload was attempted, from System.nanoTime. */
+	private transient volatile long mKeyRingLoadNanos;
+
+	/** The encrypted blind index passphrase each cipher pool of the key ring was created with, by key id. */
+	private transient volatile Map<Integer, String> mLoadedIndexPassphrases = Collections.emptyMap();
+
 	/**
 	 * Do start service.
 	 *
@@ -112,52 +269,492 @@ public class CryptoEngine extends GenericService implements Schedulable, Seriali
 			}
 			throw new ServiceException("KeyPassphrase was null.");
 		}
+		if (getCipherSuite() == null) {
+			if (isLoggingError()) {
+				logError("CryptoEngine.doStartService: " + "CipherMode was not valid: " + getCipherMode());
+			}
+			throw new ServiceException("CipherMode was not valid: " + getCipherMode());
+		}
+
+		// Add the BouncyCastle JCE Security provider, once per JVM
+		CryptoProviders.registerBouncyCastle();
 
-		// Add the BouncyCastle JCE Security provider
-		Security.addProvider(new BouncyCastleProvider());
+		this.mReady = false;
+		// A restarted engine loads its keys again, with its current settings
+		this.mKeyRing = null;
+		this.mStartNanos = System.nanoTime();
+		final CountDownLatch keysLoaded = new CountDownLatch(1);
+		this.mKeysLoaded = keysLoaded;
+		if (isBackgroundStartup()) {
+			STARTUP_EXECUTOR.execute(new Runnable() {
+				@Override
+				public void run() {
+					loadKeys(keysLoaded);
+					prewarm();
+				}
+			});
+		} else {
+			loadKeys(keysLoaded);
+			if (getPrewarmIterations() > 0) {
+				STARTUP_EXECUTOR.execute(new Runnable() {
+					@Override
+					public void run() {
+						prewarm();
+					}
+				});
+			} else {
+				prewarm();
+			}
+		}
 
+		// Setup scheduled job to check the key expiration status, the registry runs it for the engines it hosts
+		if (this.mRegistry == null) {
+			ScheduledJob job = new ScheduledJob("SR:Crypto:" + getCryptoEngineIdentifier(),
+					"Checks the key expiration status for the Spark::red encryptor: " + getCryptoEngineIdentifier(),
+					getAbsoluteName(), getSchedule(), this, ScheduledJob.SCHEDULER_THREAD);
+			setJobId(getScheduler().addScheduledJob(job));
+		}
+		registerMetricsMBean();
+	}
+
+	/**
+	 * Loads the keys of this engine, initializing the engine first if its config does not exist yet, and sets up the
+	 * bulk pool. Failures are logged, and threads waiting for the keys are released either way.
+	 *
+	 * @param pKeysLoaded
+	 *            the latch threads waiting for the keys wait on
+	 */
+	private void loadKeys(CountDownLatch pKeysLoaded) {
 		try {
-			// Load this crypo engine's encrypted data passphrase
-			RepositoryItem cryptoEngineItem = getCryptoRepository().getItem(getCryptoEngineIdentifier(),
-					CryptoConstants.CRYPTO_ENGINE_ITEM_DESC);
+			// Make sure this crypo engine's config exists, a registry has already loaded it
+			RepositoryItem cryptoEngineItem;
+			if (this.mRegistry != null) {
+				cryptoEngineItem = this.mRegistry.getCryptoEngineItem(getCryptoEngineIdentifier());
+			} else {
+				cryptoEngineItem = getCryptoRepository().getItem(getCryptoEngineIdentifier(),
+						CryptoConstants.CRYPTO_ENGINE_ITEM_DESC);
+			}
 			if (cryptoEngineItem == null) {
 				if (isLoggingWarning()) {
-					logWarning("CryptoEngine.doStartService: "
+					logWarning("CryptoEngine.loadKeys: "
 							+ "This Crypto Engine has not yet been initialized.  Initializing it now.");
 				}
 				initializeNewEngine();
 				cryptoEngineItem = getCryptoRepository().getItem(getCryptoEngineIdentifier(),
 						CryptoConstants.CRYPTO_ENGINE_ITEM_DESC);
 			}
-			String encryptedDataPassphrase = (String) cryptoEngineItem
-					.getPropertyValue(CryptoConstants.ENC_DATA_KEY_PROP_NAME);
+			this.mKeyRing = loadKeyRing(cryptoEngineItem);
+			this.mKeyRingLoadNanos = System.nanoTime();
+			if (isLoggingDebug()) {
+				logDebug("CryptoEngine.loadKeys: " + "key ids are: " + this.mKeyRing.getKeyIds()
+						+ ", cipher pool size is: " + this.mKeyRing.getActiveCipherPool().getSize());
+			}
+			// There is no point in more bulk workers than cipher stripes
+			if (this.mRegistry != null) {
+				this.mBulkPool = this.mRegistry.getBulkPool();
+			} else {
+				this.mBulkPool = new ForkJoinPool(this.mKeyRing.getActiveCipherPool().getSize());
+			}
+		} catch (Exception e) {
+			if (isLoggingError()) {
+				logError("CryptoEngine.loadKeys: " + "Exception caught setting up the encryptor.", e);
+			}
+		} finally {
+			pKeysLoaded.countDown();
+		}
+	}
+
+	/**
+	 * Fills the cipher pool stripes of every key, then runs the configured number of encrypt, decrypt and blind index
+	 * round trips so that the JIT has compiled them before the first request, and marks the engine ready. The round
+	 * trips are not recorded in the metrics.
+	 */
+	private void prewarm() {
+		KeyRing keyRing = this.mKeyRing;
+		int iterations = getPrewarmIterations();
+		if (keyRing != null && iterations > 0) {
+			try {
+				for (Integer keyId : keyRing.getKeyIds()) {
+					keyRing.getCipherPool(keyId.intValue()).prewarm(PREWARM_PLAIN_TEXT);
+				}
+				CipherPool cipherPool = keyRing.getActiveCipherPool();
+				for (int i = 0; i < iterations; i++) {
+					doDecrypt(doEncrypt(PREWARM_PLAIN_TEXT, getCipherSuite()));
+					CipherPool.Stripe stripe = cipherPool.acquire();
+					try {
+						stripe.getBlindIndex().compute(PREWARM_PLAIN_TEXT);
+					} finally {
+						cipherPool.release(stripe);
+					}
+				}
+			} catch (RuntimeException re) {
+				if (isLoggingError()) {
+					logError("CryptoEngine.prewarm: " + "Exception caught pre-warming the ciphers.", re);
+				}
+			}
+		}
+		this.mStartupMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.mStartNanos);
+		this.mReady = keyRing != null;
+		if (isLoggingInfo()) {
+			logInfo("CryptoEngine.prewarm: " + (this.mReady ? "ready" : "not ready, the keys were not loaded,")
+					+ " after " + this.mStartupMillis + " ms, with " + (keyRing == null ? 0 : iterations)
+					+ " pre-warm iterations.");
+		}
+	}
+
+	/**
+	 * Gets the key ring, waiting for an engine started in the background to load it.
+	 *
+	 * @return the key ring
+	 * @throws EncryptionOperationNotPossibleException
+	 *             if the keys are not loaded within the startup timeout, or could not be loaded
+	 */
+	private KeyRing getKeyRing() {
+		KeyRing keyRing = this.mKeyRing;
+		if (keyRing != null) {
+			return keyRing;
+		}
+		CountDownLatch keysLoaded = this.mKeysLoaded;
+		try {
+			if (keysLoaded != null && !keysLoaded.await(getStartupTimeoutMillis(), TimeUnit.MILLISECONDS)) {
+				throw new EncryptionOperationNotPossibleException("The keys of crypto engine "
+						+ getCryptoEngineIdentifier() + " were not loaded within " + getStartupTimeoutMillis()
+						+ " ms.");
+			}
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new EncryptionOperationNotPossibleException("Interrupted waiting for the keys of crypto engine "
+					+ getCryptoEngineIdentifier() + ".");
+		}
+		keyRing = this.mKeyRing;
+		if (keyRing == null) {
+			throw new EncryptionOperationNotPossibleException("The keys of crypto engine " + getCryptoEngineIdentifier()
+					+ " could not be loaded.");
+		}
+		return keyRing;
+	}
+
+	/**
+	 * Registers the metrics on the platform MBean server, as com.sparkred.crypto:type=CryptoEngine with the component
+	 * path as name. A failure is logged, the engine works without it.
+	 */
+	private void registerMetricsMBean() {
+		try {
+			String componentName = getAbsoluteName();
+			if (this.mRegistry != null) {
+				componentName = this.mRegistry.getAbsoluteName() + "/" + getCryptoEngineIdentifier();
+			}
+			ObjectName name = new ObjectName("com.sparkred.crypto:type=CryptoEngine,name="
+					+ ObjectName.quote(String.valueOf(componentName)));
+			MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+			if (mbeanServer.isRegistered(name)) {
+				mbeanServer.unregisterMBean(name);
+			}
+			mbeanServer.registerMBean(this.mMetrics, name);
+			this.mMetricsMBeanName = name;
+		} catch (JMException jme) {
+			if (isLoggingError()) {
+				logError("CryptoEngine.registerMetricsMBean: " + "unable to register the metrics MBean.", jme);
+			}
+		}
+	}
+
+	/**
+	 * Unregisters the metrics from the platform MBean server.
+	 */
+	private void unregisterMetricsMBean() {
+		if (this.mMetricsMBeanName == null) {
+			return;
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.mMetricsMBeanName);
+		} catch (JMException jme) {
+			if (isLoggingWarning()) {
+				logWarning("CryptoEngine.unregisterMetricsMBean: " + "unable to unregister the metrics MBean: " + jme);
+			}
+		}
+		this.mMetricsMBeanName = null;
+	}
+
+	/**
+	 * Creates a cipher with the data key derived from the passed in data passphrase. The salt is based on the crypto
+	 * engine identifier, so every server derives the same key.
+	 *
+	 * @param pDataPassphrase
+	 *            the data passphrase
+	 * @return the derived key cipher
+	 * @throws UnsupportedEncodingException
+	 *             if UTF-8 is not supported
+	 */
+	public DerivedKeyCipher createDerivedKeyCipher(String pDataPassphrase) throws UnsupportedEncodingException {
+		return createDerivedKeyCipher(CipherSuite.AES_CBC, pDataPassphrase);
+	}
+
+	/**
+	 * Creates a cipher of a derived key cipher suite with the data key derived from the passed in data passphrase. Each
+	 * suite derives its own key, with a salt based on the crypto engine identifier, so every server derives the same
+	 * key.
+	 *
+	 * @param pSuite
+	 *            the cipher suite, AES_CBC or AES_GCM
+	 * @param pDataPassphrase
+	 *            the data passphrase
+	 * @return the derived key cipher
+	 * @throws UnsupportedEncodingException
+	 *             if UTF-8 is not supported
+	 */
+	public DerivedKeyCipher createDerivedKeyCipher(CipherSuite pSuite, String pDataPassphrase)
+			throws UnsupportedEncodingException {
+		String saltPrefix = pSuite == CipherSuite.AES_GCM ? CryptoConstants.GCM_SALT_PREFIX
+				: CryptoConstants.DERIVED_KEY_SALT_PREFIX;
+		byte[] salt = (saltPrefix + getCryptoEngineIdentifier()).getBytes("UTF-8");
+		return new DerivedKeyCipher(pSuite, pDataPassphrase, salt, getKeyDerivationIterations());
+	}
+
+	/**
+	 * Loads every data key of this engine from the crypto repository, and the blind index key of each. Engines created
+	 * before key rings existed get their current data key as the legacy key, and engines created before blind indexes
+	 * existed get a blind index key. Keys added before blind index keys were versioned share that legacy blind index
+	 * key. The cipher pools of the keys already on the current key ring are reused, so a reload only decrypts and
+	 * derives the keys added since.
+	 *
+	 * The key derivation iterations are stored with the keys the first time they are loaded. Derived keys are only the
+	 * same with the same iterations, so the keys are not loaded when the configured iterations differ from the stored
+	 * ones, rather than derive keys which can not decrypt the existing derivedKey and gcm values.
+	 *
+	 * @return the key ring
+	 * @throws RepositoryException
+	 *             the repository exception
+	 * @throws UnsupportedEncodingException
+	 *             if UTF-8 is not supported
+	 */
+	private KeyRing loadKeyRing() throws RepositoryException, UnsupportedEncodingException {
+		return loadKeyRing(getCryptoRepository().getItem(getCryptoEngineIdentifier(),
+				CryptoConstants.CRYPTO_ENGINE_ITEM_DESC));
+	}
+
+	/**
+	 * Loads every data key of this engine from its crypto engine item, see {@link #loadKeyRing()}.
+	 *
+	 * @param pCryptoEngineItem
+	 *            the crypto engine item
+	 * @return the key ring
+	 * @throws RepositoryException
+	 *             the repository exception
+	 * @throws UnsupportedEncodingException
+	 *             if UTF-8 is not supported
+	 */
+	private KeyRing loadKeyRing(RepositoryItem pCryptoEngineItem) throws RepositoryException,
+			UnsupportedEncodingException {
+		RepositoryItem cryptoEngineItem = pCryptoEngineItem;
+		@SuppressWarnings("unchecked")
+		Map<String, String> encryptedDataPassphrases = (Map<String, String>) cryptoEngineItem
+				.getPropertyValue(CryptoConstants.ENC_DATA_KEYS_PROP_NAME);
+		String encryptedIndexPassphrase = (String) cryptoEngineItem
+				.getPropertyValue(CryptoConstants.ENC_INDEX_KEY_PROP_NAME);
+		@SuppressWarnings("unchecked")
+		Map<String, String> encryptedIndexPassphrases = (Map<String, String>) cryptoEngineItem
+				.getPropertyValue(CryptoConstants.ENC_INDEX_KEYS_PROP_NAME);
+		Integer activeKeyId = (Integer) cryptoEngineItem.getPropertyValue(CryptoConstants.ACTIVE_KEY_ID_PROP_NAME);
+		Integer keyDerivationIterations = (Integer) cryptoEngineItem
+				.getPropertyValue(CryptoConstants.KEY_DERIVATION_ITERATIONS_PROP_NAME);
+		if (keyDerivationIterations != null && keyDerivationIterations.intValue() != getKeyDerivationIterations()) {
+			throw new IllegalStateException("The keyDerivationIterations of crypto engine "
+					+ getCryptoEngineIdentifier() + " are " + getKeyDerivationIterations()
+					+ ", but its keys were derived with " + keyDerivationIterations
+					+ ", the derivedKey and gcm values can only be decrypted with those.");
+		}
+
+		// Decrypt the passphrases using the key passphrase
+		final StandardPBEStringEncryptor dataPassDecryptor = createKeyPassEncryptor();
+		if (encryptedDataPassphrases == null || encryptedDataPassphrases.isEmpty()
+				|| encryptedIndexPassphrase == null || keyDerivationIterations == null) {
+			MutableRepositoryItem cryptoEngineItemForUpdate = getCryptoRepository().getItemForUpdate(
+					getCryptoEngineIdentifier(), CryptoConstants.CRYPTO_ENGINE_ITEM_DESC);
+			if (encryptedDataPassphrases == null || encryptedDataPassphrases.isEmpty()) {
+				encryptedDataPassphrases = new HashMap<String, String>();
+				encryptedDataPassphrases.put(String.valueOf(CryptoConstants.LEGACY_KEY_ID),
+						(String) cryptoEngineItem.getPropertyValue(CryptoConstants.ENC_DATA_KEY_PROP_NAME));
+				activeKeyId = Integer.valueOf(CryptoConstants.LEGACY_KEY_ID);
+				cryptoEngineItemForUpdate.setPropertyValue(CryptoConstants.ENC_DATA_KEYS_PROP_NAME,
+						encryptedDataPassphrases);
+				cryptoEngineItemForUpdate.setPropertyValue(CryptoConstants.ACTIVE_KEY_ID_PROP_NAME, activeKeyId);
+			}
+			if (encryptedIndexPassphrase == null) {
+				encryptedIndexPassphrase = dataPassDecryptor.encrypt(generateNewDataPassphrase());
+				cryptoEngineItemForUpdate.setPropertyValue(CryptoConstants.ENC_INDEX_KEY_PROP_NAME,
+						encryptedIndexPassphrase);
+			}
+			if (keyDerivationIterations == null) {
+				cryptoEngineItemForUpdate.setPropertyValue(CryptoConstants.KEY_DERIVATION_ITERATIONS_PROP_NAME,
+						Integer.valueOf(getKeyDerivationIterations()));
+			}
+			getCryptoRepository().updateItem(cryptoEngineItemForUpdate);
+		}
+		if (activeKeyId == null) {
+			activeKeyId = Integer.valueOf(CryptoConstants.LEGACY_KEY_ID);
+		}
+		// The passphrases of a key id never change, so the pools already loaded are kept, unless the key id got its own
+		// blind index key since, when it was added by a rekey started before blind index keys were versioned
+		KeyRing currentKeyRing = this.mKeyRing;
+		Map<Integer, String> loadedIndexPassphrases = new HashMap<Integer, String>();
+		Map<String, BlindIndex> blindIndexes = new HashMap<String, BlindIndex>();
 
-			// Decrypt the data passphrase using the key passphrase
-			final StandardPBEStringEncryptor dataPassDecryptor = new StandardPBEStringEncryptor();
-			dataPassDecryptor.setProviderName(CryptoConstants.BOUNCY_CASTLE_PROVIDER_NAME);
-			dataPassDecryptor.setAlgorithm(CryptoConstants.STRONG_ALGO);
-			dataPassDecryptor.setPassword(getKeyPassphrase());
+		// Derive the AES-CBC and AES-GCM keys of each new data key once, they are used to decrypt derivedKey and gcm
+		// values in every cipher mode, and setup the pool of encryptors
+		Map<Integer, CipherPool> cipherPools = new HashMap<Integer, CipherPool>();
+		for (Map.Entry<String, String> entry : encryptedDataPassphrases.entrySet()) {
+			Integer keyId = Integer.valueOf(entry.getKey());
+			String encryptedKeyIndexPassphrase = encryptedIndexPassphrases == null ? null
+					: encryptedIndexPassphrases.get(entry.getKey());
+			if (encryptedKeyIndexPassphrase == null) {
+				encryptedKeyIndexPassphrase = encryptedIndexPassphrase;
+			}
+			CipherPool cipherPool = null;
+			if (currentKeyRing != null && encryptedKeyIndexPassphrase.equals(this.mLoadedIndexPassphrases.get(keyId))) {
+				cipherPool = currentKeyRing.getCipherPool(keyId.intValue());
+			}
+			if (cipherPool == null) {
+				BlindIndex blindIndex = blindIndexes.get(encryptedKeyIndexPassphrase);
+				if (blindIndex == null) {
+					blindIndex = new BlindIndex(dataPassDecryptor.decrypt(encryptedKeyIndexPassphrase));
+					blindIndexes.put(encryptedKeyIndexPassphrase, blindIndex);
+				}
+				String dataPassphrase = dataPassDecryptor.decrypt(entry.getValue());
+				cipherPool = new CipherPool(getCipherPoolSize(), dataPassphrase, createDerivedKeyCipher(dataPassphrase),
+						createDerivedKeyCipher(CipherSuite.AES_GCM, dataPassphrase), blindIndex);
+			}
+			cipherPools.put(keyId, cipherPool);
+			loadedIndexPassphrases.put(keyId, encryptedKeyIndexPassphrase);
+		}
+		this.mLoadedIndexPassphrases = loadedIndexPassphrases;
+		return new KeyRing(cipherPools, activeKeyId.intValue());
+	}
 
-			String dataPassphrase = dataPassDecryptor.decrypt(encryptedDataPassphrase);
-			if (isLoggingInfo()) {
-				logInfo("CryptoEngine.doStartService: " + "dataPassphrase is: " + dataPassphrase);
+	/**
+	 * Reloads the data keys of this engine from the crypto repository. This picks up keys added by a RekeyEngine, on
+	 * this or another server, and the active key it switched to. It is called by the scheduled job, and whenever a
+	 * value encrypted with an unknown key id is decrypted.
+	 */
+	public synchronized void reloadKeyRing() {
+		reloadKeyRing(null);
+	}
+
+	/**
+	 * Reloads the data keys of this engine from a crypto engine item already loaded by the registry.
+	 *
+	 * @param pCryptoEngineItem
+	 *            the crypto engine item, null to load it from the crypto repository
+	 */
+	synchronized void reloadKeyRing(RepositoryItem pCryptoEngineItem) {
+		this.mKeyRingLoadNanos = System.nanoTime();
+		try {
+			if (pCryptoEngineItem == null) {
+				this.mKeyRing = loadKeyRing();
+			} else {
+				this.mKeyRing = loadKeyRing(pCryptoEngineItem);
+			}
+			if (isLoggingDebug()) {
+				logDebug("CryptoEngine.reloadKeyRing: " + "key ids are: " + this.mKeyRing.getKeyIds()
+						+ ", active key id is: " + this.mKeyRing.getActiveKeyId());
 			}
-			// Setup the encryptor
-			this.mEncryptor = new StandardPBEStringEncryptor();
-			this.mEncryptor.setProviderName(CryptoConstants.BOUNCY_CASTLE_PROVIDER_NAME);
-			this.mEncryptor.setAlgorithm(CryptoConstants.STRONG_ALGO);
-			this.mEncryptor.setPassword(dataPassphrase);
 		} catch (Exception e) {
 			if (isLoggingError()) {
-				logError("CryptoEngine.doStartService: " + "Exception caught setting up the encryptor.", e);
+				logError("CryptoEngine.reloadKeyRing: " + "Exception caught loading the key ring, the current keys"
+						+ " are kept.", e);
+			}
+		}
+	}
+
+	/**
+	 * Gets the cipher pool of a key id, reloading the key ring once if the key is not on it. A key id which is not on
+	 * the reloaded key ring either fails without another reload until the unknown key retry interval has passed, so
+	 * corrupt or foreign values do not hold every thread behind a reload.
+	 *
+	 * @param pKeyId
+	 *            the key id parsed from the value, -1 for the legacy key
+	 * @return the cipher pool
+	 * @throws EncryptionOperationNotPossibleException
+	 *             if the key is not on the reloaded key ring either
+	 */
+	private CipherPool getCipherPool(int pKeyId) {
+		int keyId = pKeyId < 0 ? CryptoConstants.LEGACY_KEY_ID : pKeyId;
+		CipherPool cipherPool = getKeyRing().getCipherPool(keyId);
+		if (cipherPool == null) {
+			Integer unknownKeyId = Integer.valueOf(keyId);
+			if (isUnknownKeyRetryDue(unknownKeyId)) {
+				synchronized (this) {
+					// Another thread may have loaded it, or found it missing, while this one waited
+					cipherPool = this.mKeyRing.getCipherPool(keyId);
+					if (cipherPool == null && isUnknownKeyRetryDue(unknownKeyId)) {
+						reloadKeyRing();
+						cipherPool = this.mKeyRing.getCipherPool(keyId);
+						if (cipherPool == null) {
+							addUnknownKeyId(unknownKeyId);
+						}
+					}
+				}
+			}
+			if (cipherPool == null) {
+				throw new EncryptionOperationNotPossibleException("Unknown key id: " + keyId);
+			}
+		}
+		return cipherPool;
+	}
+
+	/**
+	 * Checks if the key ring may be reloaded for a key id which is not on it.
+	 *
+	 * @param pKeyId
+	 *            the key id
+	 * @return true, if the key id was not missing from a reload within the unknown key retry interval
+	 */
+	private boolean isUnknownKeyRetryDue(Integer pKeyId) {
+		Long retryNanos = this.mUnknownKeyIds.get(pKeyId);
+		return retryNanos == null || System.nanoTime() - retryNanos.longValue() >= 0;
+	}
+
+	/**
+	 * Records a key id missing from the reloaded key ring, and forgets the ones whose retry interval has passed.
+	 *
+	 * @param pKeyId
+	 *            the key id
+	 */
+	private void addUnknownKeyId(Integer pKeyId) {
+		long now = System.nanoTime();
+		for (Iterator<Long> retryNanos = this.mUnknownKeyIds.values().iterator(); retryNanos.hasNext();) {
+			if (now - retryNanos.next().longValue() >= 0) {
+				retryNanos.remove();
 			}
 		}
+		this.mUnknownKeyIds.put(pKeyId, Long.valueOf(now + TimeUnit.MILLISECONDS.toNanos(getUnknownKeyRetryMillis())));
+		if (isLoggingWarning()) {
+			logWarning("CryptoEngine.getCipherPool: " + "key id " + pKeyId + " is not on the key ring of crypto engine "
+					+ getCryptoEngineIdentifier() + ", it is not reloaded for it again within "
+					+ getUnknownKeyRetryMillis() + " ms.");
+		}
+	}
+
+	/**
+	 * Creates an encryptor for data passphrases, using the key passphrase.
+	 *
+	 * @return the encryptor
+	 */
+	private StandardPBEStringEncryptor createKeyPassEncryptor() {
+		final StandardPBEStringEncryptor dataPassEncryptor = new StandardPBEStringEncryptor();
+		dataPassEncryptor.setProviderName(CryptoConstants.BOUNCY_CASTLE_PROVIDER_NAME);
+		dataPassEncryptor.setAlgorithm(CryptoConstants.STRONG_ALGO);
+		dataPassEncryptor.setPassword(getKeyPassphrase());
+		return dataPassEncryptor;
+	}
 
-		// Setup scheduled job to check the key expiration status
-		ScheduledJob job = new ScheduledJob("SR:Crypto:" + getCryptoEngineIdentifier(),
-				"Checks the key expiration status for the Spark::red encryptor: " + getCryptoEngineIdentifier(),
-				getAbsoluteName(), getSchedule(), this, ScheduledJob.SCHEDULER_THREAD);
-		setJobId(getScheduler().addScheduledJob(job));
+	/**
+	 * Checks if new values are encrypted with a derived data key.
+	 *
+	 * @return true, if the cipher mode is derivedKey or gcm
+	 */
+	public boolean isDerivedKeyMode() {
+		return getCipherSuite() != null && getCipherSuite().isDerivedKey();
 	}
 
 	/**
@@ -168,11 +765,10 @@ public class CryptoEngine extends GenericService implements Schedulable, Seriali
 		// Generate a new data passphrase
 		String newDataPassphrase = generateNewDataPassphrase();
 		// Encrypt the data passphrase with the key passphrase
-		final StandardPBEStringEncryptor dataPassEncryptor = new StandardPBEStringEncryptor();
-		dataPassEncryptor.setProviderName(CryptoConstants.BOUNCY_CASTLE_PROVIDER_NAME);
-		dataPassEncryptor.setAlgorithm(CryptoConstants.STRONG_ALGO);
-		dataPassEncryptor.setPassword(getKeyPassphrase());
+		final StandardPBEStringEncryptor dataPassEncryptor = createKeyPassEncryptor();
 		String encryptedNewDataPassphrase = dataPassEncryptor.encrypt(newDataPassphrase);
+		// Generate and encrypt a separate passphrase for the blind index key
+		String encryptedNewIndexPassphrase = dataPassEncryptor.encrypt(generateNewDataPassphrase());
 
 		// Persist the new engine config
 		try {
@@ -180,6 +776,15 @@ public class CryptoEngine extends GenericService implements Schedulable, Seriali
 					CryptoConstants.CRYPTO_ENGINE_ITEM_DESC);
 			newCryptoEngineItem.setPropertyValue(CryptoConstants.DESCRIPTION_PROP_NAME, getCryptoEngineDescription());
 			newCryptoEngineItem.setPropertyValue(CryptoConstants.ENC_DATA_KEY_PROP_NAME, encryptedNewDataPassphrase);
+			newCryptoEngineItem.setPropertyValue(CryptoConstants.ENC_INDEX_KEY_PROP_NAME, encryptedNewIndexPassphrase);
+			// The first key is the legacy key, values encrypted by older versions of this engine have no key id
+			Map<String, String> encryptedDataPassphrases = new HashMap<String, String>();
+			encryptedDataPassphrases.put(String.valueOf(CryptoConstants.LEGACY_KEY_ID), encryptedNewDataPassphrase);
+			newCryptoEngineItem.setPropertyValue(CryptoConstants.ENC_DATA_KEYS_PROP_NAME, encryptedDataPassphrases);
+			newCryptoEngineItem.setPropertyValue(CryptoConstants.ACTIVE_KEY_ID_PROP_NAME,
+					Integer.valueOf(CryptoConstants.LEGACY_KEY_ID));
+			newCryptoEngineItem.setPropertyValue(CryptoConstants.KEY_DERIVATION_ITERATIONS_PROP_NAME,
+					Integer.valueOf(getKeyDerivationIterations()));
 			newCryptoEngineItem.setPropertyValue(CryptoConstants.KEY_DATE_PROP_NAME, new Date());
 			getCryptoRepository().addItem(newCryptoEngineItem);
 		} catch (RepositoryException e) {
@@ -190,147 +795,787 @@ public class CryptoEngine extends GenericService implements Schedulable, Seriali
 	}
 
 	/**
-	 * Generate new data password.
+	 * Generate new data password.
+	 *
+	 * @return the string
+	 */
+	private String generateNewDataPassphrase() {
+		String newDataPassphrase = new BigInteger(130, new SecureRandom()).toString(32);
+		if (isLoggingDebug()) {
+			logDebug("RekeyEngine.generateNewDataPassphrase: " + "newDataPassphrase is: " + newDataPassphrase);
+		}
+		return newDataPassphrase;
+	}
+
+	/**
+	 * Reloads the key ring and checks the key expiration situation daily.
+	 *
+	 * @param pArg0
+	 *            the arg0
+	 * @param pArg1
+	 *            the arg1
+	 * @see atg.service.scheduler.Schedulable#performScheduledTask(atg.service.scheduler.Scheduler,
+	 *      atg.service.scheduler.ScheduledJob)
+	 */
+	public void performScheduledTask(Scheduler pArg0, ScheduledJob pArg1) {
+		reloadKeyRing();
+		if (isCheckKeyExpiration()) {
+			checkKeyExpiration();
+		}
+	}
+
+	/**
+	 * Reloads the key ring and checks the key expiration of an engine hosted by a registry, from the crypto engine
+	 * item the registry loaded for every engine at once.
+	 *
+	 * @param pCryptoEngineItem
+	 *            the crypto engine item, null to load it from the crypto repository
+	 */
+	void performScheduledTask(RepositoryItem pCryptoEngineItem) {
+		reloadKeyRing(pCryptoEngineItem);
+		if (isCheckKeyExpiration()) {
+			if (pCryptoEngineItem == null) {
+				checkKeyExpiration();
+			} else {
+				checkKeyExpiration(pCryptoEngineItem);
+			}
+		}
+	}
+
+	/**
+	 * This method checks the last ReKey date against the key expiration period, and the key expiration notification
+	 * period, and sends out e-mails if the key is close to expiring and will need to be ReKeyed.
+	 */
+	private void checkKeyExpiration() {
+		try {
+			// Check current key gen date
+			RepositoryItem cryptoEngineItem = getCryptoRepository().getItem(getCryptoEngineIdentifier(),
+					CryptoConstants.CRYPTO_ENGINE_ITEM_DESC);
+			if (cryptoEngineItem != null) {
+				checkKeyExpiration(cryptoEngineItem);
+			}
+		} catch (RepositoryException e) {
+			if (isLoggingError()) {
+				logError("CryptoEngine.checkKeyExpiration: "
+						+ "RepositoryException while trying to load the crypto engine config data for identfier: "
+						+ getCryptoEngineIdentifier(), e);
+			}
+		}
+	}
+
+	/**
+	 * Checks the last ReKey date of a crypto engine item already loaded, and sends out e-mails if the key is close to
+	 * expiring.
+	 *
+	 * @param pCryptoEngineItem
+	 *            the crypto engine item
+	 */
+	private void checkKeyExpiration(RepositoryItem pCryptoEngineItem) {
+		try {
+			Date keyDate = (Date) pCryptoEngineItem.getPropertyValue(CryptoConstants.KEY_DATE_PROP_NAME);
+			if (keyDate != null) {
+				Calendar notificationDate = Calendar.getInstance();
+				// Get a string representation of the last key impl date
+				String keyDateString = DateFormat.getDateInstance(DateFormat.MEDIUM).format(keyDate);
+				// Set it to the last ReKey date
+				notificationDate.setTime(keyDate);
+				// Add the expiration days
+				notificationDate.add(Calendar.DAY_OF_YEAR, getKeyExpirationDays());
+				String expirationDateString = DateFormat.getDateInstance(DateFormat.MEDIUM)
+						.format(notificationDate.getTime());
+				// Subtract the notification threshold
+				notificationDate.add(Calendar.DAY_OF_YEAR, -getKeyExpirationNotificationDays());
+				if (notificationDate.before(Calendar.getInstance())) {
+					// Send e-mail
+					EmailEvent notificationEmailEvent = new EmailEvent();
+					notificationEmailEvent.setFrom(getSMTPEmailSender().getDefaultFrom());
+					notificationEmailEvent.setRecipient(getKeyExpirationNotificaitonEmail());
+					notificationEmailEvent.setSubject(
+							"ATG Crypto Key needs to be ReKeyed soon! - " + getCryptoEngineIdentifier());
+					notificationEmailEvent
+							.setBody("The encryption key for the Spark::red ATG CryptoEngine with the identifier: "
+									+ getCryptoEngineIdentifier()
+									+ " will expire soon.  The current encryption key was put into service on: "
+									+ keyDateString + " and should be ReKeyed before: " + expirationDateString
+									+ ".  You will recieve this e-mail every day until the engine has been ReKeyed.");
+					getSMTPEmailSender().sendEmailEvent(notificationEmailEvent);
+				}
+			}
+		} catch (EmailException e) {
+			if (isLoggingError()) {
+				logError("CryptoEngine.checkKeyExpiration: "
+						+ "EmailException while trying to send an upcoming key expiration notification e-mail to: "
+						+ getKeyExpirationNotificaitonEmail(), e);
+			}
+		}
+	}
+
+	/**
+	 * Test.
+	 */
+	public void test() {
+		String text = "1234567890123456";
+		if (isLoggingError()) {
+			logError("CryptoEngine.test: " + "text: " + text);
+		}
+		String encryptedText = encrypt(text);
+
+		if (isLoggingError()) {
+			logError("CryptoEngine.test: " + "encryptedText: " + encryptedText);
+		}
+
+		String decryptedText = decrypt(encryptedText);
+		if (isLoggingError()) {
+			logError("CryptoEngine.test: " + "decryptedText: " + decryptedText);
+		}
+
+		String cc1 = "UE4rqdnKfZOKySN9YNRJ+lhuGdJIJgX1ArcA7rPz08SnlR+sEJKwKw4bYutvpd8o";
+		String cc1Dec = decrypt(cc1);
+		if (isLoggingError()) {
+			logError("CryptoEngine.test: " + "cc1Dec: " + cc1Dec);
+		}
+	}
+
+	/**
+	 * Do stop service.
+	 *
+	 * @throws ServiceException
+	 *             the service exception
+	 * @see atg.nucleus.GenericService#doStopService()
+	 */
+	@Override
+	public void doStopService() throws ServiceException {
+		this.mReady = false;
+		if (this.mRegistry == null) {
+			getScheduler().removeScheduledJob(getJobId());
+			if (this.mBulkPool != null) {
+				this.mBulkPool.shutdown();
+			}
+		}
+		this.mBulkPool = null;
+		unregisterMetricsMBean();
+	}
+
+	/**
+	 * Resets the latency histograms and counters of the metrics.
+	 */
+	public void resetMetrics() {
+		this.mMetrics.reset();
+	}
+
+	/**
+	 * Decrypt. The key id prefix picks the data key, values without one are decrypted with the legacy key. Values with
+	 * the derived key header are decrypted with the derived data key, all other values are decrypted with the jasypt
+	 * PBE encryptor, regardless of the current cipher mode.
+	 *
+	 * @param pEncryptedText
+	 *            the encrypted text
+	 * @return the string
+	 */
+	public String decrypt(String pEncryptedText) {
+		long start = System.nanoTime();
+		try {
+			String plainText = doDecrypt(pEncryptedText);
+			this.mMetrics.recordSuccess(CryptoMetrics.Operation.DECRYPT, start);
+			return plainText;
+		} catch (RuntimeException re) {
+			this.mMetrics.recordFailure(CryptoMetrics.Operation.DECRYPT);
+			throw re;
+		}
+	}
+
+	/**
+	 * Decrypts, without recording metrics.
+	 *
+	 * @param pEncryptedText
+	 *            the encrypted text
+	 * @return the decrypted text
+	 */
+	private String doDecrypt(String pEncryptedText) {
+		int keyId = KeyRing.parseKeyId(pEncryptedText);
+		CipherPool cipherPool = getCipherPool(keyId);
+		String encryptedText = keyId < 0 ? pEncryptedText : pEncryptedText.substring(KeyRing
+				.getPrefixLength(keyId));
+		CipherPool.Stripe stripe = cipherPool.acquire(this.mMetrics);
+		try {
+			CipherSuite suite = CipherSuite.of(encryptedText);
+			if (suite.isDerivedKey()) {
+				return stripe.getCipher(suite).decrypt(encryptedText);
+			}
+			return stripe.getEncryptor().decrypt(encryptedText);
+		} finally {
+			cipherPool.release(stripe);
+		}
+	}
+
+	/**
+	 * Encrypt with the active data key. The result is prefixed with the id of the key, unless it is the legacy key
+	 * and writeUntaggedLegacyValues is set.
+	 *
+	 * @param pPlainText
+	 *            the plain text
+	 * @return the string
+	 */
+	public String encrypt(String pPlainText) {
+		return encrypt(pPlainText, getCipherSuite());
+	}
+
+	/**
+	 * Encrypt with the active data key, in a cipher suite other than the one of the cipher mode. This is how an
+	 * encrypted property with its own cipherMode attribute is written. The result is prefixed with the id of the key,
+	 * unless it is the legacy key and writeUntaggedLegacyValues is set.
+	 *
+	 * @param pPlainText
+	 *            the plain text
+	 * @param pSuite
+	 *            the cipher suite
+	 * @return the string
+	 */
+	public String encrypt(String pPlainText, CipherSuite pSuite) {
+		long start = System.nanoTime();
+		try {
+			String encryptedText = doEncrypt(pPlainText, pSuite);
+			this.mMetrics.recordSuccess(CryptoMetrics.Operation.ENCRYPT, start);
+			return encryptedText;
+		} catch (RuntimeException re) {
+			this.mMetrics.recordFailure(CryptoMetrics.Operation.ENCRYPT);
+			throw re;
+		}
+	}
+
+	/**
+	 * Encrypts, without recording metrics.
+	 *
+	 * @param pPlainText
+	 *            the plain text
+	 * @param pSuite
+	 *            the cipher suite
+	 * @return the encrypted text
+	 */
+	private String doEncrypt(String pPlainText, CipherSuite pSuite) {
+		KeyRing keyRing = getKeyRing();
+		CipherPool cipherPool = keyRing.getActiveCipherPool();
+		CipherPool.Stripe stripe = cipherPool.acquire(this.mMetrics);
+		try {
+			String encryptedText;
+			if (pSuite.isDerivedKey()) {
+				encryptedText = stripe.getCipher(pSuite).encrypt(pPlainText);
+			} else {
+				encryptedText = stripe.getEncryptor().encrypt(pPlainText);
+			}
+			return isTagged(keyRing.getActiveKeyId()) ? KeyRing.tag(keyRing.getActiveKeyId(), encryptedText)
+					: encryptedText;
+		} finally {
+			cipherPool.release(stripe);
+		}
+	}
+
+	/**
+	 * Checks if the values of a key are written with the key id prefix. Only the values of the legacy key can be
+	 * written without it, while writeUntaggedLegacyValues is set.
+	 *
+	 * @param pKeyId
+	 *            the key id
+	 * @return true, if the values of the key are prefixed with its id
+	 */
+	private boolean isTagged(int pKeyId) {
+		return !isWriteUntaggedLegacyValues() || pKeyId != CryptoConstants.LEGACY_KEY_ID;
+	}
+
+	/**
+	 * Checks if a value is encrypted with the active key, in the format of the current cipher mode. Values which are
+	 * not can be re-encrypted to migrate them to the active key.
+	 *
+	 * @param pEncryptedText
+	 *            the encrypted text
+	 * @return true, if the value does not need to be re-encrypted
+	 */
+	public boolean isCurrent(String pEncryptedText) {
+		return isCurrent(pEncryptedText, getCipherSuite());
+	}
+
+	/**
+	 * Checks if a value is encrypted with the active key, in the format of a cipher suite. In the pbe suite values of
+	 * every suite are current, only the key is checked.
+	 *
+	 * @param pEncryptedText
+	 *            the encrypted text
+	 * @param pSuite
+	 *            the cipher suite new values are written with
+	 * @return true, if the value does not need to be re-encrypted
+	 */
+	public boolean isCurrent(String pEncryptedText, CipherSuite pSuite) {
+		int keyId = KeyRing.parseKeyId(pEncryptedText);
+		int prefixLength = 0;
+		if (keyId >= 0) {
+			prefixLength = KeyRing.getPrefixLength(keyId);
+		} else if (!isTagged(CryptoConstants.LEGACY_KEY_ID)) {
+			// Untagged values are written on purpose while nodes without key rings are running
+			keyId = CryptoConstants.LEGACY_KEY_ID;
+		}
+		if (keyId != getKeyRing().getActiveKeyId()) {
+			return false;
+		}
+		return pSuite == CipherSuite.PBE
+				|| CipherSuite.of(pEncryptedText, prefixLength, pEncryptedText.length() - prefixLength) == pSuite;
+	}
+
+	/**
+	 * Computes the blind index of a plain text value, a keyed HMAC which is the same every time the same value is
+	 * indexed, so it can be stored in an indexed column and searched by equality.
+	 *
+	 * @param pPlainText
+	 *            the plain text
+	 * @return the blind index, or null if the plain text is null
+	 */
+	public String blindIndex(String pPlainText) {
+		CipherPool cipherPool = getKeyRing().getActiveCipherPool();
+		CipherPool.Stripe stripe = cipherPool.acquire(this.mMetrics);
+		try {
+			return stripe.getBlindIndex().compute(pPlainText);
+		} finally {
+			cipherPool.release(stripe);
+		}
+	}
+
+	/**
+	 * Computes the blind indexes a plain text value can be stored with: the one of the active key, followed by the
+	 * ones of the other keys on the key ring with a blind index key of their own. Values keep the blind index of the
+	 * key they were written with until a RekeyEngine re-indexes them, so a lookup must match any of them. The key ring
+	 * is reloaded first when it is older than keyRingMaxAgeMillis, so lookups pick up the blind index key of a rekey
+	 * in progress, which it waits for before it re-indexes any value.
+	 *
+	 * @param pPlainText
+	 *            the plain text
+	 * @return the distinct blind indexes, the one written for new values first
+	 */
+	public List<String> blindIndexes(String pPlainText) {
+		KeyRing keyRing = getRecentKeyRing();
+		Set<String> blindIndexes = new LinkedHashSet<String>();
+		CipherPool activeCipherPool = keyRing.getActiveCipherPool();
+		blindIndexes.add(blindIndex(activeCipherPool, pPlainText));
+		for (Integer keyId : keyRing.getKeyIds()) {
+			CipherPool cipherPool = keyRing.getCipherPool(keyId.intValue());
+			if (cipherPool != activeCipherPool) {
+				blindIndexes.add(blindIndex(cipherPool, pPlainText));
+			}
+		}
+		return new ArrayList<String>(blindIndexes);
+	}
+
+	/**
+	 * Computes the blind index of a plain text value with the blind index key of a cipher pool.
+	 *
+	 * @param pCipherPool
+	 *            the cipher pool
+	 * @param pPlainText
+	 *            the plain text
+	 * @return the blind index
+	 */
+	private String blindIndex(CipherPool pCipherPool, String pPlainText) {
+		CipherPool.Stripe stripe = pCipherPool.acquire(this.mMetrics);
+		try {
+			return stripe.getBlindIndex().compute(pPlainText);
+		} finally {
+			pCipherPool.release(stripe);
+		}
+	}
+
+	/**
+	 * Gets the key ring, reloading it first when it was loaded longer than keyRingMaxAgeMillis ago.
+	 *
+	 * @return the key ring
+	 */
+	private KeyRing getRecentKeyRing() {
+		KeyRing keyRing = getKeyRing();
+		long maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(getKeyRingMaxAgeMillis());
+		if (maxAgeNanos > 0 && System.nanoTime() - this.mKeyRingLoadNanos > maxAgeNanos) {
+			synchronized (this) {
+				// Another thread may have reloaded it while this one waited
+				if (System.nanoTime() - this.mKeyRingLoadNanos > maxAgeNanos) {
+					reloadKeyRing();
+				}
+			}
+			keyRing = getKeyRing();
+		}
+		return keyRing;
+	}
+
+	/**
+	 * Encrypts plain text chars into a caller supplied char array, with the active data key. In the derivedKey cipher
+	 * mode this does not allocate any intermediate arrays or Strings, so the caller can zero the plain text afterwards.
+	 * In the pbe cipher mode the value goes through the jasypt String API.
+	 *
+	 * @param pPlainText
+	 *            the plain text chars
+	 * @param pOffset
+	 *            the plain text offset
+	 * @param pLength
+	 *            the number of plain text chars
+	 * @param pOutput
+	 *            the output chars, see {@link #getMaxEncryptedLength(int)} for the required size
+	 * @param pOutputOffset
+	 *            the output offset
+	 * @return the number of chars written
+	 */
+	public int encrypt(char[] pPlainText, int pOffset, int pLength, char[] pOutput, int pOutputOffset) {
+		long start = System.nanoTime();
+		try {
+			int written = doEncrypt(pPlainText, pOffset, pLength, pOutput, pOutputOffset);
+			this.mMetrics.recordSuccess(CryptoMetrics.Operation.ENCRYPT, start);
+			return written;
+		} catch (RuntimeException re) {
+			this.mMetrics.recordFailure(CryptoMetrics.Operation.ENCRYPT);
+			throw re;
+		}
+	}
+
+	/**
+	 * Encrypts, without recording metrics.
+	 *
+	 * @param pPlainText
+	 *            the plain text chars
+	 * @param pOffset
+	 *            the plain text offset
+	 * @param pLength
+	 *            the number of plain text chars
+	 * @param pOutput
+	 *            the output chars, see {@link #getMaxEncryptedLength(int)} for the required size
+	 * @param pOutputOffset
+	 *            the output offset
+	 * @return the number of chars written
+	 */
+	private int doEncrypt(char[] pPlainText, int pOffset, int pLength, char[] pOutput, int pOutputOffset) {
+		KeyRing keyRing = getKeyRing();
+		CipherPool cipherPool = keyRing.getActiveCipherPool();
+		int keyId = keyRing.getActiveKeyId();
+		int prefixLength = isTagged(keyId) ? KeyRing.getPrefixLength(keyId) : 0;
+		if (pOutput.length - pOutputOffset < prefixLength) {
+			throw new IllegalArgumentException("Output array is too small, " + prefixLength + " chars needed.");
+		}
+		// The cipher text goes after the prefix, and the prefix is only written once it fit
+		int written;
+		CipherPool.Stripe stripe = cipherPool.acquire(this.mMetrics);
+		try {
+			CipherSuite suite = getCipherSuite();
+			if (suite.isDerivedKey()) {
+				written = stripe.getCipher(suite).encrypt(pPlainText, pOffset, pLength, pOutput,
+						pOutputOffset + prefixLength);
+			} else {
+				written = copyChars(stripe.getEncryptor().encrypt(new String(pPlainText, pOffset, pLength)),
+						pOutput, pOutputOffset + prefixLength);
+			}
+		} finally {
+			cipherPool.release(stripe);
+		}
+		if (prefixLength > 0) {
+			KeyRing.writePrefix(keyId, pOutput, pOutputOffset);
+		}
+		return prefixLength + written;
+	}
+
+	/**
+	 * Decrypts encrypted chars into a caller supplied char array. Values in the derived key format are decrypted
+	 * without allocating intermediate arrays or Strings, other values go through the jasypt String API.
+	 *
+	 * @param pEncryptedText
+	 *            the encrypted chars
+	 * @param pOffset
+	 *            the encrypted text offset
+	 * @param pLength
+	 *            the number of encrypted chars
+	 * @param pOutput
+	 *            the output chars, see {@link #getMaxDecryptedLength(int)} for the required size
+	 * @param pOutputOffset
+	 *            the output offset
+	 * @return the number of chars written
+	 */
+	public int decrypt(char[] pEncryptedText, int pOffset, int pLength, char[] pOutput, int pOutputOffset) {
+		long start = System.nanoTime();
+		try {
+			int written = doDecrypt(pEncryptedText, pOffset, pLength, pOutput, pOutputOffset);
+			this.mMetrics.recordSuccess(CryptoMetrics.Operation.DECRYPT, start);
+			return written;
+		} catch (RuntimeException re) {
+			this.mMetrics.recordFailure(CryptoMetrics.Operation.DECRYPT);
+			throw re;
+		}
+	}
+
+	/**
+	 * Decrypts, without recording metrics.
+	 *
+	 * @param pEncryptedText
+	 *            the encrypted chars
+	 * @param pOffset
+	 *            the encrypted text offset
+	 * @param pLength
+	 *            the number of encrypted chars
+	 * @param pOutput
+	 *            the output chars, see {@link #getMaxDecryptedLength(int)} for the required size
+	 * @param pOutputOffset
+	 *            the output offset
+	 * @return the number of chars written
+	 */
+	private int doDecrypt(char[] pEncryptedText, int pOffset, int pLength, char[] pOutput, int pOutputOffset) {
+		int keyId = KeyRing.parseKeyId(CharBuffer.wrap(pEncryptedText, pOffset, pLength));
+		CipherPool cipherPool = getCipherPool(keyId);
+		int prefixLength = keyId < 0 ? 0 : KeyRing.getPrefixLength(keyId);
+		int offset = pOffset + prefixLength;
+		int length = pLength - prefixLength;
+		CipherPool.Stripe stripe = cipherPool.acquire(this.mMetrics);
+		try {
+			CipherSuite suite = CipherSuite.of(pEncryptedText, offset, length);
+			if (suite.isDerivedKey()) {
+				return stripe.getCipher(suite).decrypt(pEncryptedText, offset, length, pOutput, pOutputOffset);
+			}
+			return copyChars(stripe.getEncryptor().decrypt(new String(pEncryptedText, offset, length)), pOutput,
+					pOutputOffset);
+		} finally {
+			cipherPool.release(stripe);
+		}
+	}
+
+	/**
+	 * Encrypts the remaining UTF-8 plain text bytes of a buffer into a caller supplied buffer as Base64 ASCII bytes,
+	 * with the active data key. The position of both buffers is advanced. In the derivedKey cipher mode this does not
+	 * allocate any intermediate arrays or Strings, in the pbe cipher mode the value goes through the jasypt String API.
+	 * When the output buffer is too small, a BufferOverflowException is thrown and neither buffer is changed.
+	 *
+	 * @param pPlainText
+	 *            the UTF-8 plain text bytes
+	 * @param pOutput
+	 *            the output buffer, see {@link #getMaxEncryptedLength(int)} for the required size
+	 * @return the number of bytes written
+	 */
+	public int encrypt(ByteBuffer pPlainText, ByteBuffer pOutput) {
+		long start = System.nanoTime();
+		try {
+			int written = doEncrypt(pPlainText, pOutput);
+			this.mMetrics.recordSuccess(CryptoMetrics.Operation.ENCRYPT, start);
+			return written;
+		} catch (RuntimeException re) {
+			this.mMetrics.recordFailure(CryptoMetrics.Operation.ENCRYPT);
+			throw re;
+		}
+	}
+
+	/**
+	 * Encrypts, without recording metrics.
+	 *
+	 * @param pPlainText
+	 *            the UTF-8 plain text bytes
+	 * @param pOutput
+	 *            the output buffer, see {@link #getMaxEncryptedLength(int)} for the required size
+	 * @return the number of bytes written
+	 */
+	private int doEncrypt(ByteBuffer pPlainText, ByteBuffer pOutput) {
+		KeyRing keyRing = getKeyRing();
+		CipherPool cipherPool = keyRing.getActiveCipherPool();
+		int keyId = keyRing.getActiveKeyId();
+		int prefixLength = isTagged(keyId) ? KeyRing.getPrefixLength(keyId) : 0;
+		if (pOutput.remaining() < prefixLength) {
+			throw new BufferOverflowException();
+		}
+		// The cipher text goes into a view after the prefix, so that neither buffer is touched unless all of it fits
+		ByteBuffer cipherText = pOutput.duplicate();
+		cipherText.position(pOutput.position() + prefixLength);
+		int written;
+		CipherPool.Stripe stripe = cipherPool.acquire(this.mMetrics);
+		try {
+			CipherSuite suite = getCipherSuite();
+			if (suite.isDerivedKey()) {
+				written = stripe.getCipher(suite).encrypt(pPlainText, cipherText);
+			} else {
+				String encryptedText = stripe.getEncryptor().encrypt(UTF8.decode(pPlainText.duplicate()).toString());
+				written = copyBytes(encryptedText.getBytes(US_ASCII), cipherText);
+				pPlainText.position(pPlainText.limit());
+			}
+		} finally {
+			cipherPool.release(stripe);
+		}
+		if (prefixLength > 0) {
+			KeyRing.writePrefix(keyId, pOutput);
+		}
+		pOutput.position(pOutput.position() + written);
+		return prefixLength + written;
+	}
+
+	/**
+	 * Decrypts the remaining Base64 ASCII bytes of a buffer into a caller supplied buffer as UTF-8 plain text bytes.
+	 * The position of both buffers is advanced. Values in the derived key format are decrypted without allocating
+	 * intermediate arrays or Strings, other values go through the jasypt String API.
+	 *
+	 * @param pEncryptedText
+	 *            the encrypted ASCII bytes
+	 * @param pOutput
+	 *            the output buffer, see {@link #getMaxDecryptedLength(int)} for the required size
+	 * @return the number of bytes written
+	 */
+	public int decrypt(ByteBuffer pEncryptedText, ByteBuffer pOutput) {
+		long start = System.nanoTime();
+		try {
+			int written = doDecrypt(pEncryptedText, pOutput);
+			this.mMetrics.recordSuccess(CryptoMetrics.Operation.DECRYPT, start);
+			return written;
+		} catch (RuntimeException re) {
+			this.mMetrics.recordFailure(CryptoMetrics.Operation.DECRYPT);
+			throw re;
+		}
+	}
+
+	/**
+	 * Decrypts, without recording metrics.
+	 *
+	 * @param pEncryptedText
+	 *            the encrypted ASCII bytes
+	 * @param pOutput
+	 *            the output buffer, see {@link #getMaxDecryptedLength(int)} for the required size
+	 * @return the number of bytes written
+	 */
+	private int doDecrypt(ByteBuffer pEncryptedText, ByteBuffer pOutput) {
+		int keyId = KeyRing.parseKeyId(pEncryptedText);
+		CipherPool cipherPool = getCipherPool(keyId);
+		if (keyId >= 0) {
+			pEncryptedText.position(pEncryptedText.position() + KeyRing.getPrefixLength(keyId));
+		}
+		CipherPool.Stripe stripe = cipherPool.acquire(this.mMetrics);
+		try {
+			CipherSuite suite = CipherSuite.of(pEncryptedText);
+			if (suite.isDerivedKey()) {
+				return stripe.getCipher(suite).decrypt(pEncryptedText, pOutput);
+			}
+			String plainText = stripe.getEncryptor().decrypt(US_ASCII.decode(pEncryptedText).toString());
+			return copyBytes(plainText.getBytes(UTF8), pOutput);
+		} finally {
+			cipherPool.release(stripe);
+		}
+	}
+
+	/**
+	 * Gets the largest encrypted length, in chars or ASCII bytes, for a plain text of the passed in UTF-8 byte length.
+	 * This holds for every cipher suite, and includes the key id prefix. For char[] plain text which is not plain
+	 * ASCII, pass in three times the number of chars.
 	 *
-	 * @return the string
+	 * @param pPlainTextLength
+	 *            the UTF-8 byte length of the plain text
+	 * @return the maximum encrypted length
 	 */
-	private String generateNewDataPassphrase() {
-		String newDataPassphrase = new BigInteger(130, new SecureRandom()).toString(32);
-		if (isLoggingDebug()) {
-			logDebug("RekeyEngine.generateNewDataPassphrase: " + "newDataPassphrase is: " + newDataPassphrase);
-		}
-		return newDataPassphrase;
+	public int getMaxEncryptedLength(int pPlainTextLength) {
+		return KeyRing.MAX_KEY_ID_PREFIX_LENGTH + DerivedKeyCipher.getMaxEncryptedLength(pPlainTextLength);
 	}
 
 	/**
-	 * Checks the key expiration situation daily.
+	 * Gets the largest decrypted length, in chars or UTF-8 bytes, for an encrypted text of the passed in length.
 	 *
-	 * @param pArg0
-	 *            the arg0
-	 * @param pArg1
-	 *            the arg1
-	 * @see atg.service.scheduler.Schedulable#performScheduledTask(atg.service.scheduler.Scheduler,
-	 *      atg.service.scheduler.ScheduledJob)
+	 * @param pEncryptedTextLength
+	 *            the length of the encrypted text
+	 * @return the maximum decrypted length
 	 */
-	public void performScheduledTask(Scheduler pArg0, ScheduledJob pArg1) {
-		if (isCheckKeyExpiration()) {
-			checkKeyExpiration();
-		}
+	public int getMaxDecryptedLength(int pEncryptedTextLength) {
+		return TextCodec.base64MaxDecodedLength(pEncryptedTextLength);
 	}
 
 	/**
-	 * This method checks the last ReKey date against the key expiration period, and the key expiration notification
-	 * period, and sends out e-mails if the key is close to expiring and will need to be ReKeyed.
+	 * Copies the chars of a String into a caller supplied char array.
+	 *
+	 * @param pValue
+	 *            the value
+	 * @param pOutput
+	 *            the output chars
+	 * @param pOutputOffset
+	 *            the output offset
+	 * @return the number of chars written
 	 */
-	private void checkKeyExpiration() {
-		try {
-			// Check current key gen date
-			RepositoryItem cryptoEngineItem = getCryptoRepository().getItem(getCryptoEngineIdentifier(),
-					CryptoConstants.CRYPTO_ENGINE_ITEM_DESC);
-			if (cryptoEngineItem != null) {
-				Date keyDate = (Date) cryptoEngineItem.getPropertyValue(CryptoConstants.KEY_DATE_PROP_NAME);
-				if (keyDate != null) {
-					Calendar notificationDate = Calendar.getInstance();
-					// Get a string representation of the last key impl date
-					String keyDateString = DateFormat.getDateInstance(DateFormat.MEDIUM).format(keyDate);
-					// Set it to the last ReKey date
-					notificationDate.setTime(keyDate);
-					// Add the expiration days
-					notificationDate.add(Calendar.DAY_OF_YEAR, getKeyExpirationDays());
-					String expirationDateString = DateFormat.getDateInstance(DateFormat.MEDIUM)
-							.format(notificationDate.getTime());
-					// Subtract the notification threshold
-					notificationDate.add(Calendar.DAY_OF_YEAR, -getKeyExpirationNotificationDays());
-					if (notificationDate.before(Calendar.getInstance())) {
-						// Send e-mail
-						EmailEvent notificationEmailEvent = new EmailEvent();
-						notificationEmailEvent.setFrom(getSMTPEmailSender().getDefaultFrom());
-						notificationEmailEvent.setRecipient(getKeyExpirationNotificaitonEmail());
-						notificationEmailEvent.setSubject(
-								"ATG Crypto Key needs to be ReKeyed soon! - " + getCryptoEngineIdentifier());
-						notificationEmailEvent
-								.setBody("The encryption key for the Spark::red ATG CryptoEngine with the identifier: "
-										+ getCryptoEngineIdentifier()
-										+ " will expire soon.  The current encryption key was put into service on: "
-										+ keyDateString + " and should be ReKeyed before: " + expirationDateString
-										+ ".  You will recieve this e-mail every day until the engine has been ReKeyed.");
-						getSMTPEmailSender().sendEmailEvent(notificationEmailEvent);
-					}
-				}
-			}
-		} catch (RepositoryException e) {
-			if (isLoggingError()) {
-				logError("CryptoEngine.checkKeyExpiration: "
-						+ "RepositoryException while trying to load the crypto engine config data for identfier: "
-						+ getCryptoEngineIdentifier(), e);
-			}
-		} catch (EmailException e) {
-			if (isLoggingError()) {
-				logError("CryptoEngine.checkKeyExpiration: "
-						+ "EmailException while trying to send an upcoming key expiration notification e-mail to: "
-						+ getKeyExpirationNotificaitonEmail(), e);
-			}
+	private static int copyChars(String pValue, char[] pOutput, int pOutputOffset) {
+		if (pOutput.length - pOutputOffset < pValue.length()) {
+			throw new IllegalArgumentException("Output array is too small, " + pValue.length() + " chars needed.");
 		}
+		pValue.getChars(0, pValue.length(), pOutput, pOutputOffset);
+		return pValue.length();
 	}
 
 	/**
-	 * Test.
+	 * Copies bytes into a caller supplied buffer.
+	 *
+	 * @param pValue
+	 *            the value
+	 * @param pOutput
+	 *            the output buffer
+	 * @return the number of bytes written
 	 */
-	public void test() {
-		String text = "1234567890123456";
-		if (isLoggingError()) {
-			logError("CryptoEngine.test: " + "text: " + text);
-		}
-		String encryptedText = encrypt(text);
-
-		if (isLoggingError()) {
-			logError("CryptoEngine.test: " + "encryptedText: " + encryptedText);
+	private static int copyBytes(byte[] pValue, ByteBuffer pOutput) {
+		if (pOutput.remaining() < pValue.length) {
+			throw new BufferOverflowException();
 		}
+		pOutput.put(pValue);
+		return pValue.length;
+	}
 
-		String decryptedText = decrypt(encryptedText);
-		if (isLoggingError()) {
-			logError("CryptoEngine.test: " + "decryptedText: " + decryptedText);
-		}
+	/**
+	 * Encrypts every value in the list. Failures are reported per element in the result and do not abort the batch.
+	 *
+	 * @param pPlainTexts
+	 *            the plain texts
+	 * @return the batch result, in the same order as the list
+	 */
+	public CryptoBatchResult encryptAll(List<String> pPlainTexts) {
+		return processAll(pPlainTexts.toArray(new String[pPlainTexts.size()]), true);
+	}
 
-		String cc1 = "UE4rqdnKfZOKySN9YNRJ+lhuGdJIJgX1ArcA7rPz08SnlR+sEJKwKw4bYutvpd8o";
-		String cc1Dec = decrypt(cc1);
-		if (isLoggingError()) {
-			logError("CryptoEngine.test: " + "cc1Dec: " + cc1Dec);
-		}
+	/**
+	 * Encrypts every value in the array. Failures are reported per element in the result and do not abort the batch.
+	 *
+	 * @param pPlainTexts
+	 *            the plain texts
+	 * @return the batch result, in the same order as the array
+	 */
+	public CryptoBatchResult encryptAll(String[] pPlainTexts) {
+		return processAll(pPlainTexts, true);
 	}
 
 	/**
-	 * Do stop service.
+	 * Decrypts every value in the list. Failures are reported per element in the result and do not abort the batch.
 	 *
-	 * @throws ServiceException
-	 *             the service exception
-	 * @see atg.nucleus.GenericService#doStopService()
+	 * @param pEncryptedTexts
+	 *            the encrypted texts
+	 * @return the batch result, in the same order as the list
 	 */
-	@Override
-	public void doStopService() throws ServiceException {
-		getScheduler().removeScheduledJob(getJobId());
+	public CryptoBatchResult decryptAll(List<String> pEncryptedTexts) {
+		return processAll(pEncryptedTexts.toArray(new String[pEncryptedTexts.size()]), false);
 	}
 
 	/**
-	 * Decrypt.
+	 * Decrypts every value in the array. Failures are reported per element in the result and do not abort the batch.
 	 *
-	 * @param pEncryptedText
-	 *            the encrypted text
-	 * @return the string
+	 * @param pEncryptedTexts
+	 *            the encrypted texts
+	 * @return the batch result, in the same order as the array
 	 */
-	public String decrypt(String pEncryptedText) {
-		return this.mEncryptor.decrypt(pEncryptedText);
+	public CryptoBatchResult decryptAll(String[] pEncryptedTexts) {
+		return processAll(pEncryptedTexts, false);
 	}
 
 	/**
-	 * Encrypt.
+	 * Encrypts or decrypts a batch. Batches up to the bulk parallel threshold are processed inline on the calling
+	 * thread, larger ones are split across the bulk fork-join pool.
 	 *
-	 * @param pPlainText
-	 *            the plain text
-	 * @return the string
+	 * @param pValues
+	 *            the values
+	 * @param pEncrypt
+	 *            the encrypt flag, decrypt if false
+	 * @return the batch result
 	 */
-	public String encrypt(String pPlainText) {
-		return this.mEncryptor.encrypt(pPlainText);
+	private CryptoBatchResult processAll(String[] pValues, boolean pEncrypt) {
+		CryptoBatchResult result = new CryptoBatchResult(pValues.length);
+		int threshold = Math.max(1, getBulkParallelThreshold());
+		ForkJoinPool bulkPool = this.mBulkPool;
+		if (pValues.length <= threshold || bulkPool == null) {
+			CryptoBatchTask.processRange(this, pValues, result, pEncrypt, 0, pValues.length);
+		} else {
+			bulkPool.invoke(new CryptoBatchTask(this, pValues, result, pEncrypt, 0, pValues.length, threshold));
+		}
+		return result;
 	}
 
 	/**
@@ -561,4 +1806,335 @@ public class CryptoEngine extends GenericService implements Schedulable, Seriali
 		mCheckKeyExpiration = pCheckKeyExpiration;
 	}
 
+	/**
+	 * Gets the cipher mode.
+	 *
+	 * @return the cipher mode
+	 */
+	public String getCipherMode() {
+		return mCipherMode;
+	}
+
+	/**
+	 * Sets the cipher mode.
+	 *
+	 * @param pCipherMode
+	 *            the new cipher mode
+	 */
+	public void setCipherMode(String pCipherMode) {
+		mCipherMode = pCipherMode;
+		mCipherSuite = CipherSuite.forCipherMode(pCipherMode);
+	}
+
+	/**
+	 * Gets the cipher suite of the cipher mode.
+	 *
+	 * @return the cipher suite, null if the cipher mode is not valid
+	 */
+	public CipherSuite getCipherSuite() {
+		return mCipherSuite;
+	}
+
+	/**
+	 * Gets the key derivation iterations.
+	 *
+	 * @return the key derivation iterations
+	 */
+	public int getKeyDerivationIterations() {
+		return mKeyDerivationIterations;
+	}
+
+	/**
+	 * Sets the key derivation iterations. They are stored with the keys the first time the engine loads them, and the
+	 * engine does not load its keys with other iterations after that, see {@link #loadKeyRing()}.
+	 *
+	 * @param pKeyDerivationIterations
+	 *            the new key derivation iterations
+	 */
+	public void setKeyDerivationIterations(int pKeyDerivationIterations) {
+		mKeyDerivationIterations = pKeyDerivationIterations;
+	}
+
+	/**
+	 * Checks if the values of the legacy key are written without the key id prefix.
+	 *
+	 * @return true, if legacy values are written untagged
+	 */
+	public boolean isWriteUntaggedLegacyValues() {
+		return mWriteUntaggedLegacyValues;
+	}
+
+	/**
+	 * Sets the flag to write the values of the legacy key without the key id prefix. Nodes running a version without
+	 * key rings can not decrypt tagged values, and their encrypted properties return the cipher text instead. To
+	 * upgrade such nodes one at a time, set this on the upgraded nodes until every node is upgraded, then unset it.
+	 * The nodes not upgraded yet only decrypt pbe values, so the cipher mode must stay pbe meanwhile, and no rekey may
+	 * run, as the values of any other key are always tagged.
+	 *
+	 * @param pWriteUntaggedLegacyValues
+	 *            the new write untagged legacy values flag
+	 */
+	public void setWriteUntaggedLegacyValues(boolean pWriteUntaggedLegacyValues) {
+		mWriteUntaggedLegacyValues = pWriteUntaggedLegacyValues;
+	}
+
+	/**
+	 * Gets the cipher pool size.
+	 *
+	 * @return the cipher pool size
+	 */
+	public int getCipherPoolSize() {
+		return mCipherPoolSize;
+	}
+
+	/**
+	 * Sets the cipher pool size.
+	 *
+	 * @param pCipherPoolSize
+	 *            the new cipher pool size
+	 */
+	public void setCipherPoolSize(int pCipherPoolSize) {
+		mCipherPoolSize = pCipherPoolSize;
+	}
+
+	/**
+	 * Gets the number of times a thread had to wait for its cipher pool stripe since the engine was started.
+	 *
+	 * @return the cipher pool contention count
+	 */
+	public long getCipherPoolContentionCount() {
+		KeyRing keyRing = this.mKeyRing;
+		if (keyRing == null) {
+			return 0;
+		}
+		return keyRing.getContentionCount();
+	}
+
+	/**
+	 * Gets the latency histograms and counters of the encrypts and decrypts since the engine started, or since the
+	 * last {@link #resetMetrics()}.
+	 *
+	 * @return the metrics
+	 */
+	public CryptoMetrics getMetrics() {
+		return this.mMetrics;
+	}
+
+	/**
+	 * Gets the decrypt storm threshold.
+	 *
+	 * @return the decrypt storm threshold, 0 to not detect storms
+	 */
+	public int getDecryptStormThreshold() {
+		return mDecryptStormThreshold;
+	}
+
+	/**
+	 * Sets the number of values of encrypted repository properties one thread decrypts within the decrypt storm window
+	 * which is counted as a decrypt storm, on the property whose decrypt reaches it.
+	 *
+	 * @param pDecryptStormThreshold
+	 *            the new decrypt storm threshold, 0 to not detect storms
+	 */
+	public void setDecryptStormThreshold(int pDecryptStormThreshold) {
+		mDecryptStormThreshold = pDecryptStormThreshold;
+	}
+
+	/**
+	 * Gets the decrypt storm window.
+	 *
+	 * @return the decrypt storm window in milliseconds
+	 */
+	public int getDecryptStormWindowMillis() {
+		return mDecryptStormWindowMillis;
+	}
+
+	/**
+	 * Sets the decrypt storm window.
+	 *
+	 * @param pDecryptStormWindowMillis
+	 *            the new decrypt storm window in milliseconds
+	 */
+	public void setDecryptStormWindowMillis(int pDecryptStormWindowMillis) {
+		mDecryptStormWindowMillis = pDecryptStormWindowMillis;
+	}
+
+	/**
+	 * Gets the decrypt storm trace interval.
+	 *
+	 * @return the decrypt storm trace interval in milliseconds, 0 to capture no stack traces
+	 */
+	public int getDecryptStormTraceIntervalMillis() {
+		return mDecryptStormTraceIntervalMillis;
+	}
+
+	/**
+	 * Sets the shortest time between two stack traces captured for the decrypt storms of one property. The stack trace
+	 * of the thread which reached the threshold is logged as a warning, and kept on the property's metrics.
+	 *
+	 * @param pDecryptStormTraceIntervalMillis
+	 *            the new decrypt storm trace interval in milliseconds, 0 to capture no stack traces
+	 */
+	public void setDecryptStormTraceIntervalMillis(int pDecryptStormTraceIntervalMillis) {
+		mDecryptStormTraceIntervalMillis = pDecryptStormTraceIntervalMillis;
+	}
+
+	/**
+	 * Gets the bulk parallel threshold.
+	 *
+	 * @return the bulk parallel threshold
+	 */
+	public int getBulkParallelThreshold() {
+		return mBulkParallelThreshold;
+	}
+
+	/**
+	 * Sets the bulk parallel threshold.
+	 *
+	 * @param pBulkParallelThreshold
+	 *            the new bulk parallel threshold
+	 */
+	public void setBulkParallelThreshold(int pBulkParallelThreshold) {
+		mBulkParallelThreshold = pBulkParallelThreshold;
+	}
+
+	/**
+	 * Checks if the keys are loaded in the background.
+	 *
+	 * @return true, if the engine starts in the background
+	 */
+	public boolean isBackgroundStartup() {
+		return mBackgroundStartup;
+	}
+
+	/**
+	 * Sets the flag to load the keys on a background thread shared by every engine, so that several engines start in
+	 * parallel and the component start does not wait for the crypto repository.
+	 *
+	 * @param pBackgroundStartup
+	 *            the new background startup flag
+	 */
+	public void setBackgroundStartup(boolean pBackgroundStartup) {
+		mBackgroundStartup = pBackgroundStartup;
+	}
+
+	/**
+	 * Gets the prewarm iterations.
+	 *
+	 * @return the number of round trips run at startup, 0 to not pre-warm
+	 */
+	public int getPrewarmIterations() {
+		return mPrewarmIterations;
+	}
+
+	/**
+	 * Sets the number of encrypt, decrypt and blind index round trips run in the background at startup, after the
+	 * cipher pool stripes of every key are filled. About 10000 get the round trips compiled by the JIT.
+	 *
+	 * @param pPrewarmIterations
+	 *            the new prewarm iterations, 0 to not pre-warm
+	 */
+	public void setPrewarmIterations(int pPrewarmIterations) {
+		mPrewarmIterations = pPrewarmIterations;
+	}
+
+	/**
+	 * Gets the startup timeout.
+	 *
+	 * @return the startup timeout in milliseconds
+	 */
+	public int getStartupTimeoutMillis() {
+		return mStartupTimeoutMillis;
+	}
+
+	/**
+	 * Sets the longest time a thread waits for the keys of an engine started in the background, before the encrypt or
+	 * decrypt fails.
+	 *
+	 * @param pStartupTimeoutMillis
+	 *            the new startup timeout in milliseconds
+	 */
+	public void setStartupTimeoutMillis(int pStartupTimeoutMillis) {
+		mStartupTimeoutMillis = pStartupTimeoutMillis;
+	}
+
+	/**
+	 * Checks if the engine is ready, its keys loaded and its ciphers pre-warmed.
+	 *
+	 * @return true, if ready
+	 */
+	public boolean isReady() {
+		return mReady;
+	}
+
+	/**
+	 * Gets the time from the last start of the engine until it was ready.
+	 *
+	 * @return the startup time in milliseconds, 0 until the engine is ready
+	 */
+	public long getStartupMillis() {
+		return mReady ? mStartupMillis : 0;
+	}
+
+	/**
+	 * Gets the shortest time between two key ring reloads for the same unknown key id.
+	 *
+	 * @return the unknown key retry interval in milliseconds
+	 */
+	public int getUnknownKeyRetryMillis() {
+		return mUnknownKeyRetryMillis;
+	}
+
+	/**
+	 * Sets the shortest time between two key ring reloads for the same unknown key id. Within it, values with that key
+	 * id fail at once, and keys added by a RekeyEngine are picked up by the reload the first value of the new key id
+	 * triggers, or by the scheduled job.
+	 *
+	 * @param pUnknownKeyRetryMillis
+	 *            the new unknown key retry interval in milliseconds
+	 */
+	public void setUnknownKeyRetryMillis(int pUnknownKeyRetryMillis) {
+		mUnknownKeyRetryMillis = pUnknownKeyRetryMillis;
+	}
+
+	/**
+	 * Gets the longest time blind index lookups use the key ring before reloading it.
+	 *
+	 * @return the key ring max age in milliseconds
+	 */
+	public int getKeyRingMaxAgeMillis() {
+		return mKeyRingMaxAgeMillis;
+	}
+
+	/**
+	 * Sets the longest time blind index lookups use the key ring before reloading it. A RekeyEngine waits this long
+	 * after it adds its pending key, before it re-indexes any value, so it must be the same on every server.
+	 *
+	 * @param pKeyRingMaxAgeMillis
+	 *            the new key ring max age in milliseconds, 0 to not reload the key ring for lookups
+	 */
+	public void setKeyRingMaxAgeMillis(int pKeyRingMaxAgeMillis) {
+		mKeyRingMaxAgeMillis = pKeyRingMaxAgeMillis;
+	}
+
+	/**
+	 * Gets the registry hosting this engine.
+	 *
+	 * @return the registry, null for an engine component of its own
+	 */
+	public CryptoEngineRegistry getRegistry() {
+		return mRegistry;
+	}
+
+	/**
+	 * Sets the registry hosting this engine, before it is started. A hosted engine takes its crypto engine item and
+	 * bulk pool from the registry, and has no scheduled job of its own.
+	 *
+	 * @param pRegistry
+	 *            the new registry
+	 */
+	void setRegistry(CryptoEngineRegistry pRegistry) {
+		mRegistry = pRegistry;
+	}
+
 }
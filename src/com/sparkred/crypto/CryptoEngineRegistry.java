@@ -0,0 +1,617 @@
+/*
+ * Please read the README.md and LICENSE.md files contained in this repository or module.
+ *
+ * Please contact sales@sparkred.com or support@sparkred.com if you have any questions.
+ *
+ * This code is copyright Spark::red https://www.sparkred.com 2007-2016, all right reserved.
+ */
+package com.sparkred.crypto;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import atg.nucleus.GenericService;
+import atg.nucleus.ServiceException;
+import atg.nucleus.logging.LogListener;
+import atg.repository.MutableRepository;
+import atg.repository.RepositoryException;
+import atg.repository.RepositoryItem;
+import atg.repository.RepositoryView;
+import atg.service.email.SMTPEmailSender;
+import atg.service.scheduler.Schedulable;
+import atg.service.scheduler.Schedule;
+import atg.service.scheduler.ScheduledJob;
+import atg.service.scheduler.Scheduler;
+
+/**
+ * The Class CryptoEngineRegistry hosts many {@link CryptoEngine}s in one component, one per crypto engine identifier,
+ * for deployments with a key per field or per site.
+ *
+ * Every cryptoEngine item of the crypto repository is loaded with a single query at startup, and again by the one
+ * scheduled job which reloads the keys and checks the key expiration of every hosted engine. The engines share one
+ * bulk pool instead of a pool each, and the engine settings of this component. A CryptoPropertyDescriptor refers to
+ * a hosted engine with the cryptoEngineRegistry and cryptoEngineIdentifier attributes.
+ */
+public class CryptoEngineRegistry extends GenericService implements Schedulable {
+
+	/** The crypto repository. */
+	private MutableRepository mCryptoRepository;
+
+	/** The identifiers of the engines to host, every engine of the crypto repository if empty. */
+	private String[] mCryptoEngineIdentifiers;
+
+	/** The key passphrase of every hosted engine. */
+	private String mKeyPassphrase;
+
+	/** The cipher mode used to encrypt new values, either pbe, derivedKey or gcm. */
+	private String mCipherMode = CryptoConstants.CIPHER_MODE_PBE;
+
+	/** The number of iterations used to derive the data key in the derivedKey cipher mode. */
+	private int mKeyDerivationIterations = CryptoConstants.DEFAULT_KEY_DERIVATION_ITERATIONS;
+
+	/** The number of stripes in the cipher pool of each engine, if less than one the number of processors is used. */
+	private int mCipherPoolSize;
+
+	/** The flag to load the keys of the engines in the background, in parallel. */
+	private boolean mBackgroundStartup;
+
+	/** The number of encrypt and decrypt round trips run by each engine at startup, 0 to not pre-warm. */
+	private int mPrewarmIterations;
+
+	/** The Scheduler. */
+	private Scheduler mScheduler;
+
+	/** The Schedule. */
+	private Schedule mSchedule;
+
+	/** The Job id for the scheduler. */
+	private int mJobId;
+
+	/** The Check key expiration flag. */
+	private boolean mCheckKeyExpiration;
+
+	/** The Key expiration days. */
+	private int mKeyExpirationDays;
+
+	/** The Key expiration notification days. */
+	private int mKeyExpirationNotificationDays;
+
+	/** The Key expiration notification email. */
+	private String mKeyExpirationNotificaitonEmail;
+
+	/** The SMTP email sender component. */
+	private SMTPEmailSender mSMTPEmailSender;
+
+	/** The hosted engines, by identifier. */
+	private volatile Map<String, CryptoEngine> mEngines = Collections.emptyMap();
+
+	/** The crypto engine items of the last load, by identifier. */
+	private volatile Map<String, RepositoryItem> mCryptoEngineItems = Collections.emptyMap();
+
+	/** The fork-join pool shared by the bulk encrypt and decrypt batches of every hosted engine. */
+	private ForkJoinPool mBulkPool;
+
+	/**
+	 * Do start service.
+	 *
+	 * @throws ServiceException
+	 *             the service exception
+	 * @see atg.nucleus.GenericService#doStartService()
+	 */
+	@Override
+	public void doStartService() throws ServiceException {
+		// Validate required properties
+		if (getCryptoRepository() == null) {
+			if (isLoggingError()) {
+				logError("CryptoEngineRegistry.doStartService: " + "CryptoRepository was null.");
+			}
+			throw new ServiceException("CryptoRepository was null.");
+		}
+		if (getKeyPassphrase() == null) {
+			if (isLoggingError()) {
+				logError("CryptoEngineRegistry.doStartService: " + "KeyPassphrase was null.");
+			}
+			throw new ServiceException("KeyPassphrase was null.");
+		}
+
+		CryptoProviders.registerBouncyCastle();
+		try {
+			this.mCryptoEngineItems = loadCryptoEngineItems();
+		} catch (RepositoryException e) {
+			if (isLoggingError()) {
+				logError("CryptoEngineRegistry.doStartService: " + "unable to load the crypto engine items.", e);
+			}
+			throw new ServiceException("Unable to load the crypto engine items.");
+		}
+
+		int poolSize = getCipherPoolSize() < 1 ? Runtime.getRuntime().availableProcessors() : getCipherPoolSize();
+		this.mBulkPool = new ForkJoinPool(poolSize);
+		Set<String> identifiers = this.mCryptoEngineItems.keySet();
+		if (getCryptoEngineIdentifiers() != null && getCryptoEngineIdentifiers().length > 0) {
+			identifiers = new LinkedHashSet<String>(Arrays.asList(getCryptoEngineIdentifiers()));
+		}
+		Map<String, CryptoEngine> engines = new LinkedHashMap<String, CryptoEngine>();
+		for (String identifier : identifiers) {
+			CryptoEngine engine = createEngine(identifier);
+			try {
+				engine.startService();
+				engines.put(identifier, engine);
+			} catch (ServiceException e) {
+				if (isLoggingError()) {
+					logError("CryptoEngineRegistry.doStartService: " + "unable to start crypto engine: " + identifier,
+							e);
+				}
+			}
+		}
+		this.mEngines = Collections.unmodifiableMap(engines);
+		if (isLoggingInfo()) {
+			logInfo("CryptoEngineRegistry.doStartService: " + "hosting crypto engines: " + engines.keySet());
+		}
+
+		// Setup one scheduled job for every hosted engine
+		ScheduledJob job = new ScheduledJob("SR:CryptoRegistry", "Reloads the keys and checks the key expiration"
+				+ " status of the Spark::red encryptors: " + engines.keySet(), getAbsoluteName(), getSchedule(), this,
+				ScheduledJob.SCHEDULER_THREAD);
+		setJobId(getScheduler().addScheduledJob(job));
+	}
+
+	/**
+	 * Creates an engine hosted by this registry, with the engine settings of this registry.
+	 *
+	 * @param pIdentifier
+	 *            the crypto engine identifier
+	 * @return the engine, not started
+	 */
+	private CryptoEngine createEngine(String pIdentifier) {
+		CryptoEngine engine = new CryptoEngine();
+		engine.setRegistry(this);
+		engine.setCryptoRepository(getCryptoRepository());
+		engine.setCryptoEngineIdentifier(pIdentifier);
+		engine.setCryptoEngineDescription("Crypto Engine " + pIdentifier + " of " + getAbsoluteName());
+		engine.setKeyPassphrase(getKeyPassphrase());
+		engine.setCipherMode(getCipherMode());
+		engine.setKeyDerivationIterations(getKeyDerivationIterations());
+		engine.setCipherPoolSize(getCipherPoolSize());
+		engine.setBackgroundStartup(isBackgroundStartup());
+		engine.setPrewarmIterations(getPrewarmIterations());
+		engine.setCheckKeyExpiration(isCheckKeyExpiration());
+		engine.setKeyExpirationDays(getKeyExpirationDays());
+		engine.setKeyExpirationNotificationDays(getKeyExpirationNotificationDays());
+		engine.setKeyExpirationNotificaitonEmail(getKeyExpirationNotificaitonEmail());
+		engine.setSMTPEmailSender(getSMTPEmailSender());
+		// The engine is not a Nucleus component, it logs through the log listeners of this registry
+		engine.setLoggingError(isLoggingError());
+		engine.setLoggingWarning(isLoggingWarning());
+		engine.setLoggingInfo(isLoggingInfo());
+		engine.setLoggingDebug(isLoggingDebug());
+		for (LogListener listener : getLogListeners()) {
+			engine.addLogListener(listener);
+		}
+		return engine;
+	}
+
+	/**
+	 * Loads every crypto engine item of the crypto repository with a single query.
+	 *
+	 * @return the crypto engine items, by identifier
+	 * @throws RepositoryException
+	 *             the repository exception
+	 */
+	private Map<String, RepositoryItem> loadCryptoEngineItems() throws RepositoryException {
+		RepositoryView view = getCryptoRepository().getView(CryptoConstants.CRYPTO_ENGINE_ITEM_DESC);
+		RepositoryItem[] items = view.executeQuery(view.getQueryBuilder().createUnconstrainedQuery());
+		Map<String, RepositoryItem> cryptoEngineItems = new HashMap<String, RepositoryItem>();
+		if (items != null) {
+			for (RepositoryItem item : items) {
+				cryptoEngineItems.put(item.getRepositoryId(), item);
+			}
+		}
+		return cryptoEngineItems;
+	}
+
+	/**
+	 * Reloads every crypto engine item with a single query, then reloads the key ring and checks the key expiration of
+	 * every hosted engine.
+	 *
+	 * @param pArg0
+	 *            the arg0
+	 * @param pArg1
+	 *            the arg1
+	 * @see atg.service.scheduler.Schedulable#performScheduledTask(atg.service.scheduler.Scheduler,
+	 *      atg.service.scheduler.ScheduledJob)
+	 */
+	public void performScheduledTask(Scheduler pArg0, ScheduledJob pArg1) {
+		try {
+			this.mCryptoEngineItems = loadCryptoEngineItems();
+		} catch (RepositoryException e) {
+			if (isLoggingError()) {
+				logError("CryptoEngineRegistry.performScheduledTask: " + "unable to load the crypto engine items, each"
+						+ " engine loads its own.", e);
+			}
+			this.mCryptoEngineItems = Collections.emptyMap();
+		}
+		for (Map.Entry<String, CryptoEngine> entry : this.mEngines.entrySet()) {
+			entry.getValue().performScheduledTask(this.mCryptoEngineItems.get(entry.getKey()));
+		}
+	}
+
+	/**
+	 * Do stop service.
+	 *
+	 * @throws ServiceException
+	 *             the service exception
+	 * @see atg.nucleus.GenericService#doStopService()
+	 */
+	@Override
+	public void doStopService() throws ServiceException {
+		getScheduler().removeScheduledJob(getJobId());
+		for (Map.Entry<String, CryptoEngine> entry : this.mEngines.entrySet()) {
+			try {
+				entry.getValue().stopService();
+			} catch (ServiceException e) {
+				if (isLoggingError()) {
+					logError("CryptoEngineRegistry.doStopService: " + "unable to stop crypto engine: "
+							+ entry.getKey(), e);
+				}
+			}
+		}
+		this.mEngines = Collections.emptyMap();
+		this.mCryptoEngineItems = Collections.emptyMap();
+		if (this.mBulkPool != null) {
+			this.mBulkPool.shutdown();
+			this.mBulkPool = null;
+		}
+	}
+
+	/**
+	 * Gets a hosted engine.
+	 *
+	 * @param pIdentifier
+	 *            the crypto engine identifier
+	 * @return the engine, or null if this registry does not host it
+	 */
+	public CryptoEngine getEngine(String pIdentifier) {
+		return this.mEngines.get(pIdentifier);
+	}
+
+	/**
+	 * Gets the identifiers of the hosted engines.
+	 *
+	 * @return the engine identifiers
+	 */
+	public Set<String> getEngineIdentifiers() {
+		return this.mEngines.keySet();
+	}
+
+	/**
+	 * Gets the crypto engine item of the last load.
+	 *
+	 * @param pIdentifier
+	 *            the crypto engine identifier
+	 * @return the crypto engine item, or null if there was none
+	 */
+	RepositoryItem getCryptoEngineItem(String pIdentifier) {
+		return this.mCryptoEngineItems.get(pIdentifier);
+	}
+
+	/**
+	 * Gets the bulk pool shared by the hosted engines.
+	 *
+	 * @return the bulk pool
+	 */
+	ForkJoinPool getBulkPool() {
+		return this.mBulkPool;
+	}
+
+	/**
+	 * Gets the crypto repository.
+	 *
+	 * @return the crypto repository
+	 */
+	public MutableRepository getCryptoRepository() {
+		return mCryptoRepository;
+	}
+
+	/**
+	 * Sets the crypto repository.
+	 *
+	 * @param pCryptoRepository
+	 *            the new crypto repository
+	 */
+	public void setCryptoRepository(MutableRepository pCryptoRepository) {
+		mCryptoRepository = pCryptoRepository;
+	}
+
+	/**
+	 * Gets the crypto engine identifiers.
+	 *
+	 * @return the identifiers of the engines to host
+	 */
+	public String[] getCryptoEngineIdentifiers() {
+		return mCryptoEngineIdentifiers;
+	}
+
+	/**
+	 * Sets the identifiers of the engines to host. Engines which do not exist yet are initialized. If empty, every
+	 * engine of the crypto repository is hosted.
+	 *
+	 * @param pCryptoEngineIdentifiers
+	 *            the new crypto engine identifiers
+	 */
+	public void setCryptoEngineIdentifiers(String[] pCryptoEngineIdentifiers) {
+		mCryptoEngineIdentifiers = pCryptoEngineIdentifiers;
+	}
+
+	/**
+	 * Gets the key passphrase.
+	 *
+	 * @return the key passphrase
+	 */
+	public String getKeyPassphrase() {
+		return mKeyPassphrase;
+	}
+
+	/**
+	 * Sets the key passphrase of every hosted engine.
+	 *
+	 * @param pKeyPassphrase
+	 *            the new key passphrase
+	 */
+	public void setKeyPassphrase(String pKeyPassphrase) {
+		mKeyPassphrase = pKeyPassphrase;
+	}
+
+	/**
+	 * Gets the cipher mode.
+	 *
+	 * @return the cipher mode
+	 */
+	public String getCipherMode() {
+		return mCipherMode;
+	}
+
+	/**
+	 * Sets the cipher mode used by every hosted engine to encrypt new values, either pbe, derivedKey or gcm.
+	 *
+	 * @param pCipherMode
+	 *            the new cipher mode
+	 */
+	public void setCipherMode(String pCipherMode) {
+		mCipherMode = pCipherMode;
+	}
+
+	/**
+	 * Gets the key derivation iterations.
+	 *
+	 * @return the key derivation iterations
+	 */
+	public int getKeyDerivationIterations() {
+		return mKeyDerivationIterations;
+	}
+
+	/**
+	 * Sets the key derivation iterations.
+	 *
+	 * @param pKeyDerivationIterations
+	 *            the new key derivation iterations
+	 */
+	public void setKeyDerivationIterations(int pKeyDerivationIterations) {
+		mKeyDerivationIterations = pKeyDerivationIterations;
+	}
+
+	/**
+	 * Gets the cipher pool size.
+	 *
+	 * @return the cipher pool size
+	 */
+	public int getCipherPoolSize() {
+		return mCipherPoolSize;
+	}
+
+	/**
+	 * Sets the number of cipher stripes of each engine, and the parallelism of the shared bulk pool.
+	 *
+	 * @param pCipherPoolSize
+	 *            the new cipher pool size, if less than one the number of available processors is used
+	 */
+	public void setCipherPoolSize(int pCipherPoolSize) {
+		mCipherPoolSize = pCipherPoolSize;
+	}
+
+	/**
+	 * Checks if the keys of the engines are loaded in the background.
+	 *
+	 * @return true, if the engines start in the background
+	 */
+	public boolean isBackgroundStartup() {
+		return mBackgroundStartup;
+	}
+
+	/**
+	 * Sets the flag to load the keys of the engines in the background, in parallel.
+	 *
+	 * @param pBackgroundStartup
+	 *            the new background startup flag
+	 */
+	public void setBackgroundStartup(boolean pBackgroundStartup) {
+		mBackgroundStartup = pBackgroundStartup;
+	}
+
+	/**
+	 * Gets the prewarm iterations.
+	 *
+	 * @return the number of round trips run by each engine at startup, 0 to not pre-warm
+	 */
+	public int getPrewarmIterations() {
+		return mPrewarmIterations;
+	}
+
+	/**
+	 * Sets the prewarm iterations.
+	 *
+	 * @param pPrewarmIterations
+	 *            the new prewarm iterations, 0 to not pre-warm
+	 */
+	public void setPrewarmIterations(int pPrewarmIterations) {
+		mPrewarmIterations = pPrewarmIterations;
+	}
+
+	/**
+	 * Gets the scheduler.
+	 *
+	 * @return the scheduler
+	 */
+	public Scheduler getScheduler() {
+		return mScheduler;
+	}
+
+	/**
+	 * Sets the scheduler.
+	 *
+	 * @param pScheduler
+	 *            the new scheduler
+	 */
+	public void setScheduler(Scheduler pScheduler) {
+		mScheduler = pScheduler;
+	}
+
+	/**
+	 * Gets the schedule.
+	 *
+	 * @return the schedule
+	 */
+	public Schedule getSchedule() {
+		return mSchedule;
+	}
+
+	/**
+	 * Sets the schedule.
+	 *
+	 * @param pSchedule
+	 *            the new schedule
+	 */
+	public void setSchedule(Schedule pSchedule) {
+		mSchedule = pSchedule;
+	}
+
+	/**
+	 * Gets the job id.
+	 *
+	 * @return the job id
+	 */
+	public int getJobId() {
+		return mJobId;
+	}
+
+	/**
+	 * Sets the job id.
+	 *
+	 * @param pJobId
+	 *            the new job id
+	 */
+	public void setJobId(int pJobId) {
+		mJobId = pJobId;
+	}
+
+	/**
+	 * Checks if the key expiration is checked.
+	 *
+	 * @return true, if the key expiration of every hosted engine is checked
+	 */
+	public boolean isCheckKeyExpiration() {
+		return mCheckKeyExpiration;
+	}
+
+	/**
+	 * Sets the check key expiration flag.
+	 *
+	 * @param pCheckKeyExpiration
+	 *            the new check key expiration flag
+	 */
+	public void setCheckKeyExpiration(boolean pCheckKeyExpiration) {
+		mCheckKeyExpiration = pCheckKeyExpiration;
+	}
+
+	/**
+	 * Gets the key expiration days.
+	 *
+	 * @return the key expiration days
+	 */
+	public int getKeyExpirationDays() {
+		return mKeyExpirationDays;
+	}
+
+	/**
+	 * Sets the key expiration days.
+	 *
+	 * @param pKeyExpirationDays
+	 *            the new key expiration days
+	 */
+	public void setKeyExpirationDays(int pKeyExpirationDays) {
+		mKeyExpirationDays = pKeyExpirationDays;
+	}
+
+	/**
+	 * Gets the key expiration notification days.
+	 *
+	 * @return the key expiration notification days
+	 */
+	public int getKeyExpirationNotificationDays() {
+		return mKeyExpirationNotificationDays;
+	}
+
+	/**
+	 * Sets the key expiration notification days.
+	 *
+	 * @param pKeyExpirationNotificationDays
+	 *            the new key expiration notification days
+	 */
+	public void setKeyExpirationNotificationDays(int pKeyExpirationNotificationDays) {
+		mKeyExpirationNotificationDays = pKeyExpirationNotificationDays;
+	}
+
+	/**
+	 * Gets the key expiration notificaiton email.
+	 *
+	 * @return the key expiration notificaiton email
+	 */
+	public String getKeyExpirationNotificaitonEmail() {
+		return mKeyExpirationNotificaitonEmail;
+	}
+
+	/**
+	 * Sets the key expiration notificaiton email, named as on the CryptoEngine.
+	 *
+	 * @param pKeyExpirationNotificaitonEmail
+	 *            the new key expiration notificaiton email
+	 */
+	public void setKeyExpirationNotificaitonEmail(String pKeyExpirationNotificaitonEmail) {
+		mKeyExpirationNotificaitonEmail = pKeyExpirationNotificaitonEmail;
+	}
+
+	/**
+	 * Gets the SMTP email sender.
+	 *
+	 * @return the SMTP email sender
+	 */
+	public SMTPEmailSender getSMTPEmailSender() {
+		return mSMTPEmailSender;
+	}
+
+	/**
+	 * Sets the SMTP email sender.
+	 *
+	 * @param pSMTPEmailSender
+	 *            the new SMTP email sender
+	 */
+	public void setSMTPEmailSender(SMTPEmailSender pSMTPEmailSender) {
+		mSMTPEmailSender = pSMTPEmailSender;
+	}
+
+}
@@ -0,0 +1,627 @@
+/*
+ * Please read the README.md and LICENSE.md files contained in this repository or module.
+ *
+ * Please contact sales@sparkred.com or support@sparkred.com if you have any questions.
+ *
+ * This code is copyright Spark::red https://www.sparkred.com 2007-2016, all right reserved.
+ */
+package com.sparkred.crypto;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The Class CryptoMetrics records the latency of every encrypt and decrypt of a {@link CryptoEngine}, the values
+ * which failed, and the time threads waited for their cipher pool stripe. It is read from the engine's metrics
+ * property in the Dynamo admin, or over JMX.
+ *
+ * The {@link CryptoPropertyDescriptor}s using the engine also count their reads and writes here, per repository
+ * property, together with the decrypt storms they detect, so that the code reading a property far more often than
+ * needed can be found.
+ *
+ * Recording takes two System.nanoTime calls and a few lock-free additions to counters striped by thread, so it does
+ * not add contention between request threads. Reading sums the stripes, so values recorded while they are read may
+ * or may not be included.
+ */
+public class CryptoMetrics implements CryptoMetricsMBean, Serializable {
+
+	/**
+	 * Generated serial version UID.
+	 */
+	private static final long serialVersionUID = -6330146906467405282L;
+
+	/** The number of nanoseconds in a microsecond, as a double. */
+	private static final double NANOS_PER_MICRO = TimeUnit.MICROSECONDS.toNanos(1);
+
+	/**
+	 * The operations whose latency is recorded.
+	 */
+	public enum Operation {
+
+		/** Encrypting a value. */
+		ENCRYPT,
+
+		/** Decrypting a value. */
+		DECRYPT
+	}
+
+	/** The latencies of each operation which succeeded. */
+	private final LatencyHistogram[] mLatencies = new LatencyHistogram[Operation.values().length];
+
+	/** The number of failures of each operation. */
+	private final StripedCounter[] mFailures = new StripedCounter[Operation.values().length];
+
+	/** The number of times a thread had to wait for a stripe, every stripe being taken. */
+	private final StripedCounter mStripeWaits = new StripedCounter();
+
+	/** The time threads waited for their stripe, in nanoseconds. */
+	private final StripedCounter mStripeWaitNanos = new StripedCounter();
+
+	/** The time of the last reset, from System.nanoTime. */
+	private volatile long mResetNanos = System.nanoTime();
+
+	/** The metrics of each repository property, keyed by repository:item-descriptor.property. */
+	private final ConcurrentMap<String, PropertyMetrics> mPropertyMetrics =
+			new ConcurrentHashMap<String, PropertyMetrics>();
+
+	/**
+	 * Instantiates new metrics.
+	 */
+	public CryptoMetrics() {
+		for (int i = 0; i < this.mLatencies.length; i++) {
+			this.mLatencies[i] = new LatencyHistogram();
+			this.mFailures[i] = new StripedCounter();
+		}
+	}
+
+	/**
+	 * Records an operation which succeeded.
+	 *
+	 * @param pOperation
+	 *            the operation
+	 * @param pStartNanos
+	 *            the start of the operation, from System.nanoTime
+	 */
+	public void recordSuccess(Operation pOperation, long pStartNanos) {
+		this.mLatencies[pOperation.ordinal()].record(System.nanoTime() - pStartNanos);
+	}
+
+	/**
+	 * Records an operation which failed. Its latency is not recorded.
+	 *
+	 * @param pOperation
+	 *            the operation
+	 */
+	public void recordFailure(Operation pOperation) {
+		this.mFailures[pOperation.ordinal()].increment();
+	}
+
+	/**
+	 * Records a wait for a cipher pool stripe.
+	 *
+	 * @param pNanos
+	 *            the time waited, in nanoseconds
+	 */
+	public void recordStripeWait(long pNanos) {
+		this.mStripeWaits.increment();
+		this.mStripeWaitNanos.add(pNanos);
+	}
+
+	/**
+	 * Resets every counter and histogram. Operations recorded during the reset may be lost.
+	 */
+	public void reset() {
+		for (int i = 0; i < this.mLatencies.length; i++) {
+			this.mLatencies[i].reset();
+			this.mFailures[i].reset();
+		}
+		this.mStripeWaits.reset();
+		this.mStripeWaitNanos.reset();
+		for (PropertyMetrics propertyMetrics : this.mPropertyMetrics.values()) {
+			propertyMetrics.reset();
+		}
+		this.mResetNanos = System.nanoTime();
+	}
+
+	/**
+	 * Gets the metrics of a repository property, adding them on first use.
+	 *
+	 * @param pProperty
+	 *            the property, as repository:item-descriptor.property
+	 * @return the property metrics
+	 */
+	public PropertyMetrics getPropertyMetrics(String pProperty) {
+		PropertyMetrics propertyMetrics = this.mPropertyMetrics.get(pProperty);
+		if (propertyMetrics == null) {
+			propertyMetrics = new PropertyMetrics(pProperty);
+			PropertyMetrics existing = this.mPropertyMetrics.putIfAbsent(pProperty, propertyMetrics);
+			if (existing != null) {
+				propertyMetrics = existing;
+			}
+		}
+		return propertyMetrics;
+	}
+
+	/**
+	 * Gets a one line status per repository property, the most decrypted first.
+	 *
+	 * @return the property status lines
+	 */
+	public String[] getPropertyStatus() {
+		List<PropertyMetrics> propertyMetrics = new ArrayList<PropertyMetrics>(this.mPropertyMetrics.values());
+		Collections.sort(propertyMetrics, new Comparator<PropertyMetrics>() {
+			public int compare(PropertyMetrics pFirst, PropertyMetrics pSecond) {
+				long first = pFirst.getDecrypts();
+				long second = pSecond.getDecrypts();
+				return first > second ? -1 : first < second ? 1 : 0;
+			}
+		});
+		String[] status = new String[propertyMetrics.size()];
+		for (int i = 0; i < status.length; i++) {
+			status[i] = propertyMetrics.get(i).toString();
+		}
+		return status;
+	}
+
+	/**
+	 * Gets the number of operations which succeeded.
+	 *
+	 * @param pOperation
+	 *            the operation
+	 * @return the count
+	 */
+	public long getCount(Operation pOperation) {
+		return this.mLatencies[pOperation.ordinal()].getCount();
+	}
+
+	/**
+	 * Gets the number of operations which failed.
+	 *
+	 * @param pOperation
+	 *            the operation
+	 * @return the failures
+	 */
+	public long getFailures(Operation pOperation) {
+		return this.mFailures[pOperation.ordinal()].sum();
+	}
+
+	/**
+	 * Gets the number of operations which succeeded per second.
+	 *
+	 * @param pOperation
+	 *            the operation
+	 * @return the operations per second
+	 */
+	public double getPerSecond(Operation pOperation) {
+		long elapsedNanos = System.nanoTime() - this.mResetNanos;
+		return elapsedNanos <= 0 ? 0 : getCount(pOperation) * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+	}
+
+	/**
+	 * Gets the mean latency of the operations which succeeded.
+	 *
+	 * @param pOperation
+	 *            the operation
+	 * @return the mean in microseconds
+	 */
+	public double getMeanMicros(Operation pOperation) {
+		return this.mLatencies[pOperation.ordinal()].getMeanNanos() / NANOS_PER_MICRO;
+	}
+
+	/**
+	 * Gets a percentile of the latency of the operations which succeeded.
+	 *
+	 * @param pOperation
+	 *            the operation
+	 * @param pFraction
+	 *            the fraction, 0.99 for the 99th percentile
+	 * @return the percentile in microseconds
+	 */
+	public double getPercentileMicros(Operation pOperation, double pFraction) {
+		return this.mLatencies[pOperation.ordinal()].getPercentileNanos(pFraction) / NANOS_PER_MICRO;
+	}
+
+	/**
+	 * Gets the number of values encrypted.
+	 *
+	 * @return the encrypt count
+	 */
+	public long getEncryptCount() {
+		return getCount(Operation.ENCRYPT);
+	}
+
+	/**
+	 * Gets the number of values which could not be encrypted.
+	 *
+	 * @return the encrypt failures
+	 */
+	public long getEncryptFailures() {
+		return getFailures(Operation.ENCRYPT);
+	}
+
+	/**
+	 * Gets the number of values encrypted per second.
+	 *
+	 * @return the encrypts per second
+	 */
+	public double getEncryptsPerSecond() {
+		return getPerSecond(Operation.ENCRYPT);
+	}
+
+	/**
+	 * Gets the mean encrypt latency.
+	 *
+	 * @return the mean in microseconds
+	 */
+	public double getEncryptMeanMicros() {
+		return getMeanMicros(Operation.ENCRYPT);
+	}
+
+	/**
+	 * Gets the median encrypt latency.
+	 *
+	 * @return the 50th percentile in microseconds
+	 */
+	public double getEncryptP50Micros() {
+		return getPercentileMicros(Operation.ENCRYPT, 0.5);
+	}
+
+	/**
+	 * Gets the 99th percentile of the encrypt latency.
+	 *
+	 * @return the 99th percentile in microseconds
+	 */
+	public double getEncryptP99Micros() {
+		return getPercentileMicros(Operation.ENCRYPT, 0.99);
+	}
+
+	/**
+	 * Gets the 99.9th percentile of the encrypt latency.
+	 *
+	 * @return the 99.9th percentile in microseconds
+	 */
+	public double getEncryptP999Micros() {
+		return getPercentileMicros(Operation.ENCRYPT, 0.999);
+	}
+
+	/**
+	 * Gets the number of values decrypted.
+	 *
+	 * @return the decrypt count
+	 */
+	public long getDecryptCount() {
+		return getCount(Operation.DECRYPT);
+	}
+
+	/**
+	 * Gets the number of values which could not be decrypted.
+	 *
+	 * @return the decrypt failures
+	 */
+	public long getDecryptFailures() {
+		return getFailures(Operation.DECRYPT);
+	}
+
+	/**
+	 * Gets the number of values decrypted per second.
+	 *
+	 * @return the decrypts per second
+	 */
+	public double getDecryptsPerSecond() {
+		return getPerSecond(Operation.DECRYPT);
+	}
+
+	/**
+	 * Gets the mean decrypt latency.
+	 *
+	 * @return the mean in microseconds
+	 */
+	public double getDecryptMeanMicros() {
+		return getMeanMicros(Operation.DECRYPT);
+	}
+
+	/**
+	 * Gets the median decrypt latency.
+	 *
+	 * @return the 50th percentile in microseconds
+	 */
+	public double getDecryptP50Micros() {
+		return getPercentileMicros(Operation.DECRYPT, 0.5);
+	}
+
+	/**
+	 * Gets the 99th percentile of the decrypt latency.
+	 *
+	 * @return the 99th percentile in microseconds
+	 */
+	public double getDecryptP99Micros() {
+		return getPercentileMicros(Operation.DECRYPT, 0.99);
+	}
+
+	/**
+	 * Gets the 99.9th percentile of the decrypt latency.
+	 *
+	 * @return the 99.9th percentile in microseconds
+	 */
+	public double getDecryptP999Micros() {
+		return getPercentileMicros(Operation.DECRYPT, 0.999);
+	}
+
+	/**
+	 * Gets the number of times a thread had to wait for its cipher pool stripe.
+	 *
+	 * @return the stripe wait count
+	 */
+	public long getStripeWaitCount() {
+		return this.mStripeWaits.sum();
+	}
+
+	/**
+	 * Gets the time threads spent waiting for their cipher pool stripe, summed over every thread.
+	 *
+	 * @return the stripe wait time in milliseconds
+	 */
+	public long getStripeWaitMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(this.mStripeWaitNanos.sum());
+	}
+
+	/**
+	 * Gets the number of seconds since the metrics were last reset.
+	 *
+	 * @return the elapsed seconds
+	 */
+	public long getElapsedSeconds() {
+		return TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - this.mResetNanos);
+	}
+
+	/**
+	 * Returns the counts, rates and latency percentiles of both operations, for the Dynamo admin and logging.
+	 *
+	 * @return the string
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return format(Operation.ENCRYPT) + "; " + format(Operation.DECRYPT) + "; stripe waits: "
+				+ getStripeWaitCount() + ", stripe wait ms: " + getStripeWaitMillis() + ", elapsed s: "
+				+ getElapsedSeconds();
+	}
+
+	/**
+	 * Formats the counts, rate and latency percentiles of an operation.
+	 *
+	 * @param pOperation
+	 *            the operation
+	 * @return the formatted operation metrics
+	 */
+	private String format(Operation pOperation) {
+		return String.format("%s: %d, failed: %d, ops/s: %.1f, mean: %.1fus, p50: %.1fus, p99: %.1fus, p999: %.1fus",
+				pOperation.name().toLowerCase(), Long.valueOf(getCount(pOperation)),
+				Long.valueOf(getFailures(pOperation)), Double.valueOf(getPerSecond(pOperation)),
+				Double.valueOf(getMeanMicros(pOperation)), Double.valueOf(getPercentileMicros(pOperation, 0.5)),
+				Double.valueOf(getPercentileMicros(pOperation, 0.99)),
+				Double.valueOf(getPercentileMicros(pOperation, 0.999)));
+	}
+
+	/**
+	 * The Class PropertyMetrics counts the reads and writes of one encrypted repository property.
+	 */
+	public static final class PropertyMetrics implements Serializable {
+
+		/**
+		 * Generated serial version UID.
+		 */
+		private static final long serialVersionUID = 3304772981465092716L;
+
+		/** The property, as repository:item-descriptor.property. */
+		private final String mProperty;
+
+		/** The values decrypted. */
+		private final StripedCounter mDecrypts = new StripedCounter();
+
+		/** The values read from the transaction decrypt cache. */
+		private final StripedCounter mCacheHits = new StripedCounter();
+
+		/** The values encrypted. */
+		private final StripedCounter mEncrypts = new StripedCounter();
+
+		/** The values which did not decrypt and were returned as stored, as plain text. */
+		private final StripedCounter mFallbacks = new StripedCounter();
+
+		/** The values which did not decrypt with the key of their key id. */
+		private final StripedCounter mFailures = new StripedCounter();
+
+		/** The decrypt storms detected. */
+		private final StripedCounter mStorms = new StripedCounter();
+
+		/** The time of the last stack trace captured, from System.nanoTime, 0 if none was. */
+		private final AtomicLong mLastTraceNanos = new AtomicLong();
+
+		/** The last stack trace captured. */
+		private volatile String mLastStormTrace;
+
+		/**
+		 * Instantiates new property metrics.
+		 *
+		 * @param pProperty
+		 *            the property, as repository:item-descriptor.property
+		 */
+		PropertyMetrics(String pProperty) {
+			this.mProperty = pProperty;
+		}
+
+		/**
+		 * Counts a value decrypted.
+		 */
+		public void decrypted() {
+			this.mDecrypts.increment();
+		}
+
+		/**
+		 * Counts a value read from the transaction decrypt cache.
+		 */
+		public void cacheHit() {
+			this.mCacheHits.increment();
+		}
+
+		/**
+		 * Counts a value encrypted.
+		 */
+		public void encrypted() {
+			this.mEncrypts.increment();
+		}
+
+		/**
+		 * Counts a value which did not decrypt and was returned as stored.
+		 */
+		public void fellBack() {
+			this.mFallbacks.increment();
+		}
+
+		/**
+		 * Counts a value which did not decrypt with the key of its key id.
+		 */
+		public void failed() {
+			this.mFailures.increment();
+		}
+
+		/**
+		 * Counts a decrypt storm.
+		 */
+		public void stormDetected() {
+			this.mStorms.increment();
+		}
+
+		/**
+		 * Checks if a stack trace should be captured for a storm, at most once per interval for this property.
+		 *
+		 * @param pNowNanos
+		 *            the current time, from System.nanoTime
+		 * @param pIntervalNanos
+		 *            the shortest time between two stack traces
+		 * @return true, if the caller should capture the stack trace
+		 */
+		public boolean sampleTrace(long pNowNanos, long pIntervalNanos) {
+			long lastTraceNanos = this.mLastTraceNanos.get();
+			if (lastTraceNanos != 0 && pNowNanos - lastTraceNanos < pIntervalNanos) {
+				return false;
+			}
+			return this.mLastTraceNanos.compareAndSet(lastTraceNanos, pNowNanos);
+		}
+
+		/**
+		 * Resets the counters. The last stack trace is kept.
+		 */
+		void reset() {
+			this.mDecrypts.reset();
+			this.mCacheHits.reset();
+			this.mEncrypts.reset();
+			this.mFallbacks.reset();
+			this.mFailures.reset();
+			this.mStorms.reset();
+		}
+
+		/**
+		 * Gets the property.
+		 *
+		 * @return the property, as repository:item-descriptor.property
+		 */
+		public String getProperty() {
+			return this.mProperty;
+		}
+
+		/**
+		 * Gets the number of values decrypted.
+		 *
+		 * @return the decrypts
+		 */
+		public long getDecrypts() {
+			return this.mDecrypts.sum();
+		}
+
+		/**
+		 * Gets the number of values read from the transaction decrypt cache.
+		 *
+		 * @return the cache hits
+		 */
+		public long getCacheHits() {
+			return this.mCacheHits.sum();
+		}
+
+		/**
+		 * Gets the number of values encrypted.
+		 *
+		 * @return the encrypts
+		 */
+		public long getEncrypts() {
+			return this.mEncrypts.sum();
+		}
+
+		/**
+		 * Gets the number of values which did not decrypt and were returned as stored.
+		 *
+		 * @return the fallbacks
+		 */
+		public long getFallbacks() {
+			return this.mFallbacks.sum();
+		}
+
+		/**
+		 * Gets the number of values which did not decrypt with the key of their key id.
+		 *
+		 * @return the failures
+		 */
+		public long getFailures() {
+			return this.mFailures.sum();
+		}
+
+		/**
+		 * Gets the number of decrypt storms detected.
+		 *
+		 * @return the storms
+		 */
+		public long getStorms() {
+			return this.mStorms.sum();
+		}
+
+		/**
+		 * Gets the last stack trace captured for a decrypt storm.
+		 *
+		 * @return the stack trace, null if none was captured
+		 */
+		public String getLastStormTrace() {
+			return this.mLastStormTrace;
+		}
+
+		/**
+		 * Sets the last stack trace captured for a decrypt storm.
+		 *
+		 * @param pLastStormTrace
+		 *            the stack trace
+		 */
+		public void setLastStormTrace(String pLastStormTrace) {
+			this.mLastStormTrace = pLastStormTrace;
+		}
+
+		/**
+		 * Returns the counts of the property.
+		 *
+		 * @return the string
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return this.mProperty + ": decrypts " + getDecrypts() + ", cache hits " + getCacheHits() + ", encrypts "
+					+ getEncrypts() + ", fallbacks " + getFallbacks() + ", failures " + getFailures() + ", storms "
+					+ getStorms();
+		}
+	}
+
+}
@@ -0,0 +1,147 @@
+/*
+ * Please read the README.md and LICENSE.md files contained in this repository or module.
+ *
+ * Please contact sales@sparkred.com or support@sparkred.com if you have any questions.
+ *
+ * This code is copyright Spark::red https://www.sparkred.com 2007-2016, all right reserved.
+ */
+package com.sparkred.crypto;
+
+/**
+ * The Interface CryptoMetricsMBean is the JMX view of the {@link CryptoMetrics} of a {@link CryptoEngine}. Latencies
+ * are in microseconds, and every value covers the time since the metrics were last reset.
+ */
+public interface CryptoMetricsMBean {
+
+	/**
+	 * Gets the number of values encrypted.
+	 *
+	 * @return the encrypt count
+	 */
+	long getEncryptCount();
+
+	/**
+	 * Gets the number of values which could not be encrypted.
+	 *
+	 * @return the encrypt failures
+	 */
+	long getEncryptFailures();
+
+	/**
+	 * Gets the number of values encrypted per second.
+	 *
+	 * @return the encrypts per second
+	 */
+	double getEncryptsPerSecond();
+
+	/**
+	 * Gets the mean encrypt latency.
+	 *
+	 * @return the mean in microseconds
+	 */
+	double getEncryptMeanMicros();
+
+	/**
+	 * Gets the median encrypt latency.
+	 *
+	 * @return the 50th percentile in microseconds
+	 */
+	double getEncryptP50Micros();
+
+	/**
+	 * Gets the 99th percentile of the encrypt latency.
+	 *
+	 * @return the 99th percentile in microseconds
+	 */
+	double getEncryptP99Micros();
+
+	/**
+	 * Gets the 99.9th percentile of the encrypt latency.
+	 *
+	 * @return the 99.9th percentile in microseconds
+	 */
+	double getEncryptP999Micros();
+
+	/**
+	 * Gets the number of values decrypted.
+	 *
+	 * @return the decrypt count
+	 */
+	long getDecryptCount();
+
+	/**
+	 * Gets the number of values which could not be decrypted.
+	 *
+	 * @return the decrypt failures
+	 */
+	long getDecryptFailures();
+
+	/**
+	 * Gets the number of values decrypted per second.
+	 *
+	 * @return the decrypts per second
+	 */
+	double getDecryptsPerSecond();
+
+	/**
+	 * Gets the mean decrypt latency.
+	 *
+	 * @return the mean in microseconds
+	 */
+	double getDecryptMeanMicros();
+
+	/**
+	 * Gets the median decrypt latency.
+	 *
+	 * @return the 50th percentile in microseconds
+	 */
+	double getDecryptP50Micros();
+
+	/**
+	 * Gets the 99th percentile of the decrypt latency.
+	 *
+	 * @return the 99th percentile in microseconds
+	 */
+	double getDecryptP99Micros();
+
+	/**
+	 * Gets the 99.9th percentile of the decrypt latency.
+	 *
+	 * @return the 99.9th percentile in microseconds
+	 */
+	double getDecryptP999Micros();
+
+	/**
+	 * Gets the number of times a thread had to wait for its cipher pool stripe.
+	 *
+	 * @return the stripe wait count
+	 */
+	long getStripeWaitCount();
+
+	/**
+	 * Gets the time threads spent waiting for their cipher pool stripe, summed over every thread.
+	 *
+	 * @return the stripe wait time in milliseconds
+	 */
+	long getStripeWaitMillis();
+
+	/**
+	 * Gets the number of seconds since the metrics were last reset.
+	 *
+	 * @return the elapsed seconds
+	 */
+	long getElapsedSeconds();
+
+	/**
+	 * Gets a one line status per encrypted repository property, with its decrypts, cache hits, encrypts, fallbacks,
+	 * failures and decrypt storms, the most decrypted first.
+	 *
+	 * @return the property status lines
+	 */
+	String[] getPropertyStatus();
+
+	/**
+	 * Resets every counter and histogram.
+	 */
+	void reset();
+}
@@ -7,16 +7,40 @@
  */
 package com.sparkred.crypto;
 
+import java.io.PrintWriter;
 import java.io.Serializable;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.transaction.RollbackException;
+import javax.transaction.Status;
+import javax.transaction.SystemException;
+import javax.transaction.Transaction;
+import javax.transaction.TransactionManager;
+
+import org.jasypt.exceptions.EncryptionOperationNotPossibleException;
 
 import atg.adapter.gsa.GSAPropertyDescriptor;
 import atg.nucleus.Nucleus;
+import atg.repository.MutableRepository;
+import atg.repository.MutableRepositoryItem;
+import atg.repository.Query;
+import atg.repository.QueryBuilder;
+import atg.repository.Repository;
+import atg.repository.RepositoryException;
 import atg.repository.RepositoryImpl;
 import atg.repository.RepositoryItemDescriptor;
 import atg.repository.RepositoryItemImpl;
 
 /**
  * The Class CryptoPropertyDescriptor.
+ *
+ * The reads and writes of each property are counted in the metrics of its Crypto Engine. With a decrypt storm threshold
+ * set on the engine, a thread which decrypts that many values of encrypted properties within the storm window is
+ * counted as a decrypt storm on the property which reached it, and a sampled stack trace of the thread is logged.
  */
 public class CryptoPropertyDescriptor extends GSAPropertyDescriptor implements Serializable {
 
@@ -38,18 +62,114 @@ public class CryptoPropertyDescriptor extends GSAPropertyDescriptor implements S
 	 */
 	private static final String CRYPTO_ENGINE = "cryptoEngine";
 
+	/** The crypto engine registry component path attribute, used instead of cryptoEngine. */
+	private static final String CRYPTO_ENGINE_REGISTRY = "cryptoEngineRegistry";
+
+	/** The identifier of the engine of the crypto engine registry attribute. */
+	private static final String CRYPTO_ENGINE_IDENTIFIER = "cryptoEngineIdentifier";
+
+	/** The cipher mode attribute, overriding the cipher mode of the engine for the values of this property. */
+	private static final String CIPHER_MODE = "cipherMode";
+
 	/** The encrypt only attribute flag. */
 	private static final String ENCRYPT_ONLY = "encryptOnly";
 
+	/** The decrypt cache attribute flag. */
+	private static final String DECRYPT_CACHE = "decryptCache";
+
+	/** The decrypt cache size attribute. */
+	private static final String DECRYPT_CACHE_SIZE = "decryptCacheSize";
+
+	/** The last four digits shadow property attribute. */
+	private static final String LAST_FOUR_PROPERTY = "lastFourProperty";
+
+	/** The BIN shadow property attribute. */
+	private static final String BIN_PROPERTY = "binProperty";
+
+	/** The BIN length attribute. */
+	private static final String BIN_LENGTH = "binLength";
+
+	/** The masked value shadow property attribute. */
+	private static final String MASKED_PROPERTY = "maskedProperty";
+
+	/** The blind index shadow property attribute. */
+	private static final String BLIND_INDEX_PROPERTY = "blindIndexProperty";
+
+	/** The re-encrypt queue component path attribute. */
+	private static final String RE_ENCRYPT_QUEUE = "reEncryptQueue";
+
+	/** The default maximum number of decrypted values cached per transaction. */
+	private static final int DEFAULT_DECRYPT_CACHE_SIZE = 16;
+
+	/** The property decrypts of each thread in its current decrypt storm window. */
+	private static final ThreadLocal<DecryptWindow> THREAD_DECRYPTS = new ThreadLocal<DecryptWindow>() {
+		@Override
+		protected DecryptWindow initialValue() {
+			return new DecryptWindow();
+		}
+	};
+
 	/**
 	 * The Encryptor Component to use. This is set to a string to avoid serialization issues that impact the ACC.
 	 * https://www.sparkred.com/jira/browse/QSSPRT-128
 	 */
 	private String mCryptoEngineName;
 
+	/**
+	 * The Crypto Engine Registry component hosting the engine, used instead of the Crypto Engine component when set.
+	 * This is set to a string for the same reason as the Crypto Engine component.
+	 */
+	private String mCryptoEngineRegistryName;
+
+	/** The identifier of the engine in the Crypto Engine Registry. */
+	private String mCryptoEngineIdentifier;
+
+	/** The cipher suite new values of this property are encrypted with, null to use the cipher mode of the engine. */
+	private CipherSuite mCipherSuite;
+
+	/**
+	 * The Crypto Engine resolved from the name, cached so that property access does not resolve it through Nucleus
+	 * every time. It is transient for the same ACC serialization reason, and is resolved again after deserialization or
+	 * when the cached component is no longer running.
+	 */
+	private transient volatile CryptoEngine mCryptoEngine;
+
 	/** The encrypt only flag. */
 	private boolean mEncryptOnly = false;
 
+	/** The decrypt cache flag, to decrypt each value only once per transaction. */
+	private boolean mDecryptCache = false;
+
+	/** The maximum number of decrypted values cached per transaction. */
+	private int mDecryptCacheSize = DEFAULT_DECRYPT_CACHE_SIZE;
+
+	/** The name of the property which gets the last four digits written when this property is set. */
+	private String mLastFourProperty;
+
+	/** The name of the property which gets the BIN written when this property is set. */
+	private String mBinProperty;
+
+	/** The number of leading digits written to the BIN property. */
+	private int mBinLength = CardNumberMasker.DEFAULT_BIN_LENGTH;
+
+	/** The name of the property which gets the masked value written when this property is set. */
+	private String mMaskedProperty;
+
+	/** The name of the property which gets the blind index written when this property is set. */
+	private String mBlindIndexProperty;
+
+	/** The Nucleus name of the queue which re-encrypts values read with an older key, null to not re-encrypt them. */
+	private String mReEncryptQueueName;
+
+	/** The re-encrypt queue resolved from the name, transient for the same reason as the Crypto Engine. */
+	private transient volatile ReEncryptQueue mReEncryptQueue;
+
+	/** The decrypt caches of the transactions in progress. */
+	private transient volatile Map<Transaction, TransactionDecryptCache> mDecryptCaches;
+
+	/** The metrics of this property in the Crypto Engine's metrics, transient for the same reason as the engine. */
+	private transient volatile CryptoMetrics.PropertyMetrics mPropertyMetrics;
+
 	/**
 	 * Constructs a EncryptionPropertyDescriptor.
 	 */
@@ -58,12 +178,14 @@ public class CryptoPropertyDescriptor extends GSAPropertyDescriptor implements S
 	}
 
 	/**
-	 * Returns property Queryable.
+	 * Returns property Queryable. Every encrypted value carries a random salt, so a query comparing this property with
+	 * a plain text value would silently match nothing. Equality queries are made against the blind index property,
+	 * see {@link #createEqualityQuery(QueryBuilder, String)}.
 	 *
-	 * @return as the property is always queryable
+	 * @return false, as the property is never queryable
 	 */
 	public boolean isQueryable() {
-		return true;
+		return false;
 	}
 
 	/**
@@ -78,14 +200,107 @@ public class CryptoPropertyDescriptor extends GSAPropertyDescriptor implements S
 		if (pValue == null) {
 			return;
 		}
-		CryptoEngine cryptoEngine = (CryptoEngine) Nucleus.getGlobalNucleus().resolveName(this.mCryptoEngineName);
-		if (cryptoEngine == null) {
-			logError("Property Item Descriptor: " + getItemDescriptor().getItemDescriptorName() + "." + getName()
-					+ " not property configured.");
-			throw new NullPointerException("Crypto Engine not configured " + getItemDescriptor().getItemDescriptorName()
-					+ "." + getPropertyItemDescriptor().getItemDescriptorName());
+		String plainText = pValue.toString();
+		CryptoEngine cryptoEngine = getCryptoEngine();
+		if (this.mCipherSuite == null) {
+			super.setPropertyValue(pItem, cryptoEngine.encrypt(plainText));
+		} else {
+			super.setPropertyValue(pItem, cryptoEngine.encrypt(plainText, this.mCipherSuite));
+		}
+		getPropertyMetrics(cryptoEngine).encrypted();
+		setShadowPropertyValues(pItem, plainText);
+	}
+
+	/**
+	 * Creates a query matching the items whose value of this property equals the passed in plain text. Every encrypted
+	 * value carries a random salt, so a query on this property itself can never match, the query is made against the
+	 * blind index property instead. Values keep the blind index of the key they were written with until the RekeyEngine
+	 * re-indexes them, so the query matches the blind index of every key on the key ring. Values stored before the
+	 * blind index property was configured need to be backfilled by the RekeyEngine before they can be found.
+	 *
+	 * In RQL, use an INCLUDES ANY or OR of parameters for the blind index property, with the values from
+	 * {@link #getBlindIndexValues(String)}.
+	 *
+	 * @param pQueryBuilder
+	 *            the query builder of the item descriptor's repository view
+	 * @param pPlainText
+	 *            the plain text to match
+	 * @return the query
+	 * @throws RepositoryException
+	 *             if the query can not be built
+	 * @throws IllegalStateException
+	 *             if no blind index property is configured
+	 */
+	public Query createEqualityQuery(final QueryBuilder pQueryBuilder, final String pPlainText)
+			throws RepositoryException {
+		if (getBlindIndexProperty() == null) {
+			throw new IllegalStateException("No blind index property configured for "
+					+ getItemDescriptor().getItemDescriptorName() + "." + getName());
+		}
+		List<String> blindIndexValues = getBlindIndexValues(pPlainText);
+		Query[] queries = new Query[blindIndexValues.size()];
+		for (int i = 0; i < queries.length; i++) {
+			queries[i] = pQueryBuilder.createComparisonQuery(
+					pQueryBuilder.createPropertyQueryExpression(getBlindIndexProperty()),
+					pQueryBuilder.createConstantQueryExpression(blindIndexValues.get(i)), QueryBuilder.EQUALS);
+		}
+		return queries.length == 1 ? queries[0] : pQueryBuilder.createOrQuery(queries);
+	}
+
+	/**
+	 * Gets the blind index value stored for a plain text value of this property.
+	 *
+	 * @param pPlainText
+	 *            the plain text
+	 * @return the blind index value
+	 */
+	public String getBlindIndexValue(final String pPlainText) {
+		return getCryptoEngine().blindIndex(pPlainText);
+	}
+
+	/**
+	 * Gets every blind index value a plain text value of this property can be stored with, one per blind index key on
+	 * the key ring, the one stored for new values first.
+	 *
+	 * @param pPlainText
+	 *            the plain text
+	 * @return the blind index values
+	 */
+	public List<String> getBlindIndexValues(final String pPlainText) {
+		return getCryptoEngine().blindIndexes(pPlainText);
+	}
+
+	/**
+	 * Writes the configured non-sensitive shadow properties, derived from the plain text, so that display code can read
+	 * them without decrypting this property.
+	 *
+	 * @param pItem
+	 *            the RepositoryItem being set
+	 * @param pPlainText
+	 *            the plain text value
+	 */
+	private void setShadowPropertyValues(final RepositoryItemImpl pItem, final String pPlainText) {
+		if (getLastFourProperty() == null && getBinProperty() == null && getMaskedProperty() == null
+				&& getBlindIndexProperty() == null) {
+			return;
+		}
+		if (!(pItem instanceof MutableRepositoryItem)) {
+			logError("Shadow properties can not be set on an item which is not mutable.");
+			return;
+		}
+		MutableRepositoryItem item = (MutableRepositoryItem) pItem;
+		if (getLastFourProperty() != null) {
+			item.setPropertyValue(getLastFourProperty(), CardNumberMasker.getLastFour(pPlainText));
+		}
+		if (getBinProperty() != null) {
+			item.setPropertyValue(getBinProperty(), CardNumberMasker.getBin(pPlainText, getBinLength()));
+		}
+		if (getMaskedProperty() != null) {
+			item.setPropertyValue(getMaskedProperty(), CardNumberMasker.getMasked(pPlainText));
+		}
+		if (getBlindIndexProperty() != null) {
+			item.setPropertyValue(getBlindIndexProperty(), getBlindIndexValue(pPlainText));
 		}
-		super.setPropertyValue(pItem, cryptoEngine.encrypt(pValue.toString()));
 	}
 
 	/**
@@ -106,21 +321,245 @@ public class CryptoPropertyDescriptor extends GSAPropertyDescriptor implements S
 		if (isEncryptOnly()) {
 			return super.getPropertyValue(pItem, pValue);
 		} else {
-			CryptoEngine cryptoEngine = (CryptoEngine) Nucleus.getGlobalNucleus().resolveName(this.mCryptoEngineName);
-			if (cryptoEngine == null) {
-				logError("Property Item Descriptor: " + getItemDescriptor().getItemDescriptorName() + "." + getName()
-						+ " not property configured.");
-				throw new NullPointerException("Crypto Engine not configured "
-						+ getItemDescriptor().getItemDescriptorName() + "." + this.getName());
+			CryptoEngine cryptoEngine = getCryptoEngine();
+			CryptoMetrics.PropertyMetrics propertyMetrics = getPropertyMetrics(cryptoEngine);
+			String encryptedText = pValue.toString();
+			int keyId;
+			try {
+				keyId = KeyRing.parseKeyId(encryptedText);
+			} catch (EncryptionOperationNotPossibleException eonpe) {
+				// Not a well formed key id prefix, so this can be a legacy plain text value which starts with a '#'
+				keyId = -1;
+			}
+			TransactionDecryptCache decryptCache = null;
+			if (isDecryptCache()) {
+				decryptCache = getTransactionDecryptCache();
+				if (decryptCache != null) {
+					String cachedText = decryptCache.get(encryptedText);
+					if (cachedText != null) {
+						propertyMetrics.cacheHit();
+						return super.getPropertyValue(pItem, cachedText);
+					}
+				}
 			}
 			try {
-				return super.getPropertyValue(pItem, cryptoEngine.decrypt(pValue.toString()));
+				String decryptedText = cryptoEngine.decrypt(encryptedText);
+				propertyMetrics.decrypted();
+				checkDecryptStorm(cryptoEngine, propertyMetrics);
+				if (decryptCache != null) {
+					decryptCache.put(encryptedText, decryptedText);
+				}
+				if (this.mReEncryptQueueName != null && !isCurrent(cryptoEngine, encryptedText)) {
+					queueReEncrypt(pItem);
+				}
+				return super.getPropertyValue(pItem, decryptedText);
 			} catch (Exception e) {
+				if (keyId >= 0) {
+					// A value with a key id is always encrypted, so this is a key mismatch and not a plain text value
+					propertyMetrics.failed();
+					logError("Unable to decrypt a value of " + getItemDescriptor().getItemDescriptorName() + "."
+							+ getName() + " for item: " + pItem.getRepositoryId(), e);
+					throw new EncryptionOperationNotPossibleException(e);
+				}
+				propertyMetrics.fellBack();
 				return super.getPropertyValue(pItem, pValue);
 			}
 		}
 	}
 
+	/**
+	 * Counts a decrypt by the current thread, and detects a decrypt storm when the thread reaches the engine's decrypt
+	 * storm threshold within the storm window. Only the decrypt which reaches the threshold counts the storm, so a
+	 * storm is counted once per window, and its stack trace is captured at most once per trace interval per property.
+	 *
+	 * @param pCryptoEngine
+	 *            the crypto engine
+	 * @param pPropertyMetrics
+	 *            the metrics of this property
+	 */
+	private void checkDecryptStorm(final CryptoEngine pCryptoEngine,
+			final CryptoMetrics.PropertyMetrics pPropertyMetrics) {
+		int threshold = pCryptoEngine.getDecryptStormThreshold();
+		if (threshold <= 0) {
+			return;
+		}
+		DecryptWindow window = THREAD_DECRYPTS.get();
+		long now = System.nanoTime();
+		if (now - window.mStartNanos > TimeUnit.MILLISECONDS.toNanos(pCryptoEngine.getDecryptStormWindowMillis())) {
+			window.mStartNanos = now;
+			window.mCount = 0;
+		}
+		if (++window.mCount != threshold) {
+			return;
+		}
+		pPropertyMetrics.stormDetected();
+		long traceInterval = TimeUnit.MILLISECONDS.toNanos(pCryptoEngine.getDecryptStormTraceIntervalMillis());
+		if (traceInterval > 0 && pPropertyMetrics.sampleTrace(now, traceInterval)) {
+			Throwable trace = new Throwable("Decrypt storm: " + threshold + " decrypts within "
+					+ TimeUnit.NANOSECONDS.toMillis(now - window.mStartNanos) + " ms on thread "
+					+ Thread.currentThread().getName());
+			StringWriter stackTrace = new StringWriter();
+			trace.printStackTrace(new PrintWriter(stackTrace));
+			pPropertyMetrics.setLastStormTrace(stackTrace.toString());
+			logWarning(trace.getMessage(), trace);
+		}
+	}
+
+	/**
+	 * Gets the metrics of this property in the Crypto Engine's metrics, looking them up on first use.
+	 *
+	 * @param pCryptoEngine
+	 *            the crypto engine
+	 * @return the property metrics
+	 */
+	private CryptoMetrics.PropertyMetrics getPropertyMetrics(final CryptoEngine pCryptoEngine) {
+		CryptoMetrics.PropertyMetrics propertyMetrics = this.mPropertyMetrics;
+		if (propertyMetrics == null) {
+			propertyMetrics = pCryptoEngine.getMetrics().getPropertyMetrics(
+					getItemDescriptor().getRepository().getRepositoryName() + ":"
+							+ getItemDescriptor().getItemDescriptorName() + "." + getName());
+			this.mPropertyMetrics = propertyMetrics;
+		}
+		return propertyMetrics;
+	}
+
+	/**
+	 * Checks if a value is encrypted with the active key of the engine, in the cipher suite of this property.
+	 *
+	 * @param pCryptoEngine
+	 *            the crypto engine
+	 * @param pEncryptedText
+	 *            the encrypted text
+	 * @return true, if the value does not need to be re-encrypted
+	 */
+	private boolean isCurrent(final CryptoEngine pCryptoEngine, final String pEncryptedText) {
+		if (this.mCipherSuite == null) {
+			return pCryptoEngine.isCurrent(pEncryptedText);
+		}
+		return pCryptoEngine.isCurrent(pEncryptedText, this.mCipherSuite);
+	}
+
+	/**
+	 * Offers an item whose value was read with an older key or cipher suite to the re-encrypt queue.
+	 *
+	 * @param pItem
+	 *            the item
+	 */
+	private void queueReEncrypt(final RepositoryItemImpl pItem) {
+		ReEncryptQueue reEncryptQueue = this.mReEncryptQueue;
+		if (reEncryptQueue == null || !reEncryptQueue.isRunning()) {
+			reEncryptQueue = (ReEncryptQueue) Nucleus.getGlobalNucleus().resolveName(this.mReEncryptQueueName);
+			if (reEncryptQueue == null) {
+				logError("Re-encrypt queue not found: " + this.mReEncryptQueueName);
+				return;
+			}
+			this.mReEncryptQueue = reEncryptQueue;
+		}
+		Repository repository = getItemDescriptor().getRepository();
+		if (repository instanceof MutableRepository) {
+			reEncryptQueue.offer((MutableRepository) repository, getItemDescriptor().getItemDescriptorName(),
+					pItem.getRepositoryId(), getName());
+		}
+	}
+
+	/**
+	 * Gets the decrypt cache of the current transaction, creating and registering it on first use.
+	 *
+	 * @return the decrypt cache, or null if there is no active transaction
+	 */
+	private TransactionDecryptCache getTransactionDecryptCache() {
+		TransactionManager transactionManager = ((RepositoryImpl) getItemDescriptor().getRepository())
+				.getTransactionManager();
+		if (transactionManager == null) {
+			return null;
+		}
+		try {
+			Transaction transaction = transactionManager.getTransaction();
+			if (transaction == null || transaction.getStatus() != Status.STATUS_ACTIVE) {
+				return null;
+			}
+			Map<Transaction, TransactionDecryptCache> decryptCaches = getDecryptCaches();
+			TransactionDecryptCache decryptCache = decryptCaches.get(transaction);
+			if (decryptCache == null) {
+				decryptCache = new TransactionDecryptCache(transaction, decryptCaches, getDecryptCacheSize());
+				// Only keep the cache if it is sure to be cleared at the end of the transaction
+				transaction.registerSynchronization(decryptCache);
+				decryptCaches.put(transaction, decryptCache);
+			}
+			return decryptCache;
+		} catch (SystemException se) {
+			logError("Unable to get the current transaction for the decrypt cache.", se);
+			return null;
+		} catch (RollbackException re) {
+			return null;
+		}
+	}
+
+	/**
+	 * Gets the decrypt caches of the transactions in progress, creating the map after deserialization.
+	 *
+	 * @return the decrypt caches
+	 */
+	private Map<Transaction, TransactionDecryptCache> getDecryptCaches() {
+		Map<Transaction, TransactionDecryptCache> decryptCaches = this.mDecryptCaches;
+		if (decryptCaches == null) {
+			synchronized (this) {
+				decryptCaches = this.mDecryptCaches;
+				if (decryptCaches == null) {
+					decryptCaches = new ConcurrentHashMap<Transaction, TransactionDecryptCache>();
+					this.mDecryptCaches = decryptCaches;
+				}
+			}
+		}
+		return decryptCaches;
+	}
+
+	/**
+	 * Gets the Crypto Engine, resolving it through Nucleus only on first use, or when the cached component has been
+	 * stopped.
+	 *
+	 * @return the crypto engine
+	 * @throws NullPointerException
+	 *             if the Crypto Engine can not be resolved
+	 */
+	protected CryptoEngine getCryptoEngine() {
+		CryptoEngine cryptoEngine = this.mCryptoEngine;
+		if (cryptoEngine == null || !cryptoEngine.isRunning()) {
+			cryptoEngine = resolveCryptoEngine();
+		}
+		return cryptoEngine;
+	}
+
+	/**
+	 * Resolves the Crypto Engine through Nucleus, or through the Crypto Engine Registry and the engine identifier when
+	 * a registry is configured, and caches it.
+	 *
+	 * @return the crypto engine
+	 * @throws NullPointerException
+	 *             if the Crypto Engine can not be resolved
+	 */
+	private CryptoEngine resolveCryptoEngine() {
+		CryptoEngine cryptoEngine = null;
+		if (this.mCryptoEngineRegistryName != null) {
+			CryptoEngineRegistry registry = (CryptoEngineRegistry) Nucleus.getGlobalNucleus().resolveName(
+					this.mCryptoEngineRegistryName);
+			if (registry != null && this.mCryptoEngineIdentifier != null) {
+				cryptoEngine = registry.getEngine(this.mCryptoEngineIdentifier);
+			}
+		} else {
+			cryptoEngine = (CryptoEngine) Nucleus.getGlobalNucleus().resolveName(this.mCryptoEngineName);
+		}
+		if (cryptoEngine == null) {
+			logError("Property Item Descriptor: " + getItemDescriptor().getItemDescriptorName() + "." + getName()
+					+ " not property configured.");
+			throw new NullPointerException("Crypto Engine not configured "
+					+ getItemDescriptor().getItemDescriptorName() + "." + this.getName());
+		}
+		this.mCryptoEngine = cryptoEngine;
+		this.mPropertyMetrics = null;
+		return cryptoEngine;
+	}
+
 	/**
 	 * Catch the attribute values that we care about and store them in member variables.
 	 *
@@ -137,15 +576,66 @@ public class CryptoPropertyDescriptor extends GSAPropertyDescriptor implements S
 		if (pAttributeName.equalsIgnoreCase(CRYPTO_ENGINE)) {
 			try {
 				this.mCryptoEngineName = (String) pValue;
+				this.mCryptoEngine = null;
 			} catch (final ClassCastException cce) {
 				logError("Invalid type for Crypto Engine", cce);
 			}
 		}
+		if (pAttributeName.equalsIgnoreCase(CRYPTO_ENGINE_REGISTRY)) {
+			this.mCryptoEngineRegistryName = pValue.toString();
+			this.mCryptoEngine = null;
+		}
+		if (pAttributeName.equalsIgnoreCase(CRYPTO_ENGINE_IDENTIFIER)) {
+			this.mCryptoEngineIdentifier = pValue.toString();
+			this.mCryptoEngine = null;
+		}
+		if (pAttributeName.equalsIgnoreCase(CIPHER_MODE)) {
+			this.mCipherSuite = CipherSuite.forCipherMode(pValue.toString());
+			if (this.mCipherSuite == null) {
+				logError("Invalid value for cipher mode: " + pValue);
+			}
+		}
 		if (pAttributeName.equalsIgnoreCase(ENCRYPT_ONLY)) {
 			if (TRUE_STRING.equalsIgnoreCase((String) pValue)) {
 				setEncryptOnly(true);
 			}
 		}
+		if (pAttributeName.equalsIgnoreCase(LAST_FOUR_PROPERTY)) {
+			setLastFourProperty(pValue.toString());
+		}
+		if (pAttributeName.equalsIgnoreCase(BIN_PROPERTY)) {
+			setBinProperty(pValue.toString());
+		}
+		if (pAttributeName.equalsIgnoreCase(BIN_LENGTH)) {
+			try {
+				setBinLength(Integer.parseInt(pValue.toString()));
+			} catch (final IllegalArgumentException iae) {
+				// Also thrown for numbers which are not valid BIN lengths
+				logError("Invalid value for BIN length", iae);
+			}
+		}
+		if (pAttributeName.equalsIgnoreCase(MASKED_PROPERTY)) {
+			setMaskedProperty(pValue.toString());
+		}
+		if (pAttributeName.equalsIgnoreCase(BLIND_INDEX_PROPERTY)) {
+			setBlindIndexProperty(pValue.toString());
+		}
+		if (pAttributeName.equalsIgnoreCase(RE_ENCRYPT_QUEUE)) {
+			this.mReEncryptQueueName = pValue.toString();
+			this.mReEncryptQueue = null;
+		}
+		if (pAttributeName.equalsIgnoreCase(DECRYPT_CACHE)) {
+			if (TRUE_STRING.equalsIgnoreCase((String) pValue)) {
+				setDecryptCache(true);
+			}
+		}
+		if (pAttributeName.equalsIgnoreCase(DECRYPT_CACHE_SIZE)) {
+			try {
+				setDecryptCacheSize(Integer.parseInt(pValue.toString()));
+			} catch (final NumberFormatException nfe) {
+				logError("Invalid value for decrypt cache size", nfe);
+			}
+		}
 	}
 
 	/**
@@ -176,6 +666,24 @@ public class CryptoPropertyDescriptor extends GSAPropertyDescriptor implements S
 		}
 	}
 
+	/**
+	 * Logs a warning with an exception for the repository we are part of.
+	 *
+	 * @param pWarning
+	 *            The warning string to log
+	 * @param pThrowable
+	 *            The exception to log
+	 */
+	protected void logWarning(final String pWarning, final Throwable pThrowable) {
+		if (getItemDescriptor() != null) {
+			final RepositoryImpl repositoryImpl = (RepositoryImpl) getItemDescriptor().getRepository();
+			if (repositoryImpl.isLoggingWarning()) {
+				repositoryImpl.logWarning("Repository property: " + getName() + " item-descriptor "
+						+ getItemDescriptor().getItemDescriptorName() + ": " + pWarning, pThrowable);
+			}
+		}
+	}
+
 	/**
 	 * Logs a debug statement for the repository we are part of.
 	 *
@@ -277,4 +785,152 @@ public class CryptoPropertyDescriptor extends GSAPropertyDescriptor implements S
 	public void setEncryptOnly(boolean pEncryptOnly) {
 		mEncryptOnly = pEncryptOnly;
 	}
+
+	/**
+	 * Checks if decrypted values are cached for the current transaction.
+	 *
+	 * @return true, if is decrypt cache
+	 */
+	public boolean isDecryptCache() {
+		return mDecryptCache;
+	}
+
+	/**
+	 * Sets the decrypt cache.
+	 *
+	 * @param pDecryptCache
+	 *            the new decrypt cache
+	 */
+	public void setDecryptCache(boolean pDecryptCache) {
+		mDecryptCache = pDecryptCache;
+	}
+
+	/**
+	 * Gets the maximum number of decrypted values cached per transaction.
+	 *
+	 * @return the decrypt cache size
+	 */
+	public int getDecryptCacheSize() {
+		return mDecryptCacheSize;
+	}
+
+	/**
+	 * Sets the decrypt cache size.
+	 *
+	 * @param pDecryptCacheSize
+	 *            the new decrypt cache size
+	 */
+	public void setDecryptCacheSize(int pDecryptCacheSize) {
+		mDecryptCacheSize = pDecryptCacheSize;
+	}
+
+	/**
+	 * Gets the last four property.
+	 *
+	 * @return the last four property
+	 */
+	public String getLastFourProperty() {
+		return mLastFourProperty;
+	}
+
+	/**
+	 * Sets the last four property.
+	 *
+	 * @param pLastFourProperty
+	 *            the new last four property
+	 */
+	public void setLastFourProperty(String pLastFourProperty) {
+		mLastFourProperty = pLastFourProperty;
+	}
+
+	/**
+	 * Gets the BIN property.
+	 *
+	 * @return the BIN property
+	 */
+	public String getBinProperty() {
+		return mBinProperty;
+	}
+
+	/**
+	 * Sets the BIN property.
+	 *
+	 * @param pBinProperty
+	 *            the new BIN property
+	 */
+	public void setBinProperty(String pBinProperty) {
+		mBinProperty = pBinProperty;
+	}
+
+	/**
+	 * Gets the BIN length.
+	 *
+	 * @return the BIN length
+	 */
+	public int getBinLength() {
+		return mBinLength;
+	}
+
+	/**
+	 * Sets the BIN length.
+	 *
+	 * @param pBinLength
+	 *            the new BIN length, at least one
+	 * @throws IllegalArgumentException
+	 *             if the BIN length is less than one
+	 */
+	public void setBinLength(int pBinLength) {
+		CardNumberMasker.checkBinLength(pBinLength);
+		mBinLength = pBinLength;
+	}
+
+	/**
+	 * Gets the masked property.
+	 *
+	 * @return the masked property
+	 */
+	public String getMaskedProperty() {
+		return mMaskedProperty;
+	}
+
+	/**
+	 * Sets the masked property.
+	 *
+	 * @param pMaskedProperty
+	 *            the new masked property
+	 */
+	public void setMaskedProperty(String pMaskedProperty) {
+		mMaskedProperty = pMaskedProperty;
+	}
+
+	/**
+	 * Gets the blind index property.
+	 *
+	 * @return the blind index property
+	 */
+	public String getBlindIndexProperty() {
+		return mBlindIndexProperty;
+	}
+
+	/**
+	 * Sets the blind index property.
+	 *
+	 * @param pBlindIndexProperty
+	 *            the new blind index property
+	 */
+	public void setBlindIndexProperty(String pBlindIndexProperty) {
+		mBlindIndexProperty = pBlindIndexProperty;
+	}
+
+	/**
+	 * The Class DecryptWindow counts the property decrypts of one thread in its current decrypt storm window.
+	 */
+	private static final class DecryptWindow {
+
+		/** The start of the window, from System.nanoTime. */
+		private long mStartNanos = System.nanoTime();
+
+		/** The decrypts in the window. */
+		private int mCount;
+	}
 }
@@ -0,0 +1,49 @@
+/*
+ * Please read the README.md and LICENSE.md files contained in this repository or module.
+ *
+ * Please contact sales@sparkred.com or support@sparkred.com if you have any questions.
+ *
+ * This code is copyright Spark::red https://www.sparkred.com 2007-2016, all right reserved.
+ */
+package com.sparkred.crypto;
+
+import java.security.Security;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+/**
+ * The Class CryptoProviders registers the JCE Security providers the crypto engines need, once per JVM.
+ *
+ * Creating a BouncyCastleProvider loads every algorithm it supports, and Security.addProvider ignores it anyway when
+ * a provider of the same name is installed, so engines call {@link #registerBouncyCastle()} on every start instead.
+ */
+public final class CryptoProviders {
+
+	/** The registered flag, set once the BouncyCastle provider is installed. */
+	private static volatile boolean sRegistered;
+
+	/**
+	 * Not instantiated.
+	 */
+	private CryptoProviders() {
+	}
+
+	/**
+	 * Installs the BouncyCastle JCE Security provider, unless it is already installed. Safe to call from every engine
+	 * start, only the first call in the JVM creates the provider.
+	 */
+	public static void registerBouncyCastle() {
+		if (sRegistered) {
+			return;
+		}
+		synchronized (CryptoProviders.class) {
+			if (!sRegistered) {
+				if (Security.getProvider(CryptoConstants.BOUNCY_CASTLE_PROVIDER_NAME) == null) {
+					Security.addProvider(new BouncyCastleProvider());
+				}
+				sRegistered = true;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,37 @@
+/*
+ * Please read the README.md and LICENSE.md files contained in this repository or module.
+ *
+ * Please contact sales@sparkred.com or support@sparkred.com if you have any questions.
+ *
+ * This code is copyright Spark::red https://www.sparkred.com 2007-2016, all right reserved.
+ */
+package com.sparkred.crypto;
+
+/**
+ * The Interface Decryptor is a source of decrypted values, such as the crypto engine which encrypted them, or the
+ * encryption they are being migrated from. The rekey tools read existing values through it.
+ *
+ * Implementations must be thread safe. Failures are reported as runtime exceptions, such as
+ * EncryptionOperationNotPossibleException. Sources which can not decrypt more than one value per call implement
+ * {@link #decryptAll(String[])} with {@link CryptoBatchResult#decryptEach(Decryptor, String[])}.
+ */
+public interface Decryptor {
+
+	/**
+	 * Decrypts a value.
+	 *
+	 * @param pEncryptedText
+	 *            the encrypted text
+	 * @return the decrypted text
+	 */
+	String decrypt(String pEncryptedText);
+
+	/**
+	 * Decrypts every value in the array. Failures are reported per element in the result and do not abort the batch.
+	 *
+	 * @param pEncryptedTexts
+	 *            the encrypted texts
+	 * @return the batch result, in the same order as the array
+	 */
+	CryptoBatchResult decryptAll(String[] pEncryptedTexts);
+}
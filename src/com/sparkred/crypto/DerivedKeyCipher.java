@@ -0,0 +1,552 @@
+/*
+ * Please read the README.md and LICENSE.md files contained in this repository or module.
+ *
+ * Please contact sales@sparkred.com or support@sparkred.com if you have any questions.
+ *
+ * This code is copyright Spark::red https://www.sparkred.com 2007-2016, all right reserved.
+ */
+package com.sparkred.crypto;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.bouncycastle.crypto.PBEParametersGenerator;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.generators.PKCS5S2ParametersGenerator;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.jasypt.exceptions.EncryptionOperationNotPossibleException;
+
+/**
+ * The Class DerivedKeyCipher encrypts and decrypts data with an AES 256 bit key which is derived from the data
+ * passphrase a single time, when the cipher is created.
+ *
+ * The jasypt PBE encryptor runs the full password based key derivation, with a new random salt, for every value it
+ * encrypts or decrypts. This class pays that cost once and then only uses a random IV per operation. The output is
+ * the {@link CryptoConstants#DERIVED_KEY_HEADER} followed by the Base64 encoded IV and cipher text. The header can
+ * never appear in jasypt output, so both formats can be told apart by {@link #isDerivedKeyFormat(String)}, and the
+ * suite of any value by {@link CipherSuite#of(String)}.
+ *
+ * The cipher runs one of the derived key {@link CipherSuite}s: AES-CBC, the derivedKey cipher mode, or AES-GCM, the
+ * gcm cipher mode, which writes its own header and also authenticates the value. Both run on the default JCE provider.
+ *
+ * Instances keep their own {@link Cipher} and scratch buffers and are not thread safe. The {@link CipherPool} hands out
+ * one instance per stripe, all sharing the same derived key. The char[] and ByteBuffer methods UTF-8 and Base64 encode
+ * through the scratch buffers straight into the caller's buffer, and the plain text bytes are zeroed after every
+ * operation. The String methods are thin wrappers over the char[] methods.
+ */
+public class DerivedKeyCipher {
+
+	/** The derivedKey header as chars. */
+	private static final char[] HEADER_CHARS = CryptoConstants.DERIVED_KEY_HEADER.toCharArray();
+
+	/** The header length, the same for every suite. */
+	private static final int HEADER_LENGTH = HEADER_CHARS.length;
+
+	/** The cipher suite. */
+	private final CipherSuite mSuite;
+
+	/** The header of the cipher suite as chars. */
+	private final char[] mHeaderChars;
+
+	/** The derived AES key. */
+	private final SecretKeySpec mKey;
+
+	/** The random source for the IVs. */
+	private final SecureRandom mRandom = new SecureRandom();
+
+	/** The IV scratch buffer. */
+	private final byte[] mIv;
+
+	/** The cipher instance, re-initialized for every operation. */
+	private Cipher mCipher;
+
+	/** The scratch buffer for UTF-8 plain text bytes, zeroed after every operation. */
+	private byte[] mPlainBytes = new byte[0];
+
+	/** The scratch buffer for the IV followed by the cipher text. */
+	private byte[] mCipherBytes = new byte[0];
+
+	/** The scratch buffer for Base64 ASCII bytes. */
+	private byte[] mAsciiBytes = new byte[0];
+
+	/** The scratch buffer for the input chars of the String methods. */
+	private char[] mInputChars = new char[0];
+
+	/** The scratch buffer for the output chars of the String methods. */
+	private char[] mOutputChars = new char[0];
+
+	/**
+	 * Instantiates a new AES-CBC derived key cipher. This runs the key derivation, so it should only be done when the
+	 * engine starts.
+	 *
+	 * @param pDataPassphrase
+	 *            the data passphrase
+	 * @param pSalt
+	 *            the salt for the key derivation, this must be the same on every server using the passphrase
+	 * @param pIterations
+	 *            the key derivation iteration count
+	 */
+	public DerivedKeyCipher(String pDataPassphrase, byte[] pSalt, int pIterations) {
+		this(CipherSuite.AES_CBC, pDataPassphrase, pSalt, pIterations);
+	}
+
+	/**
+	 * Instantiates a new derived key cipher of a cipher suite. This runs the key derivation, so it should only be done
+	 * when the engine starts.
+	 *
+	 * @param pSuite
+	 *            the cipher suite, AES_CBC or AES_GCM
+	 * @param pDataPassphrase
+	 *            the data passphrase
+	 * @param pSalt
+	 *            the salt for the key derivation, this must be the same on every server using the passphrase
+	 * @param pIterations
+	 *            the key derivation iteration count
+	 */
+	public DerivedKeyCipher(CipherSuite pSuite, String pDataPassphrase, byte[] pSalt, int pIterations) {
+		if (!pSuite.isDerivedKey()) {
+			throw new IllegalArgumentException("Not a derived key cipher suite: " + pSuite);
+		}
+		this.mSuite = pSuite;
+		this.mHeaderChars = pSuite.getHeader().toCharArray();
+		this.mIv = new byte[pSuite.getIvLength()];
+		PKCS5S2ParametersGenerator generator = new PKCS5S2ParametersGenerator(new SHA256Digest());
+		generator.init(PBEParametersGenerator.PKCS5PasswordToUTF8Bytes(pDataPassphrase.toCharArray()), pSalt,
+				pIterations);
+		KeyParameter keyParameter = (KeyParameter) generator
+				.generateDerivedParameters(CryptoConstants.DERIVED_KEY_SIZE_BITS);
+		this.mKey = new SecretKeySpec(keyParameter.getKey(), CryptoConstants.DERIVED_KEY_ALGO);
+	}
+
+	/**
+	 * Instantiates a new derived key cipher which shares the already derived key of the passed in cipher, without
+	 * running the key derivation again.
+	 *
+	 * @param pDerivedKeyCipher
+	 *            the derived key cipher to share the key with
+	 */
+	public DerivedKeyCipher(DerivedKeyCipher pDerivedKeyCipher) {
+		this.mSuite = pDerivedKeyCipher.mSuite;
+		this.mHeaderChars = pDerivedKeyCipher.mHeaderChars;
+		this.mIv = new byte[this.mSuite.getIvLength()];
+		this.mKey = pDerivedKeyCipher.mKey;
+	}
+
+	/**
+	 * Gets the cipher suite.
+	 *
+	 * @return the cipher suite
+	 */
+	public CipherSuite getSuite() {
+		return this.mSuite;
+	}
+
+	/**
+	 * Checks if the encrypted text was written by an AES-CBC cipher, rather than by the jasypt PBE encryptor.
+	 *
+	 * @param pEncryptedText
+	 *            the encrypted text
+	 * @return true, if the text has the derived key header
+	 */
+	public static boolean isDerivedKeyFormat(String pEncryptedText) {
+		return pEncryptedText != null && pEncryptedText.startsWith(CryptoConstants.DERIVED_KEY_HEADER);
+	}
+
+	/**
+	 * Checks if the encrypted chars were written by an AES-CBC cipher, rather than by the jasypt PBE encryptor.
+	 *
+	 * @param pEncryptedText
+	 *            the encrypted chars
+	 * @param pOffset
+	 *            the offset
+	 * @param pLength
+	 *            the length
+	 * @return true, if the chars start with the derived key header
+	 */
+	public static boolean isDerivedKeyFormat(char[] pEncryptedText, int pOffset, int pLength) {
+		if (pEncryptedText == null || pLength < HEADER_LENGTH) {
+			return false;
+		}
+		for (int i = 0; i < HEADER_LENGTH; i++) {
+			if (pEncryptedText[pOffset + i] != HEADER_CHARS[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Checks if the remaining encrypted ASCII bytes of the buffer were written by an AES-CBC cipher, rather than by the
+	 * jasypt PBE encryptor. The buffer position is not changed.
+	 *
+	 * @param pEncryptedText
+	 *            the encrypted ASCII bytes
+	 * @return true, if the bytes start with the derived key header
+	 */
+	public static boolean isDerivedKeyFormat(ByteBuffer pEncryptedText) {
+		if (pEncryptedText == null || pEncryptedText.remaining() < HEADER_LENGTH) {
+			return false;
+		}
+		for (int i = 0; i < HEADER_LENGTH; i++) {
+			if (pEncryptedText.get(pEncryptedText.position() + i) != HEADER_CHARS[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Gets the largest encrypted length, in chars or ASCII bytes, for a plain text of the passed in UTF-8 byte length,
+	 * in any derived key cipher suite.
+	 *
+	 * @param pPlainTextLength
+	 *            the UTF-8 byte length of the plain text
+	 * @return the maximum encrypted length
+	 */
+	public static int getMaxEncryptedLength(int pPlainTextLength) {
+		int blockLength = CryptoConstants.DERIVED_KEY_IV_LENGTH;
+		int cbcLength = blockLength + (pPlainTextLength / blockLength + 1) * blockLength;
+		int gcmLength = CryptoConstants.GCM_IV_LENGTH + pPlainTextLength + CryptoConstants.GCM_TAG_LENGTH_BITS / 8;
+		return HEADER_LENGTH + TextCodec.base64EncodedLength(Math.max(cbcLength, gcmLength));
+	}
+
+	/**
+	 * Encrypt.
+	 *
+	 * @param pPlainText
+	 *            the plain text
+	 * @return the header followed by the Base64 encoded IV and cipher text
+	 */
+	public String encrypt(String pPlainText) {
+		int length = pPlainText.length();
+		this.mInputChars = ensureCapacity(this.mInputChars, length);
+		this.mOutputChars = ensureCapacity(this.mOutputChars,
+				getMaxEncryptedLength(TextCodec.utf8MaxEncodedLength(length)));
+		pPlainText.getChars(0, length, this.mInputChars, 0);
+		try {
+			int encryptedLength = encrypt(this.mInputChars, 0, length, this.mOutputChars, 0);
+			return new String(this.mOutputChars, 0, encryptedLength);
+		} finally {
+			Arrays.fill(this.mInputChars, 0, length, (char) 0);
+		}
+	}
+
+	/**
+	 * Decrypt.
+	 *
+	 * @param pEncryptedText
+	 *            the encrypted text, including the header
+	 * @return the plain text
+	 */
+	public String decrypt(String pEncryptedText) {
+		if (pEncryptedText == null || !this.mSuite.hasHeader(pEncryptedText, 0, pEncryptedText.length())) {
+			throw new EncryptionOperationNotPossibleException("Encrypted text is not in the " + this.mSuite
+					+ " format.");
+		}
+		int length = pEncryptedText.length();
+		this.mInputChars = ensureCapacity(this.mInputChars, length);
+		this.mOutputChars = ensureCapacity(this.mOutputChars, length);
+		pEncryptedText.getChars(0, length, this.mInputChars, 0);
+		int plainTextLength = 0;
+		try {
+			plainTextLength = decrypt(this.mInputChars, 0, length, this.mOutputChars, 0);
+			return new String(this.mOutputChars, 0, plainTextLength);
+		} finally {
+			Arrays.fill(this.mOutputChars, 0, plainTextLength, (char) 0);
+		}
+	}
+
+	/**
+	 * Encrypts plain text chars into a caller supplied char array.
+	 *
+	 * @param pPlainText
+	 *            the plain text chars
+	 * @param pOffset
+	 *            the plain text offset
+	 * @param pLength
+	 *            the number of plain text chars
+	 * @param pOutput
+	 *            the output chars, see {@link #getMaxEncryptedLength(int)} for the required size
+	 * @param pOutputOffset
+	 *            the output offset
+	 * @return the number of chars written
+	 * @throws IllegalArgumentException
+	 *             if the output array is too small
+	 */
+	public int encrypt(char[] pPlainText, int pOffset, int pLength, char[] pOutput, int pOutputOffset) {
+		this.mPlainBytes = ensureCapacity(this.mPlainBytes, TextCodec.utf8MaxEncodedLength(pLength));
+		int plainTextLength = TextCodec.encodeUtf8(pPlainText, pOffset, pLength, this.mPlainBytes, 0);
+		int cipherTextLength;
+		try {
+			cipherTextLength = encryptToScratch(this.mPlainBytes, 0, plainTextLength);
+		} finally {
+			Arrays.fill(this.mPlainBytes, 0, plainTextLength, (byte) 0);
+		}
+		int encryptedLength = HEADER_LENGTH + TextCodec.base64EncodedLength(cipherTextLength);
+		if (pOutput.length - pOutputOffset < encryptedLength) {
+			throw new IllegalArgumentException("Output array is too small, " + encryptedLength + " chars needed.");
+		}
+		System.arraycopy(this.mHeaderChars, 0, pOutput, pOutputOffset, HEADER_LENGTH);
+		TextCodec.encodeBase64(this.mCipherBytes, 0, cipherTextLength, pOutput, pOutputOffset + HEADER_LENGTH);
+		return encryptedLength;
+	}
+
+	/**
+	 * Decrypts encrypted chars into a caller supplied char array.
+	 *
+	 * @param pEncryptedText
+	 *            the encrypted chars, including the header
+	 * @param pOffset
+	 *            the encrypted text offset
+	 * @param pLength
+	 *            the number of encrypted chars
+	 * @param pOutput
+	 *            the output chars, at least as long as the encrypted text from the offset is always enough
+	 * @param pOutputOffset
+	 *            the output offset
+	 * @return the number of chars written
+	 * @throws IllegalArgumentException
+	 *             if the output array is too small
+	 */
+	public int decrypt(char[] pEncryptedText, int pOffset, int pLength, char[] pOutput, int pOutputOffset) {
+		if (pEncryptedText == null || CipherSuite.of(pEncryptedText, pOffset, pLength) != this.mSuite) {
+			throw new EncryptionOperationNotPossibleException("Encrypted text is not in the " + this.mSuite
+					+ " format.");
+		}
+		int base64Length = pLength - HEADER_LENGTH;
+		this.mCipherBytes = ensureCapacity(this.mCipherBytes, TextCodec.base64MaxDecodedLength(base64Length));
+		int cipherTextLength;
+		try {
+			cipherTextLength = TextCodec.decodeBase64(pEncryptedText, pOffset + HEADER_LENGTH, base64Length,
+					this.mCipherBytes, 0);
+		} catch (IllegalArgumentException e) {
+			throw new EncryptionOperationNotPossibleException(e);
+		}
+		int plainTextLength = decryptFromScratch(cipherTextLength);
+		if (pOutput.length - pOutputOffset < plainTextLength) {
+			Arrays.fill(this.mPlainBytes, 0, plainTextLength, (byte) 0);
+			throw new IllegalArgumentException("Output array is too small, " + plainTextLength + " chars needed.");
+		}
+		try {
+			return TextCodec.decodeUtf8(this.mPlainBytes, 0, plainTextLength, pOutput, pOutputOffset);
+		} catch (IllegalArgumentException e) {
+			// A value which decrypts to invalid UTF-8 is as unusable as one which does not decrypt at all
+			throw new EncryptionOperationNotPossibleException(e);
+		} finally {
+			Arrays.fill(this.mPlainBytes, 0, plainTextLength, (byte) 0);
+		}
+	}
+
+	/**
+	 * Encrypts the remaining UTF-8 plain text bytes of a buffer into a caller supplied buffer as Base64 ASCII bytes.
+	 * The position of both buffers is advanced.
+	 *
+	 * @param pPlainText
+	 *            the UTF-8 plain text bytes
+	 * @param pOutput
+	 *            the output buffer, see {@link #getMaxEncryptedLength(int)} for the required size
+	 * @return the number of bytes written
+	 * @throws BufferOverflowException
+	 *             if the output buffer is too small
+	 */
+	public int encrypt(ByteBuffer pPlainText, ByteBuffer pOutput) {
+		int plainTextLength = pPlainText.remaining();
+		int cipherTextLength;
+		if (pPlainText.hasArray()) {
+			cipherTextLength = encryptToScratch(pPlainText.array(), pPlainText.arrayOffset() + pPlainText.position(),
+					plainTextLength);
+		} else {
+			this.mPlainBytes = ensureCapacity(this.mPlainBytes, plainTextLength);
+			pPlainText.duplicate().get(this.mPlainBytes, 0, plainTextLength);
+			try {
+				cipherTextLength = encryptToScratch(this.mPlainBytes, 0, plainTextLength);
+			} finally {
+				Arrays.fill(this.mPlainBytes, 0, plainTextLength, (byte) 0);
+			}
+		}
+		int encryptedLength = HEADER_LENGTH + TextCodec.base64EncodedLength(cipherTextLength);
+		if (pOutput.remaining() < encryptedLength) {
+			throw new BufferOverflowException();
+		}
+		pPlainText.position(pPlainText.limit());
+		for (int i = 0; i < HEADER_LENGTH; i++) {
+			pOutput.put((byte) this.mHeaderChars[i]);
+		}
+		if (pOutput.hasArray()) {
+			TextCodec.encodeBase64(this.mCipherBytes, 0, cipherTextLength, pOutput.array(), pOutput.arrayOffset()
+					+ pOutput.position());
+			pOutput.position(pOutput.position() + encryptedLength - HEADER_LENGTH);
+		} else {
+			this.mAsciiBytes = ensureCapacity(this.mAsciiBytes, encryptedLength);
+			int base64Length = TextCodec.encodeBase64(this.mCipherBytes, 0, cipherTextLength, this.mAsciiBytes, 0);
+			pOutput.put(this.mAsciiBytes, 0, base64Length);
+		}
+		return encryptedLength;
+	}
+
+	/**
+	 * Decrypts the remaining Base64 ASCII bytes of a buffer into a caller supplied buffer as UTF-8 plain text bytes.
+	 * The position of both buffers is advanced.
+	 *
+	 * @param pEncryptedText
+	 *            the encrypted ASCII bytes, including the header
+	 * @param pOutput
+	 *            the output buffer, as many bytes as the encrypted text are always enough
+	 * @return the number of bytes written
+	 * @throws BufferOverflowException
+	 *             if the output buffer is too small
+	 */
+	public int decrypt(ByteBuffer pEncryptedText, ByteBuffer pOutput) {
+		if (pEncryptedText == null || CipherSuite.of(pEncryptedText) != this.mSuite) {
+			throw new EncryptionOperationNotPossibleException("Encrypted text is not in the " + this.mSuite
+					+ " format.");
+		}
+		int base64Length = pEncryptedText.remaining() - HEADER_LENGTH;
+		this.mCipherBytes = ensureCapacity(this.mCipherBytes, TextCodec.base64MaxDecodedLength(base64Length));
+		int cipherTextLength;
+		try {
+			if (pEncryptedText.hasArray()) {
+				cipherTextLength = TextCodec.decodeBase64(pEncryptedText.array(), pEncryptedText.arrayOffset()
+						+ pEncryptedText.position() + HEADER_LENGTH, base64Length, this.mCipherBytes, 0);
+			} else {
+				this.mAsciiBytes = ensureCapacity(this.mAsciiBytes, base64Length);
+				ByteBuffer base64 = pEncryptedText.duplicate();
+				base64.position(base64.position() + HEADER_LENGTH);
+				base64.get(this.mAsciiBytes, 0, base64Length);
+				cipherTextLength = TextCodec.decodeBase64(this.mAsciiBytes, 0, base64Length, this.mCipherBytes, 0);
+			}
+		} catch (IllegalArgumentException e) {
+			throw new EncryptionOperationNotPossibleException(e);
+		}
+		int plainTextLength = decryptFromScratch(cipherTextLength);
+		try {
+			pOutput.put(this.mPlainBytes, 0, plainTextLength);
+		} finally {
+			Arrays.fill(this.mPlainBytes, 0, plainTextLength, (byte) 0);
+		}
+		pEncryptedText.position(pEncryptedText.limit());
+		return plainTextLength;
+	}
+
+	/**
+	 * Encrypts plain text bytes with a new random IV into the cipher bytes scratch buffer.
+	 *
+	 * @param pPlainText
+	 *            the plain text bytes
+	 * @param pOffset
+	 *            the offset
+	 * @param pLength
+	 *            the length
+	 * @return the number of IV and cipher text bytes in the scratch buffer
+	 */
+	private int encryptToScratch(byte[] pPlainText, int pOffset, int pLength) {
+		int ivLength = this.mIv.length;
+		try {
+			this.mRandom.nextBytes(this.mIv);
+			Cipher cipher = getCipher();
+			cipher.init(Cipher.ENCRYPT_MODE, this.mKey, createParameterSpec(this.mIv, 0));
+			this.mCipherBytes = ensureCapacity(this.mCipherBytes, ivLength + cipher.getOutputSize(pLength));
+			System.arraycopy(this.mIv, 0, this.mCipherBytes, 0, ivLength);
+			return ivLength + cipher.doFinal(pPlainText, pOffset, pLength, this.mCipherBytes, ivLength);
+		} catch (GeneralSecurityException e) {
+			throw new EncryptionOperationNotPossibleException(e);
+		}
+	}
+
+	/**
+	 * Decrypts the IV and cipher text in the cipher bytes scratch buffer into the plain bytes scratch buffer. The
+	 * caller must zero the plain bytes.
+	 *
+	 * @param pLength
+	 *            the number of IV and cipher text bytes
+	 * @return the number of plain text bytes
+	 */
+	private int decryptFromScratch(int pLength) {
+		int ivLength = this.mIv.length;
+		if (pLength <= ivLength) {
+			throw new EncryptionOperationNotPossibleException("Encrypted text is too short.");
+		}
+		this.mPlainBytes = ensureCapacity(this.mPlainBytes, pLength);
+		try {
+			Cipher cipher = getCipher();
+			cipher.init(Cipher.DECRYPT_MODE, this.mKey, createParameterSpec(this.mCipherBytes, 0));
+			return cipher.doFinal(this.mCipherBytes, ivLength, pLength - ivLength, this.mPlainBytes, 0);
+		} catch (GeneralSecurityException e) {
+			throw new EncryptionOperationNotPossibleException(e);
+		}
+	}
+
+	/**
+	 * Creates the cipher parameters of the suite for an IV: the GCM tag length and IV, or the CBC IV.
+	 *
+	 * @param pIv
+	 *            the array holding the IV
+	 * @param pOffset
+	 *            the offset of the IV
+	 * @return the parameter spec
+	 */
+	private AlgorithmParameterSpec createParameterSpec(byte[] pIv, int pOffset) {
+		if (this.mSuite.getTagLengthBits() > 0) {
+			return new GCMParameterSpec(this.mSuite.getTagLengthBits(), pIv, pOffset, this.mIv.length);
+		}
+		return new IvParameterSpec(pIv, pOffset, this.mIv.length);
+	}
+
+	/**
+	 * Gets the cipher instance, creating it on first use.
+	 *
+	 * @return the cipher
+	 * @throws GeneralSecurityException
+	 *             if the transformation is not available
+	 */
+	private Cipher getCipher() throws GeneralSecurityException {
+		if (this.mCipher == null) {
+			this.mCipher = Cipher.getInstance(this.mSuite.getTransformation());
+		}
+		return this.mCipher;
+	}
+
+	/**
+	 * Returns the passed in scratch buffer, or a larger one if it is too small. A replaced buffer is zeroed first.
+	 *
+	 * @param pBuffer
+	 *            the buffer
+	 * @param pCapacity
+	 *            the required capacity
+	 * @return the buffer to use
+	 */
+	private static byte[] ensureCapacity(byte[] pBuffer, int pCapacity) {
+		if (pBuffer.length >= pCapacity) {
+			return pBuffer;
+		}
+		Arrays.fill(pBuffer, (byte) 0);
+		return new byte[Math.max(pCapacity, pBuffer.length * 2)];
+	}
+
+	/**
+	 * Returns the passed in scratch buffer, or a larger one if it is too small. A replaced buffer is zeroed first.
+	 *
+	 * @param pBuffer
+	 *            the buffer
+	 * @param pCapacity
+	 *            the required capacity
+	 * @return the buffer to use
+	 */
+	private static char[] ensureCapacity(char[] pBuffer, int pCapacity) {
+		if (pBuffer.length >= pCapacity) {
+			return pBuffer;
+		}
+		Arrays.fill(pBuffer, (char) 0);
+		return new char[Math.max(pCapacity, pBuffer.length * 2)];
+	}
+
+}
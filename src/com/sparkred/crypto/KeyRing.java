@@ -0,0 +1,276 @@
+/*
+ * Please read the README.md and LICENSE.md files contained in this repository or module.
+ *
+ * Please contact sales@sparkred.com or support@sparkred.com if you have any questions.
+ *
+ * This code is copyright Spark::red https://www.sparkred.com 2007-2016, all right reserved.
+ */
+package com.sparkred.crypto;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.jasypt.exceptions.EncryptionOperationNotPossibleException;
+
+/**
+ * The Class KeyRing holds one {@link CipherPool} per data key version of a crypto engine, and knows which version
+ * encrypts new values.
+ *
+ * Every value encrypted by a key ring is prefixed with the id of its key, as #id#, followed by the jasypt or derived
+ * key ciphertext. The '#' character is not part of the Base64 alphabet and is not the derived key header, so tagged
+ * values can never be mistaken for untagged ones. Values written before key ids existed carry no prefix and belong to
+ * the legacy key, id {@link CryptoConstants#LEGACY_KEY_ID}.
+ *
+ * A key ring is immutable, the crypto engine replaces it as a whole when keys are added.
+ */
+public class KeyRing {
+
+	/** The largest length of a key id prefix, the markers and the digits of the largest int. */
+	public static final int MAX_KEY_ID_PREFIX_LENGTH = 12;
+
+	/** The cipher pools, by key id. */
+	private final Map<Integer, CipherPool> mCipherPools;
+
+	/** The id of the key which encrypts new values. */
+	private final int mActiveKeyId;
+
+	/**
+	 * Instantiates a new key ring.
+	 *
+	 * @param pCipherPools
+	 *            the cipher pools by key id
+	 * @param pActiveKeyId
+	 *            the id of the key which encrypts new values, it must have a cipher pool
+	 */
+	public KeyRing(Map<Integer, CipherPool> pCipherPools, int pActiveKeyId) {
+		if (!pCipherPools.containsKey(Integer.valueOf(pActiveKeyId))) {
+			throw new IllegalArgumentException("There is no key with the active key id: " + pActiveKeyId);
+		}
+		this.mCipherPools = new HashMap<Integer, CipherPool>(pCipherPools);
+		this.mActiveKeyId = pActiveKeyId;
+	}
+
+	/**
+	 * Gets the cipher pool of the active key.
+	 *
+	 * @return the active cipher pool
+	 */
+	public CipherPool getActiveCipherPool() {
+		return this.mCipherPools.get(Integer.valueOf(this.mActiveKeyId));
+	}
+
+	/**
+	 * Gets the id of the key which encrypts new values.
+	 *
+	 * @return the active key id
+	 */
+	public int getActiveKeyId() {
+		return this.mActiveKeyId;
+	}
+
+	/**
+	 * Gets the cipher pool of a key.
+	 *
+	 * @param pKeyId
+	 *            the key id
+	 * @return the cipher pool, or null if the key is not on this ring
+	 */
+	public CipherPool getCipherPool(int pKeyId) {
+		return this.mCipherPools.get(Integer.valueOf(pKeyId));
+	}
+
+	/**
+	 * Gets the ids of the keys on this ring.
+	 *
+	 * @return the key ids
+	 */
+	public Set<Integer> getKeyIds() {
+		return Collections.unmodifiableSet(this.mCipherPools.keySet());
+	}
+
+	/**
+	 * Gets the number of times a thread had to wait for a stripe, over the cipher pools of every key.
+	 *
+	 * @return the contention count
+	 */
+	public long getContentionCount() {
+		long contentionCount = 0;
+		for (CipherPool cipherPool : this.mCipherPools.values()) {
+			contentionCount += cipherPool.getContentionCount();
+		}
+		return contentionCount;
+	}
+
+	/**
+	 * Prefixes an encrypted value with the id of its key.
+	 *
+	 * @param pKeyId
+	 *            the key id
+	 * @param pEncryptedText
+	 *            the encrypted text, may be null
+	 * @return the tagged value, or null if the encrypted text is null
+	 */
+	public static String tag(int pKeyId, String pEncryptedText) {
+		if (pEncryptedText == null) {
+			return null;
+		}
+		return CryptoConstants.KEY_ID_MARKER + Integer.toString(pKeyId) + CryptoConstants.KEY_ID_MARKER
+				+ pEncryptedText;
+	}
+
+	/**
+	 * Writes the key id prefix into a caller supplied char array.
+	 *
+	 * @param pKeyId
+	 *            the key id
+	 * @param pOutput
+	 *            the output chars
+	 * @param pOutputOffset
+	 *            the output offset
+	 * @return the number of chars written
+	 */
+	public static int writePrefix(int pKeyId, char[] pOutput, int pOutputOffset) {
+		int length = getPrefixLength(pKeyId);
+		if (pOutput.length - pOutputOffset < length) {
+			throw new IllegalArgumentException("Output array is too small, " + length + " chars needed.");
+		}
+		pOutput[pOutputOffset] = CryptoConstants.KEY_ID_MARKER;
+		int value = pKeyId;
+		for (int i = pOutputOffset + length - 2; i > pOutputOffset; i--) {
+			pOutput[i] = (char) ('0' + value % 10);
+			value /= 10;
+		}
+		pOutput[pOutputOffset + length - 1] = CryptoConstants.KEY_ID_MARKER;
+		return length;
+	}
+
+	/**
+	 * Writes the key id prefix into a caller supplied buffer as ASCII bytes, advancing its position.
+	 *
+	 * @param pKeyId
+	 *            the key id
+	 * @param pOutput
+	 *            the output buffer
+	 * @return the number of bytes written
+	 */
+	public static int writePrefix(int pKeyId, ByteBuffer pOutput) {
+		int length = getPrefixLength(pKeyId);
+		if (pOutput.remaining() < length) {
+			throw new BufferOverflowException();
+		}
+		int start = pOutput.position();
+		pOutput.put(start, (byte) CryptoConstants.KEY_ID_MARKER);
+		int value = pKeyId;
+		for (int i = start + length - 2; i > start; i--) {
+			pOutput.put(i, (byte) ('0' + value % 10));
+			value /= 10;
+		}
+		pOutput.put(start + length - 1, (byte) CryptoConstants.KEY_ID_MARKER);
+		pOutput.position(start + length);
+		return length;
+	}
+
+	/**
+	 * Gets the length of the prefix for a key id.
+	 *
+	 * @param pKeyId
+	 *            the key id
+	 * @return the prefix length
+	 */
+	public static int getPrefixLength(int pKeyId) {
+		if (pKeyId < 0) {
+			throw new IllegalArgumentException("Key ids can not be negative: " + pKeyId);
+		}
+		int digits = 1;
+		for (int value = pKeyId; value >= 10; value /= 10) {
+			digits++;
+		}
+		return digits + 2;
+	}
+
+	/**
+	 * Parses the key id prefix of a value.
+	 *
+	 * @param pEncryptedText
+	 *            the encrypted text, may be null
+	 * @return the key id, or -1 if the value has no key id prefix
+	 */
+	public static int parseKeyId(CharSequence pEncryptedText) {
+		if (pEncryptedText == null || pEncryptedText.length() == 0
+				|| pEncryptedText.charAt(0) != CryptoConstants.KEY_ID_MARKER) {
+			return -1;
+		}
+		long keyId = 0;
+		int limit = Math.min(pEncryptedText.length(), MAX_KEY_ID_PREFIX_LENGTH);
+		for (int i = 1; i < limit; i++) {
+			char c = pEncryptedText.charAt(i);
+			if (c == CryptoConstants.KEY_ID_MARKER) {
+				return checkKeyId(keyId, i - 1);
+			}
+			keyId = appendDigit(keyId, c);
+		}
+		throw new EncryptionOperationNotPossibleException("Malformed key id prefix.");
+	}
+
+	/**
+	 * Parses the key id prefix of the remaining ASCII bytes of a buffer, without changing its position.
+	 *
+	 * @param pEncryptedText
+	 *            the encrypted ASCII bytes
+	 * @return the key id, or -1 if the value has no key id prefix
+	 */
+	public static int parseKeyId(ByteBuffer pEncryptedText) {
+		int start = pEncryptedText.position();
+		if (!pEncryptedText.hasRemaining() || pEncryptedText.get(start) != CryptoConstants.KEY_ID_MARKER) {
+			return -1;
+		}
+		long keyId = 0;
+		int limit = start + Math.min(pEncryptedText.remaining(), MAX_KEY_ID_PREFIX_LENGTH);
+		for (int i = start + 1; i < limit; i++) {
+			char c = (char) pEncryptedText.get(i);
+			if (c == CryptoConstants.KEY_ID_MARKER) {
+				return checkKeyId(keyId, i - start - 1);
+			}
+			keyId = appendDigit(keyId, c);
+		}
+		throw new EncryptionOperationNotPossibleException("Malformed key id prefix.");
+	}
+
+	/**
+	 * Appends a digit to a key id being parsed.
+	 *
+	 * @param pKeyId
+	 *            the key id so far
+	 * @param pDigit
+	 *            the next character
+	 * @return the key id
+	 */
+	private static long appendDigit(long pKeyId, char pDigit) {
+		if (pDigit < '0' || pDigit > '9') {
+			throw new EncryptionOperationNotPossibleException("Malformed key id prefix.");
+		}
+		return pKeyId * 10 + (pDigit - '0');
+	}
+
+	/**
+	 * Checks a parsed key id. The id must fit an int and have no leading zeros, so that its prefix length can be
+	 * computed from the id alone.
+	 *
+	 * @param pKeyId
+	 *            the parsed key id
+	 * @param pDigits
+	 *            the number of digits parsed
+	 * @return the key id
+	 */
+	private static int checkKeyId(long pKeyId, int pDigits) {
+		if (pDigits == 0 || pKeyId > Integer.MAX_VALUE || getPrefixLength((int) pKeyId) != pDigits + 2) {
+			throw new EncryptionOperationNotPossibleException("Malformed key id prefix.");
+		}
+		return (int) pKeyId;
+	}
+
+}
@@ -0,0 +1,189 @@
+/*
+ * Please read the README.md and LICENSE.md files contained in this repository or module.
+ *
+ * Please contact sales@sparkred.com or support@sparkred.com if you have any questions.
+ *
+ * This code is copyright Spark::red https://www.sparkred.com 2007-2016, all right reserved.
+ */
+package com.sparkred.crypto;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The Class LatencyHistogram is a lock-free histogram of latencies in nanoseconds, recorded by many threads at once.
+ *
+ * Each power of two is split into 8 buckets, so a percentile is read within about 6% of the recorded latencies, from
+ * nanoseconds up to about a minute, longer latencies count in the last bucket. As with {@link StripedCounter}, each
+ * thread records into the copy of the buckets picked by its thread id, and reading the histogram sums the copies.
+ */
+final class LatencyHistogram implements Serializable {
+
+	/**
+	 * Generated serial version UID.
+	 */
+	private static final long serialVersionUID = 4212964807931812585L;
+
+	/** The number of bits of a latency kept below its highest bit, 8 buckets per power of two. */
+	private static final int SUB_BUCKET_BITS = 3;
+
+	/** The number of buckets per power of two. */
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	/** The highest bit of the largest latency told apart, 2^36 ns is about 69 seconds. */
+	private static final int MAX_HIGHEST_BIT = 36;
+
+	/** The number of buckets. */
+	private static final int BUCKET_COUNT = bucketIndex((1L << (MAX_HIGHEST_BIT + 1)) - 1) + 1;
+
+	/** The counts of each bucket, one copy of every bucket per stripe. */
+	private final AtomicLongArray mCounts;
+
+	/** The sum of the recorded latencies, in nanoseconds. */
+	private final StripedCounter mTotalNanos = new StripedCounter();
+
+	/** The mask picking the stripe of a thread id. */
+	private final int mMask;
+
+	/**
+	 * Instantiates a new latency histogram.
+	 */
+	LatencyHistogram() {
+		int stripes = StripedCounter.stripeCount();
+		// The padding keeps the last bucket of a stripe off the cache line of the next stripe's first bucket
+		this.mCounts = new AtomicLongArray(stripes * stride());
+		this.mMask = stripes - 1;
+	}
+
+	/**
+	 * Gets the number of longs between the copies of the buckets.
+	 *
+	 * @return the stride
+	 */
+	private static int stride() {
+		return BUCKET_COUNT + StripedCounter.CELL_PADDING;
+	}
+
+	/**
+	 * Gets the bucket of a latency.
+	 *
+	 * @param pNanos
+	 *            the latency in nanoseconds
+	 * @return the bucket index
+	 */
+	private static int bucketIndex(long pNanos) {
+		if (pNanos < SUB_BUCKETS) {
+			return (int) Math.max(0, pNanos);
+		}
+		int highestBit = 63 - Long.numberOfLeadingZeros(pNanos);
+		if (highestBit > MAX_HIGHEST_BIT) {
+			return BUCKET_COUNT - 1;
+		}
+		int subBucket = (int) (pNanos >>> (highestBit - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return ((highestBit - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) + subBucket;
+	}
+
+	/**
+	 * Gets the middle of the latencies counted in a bucket.
+	 *
+	 * @param pIndex
+	 *            the bucket index
+	 * @return the latency in nanoseconds
+	 */
+	private static long bucketValue(int pIndex) {
+		if (pIndex < SUB_BUCKETS) {
+			return pIndex;
+		}
+		int shift = (pIndex >>> SUB_BUCKET_BITS) - 1;
+		long lowest = (long) (SUB_BUCKETS + (pIndex & (SUB_BUCKETS - 1))) << shift;
+		return lowest + ((1L << shift) >>> 1);
+	}
+
+	/**
+	 * Records a latency.
+	 *
+	 * @param pNanos
+	 *            the latency in nanoseconds
+	 */
+	void record(long pNanos) {
+		this.mCounts.getAndIncrement(StripedCounter.stripe(this.mMask) * stride() + bucketIndex(pNanos));
+		this.mTotalNanos.add(pNanos);
+	}
+
+	/**
+	 * Sums the copies of the buckets.
+	 *
+	 * @return the count of each bucket
+	 */
+	private long[] snapshot() {
+		long[] counts = new long[BUCKET_COUNT];
+		for (int stripe = 0; stripe <= this.mMask; stripe++) {
+			int offset = stripe * stride();
+			for (int i = 0; i < BUCKET_COUNT; i++) {
+				counts[i] += this.mCounts.get(offset + i);
+			}
+		}
+		return counts;
+	}
+
+	/**
+	 * Gets the number of latencies recorded.
+	 *
+	 * @return the count
+	 */
+	long getCount() {
+		long count = 0;
+		for (long bucketCount : snapshot()) {
+			count += bucketCount;
+		}
+		return count;
+	}
+
+	/**
+	 * Gets the mean of the latencies recorded.
+	 *
+	 * @return the mean in nanoseconds, 0 if none were recorded
+	 */
+	double getMeanNanos() {
+		long count = getCount();
+		return count == 0 ? 0 : (double) this.mTotalNanos.sum() / count;
+	}
+
+	/**
+	 * Gets the latency under which a fraction of the recorded latencies fall.
+	 *
+	 * @param pFraction
+	 *            the fraction, 0.99 for the 99th percentile
+	 * @return the percentile in nanoseconds, 0 if none were recorded
+	 */
+	long getPercentileNanos(double pFraction) {
+		long[] counts = snapshot();
+		long count = 0;
+		for (long bucketCount : counts) {
+			count += bucketCount;
+		}
+		if (count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(pFraction * count));
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return bucketValue(i);
+			}
+		}
+		return bucketValue(counts.length - 1);
+	}
+
+	/**
+	 * Resets every bucket. Latencies recorded concurrently may be lost.
+	 */
+	void reset() {
+		for (int i = 0; i < this.mCounts.length(); i++) {
+			this.mCounts.set(i, 0);
+		}
+		this.mTotalNanos.reset();
+	}
+
+}
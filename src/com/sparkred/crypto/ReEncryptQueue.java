@@ -0,0 +1,507 @@
+/*
+ * Please read the README.md and LICENSE.md files contained in this repository or module.
+ *
+ * Please contact sales@sparkred.com or support@sparkred.com if you have any questions.
+ *
+ * This code is copyright Spark::red https://www.sparkred.com 2007-2016, all right reserved.
+ */
+package com.sparkred.crypto;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.transaction.TransactionManager;
+
+import atg.dtm.TransactionDemarcation;
+import atg.dtm.TransactionDemarcationException;
+import atg.nucleus.GenericService;
+import atg.nucleus.ServiceException;
+import atg.repository.MutableRepository;
+import atg.repository.MutableRepositoryItem;
+import atg.repository.RepositoryException;
+import atg.service.scheduler.Schedulable;
+import atg.service.scheduler.Schedule;
+import atg.service.scheduler.ScheduledJob;
+import atg.service.scheduler.Scheduler;
+
+/**
+ * The Class ReEncryptQueue re-encrypts values with the active key of their crypto engine as they are read. A
+ * {@link CryptoPropertyDescriptor} with the reEncryptQueue attribute offers every item whose value it decrypted from an
+ * older key, or from the pbe format while the engine is in the derivedKey cipher mode. The scheduled job then reads
+ * each queued property and sets it again, which encrypts it with the active key, committing the items in batches.
+ *
+ * Items are queued once however often they are read before they are rewritten. When the queue is full, or a batch
+ * fails, the items are dropped, they are simply offered again the next time they are read. Frequently read rows are
+ * migrated this way as part of normal traffic, and the RekeyEngine only needs to sweep the rest.
+ *
+ * An item is only set again if reading it for the rewrite offers it again, that is if its stored value is still not
+ * current, so items which were re-encrypted in the meantime, by a rekey or a regular update, are skipped and counted
+ * apart from the rewritten ones.
+ */
+public class ReEncryptQueue extends GenericService implements Schedulable {
+
+	/** The default maximum number of queued items. */
+	private static final int DEFAULT_MAX_QUEUE_SIZE = 10000;
+
+	/** The default maximum number of items rewritten per scheduled run. */
+	private static final int DEFAULT_MAX_ITEMS_PER_RUN = 500;
+
+	/** The default number of items rewritten per transaction. */
+	private static final int DEFAULT_BATCH_SIZE = 50;
+
+	/** The queued items, by key, so that an item read many times is only queued once. */
+	private final ConcurrentMap<String, QueuedItem> mQueuedItems = new ConcurrentHashMap<String, QueuedItem>();
+
+	/** The queued items, in the order they were offered. */
+	private final ConcurrentLinkedQueue<QueuedItem> mQueue = new ConcurrentLinkedQueue<QueuedItem>();
+
+	/** The number of queued items, kept separately as the size of a concurrent queue is not constant time. */
+	private final AtomicInteger mQueueSize = new AtomicInteger();
+
+	/** The flag set while a scheduled run is in progress. */
+	private final AtomicBoolean mRunning = new AtomicBoolean();
+
+	/** The number of items queued. */
+	private final AtomicLong mQueuedCount = new AtomicLong();
+
+	/** The number of items dropped because the queue was full. */
+	private final AtomicLong mDroppedCount = new AtomicLong();
+
+	/** The number of items rewritten. */
+	private final AtomicLong mRewrittenCount = new AtomicLong();
+
+	/** The number of items skipped because their value was already current, or gone, when they were read again. */
+	private final AtomicLong mSkippedCount = new AtomicLong();
+
+	/** The number of items which could not be rewritten. */
+	private final AtomicLong mFailedCount = new AtomicLong();
+
+	/** The transaction manager. */
+	private TransactionManager mTransactionManager;
+
+	/** The maximum number of queued items. */
+	private int mMaxQueueSize = DEFAULT_MAX_QUEUE_SIZE;
+
+	/** The maximum number of items rewritten per scheduled run, which together with the schedule sets the rate. */
+	private int mMaxItemsPerRun = DEFAULT_MAX_ITEMS_PER_RUN;
+
+	/** The number of items rewritten per transaction. */
+	private int mBatchSize = DEFAULT_BATCH_SIZE;
+
+	/** The Scheduler. */
+	private Scheduler mScheduler;
+
+	/** The Schedule. */
+	private Schedule mSchedule;
+
+	/** The Job id for the scheduler. */
+	private int mJobId;
+
+	/**
+	 * Do start service.
+	 *
+	 * @throws ServiceException
+	 *             the service exception
+	 * @see atg.nucleus.GenericService#doStartService()
+	 */
+	@Override
+	public void doStartService() throws ServiceException {
+		if (getTransactionManager() == null) {
+			if (isLoggingError()) {
+				logError("ReEncryptQueue.doStartService: " + "TransactionManager was null.");
+			}
+			throw new ServiceException("TransactionManager was null.");
+		}
+		ScheduledJob job = new ScheduledJob("SR:Crypto:ReEncryptQueue",
+				"Re-encrypts values read with an older key of their Spark::red crypto engine.", getAbsoluteName(),
+				getSchedule(), this, ScheduledJob.SEPARATE_THREAD);
+		setJobId(getScheduler().addScheduledJob(job));
+	}
+
+	/**
+	 * Do stop service.
+	 *
+	 * @throws ServiceException
+	 *             the service exception
+	 * @see atg.nucleus.GenericService#doStopService()
+	 */
+	@Override
+	public void doStopService() throws ServiceException {
+		getScheduler().removeScheduledJob(getJobId());
+	}
+
+	/**
+	 * Offers an item for re-encryption of one of its properties. This does not block, and if the item is already
+	 * queued only marks it as offered again.
+	 *
+	 * @param pRepository
+	 *            the repository of the item
+	 * @param pItemDescriptorName
+	 *            the item descriptor name
+	 * @param pRepositoryId
+	 *            the repository id of the item
+	 * @param pPropertyName
+	 *            the name of the encrypted property
+	 * @return true, if the item is queued
+	 */
+	public boolean offer(MutableRepository pRepository, String pItemDescriptorName, String pRepositoryId,
+			String pPropertyName) {
+		String key = pItemDescriptorName + ':' + pRepositoryId + ':' + pPropertyName + '@'
+				+ System.identityHashCode(pRepository);
+		QueuedItem queuedItem = this.mQueuedItems.get(key);
+		if (queuedItem != null) {
+			queuedItem.mOfferedAgain = true;
+			return true;
+		}
+		if (this.mQueueSize.get() >= getMaxQueueSize()) {
+			this.mDroppedCount.incrementAndGet();
+			return false;
+		}
+		queuedItem = new QueuedItem(key, pRepository, pItemDescriptorName, pRepositoryId, pPropertyName);
+		if (this.mQueuedItems.putIfAbsent(key, queuedItem) == null) {
+			this.mQueueSize.incrementAndGet();
+			this.mQueuedCount.incrementAndGet();
+			this.mQueue.add(queuedItem);
+		}
+		return true;
+	}
+
+	/**
+	 * Rewrites up to maxItemsPerRun queued items, in batches of batchSize per transaction.
+	 *
+	 * @param pScheduler
+	 *            the scheduler
+	 * @param pJob
+	 *            the job
+	 * @see atg.service.scheduler.Schedulable#performScheduledTask(atg.service.scheduler.Scheduler,
+	 *      atg.service.scheduler.ScheduledJob)
+	 */
+	public void performScheduledTask(Scheduler pScheduler, ScheduledJob pJob) {
+		// A run which takes longer than the schedule period is not overlapped by the next one
+		if (!this.mRunning.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			int remaining = getMaxItemsPerRun();
+			while (remaining > 0) {
+				List<QueuedItem> batch = new ArrayList<QueuedItem>();
+				QueuedItem queuedItem;
+				while (batch.size() < Math.min(remaining, Math.max(1, getBatchSize()))
+						&& (queuedItem = this.mQueue.poll()) != null) {
+					batch.add(queuedItem);
+				}
+				if (batch.isEmpty()) {
+					break;
+				}
+				rewrite(batch);
+				remaining -= batch.size();
+			}
+		} finally {
+			this.mRunning.set(false);
+		}
+	}
+
+	/**
+	 * Rewrites a batch of items in one transaction. The items are only removed from the queued items afterwards, so
+	 * that reading them to rewrite them does not queue them again, but marks them as offered again if their value is
+	 * still not current. The others are skipped.
+	 *
+	 * @param pBatch
+	 *            the batch
+	 */
+	private void rewrite(List<QueuedItem> pBatch) {
+		TransactionDemarcation td = new TransactionDemarcation();
+		boolean rollback = true;
+		int rewritten = 0;
+		try {
+			td.begin(getTransactionManager(), TransactionDemarcation.REQUIRES_NEW);
+			for (QueuedItem queuedItem : pBatch) {
+				MutableRepositoryItem item = queuedItem.mRepository.getItemForUpdate(queuedItem.mRepositoryId,
+						queuedItem.mItemDescriptorName);
+				if (item == null) {
+					continue;
+				}
+				// Getting the property decrypts it, and offers the item again if the stored value is not current
+				queuedItem.mOfferedAgain = false;
+				Object value = item.getPropertyValue(queuedItem.mPropertyName);
+				if (value != null && queuedItem.mOfferedAgain) {
+					// Setting it encrypts it with the active key
+					item.setPropertyValue(queuedItem.mPropertyName, value);
+					queuedItem.mRepository.updateItem(item);
+					rewritten++;
+				}
+			}
+			rollback = false;
+		} catch (TransactionDemarcationException tde) {
+			if (isLoggingError()) {
+				logError("ReEncryptQueue.rewrite: " + "TransactionDemarcationException:", tde);
+			}
+		} catch (RepositoryException re) {
+			if (isLoggingError()) {
+				logError("ReEncryptQueue.rewrite: " + "RepositoryException, " + pBatch.size()
+						+ " items were not re-encrypted.", re);
+			}
+		} finally {
+			try {
+				td.end(rollback);
+			} catch (TransactionDemarcationException tde) {
+				rollback = true;
+				if (isLoggingError()) {
+					logError("ReEncryptQueue.rewrite: " + "TransactionDemarcationException ending the transaction, "
+							+ pBatch.size() + " items were not re-encrypted.", tde);
+				}
+			}
+			for (QueuedItem queuedItem : pBatch) {
+				this.mQueuedItems.remove(queuedItem.mKey);
+			}
+			this.mQueueSize.addAndGet(-pBatch.size());
+		}
+		if (rollback) {
+			this.mFailedCount.addAndGet(pBatch.size());
+		} else {
+			this.mRewrittenCount.addAndGet(rewritten);
+			this.mSkippedCount.addAndGet(pBatch.size() - rewritten);
+		}
+	}
+
+	/**
+	 * Gets the number of items waiting to be re-encrypted.
+	 *
+	 * @return the queue size
+	 */
+	public int getQueueSize() {
+		return this.mQueueSize.get();
+	}
+
+	/**
+	 * Gets the number of items queued since startup.
+	 *
+	 * @return the queued count
+	 */
+	public long getQueuedCount() {
+		return this.mQueuedCount.get();
+	}
+
+	/**
+	 * Gets the number of items dropped because the queue was full.
+	 *
+	 * @return the dropped count
+	 */
+	public long getDroppedCount() {
+		return this.mDroppedCount.get();
+	}
+
+	/**
+	 * Gets the number of items re-encrypted since startup.
+	 *
+	 * @return the rewritten count
+	 */
+	public long getRewrittenCount() {
+		return this.mRewrittenCount.get();
+	}
+
+	/**
+	 * Gets the number of items which were not rewritten, because their value was already current, or no longer
+	 * existed, when they were read again.
+	 *
+	 * @return the skipped count
+	 */
+	public long getSkippedCount() {
+		return this.mSkippedCount.get();
+	}
+
+	/**
+	 * Gets the number of items which could not be re-encrypted.
+	 *
+	 * @return the failed count
+	 */
+	public long getFailedCount() {
+		return this.mFailedCount.get();
+	}
+
+	/**
+	 * Gets the transaction manager.
+	 *
+	 * @return the transaction manager
+	 */
+	public TransactionManager getTransactionManager() {
+		return this.mTransactionManager;
+	}
+
+	/**
+	 * Sets the transaction manager.
+	 *
+	 * @param pTransactionManager
+	 *            the new transaction manager
+	 */
+	public void setTransactionManager(TransactionManager pTransactionManager) {
+		this.mTransactionManager = pTransactionManager;
+	}
+
+	/**
+	 * Gets the maximum number of queued items.
+	 *
+	 * @return the max queue size
+	 */
+	public int getMaxQueueSize() {
+		return this.mMaxQueueSize;
+	}
+
+	/**
+	 * Sets the maximum number of queued items.
+	 *
+	 * @param pMaxQueueSize
+	 *            the new max queue size
+	 */
+	public void setMaxQueueSize(int pMaxQueueSize) {
+		this.mMaxQueueSize = pMaxQueueSize;
+	}
+
+	/**
+	 * Gets the maximum number of items rewritten per scheduled run.
+	 *
+	 * @return the max items per run
+	 */
+	public int getMaxItemsPerRun() {
+		return this.mMaxItemsPerRun;
+	}
+
+	/**
+	 * Sets the maximum number of items rewritten per scheduled run.
+	 *
+	 * @param pMaxItemsPerRun
+	 *            the new max items per run
+	 */
+	public void setMaxItemsPerRun(int pMaxItemsPerRun) {
+		this.mMaxItemsPerRun = pMaxItemsPerRun;
+	}
+
+	/**
+	 * Gets the number of items rewritten per transaction.
+	 *
+	 * @return the batch size
+	 */
+	public int getBatchSize() {
+		return this.mBatchSize;
+	}
+
+	/**
+	 * Sets the number of items rewritten per transaction.
+	 *
+	 * @param pBatchSize
+	 *            the new batch size
+	 */
+	public void setBatchSize(int pBatchSize) {
+		this.mBatchSize = pBatchSize;
+	}
+
+	/**
+	 * Gets the scheduler.
+	 *
+	 * @return the scheduler
+	 */
+	public Scheduler getScheduler() {
+		return this.mScheduler;
+	}
+
+	/**
+	 * Sets the scheduler.
+	 *
+	 * @param pScheduler
+	 *            the new scheduler
+	 */
+	public void setScheduler(Scheduler pScheduler) {
+		this.mScheduler = pScheduler;
+	}
+
+	/**
+	 * Gets the schedule.
+	 *
+	 * @return the schedule
+	 */
+	public Schedule getSchedule() {
+		return this.mSchedule;
+	}
+
+	/**
+	 * Sets the schedule.
+	 *
+	 * @param pSchedule
+	 *            the new schedule
+	 */
+	public void setSchedule(Schedule pSchedule) {
+		this.mSchedule = pSchedule;
+	}
+
+	/**
+	 * Gets the job id.
+	 *
+	 * @return the job id
+	 */
+	public int getJobId() {
+		return this.mJobId;
+	}
+
+	/**
+	 * Sets the job id.
+	 *
+	 * @param pJobId
+	 *            the new job id
+	 */
+	public void setJobId(int pJobId) {
+		this.mJobId = pJobId;
+	}
+
+	/**
+	 * The Class QueuedItem is the property of one item waiting to be re-encrypted.
+	 */
+	private static final class QueuedItem {
+
+		/** The key of the item in the queued items. */
+		private final String mKey;
+
+		/** The repository. */
+		private final MutableRepository mRepository;
+
+		/** The item descriptor name. */
+		private final String mItemDescriptorName;
+
+		/** The repository id. */
+		private final String mRepositoryId;
+
+		/** The property name. */
+		private final String mPropertyName;
+
+		/** The flag set when the item is offered again while queued, that is its value was read and is not current. */
+		private volatile boolean mOfferedAgain;
+
+		/**
+		 * Instantiates a new queued item.
+		 *
+		 * @param pKey
+		 *            the key of the item in the queued items
+		 * @param pRepository
+		 *            the repository
+		 * @param pItemDescriptorName
+		 *            the item descriptor name
+		 * @param pRepositoryId
+		 *            the repository id
+		 * @param pPropertyName
+		 *            the property name
+		 */
+		QueuedItem(String pKey, MutableRepository pRepository, String pItemDescriptorName, String pRepositoryId,
+				String pPropertyName) {
+			this.mKey = pKey;
+			this.mRepository = pRepository;
+			this.mItemDescriptorName = pItemDescriptorName;
+			this.mRepositoryId = pRepositoryId;
+			this.mPropertyName = pPropertyName;
+		}
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ * Please read the README.md and LICENSE.md files contained in this repository or module.
+ *
+ * Please contact sales@sparkred.com or support@sparkred.com if you have any questions.
+ *
+ * This code is copyright Spark::red https://www.sparkred.com 2007-2016, all right reserved.
+ */
+package com.sparkred.crypto;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The Class StripedCounter is a lock-free counter for values added by many threads at once. Each thread adds to the
+ * cell picked by its thread id, as in {@link CipherPool}, and the cells are a cache line apart, so threads on
+ * different cells do not contend. Reading the counter sums the cells.
+ */
+final class StripedCounter implements Serializable {
+
+	/**
+	 * Generated serial version UID.
+	 */
+	private static final long serialVersionUID = -2650283425829213874L;
+
+	/** The number of longs in a cache line, the distance between two cells. */
+	static final int CELL_PADDING = 8;
+
+	/** The largest number of cells. */
+	private static final int MAX_STRIPES = 16;
+
+	/** The cells, CELL_PADDING longs apart. */
+	private final AtomicLongArray mCells;
+
+	/** The mask picking the cell of a thread id. */
+	private final int mMask;
+
+	/**
+	 * Instantiates a new striped counter, with one cell per available processor up to 16.
+	 */
+	StripedCounter() {
+		int stripes = stripeCount();
+		this.mCells = new AtomicLongArray(stripes * CELL_PADDING);
+		this.mMask = stripes - 1;
+	}
+
+	/**
+	 * Gets the number of stripes for this JVM: the number of available processors rounded up to a power of two, up to
+	 * 16.
+	 *
+	 * @return the stripe count
+	 */
+	static int stripeCount() {
+		int processors = Math.min(MAX_STRIPES, Runtime.getRuntime().availableProcessors());
+		return processors <= 1 ? 1 : Integer.highestOneBit((processors - 1) << 1);
+	}
+
+	/**
+	 * Gets the stripe of the current thread.
+	 *
+	 * @param pMask
+	 *            the stripe count minus one
+	 * @return the stripe index
+	 */
+	static int stripe(int pMask) {
+		return (int) (Thread.currentThread().getId() & pMask);
+	}
+
+	/**
+	 * Adds a value.
+	 *
+	 * @param pValue
+	 *            the value
+	 */
+	void add(long pValue) {
+		this.mCells.getAndAdd(stripe(this.mMask) * CELL_PADDING, pValue);
+	}
+
+	/**
+	 * Adds one.
+	 */
+	void increment() {
+		add(1);
+	}
+
+	/**
+	 * Gets the sum of the values added since the last reset.
+	 *
+	 * @return the sum
+	 */
+	long sum() {
+		long sum = 0;
+		for (int i = 0; i < this.mCells.length(); i += CELL_PADDING) {
+			sum += this.mCells.get(i);
+		}
+		return sum;
+	}
+
+	/**
+	 * Resets the counter to zero. Values added concurrently may be lost.
+	 */
+	void reset() {
+		for (int i = 0; i < this.mCells.length(); i += CELL_PADDING) {
+			this.mCells.set(i, 0);
+		}
+	}
+
+}
@@ -0,0 +1,376 @@
+/*
+ * Please read the README.md and LICENSE.md files contained in this repository or module.
+ *
+ * Please contact sales@sparkred.com or support@sparkred.com if you have any questions.
+ *
+ * This code is copyright Spark::red https://www.sparkred.com 2007-2016, all right reserved.
+ */
+package com.sparkred.crypto;
+
+/**
+ * The Class TextCodec has Base64 and UTF-8 conversions which read from and write into caller supplied arrays, so the
+ * buffer based encryption path does not allocate intermediate arrays or Strings.
+ *
+ * The Base64 output uses the standard alphabet with padding and no line breaks, the same as the commons-codec encoder
+ * used by jasypt, so values are interchangeable with the String based path.
+ */
+public final class TextCodec {
+
+	/** The Base64 alphabet. */
+	private static final char[] BASE64_ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/"
+			.toCharArray();
+
+	/** The Base64 padding character. */
+	private static final char BASE64_PAD = '=';
+
+	/** The Base64 decoding table, -1 for characters outside of the alphabet. */
+	private static final int[] BASE64_VALUES = new int[128];
+
+	static {
+		for (int i = 0; i < BASE64_VALUES.length; i++) {
+			BASE64_VALUES[i] = -1;
+		}
+		for (int i = 0; i < BASE64_ALPHABET.length; i++) {
+			BASE64_VALUES[BASE64_ALPHABET[i]] = i;
+		}
+	}
+
+	/**
+	 * Instantiates a new text codec. This is a static utility class.
+	 */
+	private TextCodec() {
+	}
+
+	/**
+	 * Gets the Base64 encoded length of a number of bytes.
+	 *
+	 * @param pLength
+	 *            the number of bytes
+	 * @return the number of Base64 characters
+	 */
+	public static int base64EncodedLength(int pLength) {
+		return ((pLength + 2) / 3) * 4;
+	}
+
+	/**
+	 * Gets the largest number of bytes a Base64 text of the passed in length can decode to.
+	 *
+	 * @param pLength
+	 *            the number of Base64 characters
+	 * @return the maximum number of bytes
+	 */
+	public static int base64MaxDecodedLength(int pLength) {
+		return (pLength / 4) * 3;
+	}
+
+	/**
+	 * Gets the largest number of UTF-8 bytes the passed in number of chars can encode to.
+	 *
+	 * @param pLength
+	 *            the number of chars
+	 * @return the maximum number of bytes
+	 */
+	public static int utf8MaxEncodedLength(int pLength) {
+		return pLength * 3;
+	}
+
+	/**
+	 * Base64 encodes bytes into a char array.
+	 *
+	 * @param pSource
+	 *            the source bytes
+	 * @param pOffset
+	 *            the source offset
+	 * @param pLength
+	 *            the number of source bytes
+	 * @param pDestination
+	 *            the destination chars
+	 * @param pDestinationOffset
+	 *            the destination offset
+	 * @return the number of chars written
+	 */
+	public static int encodeBase64(byte[] pSource, int pOffset, int pLength, char[] pDestination,
+			int pDestinationOffset) {
+		int out = pDestinationOffset;
+		int end = pOffset + pLength;
+		int in = pOffset;
+		while (end - in >= 3) {
+			int bits = ((pSource[in] & 0xff) << 16) | ((pSource[in + 1] & 0xff) << 8) | (pSource[in + 2] & 0xff);
+			pDestination[out++] = BASE64_ALPHABET[(bits >>> 18) & 0x3f];
+			pDestination[out++] = BASE64_ALPHABET[(bits >>> 12) & 0x3f];
+			pDestination[out++] = BASE64_ALPHABET[(bits >>> 6) & 0x3f];
+			pDestination[out++] = BASE64_ALPHABET[bits & 0x3f];
+			in += 3;
+		}
+		int remaining = end - in;
+		if (remaining > 0) {
+			int bits = (pSource[in] & 0xff) << 16;
+			if (remaining == 2) {
+				bits |= (pSource[in + 1] & 0xff) << 8;
+			}
+			pDestination[out++] = BASE64_ALPHABET[(bits >>> 18) & 0x3f];
+			pDestination[out++] = BASE64_ALPHABET[(bits >>> 12) & 0x3f];
+			pDestination[out++] = remaining == 2 ? BASE64_ALPHABET[(bits >>> 6) & 0x3f] : BASE64_PAD;
+			pDestination[out++] = BASE64_PAD;
+		}
+		return out - pDestinationOffset;
+	}
+
+	/**
+	 * Base64 encodes bytes into ASCII bytes.
+	 *
+	 * @param pSource
+	 *            the source bytes
+	 * @param pOffset
+	 *            the source offset
+	 * @param pLength
+	 *            the number of source bytes
+	 * @param pDestination
+	 *            the destination bytes
+	 * @param pDestinationOffset
+	 *            the destination offset
+	 * @return the number of bytes written
+	 */
+	public static int encodeBase64(byte[] pSource, int pOffset, int pLength, byte[] pDestination,
+			int pDestinationOffset) {
+		int out = pDestinationOffset;
+		int end = pOffset + pLength;
+		int in = pOffset;
+		while (end - in >= 3) {
+			int bits = ((pSource[in] & 0xff) << 16) | ((pSource[in + 1] & 0xff) << 8) | (pSource[in + 2] & 0xff);
+			pDestination[out++] = (byte) BASE64_ALPHABET[(bits >>> 18) & 0x3f];
+			pDestination[out++] = (byte) BASE64_ALPHABET[(bits >>> 12) & 0x3f];
+			pDestination[out++] = (byte) BASE64_ALPHABET[(bits >>> 6) & 0x3f];
+			pDestination[out++] = (byte) BASE64_ALPHABET[bits & 0x3f];
+			in += 3;
+		}
+		int remaining = end - in;
+		if (remaining > 0) {
+			int bits = (pSource[in] & 0xff) << 16;
+			if (remaining == 2) {
+				bits |= (pSource[in + 1] & 0xff) << 8;
+			}
+			pDestination[out++] = (byte) BASE64_ALPHABET[(bits >>> 18) & 0x3f];
+			pDestination[out++] = (byte) BASE64_ALPHABET[(bits >>> 12) & 0x3f];
+			pDestination[out++] = (byte) (remaining == 2 ? BASE64_ALPHABET[(bits >>> 6) & 0x3f] : BASE64_PAD);
+			pDestination[out++] = (byte) BASE64_PAD;
+		}
+		return out - pDestinationOffset;
+	}
+
+	/**
+	 * Decodes Base64 chars into bytes.
+	 *
+	 * @param pSource
+	 *            the source chars
+	 * @param pOffset
+	 *            the source offset
+	 * @param pLength
+	 *            the number of source chars, must be a multiple of four
+	 * @param pDestination
+	 *            the destination bytes
+	 * @param pDestinationOffset
+	 *            the destination offset
+	 * @return the number of bytes written
+	 * @throws IllegalArgumentException
+	 *             if the source is not valid Base64
+	 */
+	public static int decodeBase64(char[] pSource, int pOffset, int pLength, byte[] pDestination,
+			int pDestinationOffset) {
+		if (pLength % 4 != 0) {
+			throw new IllegalArgumentException("Base64 text length is not a multiple of four.");
+		}
+		int out = pDestinationOffset;
+		for (int in = pOffset; in < pOffset + pLength; in += 4) {
+			out += decodeQuantum(pSource[in], pSource[in + 1], pSource[in + 2], pSource[in + 3], pDestination, out);
+		}
+		return out - pDestinationOffset;
+	}
+
+	/**
+	 * Decodes Base64 ASCII bytes into bytes. The source and destination may be the same array, as long as the
+	 * destination offset is not past the source offset.
+	 *
+	 * @param pSource
+	 *            the source ASCII bytes
+	 * @param pOffset
+	 *            the source offset
+	 * @param pLength
+	 *            the number of source bytes, must be a multiple of four
+	 * @param pDestination
+	 *            the destination bytes
+	 * @param pDestinationOffset
+	 *            the destination offset
+	 * @return the number of bytes written
+	 * @throws IllegalArgumentException
+	 *             if the source is not valid Base64
+	 */
+	public static int decodeBase64(byte[] pSource, int pOffset, int pLength, byte[] pDestination,
+			int pDestinationOffset) {
+		if (pLength % 4 != 0) {
+			throw new IllegalArgumentException("Base64 text length is not a multiple of four.");
+		}
+		int out = pDestinationOffset;
+		for (int in = pOffset; in < pOffset + pLength; in += 4) {
+			out += decodeQuantum((char) (pSource[in] & 0xff), (char) (pSource[in + 1] & 0xff),
+					(char) (pSource[in + 2] & 0xff), (char) (pSource[in + 3] & 0xff), pDestination, out);
+		}
+		return out - pDestinationOffset;
+	}
+
+	/**
+	 * Decodes one group of four Base64 characters.
+	 *
+	 * @param pC0
+	 *            the first char
+	 * @param pC1
+	 *            the second char
+	 * @param pC2
+	 *            the third char
+	 * @param pC3
+	 *            the fourth char
+	 * @param pDestination
+	 *            the destination bytes
+	 * @param pDestinationOffset
+	 *            the destination offset
+	 * @return the number of bytes written
+	 */
+	private static int decodeQuantum(char pC0, char pC1, char pC2, char pC3, byte[] pDestination,
+			int pDestinationOffset) {
+		int bits = (base64Value(pC0) << 18) | (base64Value(pC1) << 12);
+		if (pC3 == BASE64_PAD) {
+			if (pC2 == BASE64_PAD) {
+				pDestination[pDestinationOffset] = (byte) (bits >>> 16);
+				return 1;
+			}
+			bits |= base64Value(pC2) << 6;
+			pDestination[pDestinationOffset] = (byte) (bits >>> 16);
+			pDestination[pDestinationOffset + 1] = (byte) (bits >>> 8);
+			return 2;
+		}
+		bits |= (base64Value(pC2) << 6) | base64Value(pC3);
+		pDestination[pDestinationOffset] = (byte) (bits >>> 16);
+		pDestination[pDestinationOffset + 1] = (byte) (bits >>> 8);
+		pDestination[pDestinationOffset + 2] = (byte) bits;
+		return 3;
+	}
+
+	/**
+	 * Gets the 6 bit value of a Base64 character.
+	 *
+	 * @param pChar
+	 *            the char
+	 * @return the value
+	 * @throws IllegalArgumentException
+	 *             if the char is not in the Base64 alphabet
+	 */
+	private static int base64Value(char pChar) {
+		int value = pChar < BASE64_VALUES.length ? BASE64_VALUES[pChar] : -1;
+		if (value < 0) {
+			throw new IllegalArgumentException("Invalid Base64 character.");
+		}
+		return value;
+	}
+
+	/**
+	 * UTF-8 encodes chars into bytes.
+	 *
+	 * @param pSource
+	 *            the source chars
+	 * @param pOffset
+	 *            the source offset
+	 * @param pLength
+	 *            the number of source chars
+	 * @param pDestination
+	 *            the destination bytes, at least {@link #utf8MaxEncodedLength(int)} long from the offset
+	 * @param pDestinationOffset
+	 *            the destination offset
+	 * @return the number of bytes written
+	 */
+	public static int encodeUtf8(char[] pSource, int pOffset, int pLength, byte[] pDestination,
+			int pDestinationOffset) {
+		int out = pDestinationOffset;
+		int end = pOffset + pLength;
+		for (int in = pOffset; in < end; in++) {
+			int c = pSource[in];
+			if (c < 0x80) {
+				pDestination[out++] = (byte) c;
+			} else if (c < 0x800) {
+				pDestination[out++] = (byte) (0xc0 | (c >>> 6));
+				pDestination[out++] = (byte) (0x80 | (c & 0x3f));
+			} else if (Character.isHighSurrogate((char) c) && in + 1 < end
+					&& Character.isLowSurrogate(pSource[in + 1])) {
+				int codePoint = Character.toCodePoint((char) c, pSource[++in]);
+				pDestination[out++] = (byte) (0xf0 | (codePoint >>> 18));
+				pDestination[out++] = (byte) (0x80 | ((codePoint >>> 12) & 0x3f));
+				pDestination[out++] = (byte) (0x80 | ((codePoint >>> 6) & 0x3f));
+				pDestination[out++] = (byte) (0x80 | (codePoint & 0x3f));
+			} else {
+				pDestination[out++] = (byte) (0xe0 | (c >>> 12));
+				pDestination[out++] = (byte) (0x80 | ((c >>> 6) & 0x3f));
+				pDestination[out++] = (byte) (0x80 | (c & 0x3f));
+			}
+		}
+		return out - pDestinationOffset;
+	}
+
+	/**
+	 * Decodes UTF-8 bytes into chars.
+	 *
+	 * @param pSource
+	 *            the source bytes
+	 * @param pOffset
+	 *            the source offset
+	 * @param pLength
+	 *            the number of source bytes
+	 * @param pDestination
+	 *            the destination chars, at least as long as the number of source bytes from the offset
+	 * @param pDestinationOffset
+	 *            the destination offset
+	 * @return the number of chars written
+	 * @throws IllegalArgumentException
+	 *             if the source is not valid UTF-8
+	 */
+	public static int decodeUtf8(byte[] pSource, int pOffset, int pLength, char[] pDestination,
+			int pDestinationOffset) {
+		int out = pDestinationOffset;
+		int end = pOffset + pLength;
+		int in = pOffset;
+		while (in < end) {
+			int b = pSource[in++] & 0xff;
+			if (b < 0x80) {
+				pDestination[out++] = (char) b;
+			} else if (b >= 0xc0 && b < 0xe0 && in < end) {
+				pDestination[out++] = (char) (((b & 0x1f) << 6) | continuation(pSource[in++]));
+			} else if (b >= 0xe0 && b < 0xf0 && in + 1 < end) {
+				pDestination[out++] = (char) (((b & 0x0f) << 12) | (continuation(pSource[in++]) << 6)
+						| continuation(pSource[in++]));
+			} else if (b >= 0xf0 && b < 0xf8 && in + 2 < end) {
+				int codePoint = ((b & 0x07) << 18) | (continuation(pSource[in++]) << 12)
+						| (continuation(pSource[in++]) << 6) | continuation(pSource[in++]);
+				pDestination[out++] = Character.highSurrogate(codePoint);
+				pDestination[out++] = Character.lowSurrogate(codePoint);
+			} else {
+				throw new IllegalArgumentException("Invalid UTF-8 sequence.");
+			}
+		}
+		return out - pDestinationOffset;
+	}
+
+	/**
+	 * Gets the 6 bit payload of a UTF-8 continuation byte.
+	 *
+	 * @param pByte
+	 *            the byte
+	 * @return the payload
+	 * @throws IllegalArgumentException
+	 *             if the byte is not a continuation byte
+	 */
+	private static int continuation(byte pByte) {
+		if ((pByte & 0xc0) != 0x80) {
+			throw new IllegalArgumentException("Invalid UTF-8 sequence.");
+		}
+		return pByte & 0x3f;
+	}
+
+}
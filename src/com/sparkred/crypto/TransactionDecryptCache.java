@@ -0,0 +1,114 @@
+/*
+ * Please read the README.md and LICENSE.md files contained in this repository or module.
+ *
+ * Please contact sales@sparkred.com or support@sparkred.com if you have any questions.
+ *
+ * This code is copyright Spark::red https://www.sparkred.com 2007-2016, all right reserved.
+ */
+package com.sparkred.crypto;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.transaction.Synchronization;
+import javax.transaction.Transaction;
+
+/**
+ * The Class TransactionDecryptCache holds decrypted values, keyed by their encrypted text, for the lifetime of one JTA
+ * transaction, so repeated reads of the same encrypted property in a transaction decrypt it only once.
+ *
+ * The cache is bounded and evicts the least recently used value. It is registered as a synchronization on its
+ * transaction and, when the transaction completes, it drops every value and is removed from its owner's map.
+ *
+ * The plain text arrives from the engine as a String and is handed to the repository as a String, so the cache holds
+ * that same String rather than a copy. It can not be zeroed: the cache only lets go of it at the end of the
+ * transaction, and the String stays on the heap until it is garbage collected, like every other decrypted value.
+ */
+public class TransactionDecryptCache implements Synchronization {
+
+	/** The transaction this cache belongs to. */
+	private final Transaction mTransaction;
+
+	/** The map of caches by transaction that this cache removes itself from at the end of the transaction. */
+	private final Map<Transaction, TransactionDecryptCache> mOwner;
+
+	/** The plain texts, by encrypted text, in access order. */
+	private final LinkedHashMap<String, String> mValues;
+
+	/**
+	 * Instantiates a new transaction decrypt cache. The caller must register it as a synchronization on the
+	 * transaction.
+	 *
+	 * @param pTransaction
+	 *            the transaction
+	 * @param pOwner
+	 *            the map of caches by transaction which holds this cache
+	 * @param pMaxSize
+	 *            the maximum number of values held
+	 */
+	public TransactionDecryptCache(Transaction pTransaction, Map<Transaction, TransactionDecryptCache> pOwner,
+			final int pMaxSize) {
+		this.mTransaction = pTransaction;
+		this.mOwner = pOwner;
+		this.mValues = new LinkedHashMap<String, String>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, String> pEldest) {
+				return size() > pMaxSize;
+			}
+		};
+	}
+
+	/**
+	 * Gets the cached plain text for an encrypted text.
+	 *
+	 * @param pEncryptedText
+	 *            the encrypted text
+	 * @return the plain text, or null if it is not cached
+	 */
+	public synchronized String get(String pEncryptedText) {
+		return this.mValues.get(pEncryptedText);
+	}
+
+	/**
+	 * Caches the plain text for an encrypted text.
+	 *
+	 * @param pEncryptedText
+	 *            the encrypted text
+	 * @param pPlainText
+	 *            the plain text
+	 */
+	public synchronized void put(String pEncryptedText, String pPlainText) {
+		this.mValues.put(pEncryptedText, pPlainText);
+	}
+
+	/**
+	 * Removes every cached plain text.
+	 */
+	public synchronized void clear() {
+		this.mValues.clear();
+	}
+
+	/**
+	 * Nothing to do before completion, values stay readable until the transaction is over.
+	 *
+	 * @see javax.transaction.Synchronization#beforeCompletion()
+	 */
+	public void beforeCompletion() {
+	}
+
+	/**
+	 * Clears the cache and removes it from its owner when the transaction completes, whatever the outcome.
+	 *
+	 * @param pStatus
+	 *            the transaction status
+	 * @see javax.transaction.Synchronization#afterCompletion(int)
+	 */
+	public void afterCompletion(int pStatus) {
+		this.mOwner.remove(this.mTransaction);
+		clear();
+	}
+
+}
@@ -0,0 +1,70 @@
+/*
+ * Please read the README.md and LICENSE.md files contained in this repository or module.
+ *
+ * Please contact sales@sparkred.com or support@sparkred.com if you have any questions.
+ *
+ * This code is copyright Spark::red https://www.sparkred.com 2007-2016, all right reserved.
+ */
+package com.sparkred.crypto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+/**
+ * The Class CardNumberMaskerTest covers the boundaries of the companion values: no value may, alone or together with
+ * the others, reveal the whole card number.
+ */
+public class CardNumberMaskerTest {
+
+	/**
+	 * Four digits or fewer have no last four and no masked value, five digits do.
+	 */
+	@Test
+	public void testLastFourAndMasked() {
+		assertNull(CardNumberMasker.getLastFour(null));
+		assertNull(CardNumberMasker.getLastFour(""));
+		assertNull(CardNumberMasker.getLastFour("1234"));
+		assertNull(CardNumberMasker.getMasked("1234"));
+		assertNull(CardNumberMasker.getMasked("12-34"));
+		assertEquals("2345", CardNumberMasker.getLastFour("12345"));
+		assertEquals("*2345", CardNumberMasker.getMasked("12345"));
+		assertEquals("1111", CardNumberMasker.getLastFour("4111 1111 1111 1111"));
+		assertEquals("************1111", CardNumberMasker.getMasked("4111-1111-1111-1111"));
+	}
+
+	/**
+	 * The BIN is only derived when at least one digit is neither in the BIN nor in the last four.
+	 */
+	@Test
+	public void testBin() {
+		assertNull(CardNumberMasker.getBin(null, CardNumberMasker.DEFAULT_BIN_LENGTH));
+		assertNull(CardNumberMasker.getBin("411111", CardNumberMasker.DEFAULT_BIN_LENGTH));
+		assertNull(CardNumberMasker.getBin("4111111111", CardNumberMasker.DEFAULT_BIN_LENGTH));
+		assertEquals("411111", CardNumberMasker.getBin("41111111111", CardNumberMasker.DEFAULT_BIN_LENGTH));
+		assertEquals("411111", CardNumberMasker.getBin("4111 1111 1111 1111", CardNumberMasker.DEFAULT_BIN_LENGTH));
+		assertNull(CardNumberMasker.getBin("12345", 2));
+		assertNull(CardNumberMasker.getBin("12345", 1));
+		assertEquals("1", CardNumberMasker.getBin("123456", 1));
+		assertEquals("41111111", CardNumberMasker.getBin("4111111111111", 8));
+		assertNull(CardNumberMasker.getBin("411111111111", 8));
+	}
+
+	/**
+	 * A BIN length of zero is rejected.
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testBinLengthZero() {
+		CardNumberMasker.getBin("4111111111111111", 0);
+	}
+
+	/**
+	 * A negative BIN length is rejected.
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testBinLengthNegative() {
+		CardNumberMasker.checkBinLength(-1);
+	}
+
+}
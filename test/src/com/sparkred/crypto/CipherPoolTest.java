@@ -0,0 +1,101 @@
+/*
+ * Please read the README.md and LICENSE.md files contained in this repository or module.
+ *
+ * Please contact sales@sparkred.com or support@sparkred.com if you have any questions.
+ *
+ * This code is copyright Spark::red https://www.sparkred.com 2007-2016, all right reserved.
+ */
+package com.sparkred.crypto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.jasypt.exceptions.EncryptionOperationNotPossibleException;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * The Class CipherPoolTest checks that the jasypt encryptors of the cipher stripes still decrypt the values written
+ * before key rings and derived keys existed: untagged jasypt PBE values.
+ */
+public class CipherPoolTest {
+
+	/** The data passphrase the legacy value was written with. */
+	private static final String LEGACY_PASSPHRASE = "legacy data passphrase";
+
+	/** A card number encrypted with the legacy passphrase by jasypt 1.6, PBEWITHSHA256AND256BITAES-CBC-BC. */
+	private static final String LEGACY_VALUE = "LeRCGEX71VrTEDtkD0/4/Qe6k3PLoa5ZA8ECHyHgUoCP8m7lZmxALrwXgHUsgHqJ";
+
+	/** The plain text of the legacy value. */
+	private static final String LEGACY_PLAIN_TEXT = "4111111111111111";
+
+	/** The cipher pool. */
+	private static CipherPool sCipherPool;
+
+	/**
+	 * Creates the cipher pool with the legacy passphrase.
+	 *
+	 * @throws Exception
+	 *             if UTF-8 is not supported
+	 */
+	@BeforeClass
+	public static void createCipherPool() throws Exception {
+		CryptoProviders.registerBouncyCastle();
+		byte[] salt = (CryptoConstants.DERIVED_KEY_SALT_PREFIX + "test").getBytes("UTF-8");
+		sCipherPool = new CipherPool(2, LEGACY_PASSPHRASE, new DerivedKeyCipher(LEGACY_PASSPHRASE, salt, 1000),
+				new BlindIndex("test index passphrase"));
+	}
+
+	/**
+	 * A legacy value has no key id prefix and no header, and the stripe encryptor decrypts it.
+	 */
+	@Test
+	public void testLegacyDecrypt() {
+		assertEquals(-1, KeyRing.parseKeyId(LEGACY_VALUE));
+		assertEquals(CipherSuite.PBE, CipherSuite.of(LEGACY_VALUE));
+		CipherPool.Stripe stripe = sCipherPool.acquire();
+		try {
+			assertEquals(LEGACY_PLAIN_TEXT, stripe.getEncryptor().decrypt(LEGACY_VALUE));
+		} finally {
+			sCipherPool.release(stripe);
+		}
+	}
+
+	/**
+	 * PBE values written now round trip through the stripe encryptors.
+	 */
+	@Test
+	public void testPbeRoundTrip() {
+		CipherPool.Stripe stripe = sCipherPool.acquire();
+		try {
+			String encrypted = stripe.getEncryptor().encrypt(LEGACY_PLAIN_TEXT);
+			assertEquals(CipherSuite.PBE, CipherSuite.of(encrypted));
+			assertEquals(LEGACY_PLAIN_TEXT, stripe.getEncryptor().decrypt(encrypted));
+		} finally {
+			sCipherPool.release(stripe);
+		}
+	}
+
+	/**
+	 * A legacy value does not decrypt with another passphrase.
+	 *
+	 * @throws Exception
+	 *             if UTF-8 is not supported
+	 */
+	@Test
+	public void testLegacyDecryptWrongPassphrase() throws Exception {
+		byte[] salt = (CryptoConstants.DERIVED_KEY_SALT_PREFIX + "test").getBytes("UTF-8");
+		CipherPool otherPool = new CipherPool(1, "another passphrase", new DerivedKeyCipher("another passphrase",
+				salt, 1000), new BlindIndex("test index passphrase"));
+		CipherPool.Stripe stripe = otherPool.acquire();
+		try {
+			stripe.getEncryptor().decrypt(LEGACY_VALUE);
+			fail("A legacy value decrypted with another passphrase.");
+		} catch (EncryptionOperationNotPossibleException e) {
+			// expected
+		} finally {
+			otherPool.release(stripe);
+		}
+	}
+
+}
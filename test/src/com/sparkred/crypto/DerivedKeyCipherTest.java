@@ -0,0 +1,180 @@
+/*
+ * Please read the README.md and LICENSE.md files contained in this repository or module.
+ *
+ * Please contact sales@sparkred.com or support@sparkred.com if you have any questions.
+ *
+ * This code is copyright Spark::red https://www.sparkred.com 2007-2016, all right reserved.
+ */
+package com.sparkred.crypto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import org.jasypt.exceptions.EncryptionOperationNotPossibleException;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * The Class DerivedKeyCipherTest round trips values through the AES-CBC and AES-GCM derived key ciphers, through the
+ * String, char[] and ByteBuffer methods, and checks that GCM rejects values which were changed.
+ */
+public class DerivedKeyCipherTest {
+
+	/** The UTF-8 charset. */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** The data passphrase. */
+	private static final String PASSPHRASE = "test data passphrase";
+
+	/** The key derivation iterations, kept low so the tests run quickly. */
+	private static final int ITERATIONS = 1000;
+
+	/** The plain texts, including an empty value and characters outside of ASCII. */
+	private static final String[] PLAIN_TEXTS = { "", "4111111111111111", "4111-1111-1111-1111",
+			"caf\u00e9 \u20ac \ud83d\ude00" };
+
+	/** The AES-CBC cipher. */
+	private static DerivedKeyCipher sCbcCipher;
+
+	/** The AES-GCM cipher. */
+	private static DerivedKeyCipher sGcmCipher;
+
+	/**
+	 * Derives the keys once for every test.
+	 *
+	 * @throws Exception
+	 *             if UTF-8 is not supported
+	 */
+	@BeforeClass
+	public static void deriveKeys() throws Exception {
+		CryptoProviders.registerBouncyCastle();
+		sCbcCipher = new DerivedKeyCipher(CipherSuite.AES_CBC, PASSPHRASE,
+				(CryptoConstants.DERIVED_KEY_SALT_PREFIX + "test").getBytes("UTF-8"), ITERATIONS);
+		sGcmCipher = new DerivedKeyCipher(CipherSuite.AES_GCM, PASSPHRASE,
+				(CryptoConstants.GCM_SALT_PREFIX + "test").getBytes("UTF-8"), ITERATIONS);
+	}
+
+	/**
+	 * CBC values carry the derivedKey header and decrypt with a cipher sharing the key.
+	 */
+	@Test
+	public void testCbcRoundTrip() {
+		assertRoundTrip(sCbcCipher, CryptoConstants.DERIVED_KEY_HEADER);
+	}
+
+	/**
+	 * GCM values carry the gcm header and decrypt with a cipher sharing the key.
+	 */
+	@Test
+	public void testGcmRoundTrip() {
+		assertRoundTrip(sGcmCipher, CryptoConstants.GCM_HEADER);
+	}
+
+	/**
+	 * Every value gets a new IV, so the same plain text never encrypts to the same value twice.
+	 */
+	@Test
+	public void testRandomIv() {
+		assertFalse(sCbcCipher.encrypt("4111111111111111").equals(sCbcCipher.encrypt("4111111111111111")));
+		assertFalse(sGcmCipher.encrypt("4111111111111111").equals(sGcmCipher.encrypt("4111111111111111")));
+	}
+
+	/**
+	 * Changing any Base64 character of a GCM value, in the IV, the cipher text or the tag, fails the decrypt instead
+	 * of returning other plain text.
+	 */
+	@Test
+	public void testGcmTamperedRejected() {
+		String encrypted = sGcmCipher.encrypt("4111111111111111");
+		int headerLength = CryptoConstants.GCM_HEADER.length();
+		// The last quantum of the Base64 text may carry padding, stop before it so every change alters the bytes
+		for (int i = headerLength; i < encrypted.length() - 4; i++) {
+			char[] tampered = encrypted.toCharArray();
+			tampered[i] = tampered[i] == 'A' ? 'B' : 'A';
+			assertRejected(sGcmCipher, new String(tampered));
+		}
+		// The tag is the end of the value
+		char[] tampered = encrypted.toCharArray();
+		int last = tampered.length - 1;
+		while (tampered[last] == '=') {
+			last--;
+		}
+		tampered[last - 1] = tampered[last - 1] == 'A' ? 'B' : 'A';
+		assertRejected(sGcmCipher, new String(tampered));
+	}
+
+	/**
+	 * A value of one suite is not decrypted by a cipher of the other suite, nor by a cipher with another key.
+	 *
+	 * @throws Exception
+	 *             if UTF-8 is not supported
+	 */
+	@Test
+	public void testWrongSuiteOrKeyRejected() throws Exception {
+		assertRejected(sGcmCipher, sCbcCipher.encrypt("4111111111111111"));
+		assertRejected(sCbcCipher, sGcmCipher.encrypt("4111111111111111"));
+		DerivedKeyCipher otherKey = new DerivedKeyCipher(CipherSuite.AES_GCM, "another passphrase",
+				(CryptoConstants.GCM_SALT_PREFIX + "test").getBytes("UTF-8"), ITERATIONS);
+		assertRejected(otherKey, sGcmCipher.encrypt("4111111111111111"));
+	}
+
+	/**
+	 * Round trips every plain text through the String, char[] and ByteBuffer methods, each value decrypted by a
+	 * second cipher which shares the key.
+	 *
+	 * @param pCipher
+	 *            the cipher
+	 * @param pHeader
+	 *            the header of its suite
+	 */
+	private static void assertRoundTrip(DerivedKeyCipher pCipher, String pHeader) {
+		DerivedKeyCipher copy = new DerivedKeyCipher(pCipher);
+		for (String plainText : PLAIN_TEXTS) {
+			String encrypted = pCipher.encrypt(plainText);
+			assertTrue(encrypted.startsWith(pHeader));
+			assertEquals(pCipher.getSuite(), CipherSuite.of(encrypted));
+			assertEquals(plainText, copy.decrypt(encrypted));
+
+			char[] plainChars = plainText.toCharArray();
+			char[] encryptedChars = new char[DerivedKeyCipher.getMaxEncryptedLength(TextCodec
+					.utf8MaxEncodedLength(plainChars.length))];
+			int encryptedLength = pCipher.encrypt(plainChars, 0, plainChars.length, encryptedChars, 0);
+			assertEquals(plainText, copy.decrypt(new String(encryptedChars, 0, encryptedLength)));
+			char[] decryptedChars = new char[encryptedLength];
+			int decryptedLength = copy.decrypt(encryptedChars, 0, encryptedLength, decryptedChars, 0);
+			assertEquals(plainText, new String(decryptedChars, 0, decryptedLength));
+
+			byte[] plainBytes = plainText.getBytes(UTF8);
+			ByteBuffer encryptedBuffer = ByteBuffer.allocate(DerivedKeyCipher.getMaxEncryptedLength(plainBytes.length));
+			encryptedLength = pCipher.encrypt(ByteBuffer.wrap(plainBytes), encryptedBuffer);
+			encryptedBuffer.flip();
+			assertEquals(encryptedLength, encryptedBuffer.remaining());
+			ByteBuffer decryptedBuffer = ByteBuffer.allocate(encryptedLength);
+			decryptedLength = copy.decrypt(encryptedBuffer, decryptedBuffer);
+			assertEquals(plainText, new String(decryptedBuffer.array(), 0, decryptedLength, UTF8));
+		}
+	}
+
+	/**
+	 * Asserts that a value can not be decrypted.
+	 *
+	 * @param pCipher
+	 *            the cipher
+	 * @param pEncryptedText
+	 *            the encrypted text
+	 */
+	private static void assertRejected(DerivedKeyCipher pCipher, String pEncryptedText) {
+		try {
+			pCipher.decrypt(pEncryptedText);
+			fail("Decrypted a value which must be rejected: " + pEncryptedText);
+		} catch (EncryptionOperationNotPossibleException e) {
+			// expected
+		}
+	}
+
+}
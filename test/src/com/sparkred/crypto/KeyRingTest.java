@@ -0,0 +1,155 @@
+/*
+ * Please read the README.md and LICENSE.md files contained in this repository or module.
+ *
+ * Please contact sales@sparkred.com or support@sparkred.com if you have any questions.
+ *
+ * This code is copyright Spark::red https://www.sparkred.com 2007-2016, all right reserved.
+ */
+package com.sparkred.crypto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import org.jasypt.exceptions.EncryptionOperationNotPossibleException;
+import org.junit.Test;
+
+/**
+ * The Class KeyRingTest covers the key id prefix of encrypted values: the prefixes written for a key id and the
+ * parsing of well formed, untagged and malformed prefixes from Strings and buffers.
+ */
+public class KeyRingTest {
+
+	/** The ASCII charset. */
+	private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+	/** The key ids the prefixes are written for, with every digit count an int can have. */
+	private static final int[] KEY_IDS = { 0, 1, 9, 10, 99, 100, 12345, 999999999, 1000000000, Integer.MAX_VALUE };
+
+	/** The prefixes which must be rejected as malformed. */
+	private static final String[] MALFORMED = { "##value", "#a#value", "#1a#value", "#-1#value", "# 1#value",
+			"#1value", "#", "#12345678901", "#01#value", "#00#value", "#0012#value", "#2147483648#value",
+			"#9999999999#value", "#99999999999#value" };
+
+	/**
+	 * The prefix written into a char array is the one tag adds.
+	 */
+	@Test
+	public void testWritePrefixChars() {
+		for (int keyId : KEY_IDS) {
+			String expected = KeyRing.tag(keyId, "");
+			char[] output = new char[expected.length() + 3];
+			int written = KeyRing.writePrefix(keyId, output, 2);
+			assertEquals(expected.length(), written);
+			assertEquals(expected.length(), KeyRing.getPrefixLength(keyId));
+			assertEquals(expected, new String(output, 2, written));
+		}
+	}
+
+	/**
+	 * The prefix written into a buffer is the one tag adds, and the buffer position is advanced past it.
+	 */
+	@Test
+	public void testWritePrefixBuffer() {
+		for (int keyId : KEY_IDS) {
+			String expected = KeyRing.tag(keyId, "");
+			ByteBuffer output = ByteBuffer.allocate(expected.length() + 3);
+			output.position(2);
+			int written = KeyRing.writePrefix(keyId, output);
+			assertEquals(expected.length(), written);
+			assertEquals(2 + written, output.position());
+			assertEquals(expected, new String(output.array(), 2, written, US_ASCII));
+		}
+	}
+
+	/**
+	 * A prefix which does not fit the output is rejected.
+	 */
+	@Test
+	public void testWritePrefixTooSmall() {
+		try {
+			KeyRing.writePrefix(10, new char[3], 0);
+			fail("A too small char array must be rejected.");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			KeyRing.writePrefix(10, ByteBuffer.allocate(3));
+			fail("A too small buffer must be rejected.");
+		} catch (BufferOverflowException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Tagged values parse back to their key id, from Strings and buffers, and parsing a buffer leaves its position
+	 * unchanged.
+	 */
+	@Test
+	public void testParseKeyId() {
+		for (int keyId : KEY_IDS) {
+			String tagged = KeyRing.tag(keyId, "LeRCGEX71VrTEDtk");
+			assertEquals(keyId, KeyRing.parseKeyId(tagged));
+			ByteBuffer buffer = asBuffer(tagged);
+			assertEquals(keyId, KeyRing.parseKeyId(buffer));
+			assertEquals(1, buffer.position());
+		}
+		assertEquals(7, KeyRing.parseKeyId("#7#"));
+	}
+
+	/**
+	 * Values without a prefix, including the Base64 output of jasypt, parse to -1.
+	 */
+	@Test
+	public void testParseKeyIdUntagged() {
+		String[] untagged = { null, "", "LeRCGEX71VrTEDtk", "$1$abc", "$2$abc", "1#2#" };
+		for (String value : untagged) {
+			assertEquals(-1, KeyRing.parseKeyId(value));
+			if (value != null) {
+				assertEquals(-1, KeyRing.parseKeyId(asBuffer(value)));
+			}
+		}
+	}
+
+	/**
+	 * Malformed prefixes, including empty, non digit, unterminated, leading zero and overflowing key ids, are rejected
+	 * from Strings and buffers.
+	 */
+	@Test
+	public void testParseKeyIdMalformed() {
+		for (String value : MALFORMED) {
+			try {
+				KeyRing.parseKeyId(value);
+				fail("Malformed prefix accepted: " + value);
+			} catch (EncryptionOperationNotPossibleException e) {
+				// expected
+			}
+			try {
+				KeyRing.parseKeyId(asBuffer(value));
+				fail("Malformed prefix accepted from a buffer: " + value);
+			} catch (EncryptionOperationNotPossibleException e) {
+				// expected
+			}
+		}
+	}
+
+	/**
+	 * Wraps the ASCII bytes of a value in a buffer positioned after a leading byte, so that parsing must honor the
+	 * position.
+	 *
+	 * @param pValue
+	 *            the value
+	 * @return the buffer
+	 */
+	private static ByteBuffer asBuffer(String pValue) {
+		byte[] bytes = pValue.getBytes(US_ASCII);
+		ByteBuffer buffer = ByteBuffer.allocate(bytes.length + 1);
+		buffer.put((byte) 'x').put(bytes).flip();
+		buffer.position(1);
+		return buffer;
+	}
+
+}
@@ -0,0 +1,150 @@
+/*
+ * Please read the README.md and LICENSE.md files contained in this repository or module.
+ *
+ * Please contact sales@sparkred.com or support@sparkred.com if you have any questions.
+ *
+ * This code is copyright Spark::red https://www.sparkred.com 2007-2016, all right reserved.
+ */
+package com.sparkred.crypto;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.codec.binary.Base64;
+import org.junit.Test;
+
+/**
+ * The Class TextCodecTest checks the Base64 conversions against the commons-codec encoder jasypt uses, and the UTF-8
+ * conversions against the JDK, so values written by the buffer based path stay interchangeable with the String based
+ * path.
+ */
+public class TextCodecTest {
+
+	/** The UTF-8 charset. */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** The ASCII charset. */
+	private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+	/** The offset the conversions read from and write at, so that offsets are honored. */
+	private static final int OFFSET = 3;
+
+	/** The texts covering one, two, three and four byte UTF-8 sequences. */
+	private static final String[] TEXTS = { "", "4111111111111111", "a", "\u007f\u0080", "caf\u00e9 \u00fc\u00df",
+			"\u07ff\u0800", "\u20ac 12,50", "\uffff", "\ud83d\ude00 smile", "mixed \u00e9\u20ac\ud834\udd1e." };
+
+	/**
+	 * Every length of random bytes up to a few Base64 quanta encodes to the commons-codec output, as chars and as
+	 * ASCII bytes, and decodes back from both.
+	 */
+	@Test
+	public void testBase64() {
+		Random random = new Random(42);
+		for (int length = 0; length < 64; length++) {
+			byte[] source = new byte[length];
+			random.nextBytes(source);
+			String expected = new String(Base64.encodeBase64(source), US_ASCII);
+			assertEquals(expected.length(), TextCodec.base64EncodedLength(length));
+
+			byte[] padded = pad(source);
+			char[] chars = new char[OFFSET + expected.length()];
+			assertEquals(expected.length(), TextCodec.encodeBase64(padded, OFFSET, length, chars, OFFSET));
+			assertEquals(expected, new String(chars, OFFSET, expected.length()));
+			byte[] ascii = new byte[OFFSET + expected.length()];
+			assertEquals(expected.length(), TextCodec.encodeBase64(padded, OFFSET, length, ascii, OFFSET));
+			assertEquals(expected, new String(ascii, OFFSET, expected.length(), US_ASCII));
+
+			byte[] decoded = new byte[OFFSET + TextCodec.base64MaxDecodedLength(expected.length())];
+			int decodedLength = TextCodec.decodeBase64(chars, OFFSET, expected.length(), decoded, OFFSET);
+			assertArrayEquals(source, Arrays.copyOfRange(decoded, OFFSET, OFFSET + decodedLength));
+			decodedLength = TextCodec.decodeBase64(ascii, OFFSET, expected.length(), decoded, OFFSET);
+			assertArrayEquals(source, Arrays.copyOfRange(decoded, OFFSET, OFFSET + decodedLength));
+		}
+	}
+
+	/**
+	 * Base64 text which is not a whole number of quanta, or has characters outside of the alphabet, is rejected.
+	 */
+	@Test
+	public void testBase64Invalid() {
+		String[] invalid = { "QUJD=", "QU", "QU*D", "Q\u00e9JD", "QUJD QUJD" };
+		for (String text : invalid) {
+			char[] chars = text.toCharArray();
+			try {
+				TextCodec.decodeBase64(chars, 0, chars.length, new byte[chars.length], 0);
+				fail("Invalid Base64 accepted: " + text);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+	/**
+	 * Well formed text encodes to the JDK UTF-8 bytes, and decodes back from them.
+	 */
+	@Test
+	public void testUtf8() {
+		for (String text : TEXTS) {
+			byte[] expected = text.getBytes(UTF8);
+			char[] source = pad(text.toCharArray());
+			byte[] encoded = new byte[OFFSET + TextCodec.utf8MaxEncodedLength(text.length())];
+			int encodedLength = TextCodec.encodeUtf8(source, OFFSET, text.length(), encoded, OFFSET);
+			assertArrayEquals(text, expected, Arrays.copyOfRange(encoded, OFFSET, OFFSET + encodedLength));
+
+			char[] decoded = new char[OFFSET + expected.length];
+			int decodedLength = TextCodec.decodeUtf8(pad(expected), OFFSET, expected.length, decoded, OFFSET);
+			assertEquals(text, new String(decoded, OFFSET, decodedLength));
+		}
+	}
+
+	/**
+	 * Truncated sequences, stray continuation bytes and bytes which never appear in UTF-8 are rejected.
+	 */
+	@Test
+	public void testUtf8Invalid() {
+		byte[][] invalid = { { (byte) 0xc3 }, { (byte) 0xe2, (byte) 0x82 }, { (byte) 0x80 }, { (byte) 0xc3, 'a' },
+				{ (byte) 0xf0, (byte) 0x9f, (byte) 0x98 }, { (byte) 0xff } };
+		for (byte[] bytes : invalid) {
+			try {
+				TextCodec.decodeUtf8(bytes, 0, bytes.length, new char[bytes.length], 0);
+				fail("Invalid UTF-8 accepted: " + Arrays.toString(bytes));
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+	/**
+	 * Copies bytes behind {@link #OFFSET} filler bytes.
+	 *
+	 * @param pBytes
+	 *            the bytes
+	 * @return the padded copy
+	 */
+	private static byte[] pad(byte[] pBytes) {
+		byte[] padded = new byte[OFFSET + pBytes.length];
+		Arrays.fill(padded, 0, OFFSET, (byte) 'x');
+		System.arraycopy(pBytes, 0, padded, OFFSET, pBytes.length);
+		return padded;
+	}
+
+	/**
+	 * Copies chars behind {@link #OFFSET} filler chars.
+	 *
+	 * @param pChars
+	 *            the chars
+	 * @return the padded copy
+	 */
+	private static char[] pad(char[] pChars) {
+		char[] padded = new char[OFFSET + pChars.length];
+		Arrays.fill(padded, 0, OFFSET, 'x');
+		System.arraycopy(pChars, 0, padded, OFFSET, pChars.length);
+		return padded;
+	}
+
+}